@@ -0,0 +1,54 @@
+package com.conveyal.r5.analyst.network;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A reproducible synthetic TransportNetwork shared by benchmarks: a square grid of streets with a scheduled east-west
+ * route every 10 blocks and a frequency-based north-south route every 10 blocks, offset from the scheduled routes.
+ * Building the network is deterministic, so results are comparable from one run (and one version of R5) to the next.
+ * The network is built once per trial and shared by all threads, so benchmarks must not modify it.
+ */
+@State(Scope.Benchmark)
+public class GridNetworkState {
+
+    /** The number of blocks along each side of the square street grid. */
+    @Param({"40", "100"})
+    public int gridSizeBlocks;
+
+    public GridLayout gridLayout;
+
+    public TransportNetwork network;
+
+    @Setup(Level.Trial)
+    public void buildNetwork () {
+        gridLayout = new GridLayout(SimpsonDesertTests.SIMPSON_DESERT_CORNER, gridSizeBlocks);
+        for (int row = 5; row < gridSizeBlocks; row += 10) {
+            gridLayout.addHorizontalRoute(row, 10);
+        }
+        for (int col = 10; col < gridSizeBlocks; col += 10) {
+            gridLayout.addVerticalFrequencyRoute(col, 15);
+        }
+        network = gridLayout.generateNetwork();
+    }
+
+    /**
+     * @return a new single point task from the center of the grid to a uniform opportunity grid covering the network,
+     *         departing over the given number of minutes starting at 7AM. Callers may modify the returned task.
+     */
+    public AnalysisWorkerTask newCentralTask (int timeWindowMinutes) {
+        AnalysisWorkerTask task = gridLayout.newTaskBuilder()
+                .weekdayMorningPeak()
+                .setOrigin(gridSizeBlocks / 2, gridSizeBlocks / 2)
+                .uniformOpportunityDensity(10)
+                .build();
+        task.toTime = task.fromTime + timeWindowMinutes * 60;
+        return task;
+    }
+
+}
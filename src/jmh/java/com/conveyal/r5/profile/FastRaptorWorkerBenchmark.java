@@ -0,0 +1,58 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.network.GridNetworkState;
+import com.conveyal.r5.streets.StreetRouter;
+import gnu.trove.map.TIntIntMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure a complete range-RAPTOR search over the departure time window, from the stops reached by walking from the
+ * center of a synthetic grid network. Includes pattern filtering, scheduled and Monte Carlo frequency searches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FastRaptorWorkerBenchmark {
+
+    @Param({"30", "120"})
+    public int timeWindowMinutes;
+
+    private AnalysisWorkerTask task;
+
+    private TIntIntMap accessTimes;
+
+    @Setup(Level.Trial)
+    public void setup (GridNetworkState grid) {
+        task = grid.newCentralTask(timeWindowMinutes);
+        StreetRouter streetRouter = new StreetRouter(grid.network.streetLayer);
+        streetRouter.profileRequest = task;
+        streetRouter.streetMode = StreetMode.WALK;
+        streetRouter.timeLimitSeconds = task.getMaxTimeSeconds(StreetMode.WALK);
+        streetRouter.setOrigin(task.fromLat, task.fromLon);
+        streetRouter.route();
+        accessTimes = streetRouter.getReachedStops();
+    }
+
+    @Benchmark
+    public int[][] route (GridNetworkState grid) {
+        return new FastRaptorWorker(grid.network.transitLayer, task, accessTimes).route();
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.analyst.PointSet;
+import com.conveyal.r5.analyst.TravelTimeReducer;
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.network.GridNetworkState;
+import com.conveyal.r5.streets.StreetRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * Measure propagation of RAPTOR travel times from transit stops out to every cell of a destination grid covering a
+ * synthetic network, including transposition of the travel time matrix and reduction to percentiles. The RAPTOR
+ * search itself is performed once during setup and is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PerTargetPropagaterBenchmark {
+
+    @Param({"30", "120"})
+    public int timeWindowMinutes;
+
+    private AnalysisWorkerTask task;
+
+    private PointSet destinations;
+
+    private int[][] travelTimesToStops;
+
+    private int[] nonTransitTravelTimes;
+
+    @Setup(Level.Trial)
+    public void setup (GridNetworkState grid) {
+        task = grid.newCentralTask(timeWindowMinutes);
+        StreetRouter streetRouter = new StreetRouter(grid.network.streetLayer);
+        streetRouter.profileRequest = task;
+        streetRouter.streetMode = StreetMode.WALK;
+        streetRouter.timeLimitSeconds = task.getMaxTimeSeconds(StreetMode.WALK);
+        streetRouter.setOrigin(task.fromLat, task.fromLon);
+        streetRouter.route();
+        travelTimesToStops = new FastRaptorWorker(
+                grid.network.transitLayer, task, streetRouter.getReachedStops()
+        ).route();
+        destinations = AnalysisWorkerTask.gridPointSetCache.get(
+                task.getWebMercatorExtents(), grid.network.fullExtentGridPointSet
+        );
+        nonTransitTravelTimes = new int[destinations.featureCount()];
+        Arrays.fill(nonTransitTravelTimes, UNREACHED);
+    }
+
+    @Benchmark
+    public OneOriginResult propagate (GridNetworkState grid) {
+        PerTargetPropagater propagater = new PerTargetPropagater(
+                destinations,
+                grid.network.streetLayer,
+                EnumSet.of(StreetMode.WALK),
+                task,
+                travelTimesToStops,
+                nonTransitTravelTimes
+        );
+        propagater.travelTimeReducer = new TravelTimeReducer(task, grid.network);
+        return propagater.propagate();
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.conveyal.r5.profile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+
+/**
+ * Compare the original stop-by-stop propagation kernel with the tiled kernel, propagating to a series of targets
+ * that each have a set of nearby stops, as PerTargetPropagater does. Travel times are random but reproducible.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropagationKernelBenchmark {
+
+    private static final int N_TARGETS = 100;
+
+    private static final int MAX_TRAVEL_TIME_SECONDS = 120 * 60;
+
+    /** The number of departure minutes times Monte Carlo draws. */
+    @Param({"120", "1200", "6000"})
+    public int nIterations;
+
+    @Param({"10", "50"})
+    public int nStopsPerTarget;
+
+    @Param({"5000"})
+    public int nStops;
+
+    private int[][] timesToStops;
+
+    private int[][] stopsForTarget;
+
+    private int[][] egressSecondsForTarget;
+
+    private int[] bestTimes;
+
+    @Setup(Level.Trial)
+    public void setup () {
+        Random random = new Random(0);
+        timesToStops = new int[nStops][nIterations];
+        for (int[] timesToStop : timesToStops) {
+            for (int i = 0; i < nIterations; i++) {
+                // Clamped as in PerTargetPropagater, so both kernels see the same input.
+                timesToStop[i] = random.nextInt(5) == 0 ? MAX_TRAVEL_TIME_SECONDS : random.nextInt(MAX_TRAVEL_TIME_SECONDS);
+            }
+        }
+        stopsForTarget = new int[N_TARGETS][nStopsPerTarget];
+        egressSecondsForTarget = new int[N_TARGETS][nStopsPerTarget];
+        for (int t = 0; t < N_TARGETS; t++) {
+            for (int s = 0; s < nStopsPerTarget; s++) {
+                stopsForTarget[t][s] = random.nextInt(nStops);
+                egressSecondsForTarget[t][s] = random.nextInt(20 * 60);
+            }
+        }
+        bestTimes = new int[nIterations];
+    }
+
+    @Benchmark
+    public void stopByStop (Blackhole blackhole) {
+        for (int t = 0; t < N_TARGETS; t++) {
+            Arrays.fill(bestTimes, UNREACHED);
+            for (int s = 0; s < nStopsPerTarget; s++) {
+                PropagationKernel.propagateStopByStop(
+                        timesToStops[stopsForTarget[t][s]],
+                        egressSecondsForTarget[t][s],
+                        MAX_TRAVEL_TIME_SECONDS,
+                        bestTimes
+                );
+            }
+            blackhole.consume(bestTimes);
+        }
+    }
+
+    @Benchmark
+    public void tiled (Blackhole blackhole) {
+        for (int t = 0; t < N_TARGETS; t++) {
+            Arrays.fill(bestTimes, UNREACHED);
+            PropagationKernel.propagateTiled(
+                    timesToStops,
+                    stopsForTarget[t],
+                    egressSecondsForTarget[t],
+                    nStopsPerTarget,
+                    MAX_TRAVEL_TIME_SECONDS,
+                    bestTimes
+            );
+            blackhole.consume(bestTimes);
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.WebMercatorGridPointSet;
+import com.conveyal.r5.analyst.network.GridNetworkState;
+import com.conveyal.r5.analyst.progress.NoopProgressListener;
+import com.conveyal.r5.profile.StreetMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure linking a grid of points covering a synthetic network to its streets, and building the table of egress
+ * costs from every transit stop to the linked points. Both happen when a worker first receives a task for a network
+ * or scenario, before any routing can begin. Each invocation links from scratch, bypassing the LinkageCache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class LinkedPointSetBenchmark {
+
+    @Param({"WALK", "BICYCLE", "CAR"})
+    public StreetMode streetMode;
+
+    private WebMercatorGridPointSet pointSet;
+
+    private LinkedPointSet linkedPointSet;
+
+    @Setup(Level.Trial)
+    public void setup (GridNetworkState grid) {
+        pointSet = new WebMercatorGridPointSet(grid.network);
+        linkedPointSet = new LinkedPointSet(pointSet, grid.network.streetLayer, streetMode, null);
+    }
+
+    @Benchmark
+    public LinkedPointSet linkPointSet (GridNetworkState grid) {
+        return new LinkedPointSet(pointSet, grid.network.streetLayer, streetMode, null);
+    }
+
+    @Benchmark
+    public EgressCostTable buildEgressCostTable () {
+        return new EgressCostTable(linkedPointSet, new NoopProgressListener());
+    }
+
+}
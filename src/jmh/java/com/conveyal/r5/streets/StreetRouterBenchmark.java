@@ -0,0 +1,69 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.network.GridNetworkState;
+import com.conveyal.r5.profile.StreetMode;
+import gnu.trove.map.TIntIntMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure a one-to-many street search from the center of a synthetic grid network, limited by the maximum access time
+ * for each mode, as performed for the access leg of every analysis task. The State-based router is compared with the
+ * allocation-free PrimitiveStreetRouter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StreetRouterBenchmark {
+
+    @Param({"WALK", "BICYCLE", "CAR"})
+    public StreetMode streetMode;
+
+    private AnalysisWorkerTask task;
+
+    @Setup(Level.Trial)
+    public void setup (GridNetworkState grid) {
+        task = grid.newCentralTask(60);
+    }
+
+    @Benchmark
+    public TIntIntMap route (GridNetworkState grid) {
+        StreetRouter streetRouter = new StreetRouter(grid.network.streetLayer);
+        streetRouter.profileRequest = task;
+        streetRouter.streetMode = streetMode;
+        streetRouter.timeLimitSeconds = task.getMaxTimeSeconds(streetMode);
+        streetRouter.setOrigin(task.fromLat, task.fromLon);
+        streetRouter.route();
+        return streetRouter.getReachedVertices();
+    }
+
+    @Benchmark
+    public TIntIntMap primitiveRoute (GridNetworkState grid) {
+        StreetRouter streetRouter = new PrimitiveStreetRouter(grid.network.streetLayer);
+        streetRouter.profileRequest = task;
+        streetRouter.streetMode = streetMode;
+        streetRouter.timeLimitSeconds = task.getMaxTimeSeconds(streetMode);
+        streetRouter.setOrigin(task.fromLat, task.fromLon);
+        streetRouter.route();
+        TIntIntMap reachedVertices = streetRouter.getReachedVertices();
+        streetRouter.release();
+        return reachedVertices;
+    }
+
+}
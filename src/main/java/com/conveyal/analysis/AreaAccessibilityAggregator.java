@@ -0,0 +1,219 @@
+package com.conveyal.analysis;
+
+import com.conveyal.analysis.models.AggregationArea;
+import com.conveyal.file.FileStorage;
+import com.conveyal.file.FileStorageKey;
+import com.conveyal.file.FileUtils;
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.SparsePixelWeights;
+import com.conveyal.r5.analyst.WebMercatorExtents;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Computes weighted summary statistics of regional accessibility results within many aggregation areas at once. For
+ * example, given the access grid of a regional analysis and the pixel weights of each of a city's wards, this finds
+ * the population-weighted 25th percentile of accessibility in every ward. The access grid is streamed through only
+ * once for all areas, rather than once per area, and only a single row of it is held in memory.
+ * <p>
+ * Each origin in an area is weighted by the proportion of its pixel falling within the area, multiplied by the value
+ * of an optional weighting grid (typically population) at the same pixel.
+ */
+public class AreaAccessibilityAggregator {
+
+    private final List<SparsePixelWeights> areas;
+
+    /** Multiplies the area weight of each pixel. If null, every pixel is weighted by its area alone. */
+    private final Grid weightGrid;
+
+    /** The smallest absolute y coordinate covered by any area, which is the origin of the runsByRow index. */
+    private final int minY;
+
+    /**
+     * For each row of pixels from minY, the area and run numbers of all runs in that row as consecutive pairs. This
+     * allows each row of the access grid to be handed to every area covering it as soon as it's read.
+     */
+    private final TIntArrayList[] runsByRow;
+
+    public AreaAccessibilityAggregator (List<SparsePixelWeights> areas, Grid weightGrid) {
+        this.areas = areas;
+        this.weightGrid = weightGrid;
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (SparsePixelWeights area : areas) {
+            if (weightGrid != null) {
+                checkArgument(area.zoom == weightGrid.extents.zoom, "Weight grid and areas must have the same zoom.");
+            }
+            minY = Math.min(minY, area.minY());
+            maxY = Math.max(maxY, area.maxY());
+        }
+        this.minY = minY;
+        this.runsByRow = new TIntArrayList[maxY < minY ? 0 : maxY - minY + 1];
+        for (int a = 0; a < areas.size(); a++) {
+            SparsePixelWeights area = areas.get(a);
+            for (int run = 0; run < area.nRuns(); run++) {
+                int row = area.runY(run) - minY;
+                if (runsByRow[row] == null) {
+                    runsByRow[row] = new TIntArrayList();
+                }
+                runsByRow[row].add(a);
+                runsByRow[row].add(run);
+            }
+        }
+    }
+
+    /**
+     * Load the pixel weights of the given aggregation areas from file storage. For areas created before sparse pixel
+     * weights were stored alongside the mask grid, the weights are recovered from the mask grid instead.
+     */
+    public static List<SparsePixelWeights> loadPixelWeights (
+            Collection<AggregationArea> aggregationAreas, FileStorage fileStorage
+    ) throws IOException {
+        List<SparsePixelWeights> pixelWeights = new ArrayList<>();
+        for (AggregationArea aggregationArea : aggregationAreas) {
+            FileStorageKey weightsKey = aggregationArea.getPixelWeightsStorageKey();
+            if (fileStorage.exists(weightsKey)) {
+                try (InputStream in = new GZIPInputStream(FileUtils.getInputStream(fileStorage.getFile(weightsKey)))) {
+                    pixelWeights.add(SparsePixelWeights.read(in));
+                }
+            } else {
+                FileStorageKey maskKey = aggregationArea.getStorageKey();
+                try (InputStream in = new GZIPInputStream(FileUtils.getInputStream(fileStorage.getFile(maskKey)))) {
+                    pixelWeights.add(SparsePixelWeights.fromMaskGrid(Grid.read(in)));
+                }
+            }
+        }
+        return pixelWeights;
+    }
+
+    /** Summary statistics of accessibility within one aggregation area. */
+    public static class AreaAccessibility {
+        /** The sum of the weights of all origins in the area that have results. */
+        public double totalWeight;
+        /** The weighted mean accessibility, or NaN if the area contains no weighted origins. */
+        public double mean;
+        /** The weighted percentiles of accessibility requested, or NaN if the area contains no weighted origins. */
+        public double[] percentiles;
+    }
+
+    /**
+     * @param accessGridInput a gzipped access grid, as stored for regional analysis results.
+     * @param cutoffIndex the index of the travel time cutoff to select from each origin in the access grid.
+     * @param percentiles the percentiles (0 to 100) of weighted accessibility to find in each area.
+     * @return one AreaAccessibility for each area, in the order the areas were supplied.
+     */
+    public AreaAccessibility[] compute (InputStream accessGridInput, int cutoffIndex, int[] percentiles)
+            throws IOException {
+        for (int percentile : percentiles) {
+            checkArgument(percentile >= 0 && percentile <= 100, "Percentiles must be in the range 0 to 100.");
+        }
+        TIntArrayList[] values = new TIntArrayList[areas.size()];
+        TDoubleArrayList[] weights = new TDoubleArrayList[areas.size()];
+        for (int a = 0; a < areas.size(); a++) {
+            values[a] = new TIntArrayList(areas.get(a).nPixels());
+            weights[a] = new TDoubleArrayList(areas.get(a).nPixels());
+        }
+        new SelectingGridReducer(cutoffIndex).visitRows(accessGridInput, new SelectingGridReducer.RowVisitor() {
+            WebMercatorExtents extents;
+
+            @Override
+            public void extents (WebMercatorExtents extents) {
+                for (SparsePixelWeights area : areas) {
+                    checkState(area.zoom == extents.zoom, "Access grid and areas must have the same zoom.");
+                }
+                this.extents = extents;
+            }
+
+            @Override
+            public void row (int y, int[] rowValues) {
+                int worldY = extents.north + y;
+                int row = worldY - minY;
+                if (row < 0 || row >= runsByRow.length || runsByRow[row] == null) return;
+                TIntArrayList runs = runsByRow[row];
+                for (int i = 0; i < runs.size(); i += 2) {
+                    int a = runs.get(i);
+                    int run = runs.get(i + 1);
+                    SparsePixelWeights area = areas.get(a);
+                    int runX = area.runX(run);
+                    for (int position = 0; position < area.runLength(run); position++) {
+                        int x = runX + position - extents.west;
+                        if (x < 0 || x >= rowValues.length) continue;
+                        double weight = area.weight(run, position) * pixelWeight(runX + position, worldY);
+                        if (weight > 0) {
+                            values[a].add(rowValues[x]);
+                            weights[a].add(weight);
+                        }
+                    }
+                }
+            }
+        });
+        AreaAccessibility[] results = new AreaAccessibility[areas.size()];
+        for (int a = 0; a < areas.size(); a++) {
+            results[a] = summarize(values[a].toArray(), weights[a].toArray(), percentiles);
+        }
+        return results;
+    }
+
+    /** @return the value of the weight grid at the given absolute pixel coordinates, or 1 if there is none. */
+    private double pixelWeight (int worldX, int worldY) {
+        if (weightGrid == null) return 1;
+        int x = worldX - weightGrid.extents.west;
+        int y = worldY - weightGrid.extents.north;
+        if (x < 0 || x >= weightGrid.extents.width || y < 0 || y >= weightGrid.extents.height) return 0;
+        return weightGrid.grid[x][y];
+    }
+
+    /**
+     * Find the weighted mean and percentiles. The value at percentile p is the smallest value at which the weights of
+     * all values less than or equal to it add up to at least p percent of the total weight.
+     */
+    static AreaAccessibility summarize (int[] values, double[] weights, int[] percentiles) {
+        AreaAccessibility result = new AreaAccessibility();
+        result.percentiles = new double[percentiles.length];
+        // Sort by value, carrying along each value's index in the low bits to look up its weight. Access values are
+        // never negative, so the packed longs sort in the same order as the values.
+        long[] sorted = new long[values.length];
+        double weightedSum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sorted[i] = ((long) values[i] << 32) | i;
+            result.totalWeight += weights[i];
+            weightedSum += values[i] * weights[i];
+        }
+        if (result.totalWeight <= 0) {
+            result.mean = Double.NaN;
+            Arrays.fill(result.percentiles, Double.NaN);
+            return result;
+        }
+        result.mean = weightedSum / result.totalWeight;
+        Arrays.sort(sorted);
+        // Visit the requested percentiles in increasing order, so all of them are found in one pass over the values.
+        Integer[] byPercentile = new Integer[percentiles.length];
+        for (int p = 0; p < percentiles.length; p++) {
+            byPercentile[p] = p;
+        }
+        Arrays.sort(byPercentile, (p1, p2) -> Integer.compare(percentiles[p1], percentiles[p2]));
+        double cumulativeWeight = 0;
+        int i = 0;
+        for (int p : byPercentile) {
+            double targetWeight = result.totalWeight * percentiles[p] / 100;
+            while (i < sorted.length - 1 && cumulativeWeight + weights[(int) sorted[i]] < targetWeight) {
+                cumulativeWeight += weights[(int) sorted[i]];
+                i++;
+            }
+            result.percentiles[p] = (int) (sorted[i] >>> 32);
+        }
+        return result;
+    }
+
+}
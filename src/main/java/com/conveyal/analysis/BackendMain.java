@@ -47,6 +47,9 @@ public abstract class BackendMain {
         Persistence.initializeStatically(components.config);
         PointSetCache.initializeStatically(components.fileStorage);
 
+        // Pick up any regional analyses that were interrupted when the backend last shut down.
+        components.broker.resumeCheckpointedJobs();
+
         // TODO handle this via components without explicit "if (offline)"
         if (components.config.offline()) {
             LOG.info("Running in OFFLINE mode.");
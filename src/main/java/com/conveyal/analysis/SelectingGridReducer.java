@@ -1,6 +1,7 @@
 package com.conveyal.analysis;
 
 import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.WebMercatorExtents;
 import com.google.common.io.LittleEndianDataInputStream;
 
 import java.io.IOException;
@@ -33,7 +34,39 @@ public class SelectingGridReducer {
         this.index = index;
     }
 
+    /** Receives the selected value at each origin of an access grid, one row at a time from north to south. */
+    public interface RowVisitor {
+        /** Called once before any rows, with the extents of the access grid. */
+        void extents (WebMercatorExtents extents);
+        /**
+         * Called once for each row. The values array is reused from one row to the next.
+         * @param y the row number relative to the north edge of the extents.
+         */
+        void row (int y, int[] values);
+    }
+
     public Grid compute (InputStream rawInput) throws IOException {
+        Grid[] outputGrid = new Grid[1];
+        visitRows(rawInput, new RowVisitor() {
+            @Override
+            public void extents (WebMercatorExtents extents) {
+                outputGrid[0] = new Grid(extents);
+            }
+            @Override
+            public void row (int y, int[] values) {
+                for (int x = 0; x < values.length; x++) {
+                    outputGrid[0].grid[x][y] = values[x];
+                }
+            }
+        });
+        return outputGrid[0];
+    }
+
+    /**
+     * Stream through the access grid, passing the selected value at each origin to the visitor one row at a time.
+     * Only one row is held in memory, so many consumers can be fed in a single pass without building a Grid.
+     */
+    public void visitRows (InputStream rawInput, RowVisitor visitor) throws IOException {
         LittleEndianDataInputStream input = new LittleEndianDataInputStream(new GZIPInputStream(rawInput));
 
         char[] header = new char[8];
@@ -63,9 +96,10 @@ public class SelectingGridReducer {
         // median travel time.
         int nSamples = input.readInt();
 
-        Grid outputGrid = new Grid(west, north, width, height, zoom);
+        visitor.extents(new WebMercatorExtents(west, north, width, height, zoom));
 
         int[] valuesThisOrigin = new int[nSamples];
+        int[] rowValues = new int[width];
 
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
@@ -75,11 +109,11 @@ public class SelectingGridReducer {
                     valuesThisOrigin[iteration] = val;
                 }
                 // compute percentiles
-                outputGrid.grid[x][y] = valuesThisOrigin[index];
+                rowValues[x] = valuesThisOrigin[index];
             }
+            visitor.row(y, rowValues);
         }
         input.close();
-        return outputGrid;
     }
 
 }
@@ -1,6 +1,6 @@
 package com.conveyal.analysis.components;
 
-import com.conveyal.analysis.WorkerConfig;
+import com.conveyal.analysis.LocalWorkerConfig;
 import com.conveyal.analysis.components.eventbus.EventBus;
 import com.conveyal.analysis.controllers.NetworkTileController;
 import com.conveyal.r5.analyst.NetworkPreloader;
@@ -8,6 +8,7 @@ import com.conveyal.r5.analyst.cluster.AnalysisWorker;
 import com.conveyal.r5.analyst.cluster.AnalysisWorkerController;
 import com.conveyal.r5.transit.TransportNetworkCache;
 
+import java.io.File;
 import java.util.List;
 
 /**
@@ -19,7 +20,7 @@ import java.util.List;
 public class LocalWorkerComponents extends WorkerComponents {
 
     /** In local operation, share the gtfs and osm cache components that the backend has already constructed. */
-    public LocalWorkerComponents (TransportNetworkCache transportNetworkCache, WorkerConfig config) {
+    public LocalWorkerComponents (TransportNetworkCache transportNetworkCache, LocalWorkerConfig config) {
         // GTFS and OSM caches and FileStorage are already referenced in the supplied TransportNetworkCache.
         this.transportNetworkCache = transportNetworkCache;
         // We could conceivably use the same taskScheduler and eventBus from the backend.
@@ -31,7 +32,9 @@ public class LocalWorkerComponents extends WorkerComponents {
         analysisWorker = new AnalysisWorker(fileStorage, transportNetworkCache, eventBus, config);
         workerHttpApi = new WorkerHttpApi(config, List.of(
                 new AnalysisWorkerController(analysisWorker),
-                new NetworkTileController(transportNetworkCache)
+                new NetworkTileController(
+                        transportNetworkCache, taskScheduler, new File(config.localCacheDirectory(), "network-tiles")
+                )
         ));
     }
 
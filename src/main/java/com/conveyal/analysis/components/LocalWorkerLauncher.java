@@ -1,7 +1,6 @@
 package com.conveyal.analysis.components;
 
 import com.conveyal.analysis.LocalWorkerConfig;
-import com.conveyal.analysis.WorkerConfig;
 import com.conveyal.analysis.components.broker.WorkerTags;
 import com.conveyal.file.FileStorage;
 import com.conveyal.gtfs.GTFSCache;
@@ -73,7 +72,7 @@ public class LocalWorkerLauncher implements WorkerLauncher {
             Properties singleWorkerConfig = new Properties(workerConfig);
             // Avoid starting more than one worker on the same machine trying to listen on the same port.
             singleWorkerConfig.setProperty("listen-for-single-point", Boolean.toString(i == 0).toLowerCase());
-            WorkerConfig config = LocalWorkerConfig.fromProperties(singleWorkerConfig);
+            LocalWorkerConfig config = LocalWorkerConfig.fromProperties(singleWorkerConfig);
             WorkerComponents components = new LocalWorkerComponents(transportNetworkCache, config);
             Thread workerThread = new Thread(new Worker(components), "WORKER " + i);
             workerThreads.add(workerThread);
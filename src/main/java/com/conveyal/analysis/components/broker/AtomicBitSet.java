@@ -0,0 +1,59 @@
+package com.conveyal.analysis.components.broker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size bitset that can be read and updated by many threads at once without locking. Bits are packed into
+ * 64-bit words like java.util.BitSet, and each word is updated with compare-and-set, so threads marking different
+ * tasks complete only contend when they touch the same word, and even then they never block each other.
+ */
+class AtomicBitSet {
+
+    private final AtomicLongArray words;
+
+    private final int size;
+
+    AtomicBitSet (int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    public boolean get (int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /** @return true if the bit was clear and this call set it, false if it was already set. */
+    public boolean set (int index) {
+        int wordIndex = index >>> 6;
+        long mask = 1L << index;
+        while (true) {
+            long word = words.get(wordIndex);
+            if ((word & mask) != 0) return false;
+            if (words.compareAndSet(wordIndex, word, word | mask)) return true;
+        }
+    }
+
+    /** @return the index of the first clear bit at or after fromIndex, or the size of this set if there is none. */
+    public int nextClearBit (int fromIndex) {
+        if (fromIndex >= size) return size;
+        int wordIndex = fromIndex >>> 6;
+        long word = ~words.get(wordIndex) & (-1L << fromIndex);
+        while (true) {
+            if (word != 0) {
+                return Math.min(size, (wordIndex << 6) + Long.numberOfTrailingZeros(word));
+            }
+            wordIndex += 1;
+            if (wordIndex >= words.length()) return size;
+            word = ~words.get(wordIndex);
+        }
+    }
+
+    public int cardinality () {
+        int cardinality = 0;
+        for (int i = 0; i < words.length(); i++) {
+            cardinality += Long.bitCount(words.get(i));
+        }
+        return cardinality;
+    }
+
+}
@@ -7,19 +7,23 @@ import com.conveyal.analysis.components.eventbus.EventBus;
 import com.conveyal.analysis.components.eventbus.RegionalAnalysisEvent;
 import com.conveyal.analysis.components.eventbus.WorkerEvent;
 import com.conveyal.analysis.models.RegionalAnalysis;
+import com.conveyal.analysis.persistence.Persistence;
+import com.conveyal.analysis.results.AssemblerCheckpoint;
 import com.conveyal.analysis.results.MultiOriginAssembler;
 import com.conveyal.analysis.util.JsonUtil;
 import com.conveyal.file.FileStorage;
+import com.conveyal.file.FileStorageFormat;
 import com.conveyal.file.FileStorageKey;
 import com.conveyal.file.FileUtils;
+import com.conveyal.r5.analyst.PointSet;
+import com.conveyal.r5.analyst.PointSetCache;
 import com.conveyal.r5.analyst.WorkerCategory;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
 import com.conveyal.r5.analyst.cluster.WorkerStatus;
 import com.conveyal.r5.analyst.scenario.Scenario;
 import com.conveyal.r5.util.ExceptionUtils;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.MultimapBuilder;
+import com.google.common.annotations.VisibleForTesting;
 import gnu.trove.TCollections;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.TObjectLongMap;
@@ -32,9 +36,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static com.conveyal.analysis.components.eventbus.RegionalAnalysisEvent.State.CANCELED;
 import static com.conveyal.analysis.components.eventbus.RegionalAnalysisEvent.State.COMPLETED;
@@ -74,10 +79,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * is serviced, it is taken out of the queue and put at its end. Jobs that have not been serviced
  * float to the top.
  * <p>
- * Most methods on this class are synchronized, because they can be called from many HTTP handler
- * threads at once.
- *
- * TODO evaluate whether synchronizing all methods to make this threadsafe is a performance issue.
+ * Methods on this class can be called from many HTTP handler threads at once. With hundreds of workers polling a
+ * single backend, holding one lock while delivering tasks and recording results made poll latency climb into
+ * seconds. So the methods on the polling and result paths are not synchronized: jobs are held in concurrent maps
+ * (indexed both by worker category and by job ID) and each Job is itself threadsafe. Only the rare operations that
+ * create or delete jobs are synchronized on the broker, to keep them from interleaving with each other.
  */
 public class Broker implements Component {
 
@@ -88,6 +94,7 @@ public class Broker implements Component {
         boolean offline ();
         int maxWorkers ();
         boolean testTaskRedelivery ();
+        String localCacheDirectory ();
     }
 
     private Config config;
@@ -97,11 +104,37 @@ public class Broker implements Component {
     private final EventBus eventBus;
     private final WorkerLauncher workerLauncher;
 
-    private final ListMultimap<WorkerCategory, Job> jobs =
-            MultimapBuilder.hashKeys().arrayListValues().build();
+    /**
+     * Active jobs for each worker category. The lists are copy-on-write since they are iterated on every worker poll
+     * but only change when a job is added or removed. Each list is only replaced within compute calls on this map.
+     */
+    private final Map<WorkerCategory, List<Job>> jobsByCategory = new ConcurrentHashMap<>();
 
-    /** The most tasks to deliver to a worker at a time. */
-    public final int MAX_TASKS_PER_WORKER = 16;
+    /** The same jobs as jobsByCategory, indexed by job ID. A job is finished by whichever thread removes it here. */
+    private final Map<String, Job> jobsById = new ConcurrentHashMap<>();
+
+    /**
+     * The number of tasks to deliver to a worker at a time when we don't know how fast it's processing them, and the
+     * minimum number we'll deliver to any worker fast enough to process them within MAX_SECONDS_PER_DELIVERY.
+     */
+    public final int MIN_TASKS_PER_DELIVERY = 16;
+
+    /** The most tasks to deliver to a worker at a time, however quickly it's processing them. */
+    public final int MAX_TASKS_PER_DELIVERY = 2_000;
+
+    /**
+     * Deliveries are sized so that each worker receives roughly this many seconds of work at its recently observed
+     * throughput. Workers poll again as soon as their internal queue has room for more tasks, so this is roughly the
+     * interval between polls from a busy worker. A fixed-size delivery throttles fast jobs (e.g. walk-only or with
+     * short cutoffs) to the poll cadence, leaving workers idle while they wait for the next round trip.
+     */
+    public final int TARGET_SECONDS_PER_DELIVERY = 30;
+
+    /**
+     * No delivery should hold more than this many seconds of work at the worker's observed throughput, so that tasks
+     * still being processed are not redelivered to other workers once Job.REDELIVERY_WAIT_SEC has elapsed.
+     */
+    public final int MAX_SECONDS_PER_DELIVERY = Job.REDELIVERY_WAIT_SEC / 2;
 
     /**
      * Used when auto-starting spot instances. Set to a smaller value to increase the number of
@@ -134,7 +167,7 @@ public class Broker implements Component {
      * These objects piece together results received from workers into one regional analysis result
      * file per job.
      */
-    private static Map<String, MultiOriginAssembler> resultAssemblers = new HashMap<>();
+    private static Map<String, MultiOriginAssembler> resultAssemblers = new ConcurrentHashMap<>();
 
     /**
      * keep track of which graphs we have launched workers on and how long ago we launched them, so
@@ -143,11 +176,19 @@ public class Broker implements Component {
     public TObjectLongMap<WorkerCategory> recentlyRequestedWorkers =
             TCollections.synchronizedMap(new TObjectLongHashMap<>());
 
+    /**
+     * Each regional job in progress has a subdirectory here named after its job ID, holding the buffer files where its
+     * results are assembled and periodic checkpoints of which origins those files contain. This allows jobs to be
+     * resumed when the backend restarts.
+     */
+    private final File checkpointDirectory;
+
     public Broker (Config config, FileStorage fileStorage, EventBus eventBus, WorkerLauncher workerLauncher) {
         this.config = config;
         this.fileStorage = fileStorage;
         this.eventBus = eventBus;
         this.workerLauncher = workerLauncher;
+        this.checkpointDirectory = new File(config.localCacheDirectory(), "regional-checkpoints");
     }
 
     /**
@@ -155,6 +196,50 @@ public class Broker implements Component {
      * Only a single task is passed in, which the broker will expand into all the individual tasks for a regional job.
      */
     public synchronized void enqueueTasksForRegionalJob (RegionalAnalysis regionalAnalysis) {
+        startRegionalJob(regionalAnalysis);
+    }
+
+    /**
+     * Resume any regional jobs that were running when the backend was last shut down, based on the checkpoints left
+     * in local storage. Only the tasks for origins whose results were not already checkpointed will be redelivered.
+     * This must be called once at startup, after the database connection is established.
+     */
+    public synchronized void resumeCheckpointedJobs () {
+        File[] jobDirectories = checkpointDirectory.listFiles(File::isDirectory);
+        if (jobDirectories == null) return;
+        for (File jobDirectory : jobDirectories) {
+            String jobId = jobDirectory.getName();
+            RegionalAnalysis regionalAnalysis = Persistence.regionalAnalyses.get(jobId);
+            if (regionalAnalysis == null || regionalAnalysis.complete || regionalAnalysis.deleted) {
+                LOG.info("Removing leftover checkpoint for finished or deleted regional analysis {}.", jobId);
+                AssemblerCheckpoint.delete(jobDirectory);
+                continue;
+            }
+            try {
+                // Reload the point sets that were held in transient fields of the task when the job was first created.
+                RegionalTask task = regionalAnalysis.request;
+                if (task.originPointSetKey != null) {
+                    task.originPointSet = PointSetCache.readFreeFormFromFileStore(task.originPointSetKey);
+                }
+                if (!task.makeTauiSite && task.destinationPointSetKeys[0].endsWith(FileStorageFormat.FREEFORM.extension)) {
+                    task.destinationPointSets = new PointSet[] {
+                        PointSetCache.readFreeFormFromFileStore(task.destinationPointSetKeys[0])
+                    };
+                }
+                Job job = startRegionalJob(regionalAnalysis);
+                LOG.info("Resumed regional analysis {} with {} of {} tasks already complete.",
+                        jobId, job.nTasksCompleted.get(), job.nTasksTotal);
+            } catch (Exception e) {
+                LOG.error("Could not resume regional analysis {} from checkpoint.", jobId, e);
+            }
+        }
+    }
+
+    /**
+     * Create a Job and its result assembler for the given regional analysis, and make the job visible to workers.
+     * If a checkpoint exists for this job, any tasks whose results were already received are marked as completed.
+     */
+    private Job startRegionalJob (RegionalAnalysis regionalAnalysis) {
 
         // Make a copy of the regional task inside the RegionalAnalysis, replacing the scenario with a scenario ID.
         RegionalTask templateTask = templateTaskFromRegionalAnalysis(regionalAnalysis);
@@ -166,18 +251,21 @@ public class Broker implements Component {
         }
         WorkerTags workerTags = WorkerTags.fromRegionalAnalysis(regionalAnalysis);
         Job job = new Job(templateTask, workerTags);
-        jobs.put(job.workerCategory, job);
 
         // Register the regional job so results received from multiple workers can be assembled into one file.
+        // The assembler is registered before the job becomes visible to polling workers, so that no results arrive
+        // for a job that has no assembler.
         // TODO encapsulate MultiOriginAssemblers in a new Component
-        // Note: if this fails with an exception we'll have a job enqueued, possibly being processed, with no assembler.
-        // That is not catastrophic, but the user may need to recognize and delete the stalled regional job.
-        MultiOriginAssembler assembler = new MultiOriginAssembler(regionalAnalysis, job, fileStorage);
+        MultiOriginAssembler assembler = new MultiOriginAssembler(
+                regionalAnalysis, job, fileStorage, new File(checkpointDirectory, templateTask.jobId)
+        );
+        job.markTasksCompleted(assembler.getOriginsReceived());
         resultAssemblers.put(templateTask.jobId, assembler);
+        addJob(job);
 
         if (config.testTaskRedelivery()) {
             // This is a fake job for testing, don't confuse the worker startup code below with null graph ID.
-            return;
+            return job;
         }
 
         if (workerCatalog.noWorkersAvailable(job.workerCategory, config.offline())) {
@@ -187,6 +275,7 @@ public class Broker implements Component {
             recentlyRequestedWorkers.remove(job.workerCategory);
         }
         eventBus.send(new RegionalAnalysisEvent(templateTask.jobId, STARTED).forUser(workerTags.user, workerTags.group));
+        return job;
     }
 
     /**
@@ -318,16 +407,18 @@ public class Broker implements Component {
     /**
      * Attempt to find some tasks that match what a worker is requesting.
      * Always returns a list, which may be empty if there is nothing to deliver.
+     * @param workerStatus the status reported by the polling worker, including its recent throughput for each job.
      */
-    public synchronized List<RegionalTask> getSomeWork (WorkerCategory workerCategory) {
+    public List<RegionalTask> getSomeWork (WorkerStatus workerStatus) {
+        WorkerCategory workerCategory = workerStatus.getWorkerCategory();
         Job job;
         if (config.offline()) {
             // Working in offline mode; get tasks from the first job that has any tasks to deliver.
-            job = jobs.values().stream()
+            job = jobsById.values().stream()
                     .filter(j -> j.hasTasksToDeliver()).findFirst().orElse(null);
         } else {
             // This worker has a preferred network, get tasks from a job on that network.
-            job = jobs.get(workerCategory).stream()
+            job = jobsByCategory.getOrDefault(workerCategory, Collections.emptyList()).stream()
                     .filter(j -> j.hasTasksToDeliver()).findFirst().orElse(null);
         }
         if (job == null) {
@@ -335,7 +426,57 @@ public class Broker implements Component {
             return Collections.EMPTY_LIST;
         }
         // Return up to N tasks that are waiting to be processed.
-        return job.generateSomeTasksToDeliver(MAX_TASKS_PER_WORKER);
+        return job.generateSomeTasksToDeliver(tasksPerDelivery(workerStatus, job));
+    }
+
+    /**
+     * Decide how many tasks to deliver to a worker at once, such that it holds about TARGET_SECONDS_PER_DELIVERY of
+     * work. We only use the worker's throughput on the given job: its throughput on other jobs (e.g. a walk-only job
+     * it has just finished) says little about how fast it will process this one. A worker that has not yet reported
+     * any throughput on this job receives the minimum number of tasks.
+     */
+    @VisibleForTesting
+    int tasksPerDelivery (WorkerStatus workerStatus, Job job) {
+        Map<String, Integer> tasksPerMinuteByJobId = workerStatus.tasksPerMinuteByJobId;
+        if (tasksPerMinuteByJobId == null) {
+            return MIN_TASKS_PER_DELIVERY;
+        }
+        Integer tasksPerMinute = tasksPerMinuteByJobId.get(job.jobId);
+        if (tasksPerMinute == null || tasksPerMinute <= 0) {
+            return MIN_TASKS_PER_DELIVERY;
+        }
+        int nTasks = Math.max(MIN_TASKS_PER_DELIVERY, tasksPerMinute * TARGET_SECONDS_PER_DELIVERY / 60);
+        // Even a slow worker must be able to finish its delivery well before the job starts redelivering tasks.
+        int maxTasksBeforeRedelivery = Math.max(1, tasksPerMinute * MAX_SECONDS_PER_DELIVERY / 60);
+        return Math.min(nTasks, Math.min(maxTasksBeforeRedelivery, MAX_TASKS_PER_DELIVERY));
+    }
+
+    /** Make the given job visible to polling workers and to lookups by ID. */
+    @VisibleForTesting
+    void addJob (Job job) {
+        jobsById.put(job.jobId, job);
+        jobsByCategory.compute(job.workerCategory, (category, categoryJobs) -> {
+            if (categoryJobs == null) {
+                categoryJobs = new CopyOnWriteArrayList<>();
+            }
+            categoryJobs.add(job);
+            return categoryJobs;
+        });
+    }
+
+    /**
+     * Remove the given job from the broker so we stop distributing its tasks to workers.
+     * @return true if this call removed the job, false if it was already removed (e.g. by another thread).
+     */
+    private boolean removeJob (Job job) {
+        if (!jobsById.remove(job.jobId, job)) {
+            return false;
+        }
+        jobsByCategory.computeIfPresent(job.workerCategory, (category, categoryJobs) -> {
+            categoryJobs.remove(job);
+            return categoryJobs.isEmpty() ? null : categoryJobs;
+        });
+        return true;
     }
 
     /**
@@ -348,7 +489,7 @@ public class Broker implements Component {
      *
      * @return whether the task was found and removed.
      */
-    public synchronized void markTaskCompleted (Job job, int taskId) {
+    public void markTaskCompleted (Job job, int taskId) {
         checkNotNull(job);
         if (!job.markTaskCompleted(taskId)) {
             LOG.error("Failed to mark task {} completed on job {}.", taskId, job.jobId);
@@ -356,9 +497,9 @@ public class Broker implements Component {
         // Once the last task is marked as completed, the job is finished.
         // Remove it and its associated result assembler from the maps.
         // The caller should already have a reference to the result assembler so it can process the final results.
-        if (job.isComplete()) {
+        // Several threads may see the job complete at once, but only the one that removes it sends the event.
+        if (job.isComplete() && removeJob(job)) {
             job.verifyComplete();
-            jobs.remove(job.workerCategory, job);
             resultAssemblers.remove(job.jobId);
             eventBus.send(new RegionalAnalysisEvent(job.jobId, COMPLETED).forUser(job.workerTags.user, job.workerTags.group));
         }
@@ -368,9 +509,9 @@ public class Broker implements Component {
      * When job.errors is non-empty, job.isErrored() becomes true and job.isActive() becomes false.
      * The Job will stop delivering tasks, allowing workers to shut down, but will continue to exist allowing the user
      * to see the error message. User will then need to manually delete it, which will remove the result assembler.
-     * This method ensures synchronization of writes to Jobs from the unsynchronized worker poll HTTP handler.
+     * Job errors are held in a concurrent set, so this can be called from the unsynchronized worker poll HTTP handler.
      */
-    private synchronized void recordJobError (Job job, String error) {
+    private void recordJobError (Job job, String error) {
         if (job != null) {
             job.errors.add(error);
         }
@@ -380,10 +521,10 @@ public class Broker implements Component {
      * Simple method for querying all current job statuses.
      * @return List of JobStatuses
      */
-    public synchronized Collection<JobStatus> getAllJobStatuses () {
+    public Collection<JobStatus> getAllJobStatuses () {
         TObjectIntMap<String> workersPerJob = workerCatalog.activeWorkersPerJob();
         Collection<JobStatus> jobStatuses = new ArrayList<>();
-        for (Job job : jobs.values()) {
+        for (Job job : jobsById.values()) {
             JobStatus jobStatus = new JobStatus(job);
             jobStatus.activeWorkers = workersPerJob.get(job.jobId);
             jobStatuses.add(jobStatus);
@@ -392,11 +533,8 @@ public class Broker implements Component {
     }
 
     /** Find the job for the given jobId, returning null if that job does not exist. */
-    public synchronized Job findJob (String jobId) {
-        return jobs.values().stream()
-                .filter(job -> job.jobId.equals(jobId))
-                .findFirst()
-                .orElse(null);
+    public Job findJob (String jobId) {
+        return jobsById.get(jobId);
     }
 
     /**
@@ -405,23 +543,26 @@ public class Broker implements Component {
     public synchronized boolean deleteJob (String jobId) {
         // Remove the job from the broker so we stop distributing its tasks to workers.
         Job job = findJob(jobId);
-        if (job == null) return false;
-        boolean success = jobs.remove(job.workerCategory, job);
+        if (job == null || !removeJob(job)) return false;
         // Shut down the object used for assembling results, removing its associated temporary disk file.
+        // The job is already removed at this point, so failing to do so is logged but does not fail the deletion.
         // TODO just put the assembler in the Job object
         MultiOriginAssembler assembler = resultAssemblers.remove(jobId);
-        try {
-            assembler.terminate();
-        } catch (Exception e) {
-            LOG.error(
-                "Could not terminate grid result assembler, this may waste disk space. Reason: {}",
-                e.toString()
-            );
-            success = false;
+        if (assembler == null) {
+            LOG.error("No result assembler was registered for deleted job {}.", jobId);
+        } else {
+            try {
+                assembler.terminate();
+            } catch (Exception e) {
+                LOG.error(
+                    "Could not terminate grid result assembler, this may waste disk space. Reason: {}",
+                    e.toString()
+                );
+            }
         }
         eventBus.send(new RegionalAnalysisEvent(job.jobId, CANCELED).forUser(job.workerTags.user, job.workerTags.group));
         // Note updateByUserIfPermitted in caller, which deletes regional analysis from Persistence
-        return success;
+        return true;
     }
 
     /**
@@ -464,34 +605,30 @@ public class Broker implements Component {
      * @param workResult an object representing accessibility results for a single origin point, sent by a worker.
      */
     public void handleRegionalWorkResult(RegionalWorkResult workResult) {
-        // Retrieving the job and assembler from their maps is not thread safe, so we use synchronized block here.
-        // Once the job is retrieved, it can be used below to requestExtraWorkersIfAppropriate without synchronization,
-        // because that method only uses final fields of the job.
+        // The job and assembler maps are concurrent and the job tracks its own completion atomically, so results for
+        // many tasks can be handled at once without synchronizing on the broker.
         Job job = null;
         MultiOriginAssembler assembler;
         try {
-            synchronized (this) {
-                job = findJob(workResult.jobId);
-                assembler = resultAssemblers.get(workResult.jobId);
-                if (job == null || assembler == null || !job.isActive()) {
-                    // This will happen naturally for all delivered tasks after a job is deleted or it errors out.
-                    LOG.debug("Ignoring result for unrecognized, deleted, or inactive job ID {}.", workResult.jobId);
-                    return;
-                }
-                if (workResult.error != null) {
-                    // Record any error reported by the worker and don't pass bad results on to regional result assembly.
-                    recordJobError(job, workResult.error);
-                    return;
-                }
-                // Mark tasks completed first before passing results to the assembler. On the final result received,
-                // this will minimize the risk of race conditions by quickly making the job invisible to incoming stray
-                // results from spurious redeliveries, before the assembler is busy finalizing and uploading results.
-                markTaskCompleted(job, workResult.taskId);
+            job = findJob(workResult.jobId);
+            assembler = resultAssemblers.get(workResult.jobId);
+            if (job == null || assembler == null || !job.isActive()) {
+                // This will happen naturally for all delivered tasks after a job is deleted or it errors out.
+                LOG.debug("Ignoring result for unrecognized, deleted, or inactive job ID {}.", workResult.jobId);
+                return;
+            }
+            if (workResult.error != null) {
+                // Record any error reported by the worker and don't pass bad results on to regional result assembly.
+                recordJobError(job, workResult.error);
+                return;
             }
-            // Unlike everything above, result assembly (like starting workers below) does not synchronize on the broker.
-            // It contains some slow nested operations to move completed results into storage. Really we should not do
-            // these things synchronously in an HTTP handler called by the worker. We should probably synchronize this
-            // entire method, then somehow enqueue slower async completion and cleanup tasks in the caller.
+            // Mark tasks completed first before passing results to the assembler. On the final result received,
+            // this will minimize the risk of race conditions by quickly making the job invisible to incoming stray
+            // results from spurious redeliveries, before the assembler is busy finalizing and uploading results.
+            markTaskCompleted(job, workResult.taskId);
+            // Result assembly synchronizes on the assembler for the job. It contains some slow nested operations to
+            // move completed results into storage. Really we should not do these things synchronously in an HTTP
+            // handler called by the worker. We should somehow enqueue slower async completion and cleanup tasks.
             assembler.handleMessage(workResult);
         } catch (Throwable t) {
             recordJobError(job, ExceptionUtils.stackTraceString(t));
@@ -538,15 +675,15 @@ public class Broker implements Component {
         }
     }
 
-    public synchronized boolean anyJobsActive () {
-        for (Job job : jobs.values()) {
+    public boolean anyJobsActive () {
+        for (Job job : jobsById.values()) {
             if (job.isActive()) return true;
         }
         return false;
     }
 
-    public synchronized void logJobStatus() {
-        for (Job job : jobs.values()) {
+    public void logJobStatus() {
+        for (Job job : jobsById.values()) {
             LOG.info(job.toString());
         }
     }
@@ -8,9 +8,10 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.conveyal.r5.common.Util.notNullOrEmpty;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -18,6 +19,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * A Job is a collection of tasks that represent all the origins in a regional analysis. All the
  * tasks in a Job must have the same network ID and be run against the same R5 version on the workers.
+ * <p>
+ * Jobs are threadsafe without holding the Broker lock, so that many HTTP handler threads can hand out tasks and
+ * record results at once. Workers claim contiguous ranges of tasks by atomically advancing a cursor, and completed
+ * tasks are tracked in a bitset updated with compare-and-set. Only the rare start of a redelivery pass locks the job.
  */
 public class Job {
 
@@ -40,7 +45,7 @@ public class Job {
     // On the other hand, working on tasks from the same geographic area might be more efficient because
     // they probably use all the same transit lines and roads, which will already be in cache.
     // So let's just keep track of where we're at in the sequence.
-    private int nextTaskToDeliver;
+    private final AtomicInteger nextTaskToDeliver = new AtomicInteger();
 
     /** A unique identifier for this job, we use random UUIDs. */
     public final String jobId;
@@ -55,19 +60,19 @@ public class Job {
      * Each task will be checked off when it a result is returned by the worker.
      * Once the worker has returned a result, the task will never be redelivered.
      */
-    private final BitSet completedTasks;
+    private final AtomicBitSet completedTasks;
 
     /**
      * The number of remaining tasks can be derived from the deliveredTasks BitSet, but as an
      * optimization we keep a separate counter to avoid constantly scanning over that whole bitset.
      */
-    protected int nTasksCompleted;
+    protected final AtomicInteger nTasksCompleted = new AtomicInteger();
 
     /**
      * The total number of task deliveries that have occurred. A task may be counted more than
      * once if it is redelivered.
      */
-    protected int nTasksDelivered;
+    protected final AtomicInteger nTasksDelivered = new AtomicInteger();
 
     /** Every task in this job will be based on this template task, but have its origin coordinates changed. */
     public final RegionalTask templateTask;
@@ -114,26 +119,24 @@ public class Job {
      * the epoch. Enables a quiet period after all tasks have been delivered, before we attempt any
      * re-delivery.
      */
-    long lastDeliveryTime = 0;
+    volatile long lastDeliveryTime = 0;
 
     /**
      * How many times we have started over delivering tasks, working through those that were not
-     * marked complete.
+     * marked complete. Only updated while holding the lock on this Job.
      */
-    public int deliveryPass = 0;
+    public volatile int deliveryPass = 0;
 
     /**
      * If any error compromises the usabilty or quality of results from any origin, it is recorded here.
      * This is a Set because identical errors are likely to be reported from many workers or individual tasks.
      */
-    public final Set<String> errors = new HashSet();
+    public final Set<String> errors = ConcurrentHashMap.newKeySet();
 
     public Job (RegionalTask templateTask, WorkerTags workerTags) {
         this.jobId = templateTask.jobId;
         this.templateTask = templateTask;
         this.workerCategory = new WorkerCategory(templateTask.graphId, templateTask.workerVersion);
-        this.nTasksCompleted = 0;
-        this.nextTaskToDeliver = 0;
 
         if (templateTask.originPointSetKey != null) {
             checkNotNull(templateTask.originPointSet);
@@ -142,23 +145,35 @@ public class Job {
             this.nTasksTotal = templateTask.width * templateTask.height;
         }
 
-        this.completedTasks = new BitSet(nTasksTotal);
+        this.completedTasks = new AtomicBitSet(nTasksTotal);
         this.workerTags = workerTags;
 
     }
 
+    /**
+     * Safe to call from many threads at once. When the same task is reported complete more than once (e.g. after
+     * redelivery) only one of those calls will return true.
+     */
     public boolean markTaskCompleted(int taskId) {
-        // Don't allow negative or huge task numbers to avoid exceptions or expanding the bitset to
-        // a huge size.
-        if (taskId < 0 || taskId > nTasksTotal) {
+        // Don't allow negative or out of range task numbers to avoid exceptions.
+        if (taskId < 0 || taskId >= nTasksTotal) {
             return false;
         }
-        if (completedTasks.get(taskId)) {
-            return false;
-        } else {
-            completedTasks.set(taskId);
-            nTasksCompleted += 1;
+        if (completedTasks.set(taskId)) {
+            nTasksCompleted.incrementAndGet();
             return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Mark all the given tasks as completed, for example those whose results were recovered from a checkpoint when a
+     * job is resumed. They will then never be delivered to workers.
+     */
+    public void markTasksCompleted (BitSet taskIds) {
+        for (int t = taskIds.nextSetBit(0); t >= 0; t = taskIds.nextSetBit(t + 1)) {
+            markTaskCompleted(t);
         }
     }
 
@@ -167,7 +182,7 @@ public class Job {
     }
 
     public boolean isComplete() {
-        return nTasksCompleted == nTasksTotal;
+        return nTasksCompleted.get() == nTasksTotal;
     }
 
     public boolean isErrored () {
@@ -177,21 +192,27 @@ public class Job {
     /**
      * @param maxTasks the maximum number of tasks to return.
      * @return some tasks that are not yet marked as completed and have not yet been delivered in
-     *         this delivery pass.
+     *         this delivery pass. Concurrent callers each claim their own range of tasks, so no task is delivered
+     *         twice in the same pass.
      */
     public List<RegionalTask> generateSomeTasksToDeliver (int maxTasks) {
         List<RegionalTask> tasks = new ArrayList<>(maxTasks);
-        // TODO use special bitset iteration syntax.
-        while (nextTaskToDeliver < nTasksTotal && tasks.size() < maxTasks) {
-            if (!completedTasks.get(nextTaskToDeliver)) {
-                tasks.add(makeOneTask(nextTaskToDeliver));
+        // Completed tasks are skipped, so in redelivery passes keep claiming ranges until we have enough tasks.
+        while (tasks.size() < maxTasks) {
+            int nToClaim = maxTasks - tasks.size();
+            int start = nextTaskToDeliver.getAndUpdate(next -> Math.min(next + nToClaim, nTasksTotal));
+            if (start >= nTasksTotal) {
+                break;
+            }
+            int end = Math.min(start + nToClaim, nTasksTotal);
+            for (int t = completedTasks.nextClearBit(start); t < end; t = completedTasks.nextClearBit(t + 1)) {
+                tasks.add(makeOneTask(t));
             }
-            nextTaskToDeliver += 1;
         }
         if (!tasks.isEmpty()) {
             this.lastDeliveryTime = System.currentTimeMillis();
         }
-        nTasksDelivered += tasks.size();
+        nTasksDelivered.addAndGet(tasks.size());
         return tasks;
     }
 
@@ -199,25 +220,41 @@ public class Job {
         if (!(this.isActive())) {
             return false;
         }
-        if (nextTaskToDeliver < nTasksTotal) {
+        if (nextTaskToDeliver.get() < nTasksTotal) {
             return true;
         }
         // Check whether we should start redelivering tasks - this will be triggered by workers polling.
         // The method that generates more tasks to deliver knows to skip already completed tasks.
         if (System.currentTimeMillis() >= lastDeliveryTime + (REDELIVERY_WAIT_SEC * 1000)) {
-            if (deliveryPass >= MAX_DELIVERY_PASSES) {
-                LOG.error("Job {} has been delivered {} times and it's still not finished. Not redelivering.", jobId, deliveryPass);
-                return false;
-            }
-            nextTaskToDeliver = 0;
-            deliveryPass += 1;
-            LOG.warn("Delivered all tasks for job {}, but {} seconds later {} results have not been received. Starting redelivery pass {}.",
-                    jobId, REDELIVERY_WAIT_SEC, nTasksTotal - nTasksCompleted, deliveryPass);
-            return true;
+            return startRedeliveryPass();
         }
         return false;
     }
 
+    /**
+     * Rewind the delivery cursor to the beginning of the job. This is locked so that many workers polling at the
+     * moment the redelivery wait expires only start one new pass.
+     */
+    private synchronized boolean startRedeliveryPass () {
+        if (nextTaskToDeliver.get() < nTasksTotal) {
+            // Another thread started a redelivery pass while this one was waiting for the lock.
+            return true;
+        }
+        if (System.currentTimeMillis() < lastDeliveryTime + (REDELIVERY_WAIT_SEC * 1000)) {
+            // Another pass was started and fully delivered while this thread was waiting for the lock.
+            return false;
+        }
+        if (deliveryPass >= MAX_DELIVERY_PASSES) {
+            LOG.error("Job {} has been delivered {} times and it's still not finished. Not redelivering.", jobId, deliveryPass);
+            return false;
+        }
+        nextTaskToDeliver.set(0);
+        deliveryPass += 1;
+        LOG.warn("Delivered all tasks for job {}, but {} seconds later {} results have not been received. Starting redelivery pass {}.",
+                jobId, REDELIVERY_WAIT_SEC, nTasksTotal - nTasksCompleted.get(), deliveryPass);
+        return true;
+    }
+
     /**
      * Just as a failsafe, when our counter indicates that the job is complete, actually check how
      * many bits are set.
@@ -233,7 +270,7 @@ public class Job {
         return "Job{" +
                 "jobId='" + jobId + '\'' +
                 ", nTasksTotal=" + nTasksTotal +
-                ", nTasksCompleted=" + nTasksCompleted +
+                ", nTasksCompleted=" + nTasksCompleted.get() +
                 ", deliveryPass=" + deliveryPass +
                 '}';
     }
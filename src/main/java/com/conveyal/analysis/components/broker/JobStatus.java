@@ -51,9 +51,9 @@ public class JobStatus {
         this.graphId = job.workerCategory.graphId;
         this.workerCommit = job.workerCategory.workerVersion;
         this.total = job.nTasksTotal;
-        this.complete = job.nTasksCompleted;
+        this.complete = job.nTasksCompleted.get();
         this.incomplete = total - complete;
-        this.deliveries = job.nTasksDelivered;
+        this.deliveries = job.nTasksDelivered.get();
         this.deliveryPass = job.deliveryPass;
         this.errors = job.errors;
     }
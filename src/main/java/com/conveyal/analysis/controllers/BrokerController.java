@@ -18,6 +18,7 @@ import com.conveyal.r5.analyst.WorkerCategory;
 import com.conveyal.r5.analyst.cluster.AnalysisWorker;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
 import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
+import com.conveyal.r5.analyst.cluster.RegionalWorkResultCodec;
 import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
 import com.conveyal.r5.analyst.cluster.WorkerStatus;
 import com.conveyal.r5.common.JsonUtilities;
@@ -43,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 
+import java.io.IOException;
 import java.net.NoRouteToHostException;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
@@ -107,6 +109,7 @@ public class BrokerController implements HttpController {
     public void registerEndpoints (spark.Service sparkService) {
         sparkService.head("", this::headHandler);
         sparkService.post("/internal/poll", this::workerPoll);
+        sparkService.post("/internal/results", this::workerResults);
         sparkService.get("/api/jobs", this::getAllJobs);
         sparkService.get("/api/workers", this::getAllWorkers);
         sparkService.post("/api/analysis", this::singlePoint); // TODO rename HTTP path to "single" or something
@@ -360,9 +363,8 @@ public class BrokerController implements HttpController {
 
         // Add this worker to our catalog, tracking its graph affinity and the last time it was seen among other things.
         broker.recordWorkerObservation(workerStatus);
-        WorkerCategory workerCategory = workerStatus.getWorkerCategory();
         // See if any appropriate tasks exist for this worker.
-        List<RegionalTask> tasks = broker.getSomeWork(workerCategory);
+        List<RegionalTask> tasks = broker.getSomeWork(workerStatus);
         // If there is no work for the worker, signal this clearly with a "no content" code,
         // so the worker can sleep a while before the next polling attempt.
         if (tasks.isEmpty()) {
@@ -372,6 +374,35 @@ public class BrokerController implements HttpController {
         }
     }
 
+    /**
+     * Workers use this endpoint to deliver regional results as soon as they are computed, rather than waiting to
+     * include them in their next poll. The results are in a compact binary format rather than JSON, preceded by the
+     * worker's status. The whole request body is decoded before any result is handled: if the request fails, the
+     * worker resends all of its results, and any that were already handled would be assembled twice. The worker does
+     * not send more results until this request completes, so slow result assembly applies backpressure to the workers.
+     */
+    private Object workerResults (Request request, Response response) {
+        String contentType = request.contentType();
+        if (contentType == null || !contentType.split(";")[0].trim().equals(RegionalWorkResultCodec.CONTENT_TYPE)) {
+            throw AnalysisServerException.badRequest(
+                    "Streamed regional results must have Content-Type " + RegionalWorkResultCodec.CONTENT_TYPE);
+        }
+        WorkerStatus workerStatus;
+        try {
+            workerStatus = RegionalWorkResultCodec.read(request.raw().getInputStream());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read streamed regional results.", e);
+        }
+        List<RegionalWorkResult> results = workerStatus.results;
+        for (RegionalWorkResult workResult : results) {
+            broker.handleRegionalWorkResult(workResult);
+        }
+        // As in workerPoll, clear out the results so they're not visible in the worker list API endpoint.
+        workerStatus.results = null;
+        broker.recordWorkerObservation(workerStatus);
+        return jsonResponse(response, HttpStatus.OK_200, results.size());
+    }
+
     /**
      * Deserializes an object of the given type from JSON in the body of the supplied Spark request.
      */
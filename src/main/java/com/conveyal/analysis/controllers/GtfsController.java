@@ -230,8 +230,11 @@ public class GtfsController implements HttpController {
             headsign = trip.trip_headsign;
             directionId = trip.direction_id;
 
-            var st = feed.stop_times.ceilingEntry(new Fun.Tuple2(trip.trip_id, null));
-            var endStopTime = feed.stop_times.floorEntry(new Fun.Tuple2(trip.trip_id, Fun.HI));
+            // Look up the first and last stop times within the range of keys for this trip. Ceiling and floor lookups
+            // on the whole table would return a neighboring trip's stop times when this trip has none.
+            var tripStopTimes = feed.stop_times.subMap(Fun.t2(trip.trip_id, null), Fun.t2(trip.trip_id, Fun.HI));
+            var st = tripStopTimes.firstEntry();
+            var endStopTime = tripStopTimes.lastEntry();
 
             startTime = st != null ? st.getValue().departure_time : null;
 
@@ -250,7 +253,7 @@ public class GtfsController implements HttpController {
                 .values().stream()
                 .filter(t -> Objects.equals(t.route_id, routeId))
                 .map(t -> new TripApiResponse(feed, t))
-                .sorted(Comparator.comparingInt(t -> t.startTime))
+                .sorted(Comparator.comparing(t -> t.startTime, Comparator.nullsLast(Comparator.<Integer>naturalOrder())))
                 .collect(Collectors.toList());
     }
 
@@ -1,25 +1,42 @@
 package com.conveyal.analysis.controllers;
 
+import com.conveyal.analysis.components.TaskScheduler;
 import com.conveyal.analysis.util.JsonUtil;
 import com.conveyal.analysis.util.VectorMapTile;
+import com.conveyal.analysis.util.VectorTileCache;
+import com.conveyal.r5.kryo.KryoNetworkSerializer;
 import com.conveyal.r5.streets.EdgeStore;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.conveyal.r5.transit.TransportNetworkCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
 import gnu.trove.set.TIntSet;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 import spark.Service;
 
+import java.io.File;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.conveyal.analysis.util.HttpStatus.OK_200;
 import static com.conveyal.analysis.util.HttpUtils.CACHE_CONTROL_IMMUTABLE;
+import static com.conveyal.analysis.util.VectorMapTile.DEFAULT_TILE_EXTENT;
+import static com.conveyal.analysis.util.VectorMapTile.LINE_SIMPLIFY_TOLERANCE;
+import static com.conveyal.analysis.util.VectorMapTile.lat2tile;
+import static com.conveyal.analysis.util.VectorMapTile.lon2tile;
 import static com.conveyal.r5.common.GeometryUtils.floatingWgsEnvelopeToFixed;
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -29,6 +46,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * been interpreted as mode permissions, speeds, etc. and eventually should allow visualizing the effects of scenarios
  * on the street network, including scenarios that change the characteristics of street edges or create new streets.
  * See GtfsVectorTileMaker for more information on the vector tile spec and tile numbers.
+ *
+ * Rendering these tiles is expensive on large networks, so encoded tiles are held in a VectorTileCache (optionally
+ * backed by disk), and the low zoom tiles covering each network are rendered in the background as soon as the network
+ * is first requested. At low zoom levels each edge geometry is also generalized once for the whole network, rather
+ * than clipping its full geometry in every tile it touches.
  */
 public class NetworkTileController implements HttpController {
 
@@ -40,10 +62,78 @@ public class NetworkTileController implements HttpController {
     /** The zoom level at which each StreetClass appears, indexed by StreetClass.code from 0...4. */
     private static final int[] zoomForStreetClass = new int[] {8, 10, 11, 12, 13};
 
+    /** Tiles below this zoom level contain no edges at all. */
+    private static final int MIN_ZOOM = zoomForStreetClass[0];
+
+    /**
+     * Increment this whenever the contents of the tiles change, so stale tiles saved on disk will not be served.
+     * The network format version is also included in the disk cache path for the same reason.
+     */
+    private static final int TILE_FORMAT_VERSION = 1;
+
+    /** Edge geometries are generalized for each zoom level up to this one. Above it simplification gains little. */
+    private static final int MAX_GENERALIZED_ZOOM = 12;
+
+    /**
+     * The approximate maximum memory used by generalized edge geometries for all bundles and zoom levels. On a large
+     * network, the geometries for a single zoom level can take hundreds of megabytes.
+     */
+    private static final long MAX_GENERALIZED_BYTES = 512 * 1024 * 1024;
+
+    /** The approximate size of each JTS Coordinate in a generalized geometry, including the reference to it. */
+    private static final int BYTES_PER_COORDINATE = 48;
+
+    /** The approximate size of each generalized LineString and its coordinate sequence, excluding coordinates. */
+    private static final int BYTES_PER_GEOMETRY = 96;
+
+    /** Tiles are rendered in the background for each zoom level up to this one when a network is first requested. */
+    private static final int MAX_PREGENERATED_ZOOM = 12;
+
+    /** Background rendering stops before any zoom level that would take the total number of tiles above this. */
+    private static final int MAX_PREGENERATED_TILES = 2000;
+
     private final TransportNetworkCache transportNetworkCache;
 
-    public NetworkTileController (TransportNetworkCache transportNetworkCache) {
+    private final TaskScheduler taskScheduler;
+
+    private final VectorTileCache tileCache;
+
+    /**
+     * For each bundle and zoom level up to MAX_GENERALIZED_ZOOM, the simplified WGS84 geometry of each forward edge
+     * visible at that zoom level, indexed on edge pair. Elements are null where simplification would not remove any
+     * points, so the original edge geometry should be used. The cache is bounded by the estimated memory used by these
+     * geometries, as they cover whole networks.
+     */
+    private final LoadingCache<GeneralizationKey, LineString[]> generalizedGeometries;
+
+    /** The bundles for which background tile rendering has already been started. */
+    private final Set<String> pregeneratedBundles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param tileCacheDirectory a directory in which to save rendered tiles so they survive restarts, or null to
+     *                           cache them only in memory.
+     */
+    public NetworkTileController (
+            TransportNetworkCache transportNetworkCache, TaskScheduler taskScheduler, File tileCacheDirectory
+    ) {
         this.transportNetworkCache = transportNetworkCache;
+        this.taskScheduler = taskScheduler;
+        File diskDirectory = (tileCacheDirectory == null) ? null : versionedTileDirectory(tileCacheDirectory);
+        this.tileCache = new VectorTileCache(this::renderTile, diskDirectory);
+        this.generalizedGeometries = Caffeine.newBuilder()
+                .maximumWeight(MAX_GENERALIZED_BYTES)
+                .weigher((GeneralizationKey key, LineString[] geometries) -> estimateBytes(geometries))
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build(key -> generalizeEdgeGeometries(key.bundleId, key.zoom));
+    }
+
+    /**
+     * @return the subdirectory of the given tile cache directory holding tiles in the current network and tile formats,
+     *         so tiles saved by other versions are never served.
+     */
+    static File versionedTileDirectory (File tileCacheDirectory) {
+        String version = String.format("%s-%d", KryoNetworkSerializer.NETWORK_FORMAT_VERSION, TILE_FORMAT_VERSION);
+        return new File(tileCacheDirectory, version);
     }
 
     @Override
@@ -64,9 +154,78 @@ public class NetworkTileController implements HttpController {
         checkNotNull(bundleId);
         TransportNetwork network = transportNetworkCache.getNetwork(bundleId);
         checkNotNull(network);
+        if (pregeneratedBundles.add(bundleId)) {
+            taskScheduler.enqueueHeavyTask(() -> pregenerateTiles(bundleId, network));
+        }
         return network;
     }
 
+    /**
+     * Render all tiles covering the given network up to MAX_PREGENERATED_ZOOM, or until the tile count limit is
+     * reached, so that the first views of the network from afar do not each wait for many tiles to be rendered.
+     */
+    private void pregenerateTiles (String bundleId, TransportNetwork network) {
+        final long startTimeMs = System.currentTimeMillis();
+        Envelope envelope = network.streetLayer.envelope;
+        int nTiles = 0;
+        for (int zoom = MIN_ZOOM; zoom <= MAX_PREGENERATED_ZOOM; zoom++) {
+            int minX = lon2tile(envelope.getMinX(), zoom);
+            int maxX = lon2tile(envelope.getMaxX(), zoom);
+            // Tile numbers increase from north to south.
+            int minY = lat2tile(envelope.getMaxY(), zoom);
+            int maxY = lat2tile(envelope.getMinY(), zoom);
+            long nTilesAtZoom = (long) (maxX - minX + 1) * (maxY - minY + 1);
+            if (nTiles + nTilesAtZoom > MAX_PREGENERATED_TILES) break;
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    tileCache.get(bundleId, zoom, x, y);
+                }
+            }
+            nTiles += nTilesAtZoom;
+        }
+        LOG.info("Pre-generated {} network tiles for bundle {} in {}.", nTiles, bundleId,
+                Duration.ofMillis(System.currentTimeMillis() - startTimeMs));
+    }
+
+    /**
+     * Simplify the geometry of every forward edge visible at the given zoom level, with a tolerance of half the tile
+     * simplification tolerance at that zoom so the further simplification of each clipped tile geometry still keeps
+     * edges within the usual tolerance. Tiles are narrower in degrees of latitude than longitude, so the tolerance is
+     * scaled for the latitude farthest from the equator.
+     */
+    private LineString[] generalizeEdgeGeometries (String bundleId, int zoom) {
+        TransportNetwork network = transportNetworkCache.getNetwork(bundleId);
+        Envelope envelope = network.streetLayer.envelope;
+        double maxAbsLat = Math.max(Math.abs(envelope.getMinY()), Math.abs(envelope.getMaxY()));
+        double degreesPerTileUnit = 360.0 / (1 << zoom) / DEFAULT_TILE_EXTENT * Math.cos(Math.toRadians(maxAbsLat));
+        double toleranceDegrees = degreesPerTileUnit * LINE_SIMPLIFY_TOLERANCE / 2;
+        EdgeStore edgeStore = network.streetLayer.edgeStore;
+        LineString[] generalized = new LineString[edgeStore.nEdges() / 2];
+        EdgeStore.Edge edge = edgeStore.getCursor();
+        for (int pair = 0; pair < generalized.length; pair++) {
+            edge.seek(pair * 2);
+            if (zoom < zoomForStreetClass[edge.getStreetClassCode()]) continue;
+            LineString geometry = edge.getGeometry();
+            if (geometry.getNumPoints() <= 2) continue;
+            Geometry simplified = DouglasPeuckerSimplifier.simplify(geometry, toleranceDegrees);
+            if (simplified instanceof LineString && simplified.getNumPoints() < geometry.getNumPoints()) {
+                generalized[pair] = (LineString) simplified;
+            }
+        }
+        return generalized;
+    }
+
+    /** @return the approximate memory used by an array of generalized geometries, for weighing cache entries. */
+    private static int estimateBytes (LineString[] geometries) {
+        long bytes = (long) geometries.length * Long.BYTES;
+        for (LineString geometry : geometries) {
+            if (geometry != null) {
+                bytes += BYTES_PER_GEOMETRY + (long) geometry.getNumPoints() * BYTES_PER_COORDINATE;
+            }
+        }
+        return Ints.saturatedCast(bytes);
+    }
+
     /**
      * Handler for building the index separately from retrieving tiles.
      * FIXME this is long-polling? Not building an index anymore. Maybe assert or check that Network has an index.
@@ -88,8 +247,13 @@ public class NetworkTileController implements HttpController {
      * per pair. For example, for elevation data this could be the direction with the largest value which should always
      * be >= 1.
      */
-    private List<Geometry> getClippedAndProjectedEdgeGeometries (TransportNetwork network, VectorMapTile vectorMapTile) {
+    private List<Geometry> getClippedAndProjectedEdgeGeometries (
+            String bundleId, TransportNetwork network, VectorMapTile vectorMapTile
+    ) {
         List<Geometry> edgeGeoms = new ArrayList<>(64);
+        LineString[] generalized = (vectorMapTile.zoom <= MAX_GENERALIZED_ZOOM)
+                ? generalizedGeometries.get(new GeneralizationKey(bundleId, vectorMapTile.zoom))
+                : null;
 
         TIntSet edges = network.streetLayer.spatialIndex.query(floatingWgsEnvelopeToFixed(vectorMapTile.envelope));
         edges.forEach(e -> {
@@ -98,18 +262,19 @@ public class NetworkTileController implements HttpController {
             if (vectorMapTile.zoom < zoomForStreetClass[edge.getStreetClassCode()]) {
                 return true; // Continue iteration.
             }
-            Geometry edgeGeometry = vectorMapTile.clipScaleAndSimplify(edge.getGeometry());
-            if (edgeGeometry != null) {
-                edgeGeometry.setUserData(edge.attributesForDisplay());
-                edgeGeoms.add(edgeGeometry);
-            }
-            // The index contains only forward edges in each pair. Also include the backward edges.
-            // TODO factor out repetitive code?
-            edge.advance();
-            edgeGeometry = vectorMapTile.clipScaleAndSimplify(edge.getGeometry());
+            LineString wgsGeometry = (generalized != null && generalized[e / 2] != null)
+                    ? generalized[e / 2]
+                    : edge.getGeometry();
+            Geometry edgeGeometry = vectorMapTile.clipScaleAndSimplify(wgsGeometry);
             if (edgeGeometry != null) {
                 edgeGeometry.setUserData(edge.attributesForDisplay());
                 edgeGeoms.add(edgeGeometry);
+                // The index contains only forward edges in each pair. Also include the backward edges, whose
+                // geometry is the same in reverse, so reuse the clipped geometry rather than clipping it again.
+                edge.advance();
+                Geometry backwardGeometry = edgeGeometry.reverse();
+                backwardGeometry.setUserData(edge.attributesForDisplay());
+                edgeGeoms.add(backwardGeometry);
             }
             return true;
         });
@@ -126,22 +291,34 @@ public class NetworkTileController implements HttpController {
         final int xTile = Integer.parseInt(request.params("x"));
         final int yTile = Integer.parseInt(request.params("y"));
 
-        TransportNetwork network = getNetworkFromRequest(request);
-        VectorMapTile vectorMapTile = new VectorMapTile(zTile, xTile, yTile);
-
-        final long startTimeMs = System.currentTimeMillis();
+        // Fetch the network even if the tile is cached, to validate the bundle ID and start background rendering.
+        getNetworkFromRequest(request);
+        final String bundleId = request.params("bundleId");
 
         response.header("Content-Type", "application/vnd.mapbox-vector-tile");
         response.header("Content-Encoding", "gzip");
         response.header("Cache-Control", CACHE_CONTROL_IMMUTABLE);
         response.status(OK_200);
 
-        List<Geometry> edges = getClippedAndProjectedEdgeGeometries(network, vectorMapTile);
+        return tileCache.get(bundleId, zTile, xTile, yTile);
+    }
+
+    /** Render one tile for the VectorTileCache, which calls this only for tiles not already in memory or on disk. */
+    private byte[] renderTile (String bundleId, int zTile, int xTile, int yTile) {
+        if (zTile < MIN_ZOOM) {
+            return new byte[]{};
+        }
+        TransportNetwork network = transportNetworkCache.getNetwork(bundleId);
+        VectorMapTile vectorMapTile = new VectorMapTile(zTile, xTile, yTile);
+
+        final long startTimeMs = System.currentTimeMillis();
+
+        List<Geometry> edges = getClippedAndProjectedEdgeGeometries(bundleId, network, vectorMapTile);
         if (edges.size() > 0) {
             byte[] pbfMessage = vectorMapTile.encodeLayersToBytes(
                     vectorMapTile.createLayer(EDGE_LAYER_NAME, edges)
             );
-            LOG.debug("getTile({}, {}, {}, {}) in {}", network.scenarioId, zTile, xTile, yTile,
+            LOG.debug("getTile({}, {}, {}, {}) in {}", bundleId, zTile, xTile, yTile,
                     Duration.ofMillis(System.currentTimeMillis() - startTimeMs));
             return pbfMessage;
         } else {
@@ -149,4 +326,27 @@ public class NetworkTileController implements HttpController {
         }
     }
 
+    private static class GeneralizationKey {
+        final String bundleId;
+        final int zoom;
+
+        GeneralizationKey (String bundleId, int zoom) {
+            this.bundleId = bundleId;
+            this.zoom = zoom;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+            GeneralizationKey key = (GeneralizationKey) other;
+            return zoom == key.zoom && bundleId.equals(key.bundleId);
+        }
+
+        @Override
+        public int hashCode () {
+            return Objects.hash(bundleId, zoom);
+        }
+    }
+
 }
\ No newline at end of file
@@ -1,15 +1,22 @@
 package com.conveyal.analysis.controllers;
 
 import com.conveyal.analysis.AnalysisServerException;
+import com.conveyal.analysis.AreaAccessibilityAggregator;
+import com.conveyal.analysis.AreaAccessibilityAggregator.AreaAccessibility;
 import com.conveyal.analysis.SelectingGridReducer;
 import com.conveyal.analysis.UserPermissions;
+import com.conveyal.analysis.components.TaskScheduler;
 import com.conveyal.analysis.components.broker.Broker;
 import com.conveyal.analysis.components.broker.JobStatus;
+import com.conveyal.analysis.models.AggregationArea;
 import com.conveyal.analysis.models.AnalysisRequest;
 import com.conveyal.analysis.models.OpportunityDataset;
 import com.conveyal.analysis.models.RegionalAnalysis;
+import com.conveyal.analysis.persistence.AnalysisCollection;
+import com.conveyal.analysis.persistence.AnalysisDB;
 import com.conveyal.analysis.persistence.Persistence;
 import com.conveyal.analysis.results.CsvResultType;
+import com.conveyal.analysis.results.TimeBlockResultReader;
 import com.conveyal.analysis.util.JsonUtil;
 import com.conveyal.file.FileStorage;
 import com.conveyal.file.FileStorageFormat;
@@ -20,7 +27,9 @@ import com.conveyal.r5.analyst.Grid;
 import com.conveyal.r5.analyst.PointSet;
 import com.conveyal.r5.analyst.PointSetCache;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.progress.Task;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.primitives.Ints;
 import com.mongodb.QueryBuilder;
 import gnu.trove.list.array.TIntArrayList;
@@ -30,15 +39,21 @@ import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import static com.conveyal.analysis.util.JsonUtil.toJson;
@@ -48,6 +63,7 @@ import static com.conveyal.r5.transit.TransportNetworkCache.getScenarioFilename;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.mongodb.client.model.Filters.eq;
 
 /**
  * Spark HTTP handler methods that allow launching new regional analyses, as well as deleting them and fetching
@@ -66,12 +82,24 @@ public class RegionalAnalysisController implements HttpController {
 
     private static final Logger LOG = LoggerFactory.getLogger(RegionalAnalysisController.class);
 
+    /** Unless other percentiles are requested, accessibility within aggregation areas is summarized at these. */
+    private static final int[] DEFAULT_SUMMARY_PERCENTILES = new int[] {25, 50, 75};
+
     private final Broker broker;
     private final FileStorage fileStorage;
+    private final TaskScheduler taskScheduler;
+    private final AnalysisCollection<AggregationArea> aggregationAreaCollection;
+
+    /** IDs of regional analyses whose travel times are currently being converted to CSV in a background task. */
+    private final Set<String> timesCsvDerivationsInProgress = ConcurrentHashMap.newKeySet();
 
-    public RegionalAnalysisController (Broker broker, FileStorage fileStorage) {
+    public RegionalAnalysisController (
+            Broker broker, FileStorage fileStorage, AnalysisDB database, TaskScheduler taskScheduler
+    ) {
         this.broker = broker;
         this.fileStorage = fileStorage;
+        this.taskScheduler = taskScheduler;
+        this.aggregationAreaCollection = database.getAnalysisCollection("aggregationAreas", AggregationArea.class);
     }
 
     private Collection<RegionalAnalysis> getRegionalAnalysesForRegion(String regionId, UserPermissions userPermissions) {
@@ -157,38 +185,33 @@ public class RegionalAnalysisController implements HttpController {
     }
 
     /**
-     * This used to extract a particular percentile of a regional analysis as a grid file.
-     * Now it just gets the single percentile that exists for any one analysis, either from the local buffer file
-     * for an analysis still in progress, or from S3 for a completed analysis.
+     * Which channel to extract from regional accessibility results, which can have multiple values per origin (for
+     * different travel time cutoffs) and multiple output files per analysis (for different percentiles of travel time
+     * and/or different destination pointsets).
      */
-    private Object getRegionalResults (Request req, Response res) throws IOException {
-
-        // Get some path parameters out of the URL.
-        // The UUID of the regional analysis for which we want the output data
-        final String regionalAnalysisId = req.params("_id");
-        // The response file format: PNG, TIFF, or GRID
-        final String fileFormatExtension = req.params("format");
-
-        RegionalAnalysis analysis = Persistence.regionalAnalyses.findPermitted(
-                QueryBuilder.start("_id").is(req.params("_id")).get(),
-                DBProjection.exclude("request.scenario.modifications"),
-                UserPermissions.from(req)
-        ).iterator().next();
-
-        if (analysis == null || analysis.deleted) {
-            throw AnalysisServerException.notFound("The specified regional analysis is unknown or has been deleted.");
-        }
+    private static class ResultSelection {
+        int percentile;
+        /** The actual cutoff in minutes, not the position in the array of cutoffs. */
+        int cutoffMinutes;
+        /** The position of the cutoff in the array of cutoffs, which is the index of its value at each origin. */
+        int cutoffIndex;
+        String destinationPointSetId;
+    }
 
-        // Which channel to extract from results with multiple values per origin (for different travel time cutoffs)
-        // and multiple output files per analysis (for different percentiles of travel time and/or different
-        // destination pointsets). These initial values are for older regional analysis results with only a single
-        // cutoff, and no percentile or destination gridId in the file name.
+    /**
+     * Select the channel of regional results requested in the query parameters cutoff, percentile, and
+     * destinationPointSetId, checking that they are among those computed for the given analysis.
+     */
+    private ResultSelection selectResults (RegionalAnalysis analysis, Request req) {
+        // These initial values are for older regional analysis results with only a single cutoff, and no percentile
+        // or destination gridId in the file name.
         // For newer analyses that have multiple cutoffs, percentiles, or destination pointsets, these initial values
         // are coming from deprecated fields, are not meaningful and will be overwritten below from query parameters.
-        int percentile = analysis.travelTimePercentile;
-        int cutoffMinutes = analysis.cutoffMinutes;
-        int cutoffIndex = 0;
-        String destinationPointSetId = analysis.grid;
+        ResultSelection selection = new ResultSelection();
+        selection.percentile = analysis.travelTimePercentile;
+        selection.cutoffMinutes = analysis.cutoffMinutes;
+        selection.cutoffIndex = 0;
+        selection.destinationPointSetId = analysis.grid;
 
         // Handle newer regional analyses with multiple cutoffs in an array.
         // If a query parameter is supplied, range check it, otherwise use the middle value in the list.
@@ -196,9 +219,9 @@ public class RegionalAnalysisController implements HttpController {
         if (analysis.cutoffsMinutes != null) {
             int nCutoffs = analysis.cutoffsMinutes.length;
             checkState(nCutoffs > 0, "Regional analysis has no cutoffs.");
-            cutoffMinutes = getIntQueryParameter(req, "cutoff", analysis.cutoffsMinutes[nCutoffs / 2]);
-            cutoffIndex = new TIntArrayList(analysis.cutoffsMinutes).indexOf(cutoffMinutes);
-            checkState(cutoffIndex >= 0,
+            selection.cutoffMinutes = getIntQueryParameter(req, "cutoff", analysis.cutoffsMinutes[nCutoffs / 2]);
+            selection.cutoffIndex = new TIntArrayList(analysis.cutoffsMinutes).indexOf(selection.cutoffMinutes);
+            checkState(selection.cutoffIndex >= 0,
                     "Travel time cutoff for this regional analysis must be taken from this list: (%s)",
                     Ints.join(", ", analysis.cutoffsMinutes)
             );
@@ -210,8 +233,8 @@ public class RegionalAnalysisController implements HttpController {
         if (analysis.travelTimePercentiles != null) {
             int nPercentiles = analysis.travelTimePercentiles.length;
             checkState(nPercentiles > 0, "Regional analysis has no percentiles.");
-            percentile = getIntQueryParameter(req, "percentile", analysis.travelTimePercentiles[nPercentiles / 2]);
-            checkArgument(new TIntArrayList(analysis.travelTimePercentiles).contains(percentile),
+            selection.percentile = getIntQueryParameter(req, "percentile", analysis.travelTimePercentiles[nPercentiles / 2]);
+            checkArgument(new TIntArrayList(analysis.travelTimePercentiles).contains(selection.percentile),
                     "Percentile for this regional analysis must be taken from this list: (%s)",
                     Ints.join(", ", analysis.travelTimePercentiles));
         }
@@ -220,14 +243,76 @@ public class RegionalAnalysisController implements HttpController {
         if (analysis.destinationPointSetIds != null) {
             int nGrids = analysis.destinationPointSetIds.length;
             checkState(nGrids > 0, "Regional analysis has no grids.");
-            destinationPointSetId = req.queryParams("destinationPointSetId");
-            if (destinationPointSetId == null) {
-                destinationPointSetId = analysis.destinationPointSetIds[0];
+            selection.destinationPointSetId = req.queryParams("destinationPointSetId");
+            if (selection.destinationPointSetId == null) {
+                selection.destinationPointSetId = analysis.destinationPointSetIds[0];
             }
-            checkArgument(Arrays.asList(analysis.destinationPointSetIds).contains(destinationPointSetId),
+            checkArgument(Arrays.asList(analysis.destinationPointSetIds).contains(selection.destinationPointSetId),
                     "Destination gridId must be one of: %s",
                     String.join(",", analysis.destinationPointSetIds));
         }
+        return selection;
+    }
+
+    /**
+     * Find the stored regional results file holding all cutoffs for the selected percentile and destination pointset.
+     * Older regional analyses did not have arrays allowing multiple cutoffs, percentiles, or destination pointsets.
+     * The filenames of such regional accessibility results will not have a percentile or pointset ID.
+     */
+    private FileStorageKey findMultiCutoffResults (RegionalAnalysis analysis, ResultSelection selection) {
+        // First try the newest form of regional results: multi-percentile, multi-destination-grid.
+        String multiCutoffKey = String.format("%s_%s_P%d.access", analysis._id, selection.destinationPointSetId, selection.percentile);
+        FileStorageKey multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
+        if (!fileStorage.exists(multiCutoffFileStorageKey)) {
+            LOG.warn("Falling back to older file name formats for regional results file: " + multiCutoffKey);
+            // Fall back to second-oldest form: multi-percentile, single destination grid.
+            multiCutoffKey = String.format("%s_P%d.access", analysis._id, selection.percentile);
+            multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
+            if (fileStorage.exists(multiCutoffFileStorageKey)) {
+                checkArgument(analysis.destinationPointSetIds.length == 1);
+            } else {
+                // Fall back on oldest form of results, single-percentile, single-destination-grid.
+                multiCutoffKey = analysis._id + ".access";
+                multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
+                if (fileStorage.exists(multiCutoffFileStorageKey)) {
+                    checkArgument(analysis.travelTimePercentiles.length == 1);
+                    checkArgument(analysis.destinationPointSetIds.length == 1);
+                } else {
+                    throw AnalysisServerException.notFound("Cannot find original source regional analysis output.");
+                }
+            }
+        }
+        return multiCutoffFileStorageKey;
+    }
+
+    /**
+     * This used to extract a particular percentile of a regional analysis as a grid file.
+     * Now it just gets the single percentile that exists for any one analysis, either from the local buffer file
+     * for an analysis still in progress, or from S3 for a completed analysis.
+     */
+    private Object getRegionalResults (Request req, Response res) throws IOException {
+
+        // Get some path parameters out of the URL.
+        // The UUID of the regional analysis for which we want the output data
+        final String regionalAnalysisId = req.params("_id");
+        // The response file format: PNG, TIFF, or GRID
+        final String fileFormatExtension = req.params("format");
+
+        RegionalAnalysis analysis = Persistence.regionalAnalyses.findPermitted(
+                QueryBuilder.start("_id").is(req.params("_id")).get(),
+                DBProjection.exclude("request.scenario.modifications"),
+                UserPermissions.from(req)
+        ).iterator().next();
+
+        if (analysis == null || analysis.deleted) {
+            throw AnalysisServerException.notFound("The specified regional analysis is unknown or has been deleted.");
+        }
+
+        ResultSelection selection = selectResults(analysis, req);
+        final int percentile = selection.percentile;
+        final int cutoffMinutes = selection.cutoffMinutes;
+        final int cutoffIndex = selection.cutoffIndex;
+        final String destinationPointSetId = selection.destinationPointSetId;
 
         // We started implementing the ability to retrieve and display partially completed analyses.
         // We eventually decided these should not be available here at the same endpoint as complete, immutable results.
@@ -258,32 +343,9 @@ public class RegionalAnalysisController implements HttpController {
         FileStorageKey singleCutoffFileStorageKey = new FileStorageKey(RESULTS, singleCutoffKey);
         if (!fileStorage.exists(singleCutoffFileStorageKey)) {
             // An accessibility grid for this particular cutoff has apparently never been extracted from the
-            // regional results file before. Extract one and save it for future reuse. Older regional analyses
-            // did not have arrays allowing multiple cutoffs, percentiles, or destination pointsets. The
-            // filenames of such regional accessibility results will not have a percentile or pointset ID.
-            // First try the newest form of regional results: multi-percentile, multi-destination-grid.
-            String multiCutoffKey = String.format("%s_%s_P%d.access", regionalAnalysisId, destinationPointSetId, percentile);
-            FileStorageKey multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
-            if (!fileStorage.exists(multiCutoffFileStorageKey)) {
-                LOG.warn("Falling back to older file name formats for regional results file: " + multiCutoffKey);
-                // Fall back to second-oldest form: multi-percentile, single destination grid.
-                multiCutoffKey = String.format("%s_P%d.access", regionalAnalysisId, percentile);
-                multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
-                if (fileStorage.exists(multiCutoffFileStorageKey)) {
-                    checkArgument(analysis.destinationPointSetIds.length == 1);
-                } else {
-                    // Fall back on oldest form of results, single-percentile, single-destination-grid.
-                    multiCutoffKey = regionalAnalysisId + ".access";
-                    multiCutoffFileStorageKey = new FileStorageKey(RESULTS, multiCutoffKey);
-                    if (fileStorage.exists(multiCutoffFileStorageKey)) {
-                        checkArgument(analysis.travelTimePercentiles.length == 1);
-                        checkArgument(analysis.destinationPointSetIds.length == 1);
-                    } else {
-                        throw AnalysisServerException.notFound("Cannot find original source regional analysis output.");
-                    }
-                }
-            }
-            LOG.debug("Single-cutoff grid {} not found on S3, deriving it from {}.", singleCutoffKey, multiCutoffKey);
+            // regional results file before. Extract one and save it for future reuse.
+            FileStorageKey multiCutoffFileStorageKey = findMultiCutoffResults(analysis, selection);
+            LOG.debug("Single-cutoff grid {} not found on S3, deriving it from {}.", singleCutoffKey, multiCutoffFileStorageKey.path);
 
             InputStream multiCutoffInputStream = new FileInputStream(fileStorage.getFile(multiCutoffFileStorageKey));
             Grid grid = new SelectingGridReducer(cutoffIndex).compute(multiCutoffInputStream);
@@ -310,7 +372,91 @@ public class RegionalAnalysisController implements HttpController {
         );
     }
 
-    private String getCsvResults (Request req, Response res) {
+    /**
+     * Summarize the accessibility results of a completed regional analysis within each aggregation area in the data
+     * group given by the dataGroupId query parameter, for example the population-weighted 25th percentile of access to
+     * jobs in every ward of a city. The cutoff, percentile, and destination pointset are selected with the same query
+     * parameters as getRegionalResults. Each origin is weighted by the proportion of its pixel within the area,
+     * multiplied by the value of the opportunity dataset given by weightsOpportunityDatasetId if any. The percentiles of
+     * weighted accessibility to report can be supplied as comma-separated values in summaryPercentiles.
+     */
+    private List<ObjectNode> getAggregatedAccessibility (Request req, Response res) throws IOException {
+        final UserPermissions userPermissions = UserPermissions.from(req);
+        RegionalAnalysis analysis = Persistence.regionalAnalyses.findPermitted(
+                QueryBuilder.start("_id").is(req.params("_id")).get(),
+                DBProjection.exclude("request.scenario.modifications"),
+                userPermissions
+        ).iterator().next();
+        if (analysis == null || analysis.deleted) {
+            throw AnalysisServerException.notFound("The specified regional analysis is unknown or has been deleted.");
+        }
+        if (broker.findJob(analysis._id) != null) {
+            throw AnalysisServerException.notFound("Analysis is incomplete, no results file is available.");
+        }
+        ResultSelection selection = selectResults(analysis, req);
+
+        String dataGroupId = req.queryParams("dataGroupId");
+        checkArgument(dataGroupId != null, "You must supply the dataGroupId of the aggregation areas.");
+        List<AggregationArea> aggregationAreas =
+                aggregationAreaCollection.findPermitted(eq("dataGroupId", dataGroupId), userPermissions);
+        if (aggregationAreas.isEmpty()) {
+            throw AnalysisServerException.notFound("No aggregation areas were found in the specified data group.");
+        }
+
+        Grid weightGrid = null;
+        String weightsId = req.queryParams("weightsOpportunityDatasetId");
+        if (weightsId != null) {
+            OpportunityDataset weights = Persistence.opportunityDatasets.findByIdIfPermitted(weightsId, userPermissions);
+            File weightsFile = fileStorage.getFile(weights.getStorageKey(FileStorageFormat.GRID));
+            weightGrid = Grid.read(new GZIPInputStream(new FileInputStream(weightsFile))); // closes input stream
+        }
+
+        int[] summaryPercentiles = DEFAULT_SUMMARY_PERCENTILES;
+        String summaryPercentilesParam = req.queryParams("summaryPercentiles");
+        if (summaryPercentilesParam != null) {
+            summaryPercentiles = Arrays.stream(summaryPercentilesParam.split(","))
+                    .mapToInt(p -> Integer.parseInt(p.trim()))
+                    .toArray();
+        }
+
+        AreaAccessibilityAggregator aggregator = new AreaAccessibilityAggregator(
+                AreaAccessibilityAggregator.loadPixelWeights(aggregationAreas, fileStorage), weightGrid
+        );
+        AreaAccessibility[] summaries;
+        File accessFile = fileStorage.getFile(findMultiCutoffResults(analysis, selection));
+        try (InputStream accessInput = new FileInputStream(accessFile)) {
+            summaries = aggregator.compute(accessInput, selection.cutoffIndex, summaryPercentiles);
+        }
+
+        List<ObjectNode> results = new ArrayList<>(aggregationAreas.size());
+        for (int a = 0; a < aggregationAreas.size(); a++) {
+            AggregationArea aggregationArea = aggregationAreas.get(a);
+            AreaAccessibility summary = summaries[a];
+            ObjectNode result = JsonUtil.objectNode()
+                    .put("aggregationAreaId", aggregationArea._id.toString())
+                    .put("name", aggregationArea.name)
+                    .put("totalWeight", summary.totalWeight);
+            // Areas containing no weighted origins have no mean or percentiles, and NaN is not valid JSON.
+            ObjectNode percentiles = JsonUtil.objectNode();
+            for (int p = 0; p < summaryPercentiles.length; p++) {
+                putUnlessNaN(percentiles, Integer.toString(summaryPercentiles[p]), summary.percentiles[p]);
+            }
+            putUnlessNaN(result, "mean", summary.mean);
+            result.set("percentiles", percentiles);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static void putUnlessNaN (ObjectNode node, String fieldName, double value) {
+        if (Double.isNaN(value)) {
+            node.putNull(fieldName);
+        } else {
+            node.put(fieldName, value);
+        }
+    }
+
+    private String getCsvResults (Request req, Response res) throws IOException {
         final String regionalAnalysisId = req.params("_id");
         final CsvResultType resultType = CsvResultType.valueOf(req.params("resultType").toUpperCase());
         // If the resultType parameter received on the API is unrecognized, valueOf throws IllegalArgumentException
@@ -326,6 +472,16 @@ public class RegionalAnalysisController implements HttpController {
         }
 
         String storageKey = analysis.resultStorage.get(resultType);
+        if (storageKey == null && resultType == CsvResultType.TIMES && analysis.travelTimeBlockStorage != null) {
+            String csvFileName = analysis._id + "_" + CsvResultType.TIMES + ".csv";
+            if (!fileStorage.exists(new FileStorageKey(RESULTS, csvFileName))) {
+                startDerivingTimesCsv(analysis, csvFileName, UserPermissions.from(req));
+                res.status(202);
+                res.type("text/plain");
+                return "Travel times for this regional analysis are being converted to CSV. Try again later.";
+            }
+            storageKey = csvFileName;
+        }
         if (storageKey == null) {
             throw AnalysisServerException.notFound("This regional analysis does not contain CSV results of type " + resultType);
         }
@@ -336,6 +492,58 @@ public class RegionalAnalysisController implements HttpController {
         return fileStorage.getURL(fileStorageKey);
     }
 
+    /**
+     * Travel times for jobs too large for a CSV are stored in the compact block format written by
+     * TimeBlockResultWriter. Convert them to the CSV format a smaller job would have produced, the first time they are
+     * requested, and keep the CSV in file storage for later requests. The conversion can take many minutes for the
+     * largest jobs, so it is run as a background task, and at most one conversion is run at a time for each analysis.
+     */
+    private void startDerivingTimesCsv (RegionalAnalysis analysis, String csvFileName, UserPermissions userPermissions) {
+        FileStorageKey blockKey = new FileStorageKey(RESULTS, analysis.travelTimeBlockStorage);
+        if (!fileStorage.exists(blockKey)) {
+            throw AnalysisServerException.notFound("Travel times for this regional analysis are not yet available.");
+        }
+        if (!timesCsvDerivationsInProgress.add(analysis._id)) {
+            return;
+        }
+        try {
+            taskScheduler.enqueue(Task.create("Converting travel times to CSV: " + analysis.name)
+                    .forUser(userPermissions)
+                    .setHeavy(true)
+                    .withAction(progressListener -> {
+                        try {
+                            deriveTimesCsv(analysis, blockKey, new FileStorageKey(RESULTS, csvFileName));
+                        } finally {
+                            timesCsvDerivationsInProgress.remove(analysis._id);
+                        }
+                    }));
+        } catch (RuntimeException e) {
+            timesCsvDerivationsInProgress.remove(analysis._id);
+            throw e;
+        }
+    }
+
+    private void deriveTimesCsv (RegionalAnalysis analysis, FileStorageKey blockKey, FileStorageKey csvKey)
+            throws IOException {
+        // A previous conversion may have finished between the caller's check and this task being enqueued.
+        if (fileStorage.exists(csvKey)) return;
+        LOG.info("Deriving travel time CSV {} from {}.", csvKey.path, analysis.travelTimeBlockStorage);
+        RegionalTask task = analysis.request;
+        PointSet originPointSet = PointSetCache.readFreeFormFromFileStore(task.originPointSetKey);
+        PointSet destinationPointSet = PointSetCache.readFreeFormFromFileStore(task.destinationPointSetKeys[0]);
+        // Like the CSV files written by CsvResultWriter, this is gzipped but stored with a .csv extension.
+        File localFile = FileUtils.createScratchFile("csv");
+        try (TimeBlockResultReader reader = new TimeBlockResultReader(fileStorage.getFile(blockKey));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(localFile))))
+        ) {
+            reader.writeCsv(writer, originPointSet, destinationPointSet);
+        } catch (IOException e) {
+            localFile.delete();
+            throw e;
+        }
+        fileStorage.moveIntoStorage(csvKey, localFile);
+    }
+
     /**
      * Deserialize a description of a new regional analysis (an AnalysisRequest object) POSTed as JSON over the HTTP API.
      * Derive an internal RegionalAnalysis object, which is enqueued in the broker and also returned to the caller
@@ -550,6 +758,7 @@ public class RegionalAnalysisController implements HttpController {
             sparkService.get("/:_id", this::getRegionalAnalysis);
             sparkService.get("/:_id/grid/:format", this::getRegionalResults);
             sparkService.get("/:_id/csv/:resultType", this::getCsvResults);
+            sparkService.get("/:_id/aggregate", this::getAggregatedAccessibility, toJson);
             sparkService.get("/:_id/scenarioJsonUrl", this::getScenarioJsonUrl);
             sparkService.delete("/:_id", this::deleteRegionalAnalysis, toJson);
             sparkService.post("", this::createRegionalAnalysis, toJson);
@@ -15,6 +15,7 @@ import com.conveyal.file.FileStorage;
 import com.conveyal.file.FileStorageKey;
 import com.conveyal.file.FileUtils;
 import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.SparsePixelWeights;
 import com.conveyal.r5.analyst.progress.ProgressListener;
 import com.conveyal.r5.analyst.progress.WorkProduct;
 import com.conveyal.r5.util.ShapefileReader;
@@ -216,6 +217,11 @@ public class AggregationAreaDerivation implements DataDerivation<SpatialDataSour
                 aggregationArea.dataGroupId = dataGroup._id.toString();
                 aggregationAreas.add(aggregationArea);
                 fileStorage.moveIntoStorage(aggregationArea.getStorageKey(), gridFile);
+                // Also store the weights sparsely, for aggregating results on the backend without rasterizing again.
+                File weightsFile = FileUtils.createScratchFile("weights");
+                SparsePixelWeights.fromPixelWeights(weights, maskGrid.extents)
+                        .write(new GZIPOutputStream(FileUtils.getOutputStream(weightsFile)));
+                fileStorage.moveIntoStorage(aggregationArea.getPixelWeightsStorageKey(), weightsFile);
             } catch (IOException e) {
                 throw new AnalysisServerException("Error processing/uploading aggregation area");
             }
@@ -15,6 +15,10 @@ import static com.conveyal.file.FileCategory.GRIDS;
  * An aggregation area is defined by a polygon that has been rasterized and stored as a grid, with each pixel value
  * expressing how much of that pixel falls within the mask polygon. These values are in the range of 0 to 100,000
  * (rather than 0 to 1) because our serialized (on-disk) grid format can only store integers.
+ *
+ * The same weights are also stored in the much more compact SparsePixelWeights format, so the backend can aggregate
+ * results to many areas without reading whole mask grids or rasterizing the polygons again. Areas created before these
+ * were introduced have only the mask grid.
  */
 public class AggregationArea extends BaseModel {
 
@@ -47,4 +51,10 @@ public class AggregationArea extends BaseModel {
         return new FileStorageKey(GRIDS, getS3Key());
     }
 
+    @JsonIgnore
+    @BsonIgnore
+    public FileStorageKey getPixelWeightsStorageKey () {
+        return new FileStorageKey(GRIDS, String.format("%s/mask/%s.weights", regionId, _id));
+    }
+
 }
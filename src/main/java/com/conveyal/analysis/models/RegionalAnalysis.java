@@ -102,6 +102,13 @@ public class RegionalAnalysis extends Model implements Cloneable {
      */
     public Map<CsvResultType, String> resultStorage = new HashMap<>();
 
+    /**
+     * For freeform analyses with too many origin-destination pairs for a travel time CSV, the file name of the compact
+     * travel time block file written instead. No TIMES entry is then recorded in resultStorage, and the CSV is derived
+     * from this file when it is first requested.
+     */
+    public String travelTimeBlockStorage;
+
     public RegionalAnalysis clone () {
         try {
             return (RegionalAnalysis) super.clone();
@@ -10,8 +10,9 @@ import java.util.List;
 
 public class AccessCsvResultWriter extends CsvResultWriter {
 
-    public AccessCsvResultWriter (RegionalTask task, FileStorage fileStorage) throws IOException {
-        super(task, fileStorage);
+    public AccessCsvResultWriter (RegionalTask task, FileStorage fileStorage, AssemblerCheckpoint checkpoint)
+            throws IOException {
+        super(task, fileStorage, checkpoint);
     }
 
     @Override
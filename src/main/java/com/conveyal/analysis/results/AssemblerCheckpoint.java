@@ -0,0 +1,181 @@
+package com.conveyal.analysis.results;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The state of a MultiOriginAssembler saved to local disk, so that a regional analysis can be resumed after the
+ * backend restarts instead of being rerun from scratch. Each job has its own directory holding the buffer files of all
+ * its result writers, alongside a small checkpoint file recording which origins had been received and the length of
+ * each buffer file at the moment the checkpoint was taken.
+ * <p>
+ * All buffer files are flushed and synced to disk before the checkpoint file is atomically replaced, so every origin
+ * marked as received in the checkpoint is durably recorded in the buffers. On resume, anything written to the buffers
+ * after the last checkpoint is truncated away, and the broker only redelivers the tasks for origins not yet received.
+ */
+public class AssemblerCheckpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AssemblerCheckpoint.class);
+
+    private static final String CHECKPOINT_FILE_NAME = "checkpoint.bin";
+
+    private static final int CHECKPOINT_FORMAT_VERSION = 0;
+
+    /** The directory holding the checkpoint file and the buffer files of all result writers for one job. */
+    public final File directory;
+
+    /** The number of origins in the job, used to check that a saved checkpoint matches the job being resumed. */
+    private final int nOrigins;
+
+    /** The origins recorded as received when this checkpoint was loaded. Empty when starting a new job. */
+    private final BitSet originsReceived;
+
+    /** The length of each buffer file at the time of the last checkpoint, keyed on the name of the file. */
+    private final Map<String, Long> bufferFileLengths;
+
+    private AssemblerCheckpoint (
+            File directory, int nOrigins, BitSet originsReceived, Map<String, Long> bufferFileLengths
+    ) {
+        this.directory = directory;
+        this.nOrigins = nOrigins;
+        this.originsReceived = originsReceived;
+        this.bufferFileLengths = bufferFileLengths;
+    }
+
+    /** @return true if a checkpoint has been saved in the given directory. */
+    public static boolean exists (File directory) {
+        return new File(directory, CHECKPOINT_FILE_NAME).isFile();
+    }
+
+    /**
+     * Load the last checkpoint saved in the given directory, or start a new empty checkpoint there if none exists.
+     * @param nOrigins the number of origins in the job, which must match any saved checkpoint.
+     */
+    public static AssemblerCheckpoint loadOrCreate (File directory, int nOrigins) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create regional checkpoint directory " + directory);
+        }
+        File checkpointFile = new File(directory, CHECKPOINT_FILE_NAME);
+        if (!checkpointFile.isFile()) {
+            return new AssemblerCheckpoint(directory, nOrigins, new BitSet(nOrigins), new HashMap<>());
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            int version = in.readInt();
+            checkState(version == CHECKPOINT_FORMAT_VERSION, "Unrecognized checkpoint format version %s.", version);
+            int nOriginsSaved = in.readInt();
+            checkState(nOriginsSaved == nOrigins, "Checkpoint has %s origins, expected %s.", nOriginsSaved, nOrigins);
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            Map<String, Long> bufferFileLengths = new HashMap<>();
+            int nBufferFiles = in.readInt();
+            for (int i = 0; i < nBufferFiles; i++) {
+                bufferFileLengths.put(in.readUTF(), in.readLong());
+            }
+            for (Map.Entry<String, Long> entry : bufferFileLengths.entrySet()) {
+                File bufferFile = new File(directory, entry.getKey());
+                if (!bufferFile.isFile() || bufferFile.length() < entry.getValue()) {
+                    // Results for origins marked as received have been lost, so they must all be computed again.
+                    LOG.error("Buffer file {} is missing or shorter than its checkpoint, discarding checkpoint.", bufferFile);
+                    return new AssemblerCheckpoint(directory, nOrigins, new BitSet(nOrigins), new HashMap<>());
+                }
+            }
+            BitSet originsReceived = BitSet.valueOf(words);
+            LOG.info("Loaded checkpoint with {} of {} origins received from {}.",
+                    originsReceived.cardinality(), nOrigins, directory);
+            return new AssemblerCheckpoint(directory, nOrigins, originsReceived, bufferFileLengths);
+        }
+    }
+
+    /** @return a copy of the origins recorded as received when this checkpoint was loaded. */
+    public BitSet getOriginsReceived () {
+        return (BitSet) originsReceived.clone();
+    }
+
+    /**
+     * Prepare the given buffer file in this checkpoint's directory for writing.
+     * @return true if the file was present in the last checkpoint and has been truncated back to its checkpointed
+     *         length, so the caller should append to it. False if the caller should initialize a new file.
+     */
+    public boolean resumeBufferFile (File bufferFile) throws IOException {
+        Long length = bufferFileLengths.get(bufferFile.getName());
+        if (length == null) {
+            bufferFile.delete();
+            return false;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(bufferFile, "rw")) {
+            randomAccessFile.setLength(length);
+        }
+        return true;
+    }
+
+    /** Record the current length of the given buffer file, which the caller must already have flushed and synced. */
+    void recordBufferFile (File bufferFile) {
+        bufferFileLengths.put(bufferFile.getName(), bufferFile.length());
+    }
+
+    /**
+     * Save the checkpoint to disk. The caller must already have recorded all of its buffer files, so that they hold
+     * results for every origin in the supplied set. The checkpoint is written to a temporary file and synced, then
+     * moved over any previous checkpoint, so a crash while saving leaves the previous checkpoint intact.
+     */
+    void save (BitSet originsReceived) throws IOException {
+        File tempFile = new File(directory, CHECKPOINT_FILE_NAME + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(CHECKPOINT_FORMAT_VERSION);
+            out.writeInt(nOrigins);
+            long[] words = originsReceived.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.writeInt(bufferFileLengths.size());
+            for (Map.Entry<String, Long> entry : bufferFileLengths.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), new File(directory, CHECKPOINT_FILE_NAME).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Delete the checkpoint directory and any files remaining in it, once the job is finished or canceled. */
+    public void delete () {
+        delete(directory);
+    }
+
+    /** Delete the given checkpoint directory and all the files in it. */
+    public static void delete (File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        if (!directory.delete()) {
+            LOG.warn("Could not delete regional checkpoint directory {}.", directory);
+        }
+    }
+
+}
@@ -39,18 +39,29 @@ public abstract class BaseResultWriter {
         this.fileStorage = fileStorage;
     }
 
-    // Can this be merged into the constructor?
-    protected void prepare (String jobId) {
-        try {
-            bufferFile = File.createTempFile(jobId + "_", ".results");
-            // On unexpected server shutdown, these files should be deleted.
-            // We could attempt to recover from shutdowns but that will take a lot of changes and persisted data.
-            bufferFile.deleteOnExit();
-        } catch (IOException e) {
-            LOG.error("Exception while creating buffer file for multi-origin assembler: " + e.toString());
-        }
+    /**
+     * Set up the buffer file with the given name in the job's checkpoint directory.
+     * Can this be merged into the constructor?
+     * @return true if the buffer file is being resumed from the checkpoint and should be appended to, or false if the
+     *         subclass should initialize a new buffer file.
+     */
+    protected boolean prepare (AssemblerCheckpoint checkpoint, String bufferFileName) throws IOException {
+        bufferFile = new File(checkpoint.directory, bufferFileName);
+        return checkpoint.resumeBufferFile(bufferFile);
     }
 
+    /**
+     * Force everything written so far onto the storage device and record the length of the buffer file in the
+     * supplied checkpoint, so that it can be resumed if the backend restarts.
+     */
+    public synchronized void checkpoint (AssemblerCheckpoint checkpoint) throws IOException {
+        syncBuffer();
+        checkpoint.recordBufferFile(bufferFile);
+    }
+
+    /** Flush any buffered output to the buffer file and sync the file to the storage device. */
+    protected abstract void syncBuffer () throws IOException;
+
     /**
      * Gzip the access grid and store it.
      */
@@ -9,8 +9,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -24,6 +25,7 @@ public abstract class CsvResultWriter extends BaseResultWriter implements Region
     private static final Logger LOG = LoggerFactory.getLogger(CsvResultWriter.class);
 
     public final String fileName;
+    private final FileOutputStream bufferOutputStream;
     private final CsvWriter csvWriter;
     private int nDataColumns;
 
@@ -50,18 +52,25 @@ public abstract class CsvResultWriter extends BaseResultWriter implements Region
 
     /**
      * Construct a writer to record incoming results in a CSV file, with header row consisting of
-     * "origin", "destination", and the supplied indicator.
+     * "origin", "destination", and the supplied indicator. If the job is being resumed from a checkpoint, rows are
+     * appended to the existing file instead, which already has its header row.
      * FIXME it's strange we're manually passing injectable components into objects not wired up at application construction.
      */
-    CsvResultWriter (RegionalTask task, FileStorage fileStorage) throws IOException {
+    CsvResultWriter (RegionalTask task, FileStorage fileStorage, AssemblerCheckpoint checkpoint) throws IOException {
         super(fileStorage);
-        super.prepare(task.jobId);
         this.fileName = task.jobId + "_" + resultType() +".csv";
-        BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(bufferFile));
+        boolean resuming = super.prepare(checkpoint, fileName);
+        bufferOutputStream = new FileOutputStream(bufferFile, resuming);
+        BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(bufferOutputStream));
         csvWriter = new CsvWriter(bufferedWriter, ',');
-        setDataColumns(columnHeaders());
+        if (resuming) {
+            this.nDataColumns = columnHeaders().length;
+        } else {
+            setDataColumns(columnHeaders());
+        }
         this.task = task;
-        LOG.info("Created CSV file to hold {} results for regional job {}", resultType(), task.jobId);
+        LOG.info("{} CSV file to hold {} results for regional job {}",
+                resuming ? "Reopened" : "Created", resultType(), task.jobId);
     }
 
     /**
@@ -103,6 +112,12 @@ public abstract class CsvResultWriter extends BaseResultWriter implements Region
         }
     }
 
+    @Override
+    protected synchronized void syncBuffer () throws IOException {
+        csvWriter.flush();
+        bufferOutputStream.getFD().sync();
+    }
+
     @Override
     public synchronized void terminate () throws Exception {
         csvWriter.close();
@@ -62,9 +62,9 @@ public class GridResultWriter extends BaseResultWriter {
     /**
      * Construct an writer for a single regional analysis result grid, using the proprietary
      * Conveyal grid format. This also creates the on-disk scratch buffer into which the results
-     * from the workers will be accumulated.
+     * from the workers will be accumulated, or reopens it if the job is being resumed from a checkpoint.
      */
-    GridResultWriter (RegionalTask task, FileStorage fileStorage) {
+    GridResultWriter (RegionalTask task, FileStorage fileStorage, AssemblerCheckpoint checkpoint, String bufferFileName) {
         super(fileStorage);
         int width = task.width;
         int height = task.height;
@@ -75,9 +75,14 @@ public class GridResultWriter extends BaseResultWriter {
             height,
             channels
         );
-        super.prepare(task.jobId);
 
         try {
+            if (super.prepare(checkpoint, bufferFileName)) {
+                // Every origin is written at a fixed offset, so results can simply be overwritten when resuming.
+                this.randomAccessFile = new RandomAccessFile(bufferFile, "rw");
+                LOG.info("Resuming accumulation of results from workers in existing file {}.", bufferFile);
+                return;
+            }
             // Write the access grid file header to the temporary file.
             FileOutputStream fos = new FileOutputStream(bufferFile);
             LittleEndianIntOutputStream data = new LittleEndianIntOutputStream(fos);
@@ -153,6 +158,12 @@ public class GridResultWriter extends BaseResultWriter {
         }
     }
 
+    @Override
+    protected synchronized void syncBuffer () throws IOException {
+        // RandomAccessFile does no buffering of its own, so only the sync is needed.
+        randomAccessFile.getFD().sync();
+    }
+
     @Override
     synchronized void terminate () throws IOException {
         randomAccessFile.close();
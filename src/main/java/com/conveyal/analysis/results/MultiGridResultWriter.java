@@ -29,7 +29,7 @@ public class MultiGridResultWriter implements RegionalResultWriter {
 
     /** Constructor */
     public MultiGridResultWriter (
-            RegionalAnalysis regionalAnalysis, RegionalTask task, FileStorage fileStorage
+            RegionalAnalysis regionalAnalysis, RegionalTask task, FileStorage fileStorage, AssemblerCheckpoint checkpoint
     ) {
         // We are storing the regional analysis just to get its pointset IDs (not keys) and its own ID.
         this.regionalAnalysis = regionalAnalysis;
@@ -40,7 +40,8 @@ public class MultiGridResultWriter implements RegionalResultWriter {
         accessibilityGridWriters = new GridResultWriter[nDestinationPointSets][nPercentiles];
         for (int d = 0; d < nDestinationPointSets; d++) {
             for (int p = 0; p < nPercentiles; p++) {
-                accessibilityGridWriters[d][p] = new GridResultWriter(task, fileStorage);
+                String bufferFileName = String.format("D%d_P%d.access", d, p);
+                accessibilityGridWriters[d][p] = new GridResultWriter(task, fileStorage, checkpoint, bufferFileName);
             }
         }
     }
@@ -62,6 +63,15 @@ public class MultiGridResultWriter implements RegionalResultWriter {
         }
     }
 
+    @Override
+    public void checkpoint (AssemblerCheckpoint checkpoint) throws Exception {
+        for (GridResultWriter[] writers : accessibilityGridWriters) {
+            for (GridResultWriter writer : writers) {
+                writer.checkpoint(checkpoint);
+            }
+        }
+    }
+
     @Override
     public void terminate () throws Exception {
         for (GridResultWriter[] writers : accessibilityGridWriters) {
@@ -12,6 +12,7 @@ import com.conveyal.r5.util.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
@@ -30,8 +31,20 @@ public class MultiOriginAssembler {
 
     private static final int MAX_FREEFORM_OD_PAIRS = 16_000_000;
 
+    /**
+     * Travel times for jobs with more origin-destination pairs than can be written to CSV are recorded in a compact
+     * binary format instead, which allows an order of magnitude more pairs.
+     */
+    private static final long MAX_FREEFORM_OD_PAIRS_TIME_BLOCKS = 160_000_000;
+
     private static final int MAX_FREEFORM_DESTINATIONS = 4_000_000;
 
+    /**
+     * How often to flush all results received so far to disk and record which origins they cover. Syncing the buffer
+     * files is not free, so we don't do it for every result, but a backend restart only loses this much work.
+     */
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 60_000;
+
     /**
      * The regional analysis for which this object is assembling results.
      * We retain the whole object rather than just its ID so we'll have the full details, e.g. destination point set
@@ -68,6 +81,12 @@ public class MultiOriginAssembler {
      */
     private final BitSet originsReceived;
 
+    /** Holds the result buffer files on local disk, and records which origins they contain to allow resuming. */
+    private final AssemblerCheckpoint checkpoint;
+
+    /** The time at which the checkpoint was last saved, in milliseconds since the epoch. */
+    private long lastCheckpointTime;
+
     /**
      * Total number of origin points for which we're expecting results. Note that the total
      * number of results received could be higher in the event of an overzealous task redelivery.
@@ -76,51 +95,68 @@ public class MultiOriginAssembler {
 
     /**
      * Constructor. This sets up one or more ResultWriters depending on whether we're writing gridded or non-gridded
-     * cumulative opportunities accessibility, or origin-destination travel times.
+     * cumulative opportunities accessibility, or origin-destination travel times. The writers keep their buffer files
+     * in the supplied checkpoint directory. If a checkpoint was already saved there (because the backend restarted
+     * while this job was running) the assembler resumes from that checkpoint, and getOriginsReceived() reveals which
+     * origins do not need to be computed again.
      * TODO do not pass the FileStorage component down into this non-component and the ResultWriter non-component,
      *      clarify design concepts on this point (e.g. only components should know other components exist).
      *      Rather than pushing the component all the way down to the leaf function call, we return the finished
      *      file up to an umbrella location where a single reference to the file storage can be used to
      *      store all of them.
      */
-    public MultiOriginAssembler (RegionalAnalysis regionalAnalysis, Job job, FileStorage fileStorage) {
+    public MultiOriginAssembler (
+            RegionalAnalysis regionalAnalysis, Job job, FileStorage fileStorage, File checkpointDirectory
+    ) {
         try {
             this.regionalAnalysis = regionalAnalysis;
             this.job = job;
             this.nOriginsTotal = job.nTasksTotal;
-            this.originsReceived = new BitSet(job.nTasksTotal);
-            // Check that origin and destination sets are not too big for generating CSV files.
+            this.checkpoint = AssemblerCheckpoint.loadOrCreate(checkpointDirectory, nOriginsTotal);
+            this.originsReceived = checkpoint.getOriginsReceived();
+            this.nComplete = originsReceived.cardinality();
+            this.lastCheckpointTime = System.currentTimeMillis();
+            // Check that origin and destination sets are not too big for generating CSV or travel time block files.
+            boolean writeTimeBlocks = false;
             if (!job.templateTask.makeTauiSite &&
                  job.templateTask.destinationPointSetKeys[0].endsWith(FileStorageFormat.FREEFORM.extension)
             ) {
                // This requires us to have already loaded this destination pointset instance into the transient field.
                 PointSet destinationPointSet = job.templateTask.destinationPointSets[0];
                 if ((job.templateTask.recordTimes || job.templateTask.includePathResults) && !job.templateTask.oneToOne) {
-                    if (nOriginsTotal * destinationPointSet.featureCount() > MAX_FREEFORM_OD_PAIRS ||
-                        destinationPointSet.featureCount() > MAX_FREEFORM_DESTINATIONS
-                    ) {
+                    long nOdPairs = (long) nOriginsTotal * destinationPointSet.featureCount();
+                    // Paths are always written to CSV, but travel times alone can use the more compact format.
+                    long maxOdPairs = job.templateTask.includePathResults
+                            ? MAX_FREEFORM_OD_PAIRS
+                            : MAX_FREEFORM_OD_PAIRS_TIME_BLOCKS;
+                    if (nOdPairs > maxOdPairs || destinationPointSet.featureCount() > MAX_FREEFORM_DESTINATIONS) {
                         throw new AnalysisServerException(String.format(
                             "Freeform requests limited to %d destinations and %d origin-destination pairs.",
-                            MAX_FREEFORM_DESTINATIONS, MAX_FREEFORM_OD_PAIRS
+                            MAX_FREEFORM_DESTINATIONS, maxOdPairs
                         ));
                     }
+                    writeTimeBlocks = nOdPairs > MAX_FREEFORM_OD_PAIRS;
                 }
             }
 
             if (job.templateTask.recordAccessibility) {
                 if (job.templateTask.originPointSet != null) {
-                    resultWriters.add(new AccessCsvResultWriter(job.templateTask, fileStorage));
+                    resultWriters.add(new AccessCsvResultWriter(job.templateTask, fileStorage, checkpoint));
                 } else {
-                    resultWriters.add(new MultiGridResultWriter(regionalAnalysis, job.templateTask, fileStorage));
+                    resultWriters.add(new MultiGridResultWriter(regionalAnalysis, job.templateTask, fileStorage, checkpoint));
                 }
             }
 
             if (job.templateTask.recordTimes) {
-                resultWriters.add(new TimeCsvResultWriter(job.templateTask, fileStorage));
+                if (writeTimeBlocks) {
+                    resultWriters.add(new TimeBlockResultWriter(job.templateTask, fileStorage, checkpoint));
+                } else {
+                    resultWriters.add(new TimeCsvResultWriter(job.templateTask, fileStorage, checkpoint));
+                }
             }
 
             if (job.templateTask.includePathResults) {
-                resultWriters.add(new PathCsvResultWriter(job.templateTask, fileStorage));
+                resultWriters.add(new PathCsvResultWriter(job.templateTask, fileStorage, checkpoint));
             }
 
             checkArgument(job.templateTask.makeTauiSite || notNullOrEmpty(resultWriters),
@@ -134,6 +170,9 @@ public class MultiOriginAssembler {
                 if (writer instanceof CsvResultWriter) {
                     CsvResultWriter csvWriter = (CsvResultWriter) writer;
                     regionalAnalysis.resultStorage.put(csvWriter.resultType(), csvWriter.fileName);
+                } else if (writer instanceof TimeBlockResultWriter) {
+                    TimeBlockResultWriter timeBlockWriter = (TimeBlockResultWriter) writer;
+                    regionalAnalysis.travelTimeBlockStorage = timeBlockWriter.fileName;
                 }
             }
         } catch (Exception e) {
@@ -155,6 +194,7 @@ public class MultiOriginAssembler {
             // of any CSV files generated. Use method that updates lock/timestamp, otherwise updates are not seen in UI.
             // TODO verify whether there is a reason to use regionalAnalyses.modifyWithoutUpdatingLock().
             Persistence.regionalAnalyses.put(regionalAnalysis);
+            checkpoint.delete();
         } catch (Exception e) {
             LOG.error("Error uploading results of multi-origin analysis {}", job.jobId, e);
         }
@@ -180,14 +220,39 @@ public class MultiOriginAssembler {
         }
         if (nComplete == nOriginsTotal) {
             finish();
+        } else if (System.currentTimeMillis() >= lastCheckpointTime + CHECKPOINT_INTERVAL_MILLIS) {
+            saveCheckpoint();
         }
     }
 
+    /**
+     * Sync all result buffer files to disk, then record which origins they contain. A checkpoint is never saved once
+     * all origins are received, so a resumed job always has tasks remaining and will finish normally.
+     */
+    private void saveCheckpoint () {
+        try {
+            for (RegionalResultWriter writer : resultWriters) {
+                writer.checkpoint(checkpoint);
+            }
+            checkpoint.save(originsReceived);
+        } catch (Exception e) {
+            // The previous checkpoint remains valid, so the job can continue. We'll try again at the next interval.
+            LOG.error("Error saving checkpoint for multi-origin analysis {}", job.jobId, e);
+        }
+        lastCheckpointTime = System.currentTimeMillis();
+    }
+
+    /** @return a copy of the set of origins for which results have been received, including any resumed ones. */
+    public synchronized BitSet getOriginsReceived () {
+        return (BitSet) originsReceived.clone();
+    }
+
     /** Clean up and cancel this grid assembler, typically when a job is canceled while still being processed. */
     public synchronized void terminate () throws Exception {
         for (RegionalResultWriter writer : resultWriters) {
             writer.terminate();
         }
+        checkpoint.delete();
     }
 
 }
@@ -11,6 +11,9 @@ interface RegionalResultWriter {
 
     void writeOneWorkResult (RegionalWorkResult workResult) throws Exception;
 
+    /** Flush and sync all buffered results to disk, recording the state of the buffers in the given checkpoint. */
+    void checkpoint (AssemblerCheckpoint checkpoint) throws Exception;
+
     void terminate () throws Exception;
 
     void finish () throws Exception;
@@ -0,0 +1,202 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.file.FileUtils;
+import com.conveyal.r5.analyst.PointSet;
+import com.csvreader.CsvWriter;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+
+import static com.conveyal.analysis.results.TimeBlockResultWriter.HEADER;
+import static com.conveyal.analysis.results.TimeBlockResultWriter.TIME_BLOCK_VERSION;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Reads the compact travel time files produced by TimeBlockResultWriter, whose format is described there. The index
+ * at the end of the file allows the travel times from any single origin to be read directly. This can also convert
+ * the whole file to the same CSV format produced by TimeCsvResultWriter, for users who need plain text.
+ */
+public class TimeBlockResultReader implements Closeable {
+
+    private final RandomAccessFile file;
+
+    /** The decompressed copy of a gzipped input file, which is deleted when this reader is closed. Null if none. */
+    private final File scratchFile;
+
+    public final int nOrigins;
+
+    /** The number of destinations for each origin, which is one in one-to-one mode. */
+    public final int nDestinations;
+
+    /** If true, the single destination for each origin is the destination point at the same index as the origin. */
+    public final boolean oneToOne;
+
+    public final int[] percentiles;
+
+    /** The offset within the file of the block for each origin, or -1 if no result was received for that origin. */
+    private final long[] blockOffsets;
+
+    /**
+     * Open a travel time block file for reading. As stored, these files are gzipped like all other regional results.
+     * Random access requires an uncompressed file, so any gzipped file will first be decompressed to a scratch file.
+     */
+    public TimeBlockResultReader (File inputFile) throws IOException {
+        if (FileUtils.isGzip(inputFile)) {
+            scratchFile = FileUtils.createScratchFile();
+            try (InputStream in = new GZIPInputStream(new FileInputStream(inputFile));
+                 OutputStream out = new FileOutputStream(scratchFile)) {
+                in.transferTo(out);
+            } catch (IOException e) {
+                scratchFile.delete();
+                throw e;
+            }
+            inputFile = scratchFile;
+        } else {
+            scratchFile = null;
+        }
+        try {
+            file = new RandomAccessFile(inputFile, "r");
+        } catch (IOException e) {
+            deleteScratchFile();
+            throw e;
+        }
+        try {
+            readHeaderLength(file);
+            nOrigins = file.readInt();
+            nDestinations = file.readInt();
+            oneToOne = file.readInt() == 1;
+            percentiles = new int[file.readInt()];
+            for (int p = 0; p < percentiles.length; p++) {
+                percentiles[p] = file.readInt();
+            }
+            file.seek(file.length() - Long.BYTES);
+            file.seek(file.readLong());
+            blockOffsets = new long[nOrigins];
+            for (int o = 0; o < nOrigins; o++) {
+                blockOffsets[o] = file.readLong();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check the fixed part of the header and skip over the rest of it.
+     * @return the total length of the header in bytes, i.e. the offset of the first block.
+     */
+    static long readHeaderLength (DataInput input) throws IOException {
+        byte[] header = new byte[HEADER.length()];
+        input.readFully(header);
+        checkState(HEADER.equals(new String(header)), "File is not in travel time block format.");
+        int version = input.readInt();
+        checkState(version == TIME_BLOCK_VERSION, "Unsupported travel time block format version %s.", version);
+        // Skip the number of origins and destinations and the one-to-one flag, then the percentiles.
+        for (int i = 0; i < 3; i++) {
+            input.readInt();
+        }
+        int nPercentiles = input.readInt();
+        for (int p = 0; p < nPercentiles; p++) {
+            input.readInt();
+        }
+        return HEADER.length() + (5L + nPercentiles) * Integer.BYTES;
+    }
+
+    /** @return true if travel times were recorded for the given origin. */
+    public boolean hasOrigin (int origin) {
+        return blockOffsets[origin] >= 0;
+    }
+
+    /**
+     * @return the travel times in minutes from the given origin, indexed on [percentile][destination], with -1 for
+     *         unreachable destinations, or null if no travel times were recorded for the given origin.
+     */
+    public synchronized int[][] getTravelTimes (int origin) throws IOException {
+        checkArgument(origin >= 0 && origin < nOrigins, "Origin index out of range.");
+        if (!hasOrigin(origin)) return null;
+        file.seek(blockOffsets[origin]);
+        checkState(file.readInt() == origin, "Index does not match block for origin %s.", origin);
+        byte[] block = new byte[file.readInt()];
+        file.readFully(block);
+        return decode(block, percentiles.length, nDestinations);
+    }
+
+    /** Reverse the encoding performed by TimeBlockResultWriter.encode(). */
+    static int[][] decode (byte[] block, int nPercentiles, int nDestinations) {
+        int[][] travelTimes = new int[nPercentiles][nDestinations];
+        int position = 0;
+        for (int p = 0; p < nPercentiles; p++) {
+            int previous = 0;
+            for (int d = 0; d < nDestinations; d++) {
+                if (p > 0) {
+                    previous = travelTimes[p - 1][d];
+                }
+                // Read one zigzag-encoded varint.
+                int zigzag = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = block[position++];
+                    zigzag |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                int delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                travelTimes[p][d] = previous + delta;
+                previous = travelTimes[p][d];
+            }
+        }
+        return travelTimes;
+    }
+
+    /**
+     * Write all travel times in this file out in the CSV format produced by TimeCsvResultWriter, with the columns
+     * origin, destination, percentile, and time. Origins for which no results were received are skipped.
+     * @param originPointSet the origin point set of the regional analysis, used to look up origin IDs.
+     * @param destinationPointSet the destination point set of the regional analysis, used to look up destination IDs.
+     */
+    public void writeCsv (Writer writer, PointSet originPointSet, PointSet destinationPointSet) throws IOException {
+        CsvWriter csvWriter = new CsvWriter(writer, ',');
+        csvWriter.writeRecord(new String[] { "origin", "destination", "percentile", "time" });
+        for (int o = 0; o < nOrigins; o++) {
+            int[][] travelTimes = getTravelTimes(o);
+            if (travelTimes == null) continue;
+            String originId = originPointSet.getId(o);
+            for (int p = 0; p < percentiles.length; p++) {
+                String percentile = Integer.toString(percentiles[p]);
+                for (int d = 0; d < nDestinations; d++) {
+                    String destinationId = destinationPointSet.getId(oneToOne ? o : d);
+                    csvWriter.writeRecord(new String[] {
+                        originId, destinationId, percentile, Integer.toString(travelTimes[p][d])
+                    });
+                }
+            }
+        }
+        csvWriter.flush();
+    }
+
+    @Override
+    public void close () throws IOException {
+        try {
+            file.close();
+        } finally {
+            deleteScratchFile();
+        }
+    }
+
+    private void deleteScratchFile () {
+        if (scratchFile != null) {
+            scratchFile.delete();
+        }
+    }
+
+}
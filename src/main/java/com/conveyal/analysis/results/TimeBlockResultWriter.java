@@ -0,0 +1,213 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.file.FileStorage;
+import com.conveyal.r5.analyst.FreeFormPointSet;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.conveyal.r5.common.Util.human;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Records origin-destination travel times from regional analyses in a compact binary format, as an alternative to
+ * TimeCsvResultWriter for jobs with too many origin-destination pairs for a CSV file to be practical. The travel times
+ * from each origin are stored as one block of variable-length integers, delta coded first across destinations and
+ * then across percentiles, which are usually very small numbers. Blocks are appended in the order results arrive, and
+ * an index of block positions by origin is added at the end, so results for any origin can be read without scanning
+ * the whole file. The file can be read and converted to CSV with TimeBlockResultReader.
+ * <p>
+ * Files look like this (all integers are big-endian):
+ * <ol>
+ * <li>Header (ASCII text "TIMEBLKS")</li>
+ * <li>(4 byte int) File format version</li>
+ * <li>(4 byte int) number of origins</li>
+ * <li>(4 byte int) number of destinations per origin (one in one-to-one mode)</li>
+ * <li>(4 byte int) one-to-one flag, 1 if the destination for each origin is the point at the same index</li>
+ * <li>(4 byte int) number of percentiles, followed by (repeated 4 byte int) each percentile</li>
+ * <li>(repeated) blocks, each consisting of (4 byte int) origin index, (4 byte int) number of bytes of data, and the
+ *     data: zigzag varint travel times in minutes, -1 for unreachable, in (percentile, destination) order. Each value
+ *     for the first percentile is relative to the previous destination, and each value for subsequent percentiles is
+ *     relative to the previous percentile at the same destination.</li>
+ * <li>(repeated 8 byte long) the file offset of the block for each origin, or -1 if none was received</li>
+ * <li>(8 byte long) the file offset at which the index of blocks begins</li>
+ * </ol>
+ * Like other regional results the file is gzipped before it is moved into file storage, which typically compresses
+ * these small varints by another factor of two or more.
+ */
+public class TimeBlockResultWriter extends BaseResultWriter implements RegionalResultWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeBlockResultWriter.class);
+
+    static final String HEADER = "TIMEBLKS";
+
+    static final int TIME_BLOCK_VERSION = 0;
+
+    public final String fileName;
+
+    private final RegionalTask task;
+
+    private final int nOrigins;
+
+    private final int nDestinations;
+
+    private final FileOutputStream bufferOutputStream;
+
+    private final DataOutputStream dataOutput;
+
+    /** The offset within the buffer file of the block for each origin, or -1 if none has been written. */
+    private final long[] blockOffsets;
+
+    /** The number of bytes written to the buffer file so far, giving the offset of the next block. */
+    private long bufferLength;
+
+    public TimeBlockResultWriter (RegionalTask task, FileStorage fileStorage, AssemblerCheckpoint checkpoint)
+            throws IOException {
+        super(fileStorage);
+        this.task = task;
+        this.fileName = task.jobId + "_times.timeblocks";
+        this.nOrigins = task.originPointSet.featureCount();
+        this.nDestinations = task.oneToOne ? 1 : task.destinationPointSets[0].featureCount();
+        this.blockOffsets = new long[nOrigins];
+        Arrays.fill(blockOffsets, -1);
+        boolean resuming = super.prepare(checkpoint, fileName);
+        if (resuming) {
+            indexExistingBlocks();
+        }
+        bufferOutputStream = new FileOutputStream(bufferFile, resuming);
+        dataOutput = new DataOutputStream(new BufferedOutputStream(bufferOutputStream));
+        if (!resuming) {
+            dataOutput.writeBytes(HEADER);
+            dataOutput.writeInt(TIME_BLOCK_VERSION);
+            dataOutput.writeInt(nOrigins);
+            dataOutput.writeInt(nDestinations);
+            dataOutput.writeInt(task.oneToOne ? 1 : 0);
+            dataOutput.writeInt(task.percentiles.length);
+            for (int percentile : task.percentiles) {
+                dataOutput.writeInt(percentile);
+            }
+            bufferLength = dataOutput.size();
+        }
+        LOG.info("{} travel time block file for regional job {}, {} origins and {} destinations.",
+                resuming ? "Reopened" : "Created", task.jobId, nOrigins, nDestinations);
+    }
+
+    /** When resuming from a checkpoint, scan through the blocks already in the buffer file to rebuild the index. */
+    private void indexExistingBlocks () throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(bufferFile)))) {
+            long offset = TimeBlockResultReader.readHeaderLength(input);
+            while (true) {
+                int origin;
+                try {
+                    origin = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int nBytes = input.readInt();
+                blockOffsets[origin] = offset;
+                ByteStreams.skipFully(input, nBytes);
+                offset += 2 * Integer.BYTES + nBytes;
+            }
+            bufferLength = offset;
+        }
+    }
+
+    @Override
+    public void writeOneWorkResult (RegionalWorkResult workResult) throws Exception {
+        checkDimension(workResult);
+        // Encode outside the synchronized block, so only the file writes are serialized.
+        byte[] block = encode(workResult.travelTimeValues);
+        synchronized (this) {
+            blockOffsets[workResult.taskId] = bufferLength;
+            dataOutput.writeInt(workResult.taskId);
+            dataOutput.writeInt(block.length);
+            dataOutput.write(block);
+            bufferLength += 2 * Integer.BYTES + block.length;
+        }
+    }
+
+    private void checkDimension (RegionalWorkResult workResult) {
+        checkState(
+            task.destinationPointSets != null &&
+            task.destinationPointSets.length == 1 &&
+            task.destinationPointSets[0] instanceof FreeFormPointSet,
+            "Travel time block writer expects only a single freeform destination pointset."
+        );
+        CsvResultWriter.checkDimension(workResult, "percentiles", workResult.travelTimeValues.length, task.percentiles.length);
+        for (int[] percentileResult : workResult.travelTimeValues) {
+            CsvResultWriter.checkDimension(workResult, "destinations", percentileResult.length, nDestinations);
+        }
+    }
+
+    /** Delta and varint encode the travel times from a single origin, as described in the class Javadoc. */
+    static byte[] encode (int[][] travelTimes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(travelTimes.length * travelTimes[0].length);
+        int[] previousPercentile = null;
+        for (int[] percentileResult : travelTimes) {
+            int previous = 0;
+            for (int d = 0; d < percentileResult.length; d++) {
+                int travelTime = unreachableAsNegative(percentileResult[d]);
+                if (previousPercentile != null) {
+                    previous = unreachableAsNegative(previousPercentile[d]);
+                }
+                writeVarint(bytes, travelTime - previous);
+                previous = travelTime;
+            }
+            previousPercentile = percentileResult;
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Replace 2^31 with the same less arcane value used in CSV exports, which also keeps deltas small. */
+    private static int unreachableAsNegative (int travelTime) {
+        return (travelTime == Integer.MAX_VALUE) ? -1 : travelTime;
+    }
+
+    /** Write a signed int as a zigzag-encoded varint, using one byte for values between -64 and 63. */
+    private static void writeVarint (ByteArrayOutputStream bytes, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            bytes.write((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        bytes.write(zigzag);
+    }
+
+    /** Append the index of blocks, gzip the file and move it into file storage. */
+    @Override
+    public synchronized void finish () throws IOException {
+        for (long blockOffset : blockOffsets) {
+            dataOutput.writeLong(blockOffset);
+        }
+        dataOutput.writeLong(bufferLength);
+        dataOutput.close();
+        LOG.info("Wrote travel times for {} origins in {}.", nOrigins, human(bufferFile.length(), "B"));
+        super.finish(fileName);
+    }
+
+    @Override
+    protected synchronized void syncBuffer () throws IOException {
+        dataOutput.flush();
+        bufferOutputStream.getFD().sync();
+    }
+
+    @Override
+    public synchronized void terminate () throws IOException {
+        dataOutput.close();
+        bufferFile.delete();
+    }
+
+}
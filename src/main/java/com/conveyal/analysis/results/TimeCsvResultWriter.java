@@ -14,8 +14,9 @@ import static com.google.common.base.Preconditions.checkState;
 
 public class TimeCsvResultWriter extends CsvResultWriter {
 
-    public TimeCsvResultWriter (RegionalTask task, FileStorage fileStorage) throws IOException {
-        super(task, fileStorage);
+    public TimeCsvResultWriter (RegionalTask task, FileStorage fileStorage, AssemblerCheckpoint checkpoint)
+            throws IOException {
+        super(task, fileStorage, checkpoint);
     }
 
     @Override
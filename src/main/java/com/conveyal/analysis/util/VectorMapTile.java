@@ -69,7 +69,7 @@ public class VectorMapTile {
      * Complex street geometries will be simplified, but the geometry will not deviate from the original by more
      * than this many tile units. These are minuscule at 1/4096 of the tile width or height.
      */
-    private static final int LINE_SIMPLIFY_TOLERANCE = 5;
+    public static final int LINE_SIMPLIFY_TOLERANCE = 5;
 
     // Add a buffer to the tile envelope to make sure any artifacts are outside it.
     private static final double TILE_BUFFER_PROPORTION = 0.05;
@@ -127,6 +127,22 @@ public class VectorMapTile {
         return Math.toDegrees(Math.atan(Math.sinh(n)));
     }
 
+    /** The inverse of tile2lon: the number of the tile containing the given longitude, clamped to the valid range. */
+    public static int lon2tile (double lon, int zoom) {
+        int nTiles = 1 << zoom;
+        int xTile = (int) Math.floor((lon + 180) / 360 * nTiles);
+        return Math.max(0, Math.min(nTiles - 1, xTile));
+    }
+
+    /** The inverse of tile2lat: the number of the tile containing the given latitude, clamped to the valid range. */
+    public static int lat2tile (double lat, int zoom) {
+        int nTiles = 1 << zoom;
+        double latRadians = Math.toRadians(lat);
+        double n = Math.log(Math.tan(latRadians) + 1 / Math.cos(latRadians));
+        int yTile = (int) Math.floor((1 - n / Math.PI) / 2 * nTiles);
+        return Math.max(0, Math.min(nTiles - 1, yTile));
+    }
+
     /**
      * Run clipScaleAndSimplify on a List of LineStrings. Ensures the user data is copied into the new geometries.
      */
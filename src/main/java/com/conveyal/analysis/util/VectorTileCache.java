@@ -0,0 +1,124 @@
+package com.conveyal.analysis.util;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+/**
+ * A two-level cache of encoded Mapbox vector tiles, keyed on a bundle ID and the Z/X/Y tile numbers. Tiles are held
+ * in a Caffeine LoadingCache bounded by their total size in bytes, which gives granular per-key locking so concurrent
+ * requests for the same tile render it only once. If a disk directory is supplied, every rendered tile is also saved
+ * there in a Z/X/Y directory tree (like an exploded MBTiles file) so tiles survive eviction and restarts. Tiles are
+ * assumed to be immutable for a given bundle ID, so nothing is ever invalidated: callers should include anything that
+ * could change the tile contents (such as file format versions) in the name of the disk directory.
+ */
+public class VectorTileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VectorTileCache.class);
+
+    /** The maximum total size of the tiles held in memory. */
+    private static final long MAX_CACHED_BYTES = 64 * 1024 * 1024;
+
+    /** Added to the size of each tile when weighing it, so even empty tiles count against the memory limit. */
+    private static final int TILE_OVERHEAD_BYTES = 64;
+
+    /** Renders one tile. This is called at most once per tile while the tile remains in memory or on disk. */
+    public interface TileRenderer {
+        byte[] render (String bundleId, int zoom, int x, int y);
+    }
+
+    private final TileRenderer renderer;
+
+    /** The root of the on-disk tile tree, or null if tiles are only cached in memory. */
+    private final File diskDirectory;
+
+    private final LoadingCache<TileKey, byte[]> cache;
+
+    public VectorTileCache (TileRenderer renderer, File diskDirectory) {
+        this.renderer = renderer;
+        this.diskDirectory = diskDirectory;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(MAX_CACHED_BYTES)
+                .weigher((TileKey key, byte[] tile) -> tile.length + TILE_OVERHEAD_BYTES)
+                .build(this::load);
+    }
+
+    /** @return the encoded tile, rendering it if it is not already in memory or on disk. */
+    public byte[] get (String bundleId, int zoom, int x, int y) {
+        return cache.get(new TileKey(bundleId, zoom, x, y));
+    }
+
+    private byte[] load (TileKey key) {
+        File tileFile = diskFile(key);
+        if (tileFile != null && tileFile.isFile()) {
+            try {
+                return Files.readAllBytes(tileFile.toPath());
+            } catch (IOException e) {
+                LOG.warn("Could not read cached tile {}, rendering it again.", tileFile, e);
+            }
+        }
+        byte[] tile = renderer.render(key.bundleId, key.zoom, key.x, key.y);
+        if (tileFile != null) {
+            save(tileFile, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Write a tile to disk. A temporary file is moved into place so that concurrent readers, including other
+     * processes sharing the directory, never see a partially written tile. Failure just leaves the tile uncached.
+     */
+    private static void save (File tileFile, byte[] tile) {
+        try {
+            File directory = tileFile.getParentFile();
+            Files.createDirectories(directory.toPath());
+            File tempFile = File.createTempFile("tile", ".tmp", directory);
+            Files.write(tempFile.toPath(), tile);
+            Files.move(tempFile.toPath(), tileFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Could not save tile {} to disk.", tileFile, e);
+        }
+    }
+
+    private File diskFile (TileKey key) {
+        if (diskDirectory == null) return null;
+        String path = String.format("%s/%d/%d/%d.mvt", key.bundleId, key.zoom, key.x, key.y);
+        return new File(diskDirectory, path);
+    }
+
+    private static class TileKey {
+        final String bundleId;
+        final int zoom;
+        final int x;
+        final int y;
+
+        TileKey (String bundleId, int zoom, int x, int y) {
+            this.bundleId = bundleId;
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+            TileKey tileKey = (TileKey) other;
+            return zoom == tileKey.zoom && x == tileKey.x && y == tileKey.y && bundleId.equals(tileKey.bundleId);
+        }
+
+        @Override
+        public int hashCode () {
+            return Objects.hash(bundleId, zoom, x, y);
+        }
+    }
+
+}
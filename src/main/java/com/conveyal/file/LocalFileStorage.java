@@ -6,8 +6,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.EnumSet;
@@ -52,8 +54,9 @@ public class LocalFileStorage implements FileStorage {
         storedFile.getParentFile().mkdirs();
         try {
             try {
-                // Move the temporary file to the permanent file location.
-                Files.move(sourceFile.toPath(), storedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                // Move the temporary file to the permanent file location. The move is atomic, so readers never see a
+                // partially written file at that location, even when another thread is replacing it.
+                moveAtomically(sourceFile.toPath(), storedFile.toPath());
             } catch (FileSystemException e) {
                 // The default Windows filesystem (NTFS) does not unlock memory-mapped files, so certain files (e.g.
                 // mapdb Write Ahead Log) cannot be moved or deleted. This workaround may cause temporary files
@@ -69,6 +72,26 @@ public class LocalFileStorage implements FileStorage {
         }
     }
 
+    /**
+     * Move a file so that it appears at the target path all at once, replacing any existing file there. A file on
+     * another filesystem (e.g. the system temporary directory) cannot simply be renamed into place, so it is first
+     * copied to a uniquely named file beside the target.
+     */
+    private static void moveAtomically (Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Path partial = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".partial");
+            try {
+                Files.copy(source, partial, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+            Files.delete(source);
+        }
+    }
+
     @Override
     public void moveIntoStorage (FileStorageKey fileStorageKey, PersistenceBuffer persistenceBuffer) {
         throw new UnsupportedOperationException("In-memory buffers are only persisted to cloud storage.");
@@ -23,8 +23,11 @@ import com.conveyal.gtfs.validator.service.GeoUtils;
 import com.conveyal.r5.analyst.progress.ProgressListener;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.PeekingIterator;
 import org.geotools.referencing.GeodeticCalculator;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.CoordinateList;
@@ -38,6 +41,7 @@ import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Fun;
 import org.mapdb.Fun.Tuple2;
+import org.mapdb.Pump;
 import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,8 +64,17 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import java.util.zip.ZipEntry;
@@ -80,6 +93,15 @@ public class GTFSFeed implements Cloneable, Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(GTFSFeed.class);
     private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
 
+    /** Number of stop times that are sorted in memory at once before being written out to a temporary file. */
+    private static final int STOP_TIME_SORT_BATCH_SIZE = 500_000;
+
+    /** Number of parsed stop times that can be waiting to be sorted before the parsing thread blocks. */
+    private static final int STOP_TIME_QUEUE_SIZE = 10_000;
+
+    /** Number of trips whose pattern keys are built in parallel before being grouped into patterns. */
+    private static final int PATTERN_KEY_CHUNK_SIZE = 10_000;
+
     /** The MapDB database handling persistence of Maps to a pair of disk files behind the scenes. */
     private DB db;
 
@@ -137,8 +159,9 @@ public class GTFSFeed implements Cloneable, Closeable {
     /**
      * Map from 2-tuples of (trip_id, stop_sequence) to StopTime entities. Tuple2's parameter types are not specified
      * because a later function call requires passing Fun.HI (an Object) as a parameter.
+     * This is not final because loading a GTFS feed replaces the empty map with one bulk-loaded from the sorted table.
      */
-    public final BTreeMap<Tuple2, StopTime> stop_times;
+    public BTreeMap<Tuple2, StopTime> stop_times;
 
     /** A fare is a fare_attribute and all fare_rules that reference that fare_attribute. TODO what is the path? */
     public final Map<String, Fare> fares;
@@ -247,7 +270,7 @@ public class GTFSFeed implements Cloneable, Closeable {
         new Transfer.Loader(this).loadTable(zip);
         new Trip.Loader(this).loadTable(zip);
         new Frequency.Loader(this).loadTable(zip);
-        new StopTime.Loader(this).loadTable(zip);
+        loadStopTimes(zip);
         zip.close();
 
         // There are conceivably cases where the extra step of identifying and naming patterns is not necessary.
@@ -325,14 +348,43 @@ public class GTFSFeed implements Cloneable, Closeable {
         // avoid having to make sure that the array has length below.
         if (stopTimes.length == 0) return Collections.emptyList();
 
+        String[] stopIds = new String[stopTimes.length];
+        int[] arrivals = new int[stopTimes.length];
+        int[] departures = new int[stopTimes.length];
+        for (int i = 0; i < stopTimes.length; i++) {
+            stopIds[i] = stopTimes[i].stop_id;
+            arrivals[i] = stopTimes[i].arrival_time;
+            departures[i] = stopTimes[i].departure_time;
+        }
+        interpolateTimes(stopIds, arrivals, departures);
+        for (int i = 0; i < stopTimes.length; i++) {
+            stopTimes[i].arrival_time = arrivals[i];
+            stopTimes[i].departure_time = departures[i];
+        }
+        return Arrays.asList(stopTimes);
+    }
+
+    /**
+     * Fill in missing arrival and departure times (Entity.INT_MISSING) for one trip in place. Stops with only one of
+     * the two times get the same value for both, and runs of stops with neither time are interpolated in proportion
+     * to the straight-line distance between stops.
+     *
+     * @param stopIds the stop_id of each stop on the trip, in order. There must be at least one stop.
+     * @param arrivals the arrival times at each stop, which will be modified.
+     * @param departures the departure times at each stop, which will be modified.
+     */
+    public void interpolateTimes (String[] stopIds, int[] arrivals, int[] departures)
+            throws FirstAndLastStopsDoNotHaveTimes {
+        int nStops = stopIds.length;
+
         // first pass: set all partially filled stop times
-        for (StopTime st : stopTimes) {
-            if (st.arrival_time != Entity.INT_MISSING && st.departure_time == Entity.INT_MISSING) {
-                st.departure_time = st.arrival_time;
+        for (int i = 0; i < nStops; i++) {
+            if (arrivals[i] != Entity.INT_MISSING && departures[i] == Entity.INT_MISSING) {
+                departures[i] = arrivals[i];
             }
 
-            if (st.arrival_time == Entity.INT_MISSING && st.departure_time != Entity.INT_MISSING) {
-                st.arrival_time = st.departure_time;
+            if (arrivals[i] == Entity.INT_MISSING && departures[i] != Entity.INT_MISSING) {
+                arrivals[i] = departures[i];
             }
         }
 
@@ -344,18 +396,18 @@ public class GTFSFeed implements Cloneable, Closeable {
 
         // it's fine to just check departure time, as the above pass ensures that all stop times have either both
         // arrival and departure times, or neither
-        if (stopTimes[0].departure_time == Entity.INT_MISSING || stopTimes[stopTimes.length - 1].departure_time == Entity.INT_MISSING) {
+        if (departures[0] == Entity.INT_MISSING || departures[nStops - 1] == Entity.INT_MISSING) {
             throw new FirstAndLastStopsDoNotHaveTimes();
         }
 
         // second pass: fill complete stop times
         int startOfInterpolatedBlock = -1;
-        for (int stopTime = 0; stopTime < stopTimes.length; stopTime++) {
+        for (int stopTime = 0; stopTime < nStops; stopTime++) {
 
-            if (stopTimes[stopTime].departure_time == Entity.INT_MISSING && startOfInterpolatedBlock == -1) {
+            if (departures[stopTime] == Entity.INT_MISSING && startOfInterpolatedBlock == -1) {
                 startOfInterpolatedBlock = stopTime;
             }
-            else if (stopTimes[stopTime].departure_time != Entity.INT_MISSING && startOfInterpolatedBlock != -1) {
+            else if (departures[stopTime] != Entity.INT_MISSING && startOfInterpolatedBlock != -1) {
                 // we have found the end of the interpolated section
                 int nInterpolatedStops = stopTime - startOfInterpolatedBlock;
                 double totalLengthOfInterpolatedSection = 0;
@@ -364,8 +416,8 @@ public class GTFSFeed implements Cloneable, Closeable {
                 GeodeticCalculator calc = new GeodeticCalculator();
 
                 for (int stopTimeToInterpolate = startOfInterpolatedBlock, i = 0; stopTimeToInterpolate < stopTime; stopTimeToInterpolate++, i++) {
-                    Stop start = stops.get(stopTimes[stopTimeToInterpolate - 1].stop_id);
-                    Stop end = stops.get(stopTimes[stopTimeToInterpolate].stop_id);
+                    Stop start = stops.get(stopIds[stopTimeToInterpolate - 1]);
+                    Stop end = stops.get(stopIds[stopTimeToInterpolate]);
                     calc.setStartingGeographicPoint(start.stop_lon, start.stop_lat);
                     calc.setDestinationGeographicPoint(end.stop_lon, end.stop_lat);
                     double segLen = calc.getOrthodromicDistance();
@@ -374,14 +426,14 @@ public class GTFSFeed implements Cloneable, Closeable {
                 }
 
                 // add the segment post-last-interpolated-stop
-                Stop start = stops.get(stopTimes[stopTime - 1].stop_id);
-                Stop end = stops.get(stopTimes[stopTime].stop_id);
+                Stop start = stops.get(stopIds[stopTime - 1]);
+                Stop end = stops.get(stopIds[stopTime]);
                 calc.setStartingGeographicPoint(start.stop_lon, start.stop_lat);
                 calc.setDestinationGeographicPoint(end.stop_lon, end.stop_lat);
                 totalLengthOfInterpolatedSection += calc.getOrthodromicDistance();
 
-                int departureBeforeInterpolation = stopTimes[startOfInterpolatedBlock - 1].departure_time;
-                int arrivalAfterInterpolation = stopTimes[stopTime].arrival_time;
+                int departureBeforeInterpolation = departures[startOfInterpolatedBlock - 1];
+                int arrivalAfterInterpolation = arrivals[stopTime];
                 int totalTime = arrivalAfterInterpolation - departureBeforeInterpolation;
 
                 double lengthSoFar = 0;
@@ -389,15 +441,13 @@ public class GTFSFeed implements Cloneable, Closeable {
                     lengthSoFar += lengthOfInterpolatedSections[i];
 
                     int time = (int) (departureBeforeInterpolation + totalTime * (lengthSoFar / totalLengthOfInterpolatedSection));
-                    stopTimes[stopTimeToInterpolate].arrival_time = stopTimes[stopTimeToInterpolate].departure_time = time;
+                    arrivals[stopTimeToInterpolate] = departures[stopTimeToInterpolate] = time;
                 }
 
                 // we're done with this block
                 startOfInterpolatedBlock = -1;
             }
         }
-
-        return Arrays.asList(stopTimes);
     }
 
     public Collection<Frequency> getFrequencies (String trip_id) {
@@ -418,6 +468,87 @@ public class GTFSFeed implements Cloneable, Closeable {
         return stops;
     }
 
+    /**
+     * The stop_times table is usually much bigger than all the others combined, and inserting its rows into a BTreeMap
+     * one at a time means a random-access tree update per row. Instead we parse the table on a separate thread while
+     * this thread sorts the stop times by (trip_id, stop_sequence) in batches of bounded size (spilling each sorted
+     * batch to a temporary file), then merges the batches and builds the BTreeMap bottom-up in a single pass using the
+     * MapDB data pump. As when inserting rows one by one, if several rows have the same trip_id and stop_sequence the
+     * last one in the file is kept.
+     */
+    private void loadStopTimes (ZipFile zip) throws Exception {
+        BlockingQueue<StopTime> parsedStopTimes = new ArrayBlockingQueue<>(STOP_TIME_QUEUE_SIZE);
+        StopTime.Loader loader = new StopTime.Loader(this, parsedStopTimes);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> parsing = executor.submit(() -> {
+                loader.loadTable(zip);
+                return null;
+            });
+            Iterator<StopTime> parsedIterator = new Iterator<>() {
+                StopTime next = null;
+                @Override
+                public boolean hasNext () {
+                    if (next == null) next = takeStopTime(parsedStopTimes, parsing);
+                    return next != null;
+                }
+                @Override
+                public StopTime next () {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    StopTime stopTime = next;
+                    next = null;
+                    return stopTime;
+                }
+            };
+            PeekingIterator<StopTime> sorted = Iterators.peekingIterator(Pump.sort(parsedIterator, false,
+                    STOP_TIME_SORT_BATCH_SIZE, StopTime.DESCENDING_KEY_ORDER, StopTime.SORT_SERIALIZER));
+            Iterator<Tuple2<Tuple2, StopTime>> pumpSource = new Iterator<>() {
+                @Override
+                public boolean hasNext () {
+                    return sorted.hasNext();
+                }
+                @Override
+                public Tuple2<Tuple2, StopTime> next () {
+                    StopTime stopTime = sorted.next();
+                    // Duplicate keys are adjacent with the last one in the file first. Keep that one, skip the others.
+                    while (sorted.hasNext() && sorted.peek().stop_sequence == stopTime.stop_sequence
+                            && Objects.equals(sorted.peek().trip_id, stopTime.trip_id)) {
+                        sorted.next();
+                    }
+                    return new Tuple2<>(new Tuple2(stopTime.trip_id, stopTime.stop_sequence), stopTime);
+                }
+            };
+            // The pump can only create a new map, so replace the empty one made when this feed was constructed.
+            db.delete("stop_times");
+            stop_times = db.createTreeMap("stop_times").pumpSource(pumpSource).make();
+            // Rethrow any exception that happened while parsing, even if it was after the last row was handed over.
+            parsing.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait for the next stop time from the parsing thread.
+     * @return the next stop time, or null if the parsing thread has finished and all its output has been consumed.
+     */
+    private static StopTime takeStopTime (BlockingQueue<StopTime> parsedStopTimes, Future<?> parsing) {
+        try {
+            while (true) {
+                StopTime stopTime = parsedStopTimes.poll(100, TimeUnit.MILLISECONDS);
+                if (stopTime != null) return stopTime;
+                if (parsing.isDone()) {
+                    parsing.get();
+                    return parsedStopTimes.poll();
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new GtfsLibException("Error loading stop_times table.", e.getCause());
+        } catch (InterruptedException e) {
+            throw new GtfsLibException("Interrupted while loading stop_times table.", e);
+        }
+    }
+
     /**
      * Bin all trips by stop sequence and pick/drop sequences.
      * A map from a list of stop IDs to a list of Trip IDs that visit those stops in that sequence.
@@ -430,28 +561,31 @@ public class GTFSFeed implements Cloneable, Closeable {
             throw new GtfsLibException("Patterns should only be found once, after all trips are loaded.");
         }
         if (progressListener != null) progressListener.beginTask("Grouping trips into patterns.", trips.size());
+        // Reading the stop times of each trip is independent of all other trips and MapDB maps are threadsafe, so
+        // build the keys in parallel. To keep memory use proportional to the number of distinct patterns rather than
+        // the number of stop times, trips are handled in chunks: the keys of one chunk are grouped on this thread (in
+        // trip ID order, so the resulting patterns do not depend on thread scheduling) before the next chunk is read,
+        // and keys equal to one already seen are dropped.
+        Multimap<TripPatternKey, String> tripsForPattern = LinkedHashMultimap.create();
         int n = 0;
-        Multimap<TripPatternKey, String> tripsForPattern = HashMultimap.create();
-        for (String trip_id : trips.keySet()) {
-            if (++n % 100000 == 0) {
+        for (List<String> tripIds : Iterables.partition(trips.keySet(), PATTERN_KEY_CHUNK_SIZE)) {
+            List<TripPatternKey> keys = tripIds.parallelStream()
+                    .map(this::patternKeyForTrip)
+                    .collect(Collectors.toList());
+            for (int i = 0; i < tripIds.size(); i++) {
+                tripsForPattern.put(keys.get(i), tripIds.get(i));
+            }
+            n += tripIds.size();
+            if (n % 100_000 == 0) {
                 LOG.info("trip {}", human(n));
             }
-
-            Trip trip = trips.get(trip_id);
-
-            // no need to scope ID here, this is in the context of a single object
-            TripPatternKey key = new TripPatternKey(trip.route_id);
-
-            StreamSupport.stream(getOrderedStopTimesForTrip(trip_id).spliterator(), false)
-                    .forEach(key::addStopTime);
-
-            tripsForPattern.put(key, trip_id);
-            if (progressListener != null) progressListener.increment();
+            if (progressListener != null) progressListener.increment(tripIds.size());
         }
 
         // create an in memory list because we will rename them and they need to be immutable once they hit mapdb
-        List<Pattern> patterns = tripsForPattern.asMap().entrySet()
-                .stream()
+        // Building pattern geometries reads shapes or stop locations, which can also be done in parallel.
+        List<Pattern> patterns = new ArrayList<>(tripsForPattern.asMap().entrySet())
+                .parallelStream()
                 .map((e) -> new Pattern(this, e.getKey().stops, new ArrayList<>(e.getValue())))
                 .collect(Collectors.toList());
 
@@ -470,6 +604,13 @@ public class GTFSFeed implements Cloneable, Closeable {
         LOG.info("Total patterns: {}", tripsForPattern.keySet().size());
     }
 
+    private TripPatternKey patternKeyForTrip (String tripId) {
+        // no need to scope ID here, this is in the context of a single object
+        TripPatternKey key = new TripPatternKey(trips.get(tripId).route_id);
+        getOrderedStopTimesForTrip(tripId).forEach(key::addStopTime);
+        return key;
+    }
+
     /** destructively rename passed in patterns */
     private void namePatterns(Collection<Pattern> patterns) {
         LOG.info("Generating unique names for patterns");
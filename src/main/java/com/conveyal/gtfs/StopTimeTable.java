@@ -0,0 +1,156 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.model.StopTime;
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.conveyal.gtfs.util.Util.human;
+
+/**
+ * A column-oriented, read-only copy of the stop_times table of a GTFSFeed, held entirely in primitive arrays.
+ * Rows are in the same order as in the stop_times MapDB table, i.e. sorted by (trip_id, stop_sequence), so the stop
+ * times of each trip are a contiguous range of rows. This is built with a single in-order scan of the MapDB table,
+ * which is much faster than performing a separate range query and deserializing StopTime objects for every trip, and
+ * takes around 32 bytes per stop time. Because of that size, it is meant to be built for a single pass over all trips
+ * (as when building a TransitLayer) and then discarded, not kept alongside the feed.
+ */
+public class StopTimeTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StopTimeTable.class);
+
+    /** The trip_id of each trip that has stop times, in ascending order. */
+    public final String[] tripIds;
+
+    /** The stop times of trip t are in rows tripOffsets[t] (inclusive) to tripOffsets[t + 1] (exclusive). */
+    public final int[] tripOffsets;
+
+    /** Each distinct stop_id referenced by the table, in order of first appearance. */
+    public final String[] stopIds;
+
+    // One entry per row, i.e. per stop time.
+    /** The index within stopIds of the stop_id of each stop time. */
+    public final int[] stops;
+    public final int[] arrivalTimes;
+    public final int[] departureTimes;
+    public final int[] stopSequences;
+    public final int[] pickupTypes;
+    public final int[] dropOffTypes;
+    public final double[] shapeDistTraveled;
+
+    private final TObjectIntMap<String> indexForTripId;
+
+    private StopTimeTable (List<String> tripIds, TIntList tripOffsets, List<String> stopIds, TIntList stops,
+                           TIntList arrivalTimes, TIntList departureTimes, TIntList stopSequences,
+                           TIntList pickupTypes, TIntList dropOffTypes, TDoubleList shapeDistTraveled) {
+        this.tripIds = tripIds.toArray(new String[0]);
+        this.tripOffsets = tripOffsets.toArray();
+        this.stopIds = stopIds.toArray(new String[0]);
+        this.stops = stops.toArray();
+        this.arrivalTimes = arrivalTimes.toArray();
+        this.departureTimes = departureTimes.toArray();
+        this.stopSequences = stopSequences.toArray();
+        this.pickupTypes = pickupTypes.toArray();
+        this.dropOffTypes = dropOffTypes.toArray();
+        this.shapeDistTraveled = shapeDistTraveled.toArray();
+        this.indexForTripId = new TObjectIntHashMap<>(this.tripIds.length, 0.5f, -1);
+        for (int t = 0; t < this.tripIds.length; t++) {
+            indexForTripId.put(this.tripIds[t], t);
+        }
+    }
+
+    /** Copy all stop times out of the given feed in a single pass. Stop times with no trip_id are skipped. */
+    public static StopTimeTable fromFeed (GTFSFeed feed) {
+        LOG.info("Building columnar stop times table for feed {}.", feed.feedId);
+        List<String> tripIds = new ArrayList<>();
+        TIntList tripOffsets = new TIntArrayList();
+        List<String> stopIds = new ArrayList<>();
+        TObjectIntMap<String> indexForStopId = new TObjectIntHashMap<>(1000, 0.5f, -1);
+        TIntList stops = new TIntArrayList();
+        TIntList arrivalTimes = new TIntArrayList();
+        TIntList departureTimes = new TIntArrayList();
+        TIntList stopSequences = new TIntArrayList();
+        TIntList pickupTypes = new TIntArrayList();
+        TIntList dropOffTypes = new TIntArrayList();
+        TDoubleList shapeDistTraveled = new TDoubleArrayList();
+        String previousTripId = null;
+        int row = 0;
+        for (StopTime st : feed.stop_times.values()) {
+            if (st.trip_id == null) continue;
+            if (!st.trip_id.equals(previousTripId)) {
+                tripIds.add(st.trip_id);
+                tripOffsets.add(row);
+                previousTripId = st.trip_id;
+            }
+            int stopIndex = indexForStopId.get(st.stop_id);
+            if (stopIndex == -1) {
+                stopIndex = stopIds.size();
+                stopIds.add(st.stop_id);
+                indexForStopId.put(st.stop_id, stopIndex);
+            }
+            stops.add(stopIndex);
+            arrivalTimes.add(st.arrival_time);
+            departureTimes.add(st.departure_time);
+            stopSequences.add(st.stop_sequence);
+            pickupTypes.add(st.pickup_type);
+            dropOffTypes.add(st.drop_off_type);
+            shapeDistTraveled.add(st.shape_dist_traveled);
+            if (++row % 1000000 == 0) {
+                LOG.info("stop time {}", human(row));
+            }
+        }
+        tripOffsets.add(row);
+        LOG.info("Done building stop times table with {} stop times on {} trips.", human(row), human(tripIds.size()));
+        return new StopTimeTable(tripIds, tripOffsets, stopIds, stops, arrivalTimes, departureTimes, stopSequences,
+                pickupTypes, dropOffTypes, shapeDistTraveled);
+    }
+
+    /** @return the index of the given trip within this table, or -1 if the trip has no stop times. */
+    public int getTripIndex (String tripId) {
+        return indexForTripId.get(tripId);
+    }
+
+    /** @return the number of stop times on the trip with the given index. */
+    public int getStopCount (int tripIndex) {
+        return tripOffsets[tripIndex + 1] - tripOffsets[tripIndex];
+    }
+
+    /** @return the stop_id of the stop time in the given row. */
+    public String getStopId (int row) {
+        return stopIds[stops[row]];
+    }
+
+    /** @return the stop_ids of all stop times on the given trip, in order. */
+    public String[] getStopIds (int tripIndex) {
+        String[] result = new String[getStopCount(tripIndex)];
+        for (int i = 0, row = tripOffsets[tripIndex]; i < result.length; i++, row++) {
+            result[i] = getStopId(row);
+        }
+        return result;
+    }
+
+    /** @return a copy of the arrival times on the given trip, in order. These may include INT_MISSING values. */
+    public int[] getArrivalTimes (int tripIndex) {
+        return Arrays.copyOfRange(arrivalTimes, tripOffsets[tripIndex], tripOffsets[tripIndex + 1]);
+    }
+
+    /** @return a copy of the departure times on the given trip, in order. These may include INT_MISSING values. */
+    public int[] getDepartureTimes (int tripIndex) {
+        return Arrays.copyOfRange(departureTimes, tripOffsets[tripIndex], tripOffsets[tripIndex + 1]);
+    }
+
+    /** @return a copy of the stop_sequence values on the given trip, in order. */
+    public int[] getStopSequences (int tripIndex) {
+        return Arrays.copyOfRange(stopSequences, tripOffsets[tripIndex], tripOffsets[tripIndex + 1]);
+    }
+
+}
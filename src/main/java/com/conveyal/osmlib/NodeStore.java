@@ -0,0 +1,404 @@
+package com.conveyal.osmlib;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact store for OSM nodes, used in place of a MapDB TreeMap when loading OSM into temporary storage.
+ *
+ * Nodes in OSM files are sorted by ID, so they are appended in blocks of BLOCK_SIZE nodes. Within a block the IDs and
+ * fixed-point coordinates are delta coded against the previous node and written as variable-width integers, which
+ * usually takes 4-6 bytes per node instead of the 16 needed for the raw values. Finished blocks are written to a
+ * memory-mapped temporary file, and only the first ID and file offset of each block are kept on the heap. Looking up a
+ * node is a binary search over those first IDs followed by decoding at most one block, which is much faster than
+ * navigating a BTree and deserializing (and decompressing) its nodes.
+ *
+ * Only a small fraction of nodes have tags, so tags are kept in a separate sparse table on the heap. Any node put out
+ * of ID order (in unsorted files, or when the same node is put twice) is also kept on the heap, in a map that
+ * overrides the blocks. Removal is not supported, so this store cannot be used for OSM that receives replication
+ * updates.
+ *
+ * This is not threadsafe for concurrent writes, but once loading is finished any number of threads can read from it.
+ */
+public class NodeStore extends AbstractMap<Long, Node> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NodeStore.class);
+
+    /** The number of nodes in each delta-coded block. Smaller blocks mean faster lookups but a larger index. */
+    private static final int BLOCK_SIZE = 16;
+
+    /** The size of each memory-mapped region of the backing file. Blocks never straddle two regions. */
+    private static final int REGION_SIZE = 64 * 1024 * 1024;
+
+    /** The most bytes a block can take: a count, then a 64-bit ID delta and two 32-bit coordinates per node. */
+    private static final int MAX_BLOCK_BYTES = 5 + BLOCK_SIZE * (10 + 5 + 5);
+
+    /** The ID of the first node in each block that has been written to the file. */
+    private final TLongList blockFirstIds = new TLongArrayList();
+
+    /** The position of each block in the backing file. */
+    private final TLongList blockOffsets = new TLongArrayList();
+
+    /** The nodes that have not yet been written out as a complete block. */
+    private final long[] openIds = new long[BLOCK_SIZE];
+    private final int[] openLats = new int[BLOCK_SIZE];
+    private final int[] openLons = new int[BLOCK_SIZE];
+    private int openCount = 0;
+
+    /** The greatest node ID that has been appended to the blocks, including the open block. */
+    private long lastAppendedId = Long.MIN_VALUE;
+
+    /** Tags of the nodes in the blocks, for the few nodes that have any. */
+    private final TLongObjectMap<List<OSMEntity.Tag>> tagsByNodeId = new TLongObjectHashMap<>();
+
+    /** Nodes that could not be appended to the blocks, which override any node with the same ID in the blocks. */
+    private final Map<Long, Node> outOfOrderNodes = new HashMap<>();
+
+    /** The number of distinct node IDs in this store. */
+    private int size = 0;
+
+    private final File file;
+    private final FileChannel fileChannel;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+
+    /** The position in the backing file where the next block will be written. */
+    private long writeOffset = 0;
+
+    /** Reused when encoding each block before writing it to the file. */
+    private final ByteBuffer blockBuffer = ByteBuffer.allocate(MAX_BLOCK_BYTES);
+
+    public NodeStore () {
+        try {
+            file = File.createTempFile("osm-nodes", ".bin");
+            file.deleteOnExit();
+            fileChannel = new RandomAccessFile(file, "rw").getChannel();
+        } catch (IOException e) {
+            throw new OsmLibException("Could not create temporary file for OSM nodes.", e);
+        }
+    }
+
+    @Override
+    public Node put (Long id, Node node) {
+        if (id <= lastAppendedId) {
+            return putOutOfOrder(id, node);
+        }
+        if (node.tags != null && !node.tags.isEmpty()) {
+            tagsByNodeId.put(id, node.tags);
+        }
+        openIds[openCount] = id;
+        openLats[openCount] = node.fixedLat;
+        openLons[openCount] = node.fixedLon;
+        openCount += 1;
+        size += 1;
+        lastAppendedId = id;
+        if (openCount == BLOCK_SIZE) {
+            writeOpenBlock();
+        }
+        return null;
+    }
+
+    private Node putOutOfOrder (long id, Node node) {
+        if (outOfOrderNodes.isEmpty()) {
+            LOG.warn("Node {} was not supplied in ID order. Out of order nodes will be stored less efficiently.", id);
+        }
+        Node previous = get(id);
+        outOfOrderNodes.put(id, node);
+        if (previous == null) {
+            size += 1;
+        }
+        return previous;
+    }
+
+    @Override
+    public Node get (Object key) {
+        if (!(key instanceof Long)) {
+            return null;
+        }
+        long id = (Long) key;
+        if (!outOfOrderNodes.isEmpty()) {
+            Node node = outOfOrderNodes.get(id);
+            if (node != null) {
+                return node;
+            }
+        }
+        if (openCount > 0 && id >= openIds[0]) {
+            for (int i = 0; i < openCount; i++) {
+                if (openIds[i] == id) {
+                    return makeNode(id, openLats[i], openLons[i]);
+                }
+            }
+            return null;
+        }
+        // Find the last block whose first ID is not greater than the requested ID.
+        int low = 0;
+        int high = blockFirstIds.size() - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (blockFirstIds.get(mid) <= id) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+        return findInBlock(block, id);
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size () {
+        return size;
+    }
+
+    /** Delete the backing file. This store cannot be used after it is closed. */
+    public void close () {
+        try {
+            fileChannel.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close OSM node file.", e);
+        }
+        regions.clear();
+        if (!file.delete()) {
+            LOG.warn("Could not delete OSM node file {}.", file);
+        }
+    }
+
+    private Node makeNode (long id, int fixedLat, int fixedLon) {
+        Node node = new Node();
+        node.fixedLat = fixedLat;
+        node.fixedLon = fixedLon;
+        List<OSMEntity.Tag> tags = tagsByNodeId.get(id);
+        if (tags != null) {
+            // Return a copy like a database would, so callers can't modify the stored tags.
+            node.tags = new ArrayList<>(tags);
+        }
+        return node;
+    }
+
+    /** Encode the open block and append it to the backing file. */
+    private void writeOpenBlock () {
+        blockBuffer.clear();
+        writeVarInt(blockBuffer, openCount);
+        long prevId = openIds[0];
+        int prevLat = 0;
+        int prevLon = 0;
+        for (int i = 0; i < openCount; i++) {
+            writeVarLong(blockBuffer, openIds[i] - prevId);
+            writeVarInt(blockBuffer, zigzag(openLats[i] - prevLat));
+            writeVarInt(blockBuffer, zigzag(openLons[i] - prevLon));
+            prevId = openIds[i];
+            prevLat = openLats[i];
+            prevLon = openLons[i];
+        }
+        blockBuffer.flip();
+        // Start a new region rather than splitting the block across two of them.
+        if (writeOffset % REGION_SIZE + blockBuffer.remaining() > REGION_SIZE) {
+            writeOffset = (writeOffset / REGION_SIZE + 1) * REGION_SIZE;
+        }
+        ByteBuffer region = region((int) (writeOffset / REGION_SIZE)).duplicate();
+        region.position((int) (writeOffset % REGION_SIZE));
+        blockFirstIds.add(openIds[0]);
+        blockOffsets.add(writeOffset);
+        writeOffset += blockBuffer.remaining();
+        region.put(blockBuffer);
+        openCount = 0;
+    }
+
+    /** @return the memory-mapped region of the backing file with the given index, mapping it if necessary. */
+    private MappedByteBuffer region (int index) {
+        while (regions.size() <= index) {
+            try {
+                long position = (long) regions.size() * REGION_SIZE;
+                regions.add(fileChannel.map(FileChannel.MapMode.READ_WRITE, position, REGION_SIZE));
+            } catch (IOException e) {
+                throw new OsmLibException("Could not map OSM node file.", e);
+            }
+        }
+        return regions.get(index);
+    }
+
+    private interface NodeConsumer {
+        void accept (long id, Node node);
+    }
+
+    /** Decode the given block from the backing file, looking for a single node ID. */
+    private Node findInBlock (int block, long targetId) {
+        long offset = blockOffsets.get(block);
+        ByteBuffer region = regions.get((int) (offset / REGION_SIZE));
+        int[] position = new int[] { (int) (offset % REGION_SIZE) };
+        int count = readVarInt(region, position);
+        long id = blockFirstIds.get(block);
+        int lat = 0;
+        int lon = 0;
+        for (int i = 0; i < count; i++) {
+            id += readVarLong(region, position);
+            lat += unzigzag(readVarInt(region, position));
+            lon += unzigzag(readVarInt(region, position));
+            if (id == targetId) {
+                return makeNode(id, lat, lon);
+            }
+            if (id > targetId) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /** Decode every node in the given block from the backing file, passing each one to the consumer. */
+    private void decodeBlock (int block, NodeConsumer consumer) {
+        long offset = blockOffsets.get(block);
+        ByteBuffer region = regions.get((int) (offset / REGION_SIZE));
+        int[] position = new int[] { (int) (offset % REGION_SIZE) };
+        int count = readVarInt(region, position);
+        long id = blockFirstIds.get(block);
+        int lat = 0;
+        int lon = 0;
+        for (int i = 0; i < count; i++) {
+            id += readVarLong(region, position);
+            lat += unzigzag(readVarInt(region, position));
+            lon += unzigzag(readVarInt(region, position));
+            consumer.accept(id, makeNode(id, lat, lon));
+        }
+    }
+
+    @Override
+    public Set<Entry<Long, Node>> entrySet () {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Long, Node>> iterator () {
+                return new NodeIterator();
+            }
+
+            @Override
+            public int size () {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Iterates over the nodes in the blocks in ID order, then over any out of order nodes. Nodes in the blocks that
+     * were overridden by an out of order node are skipped.
+     */
+    private class NodeIterator implements Iterator<Entry<Long, Node>> {
+
+        private int nextBlock = 0;
+        private int nextOpen = 0;
+        private final List<Entry<Long, Node>> decoded = new ArrayList<>(BLOCK_SIZE);
+        private int nextDecoded = 0;
+        private final Iterator<Entry<Long, Node>> outOfOrderIterator = outOfOrderNodes.entrySet().iterator();
+        private Entry<Long, Node> next = advance();
+
+        private Entry<Long, Node> advance () {
+            while (true) {
+                Entry<Long, Node> entry;
+                if (nextDecoded < decoded.size()) {
+                    entry = decoded.get(nextDecoded++);
+                } else if (nextBlock < blockFirstIds.size()) {
+                    decoded.clear();
+                    nextDecoded = 0;
+                    decodeBlock(nextBlock++, (id, node) -> decoded.add(new SimpleImmutableEntry<>(id, node)));
+                    continue;
+                } else if (nextOpen < openCount) {
+                    long id = openIds[nextOpen];
+                    entry = new SimpleImmutableEntry<>(id, makeNode(id, openLats[nextOpen], openLons[nextOpen]));
+                    nextOpen += 1;
+                } else if (outOfOrderIterator.hasNext()) {
+                    return outOfOrderIterator.next();
+                } else {
+                    return null;
+                }
+                if (outOfOrderNodes.isEmpty() || !outOfOrderNodes.containsKey(entry.getKey())) {
+                    return entry;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext () {
+            return next != null;
+        }
+
+        @Override
+        public Entry<Long, Node> next () {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<Long, Node> current = next;
+            next = advance();
+            return current;
+        }
+    }
+
+    private static int zigzag (int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag (int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt (ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static void writeVarLong (ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /** Read a variable-width int at position[0] using absolute gets, so threads can share the buffer. */
+    private static int readVarInt (ByteBuffer buffer, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static long readVarLong (ByteBuffer buffer, int[] position) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get(position[0]++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+}
@@ -4,6 +4,9 @@ import org.roaringbitmap.RoaringBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -61,6 +64,54 @@ public class NodeTracker {
                 .sum();
     }
 
+    /** Add all the IDs contained in another NodeTracker to this one. */
+    public void addAll (NodeTracker other) {
+        other.blocks.forEach((high, otherBlock) -> {
+            RoaringBitmap block = blocks.get(high);
+            if (block == null) {
+                blocks.put(high, otherBlock.clone());
+            } else {
+                block.or(otherBlock);
+            }
+        });
+    }
+
+    /** @return a new NodeTracker containing only the IDs contained in both of the supplied NodeTrackers. */
+    public static NodeTracker intersection (NodeTracker a, NodeTracker b) {
+        NodeTracker result = new NodeTracker();
+        a.blocks.forEach((high, block) -> {
+            RoaringBitmap otherBlock = b.blocks.get(high);
+            if (otherBlock != null) {
+                result.blocks.put(high, RoaringBitmap.and(block, otherBlock));
+            }
+        });
+        return result;
+    }
+
+    /** Write this NodeTracker in the compact serialized form of its RoaringBitmaps. */
+    public void write (DataOutput out) throws IOException {
+        out.writeInt(blocks.size());
+        for (Map.Entry<Integer, RoaringBitmap> entry : blocks.entrySet()) {
+            RoaringBitmap block = entry.getValue();
+            block.runOptimize();
+            out.writeInt(entry.getKey());
+            block.serialize(out);
+        }
+    }
+
+    /** Read a NodeTracker that was saved with the write method. */
+    public static NodeTracker read (DataInput in) throws IOException {
+        NodeTracker nodeTracker = new NodeTracker();
+        int nBlocks = in.readInt();
+        for (int i = 0; i < nBlocks; i++) {
+            int high = in.readInt();
+            RoaringBitmap block = new RoaringBitmap();
+            block.deserialize(in);
+            nodeTracker.blocks.put(high, block);
+        }
+        return nodeTracker;
+    }
+
     private static int highIndex (long key) {
         return (int) (key >> 32);
     }
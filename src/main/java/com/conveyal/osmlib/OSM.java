@@ -13,12 +13,20 @@ import org.mapdb.Fun.Tuple3;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.NavigableSet;
+import java.util.stream.IntStream;
 
 /**
  * osm-lib representation of a subset of OpenStreetMap. One or more OSM files (e.g. PBF) can be loaded into this
@@ -57,6 +65,15 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
     /** The MapDB backing this OSM, if any. */
     DB db = null;
 
+    /**
+     * When this OSM is stored in a named file, intersectionNodes are saved in this file alongside it, so they don't
+     * need to be rebuilt by scanning every way when the database is reopened. Null for temporary storage.
+     */
+    private File intersectionNodesFile = null;
+
+    /** Identifies files containing saved intersection nodes, and the version of their format. */
+    private static final int INTERSECTION_NODES_HEADER = 0x52354e31; // "R5N1"
+
     /** The timestamp in seconds since the Epoch of the last replication update applied. */
     Atomic.Long timestamp;
 
@@ -80,6 +97,22 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
      * @param diskPath - the file in which to save the data, null for a temp file, or "__MEMORY__" for in-memory.
      */
     public OSM (String diskPath) {
+        this(diskPath, false);
+    }
+
+    /**
+     * Construct a new random-access OSM data store, optionally keeping nodes in a compact NodeStore instead of a MapDB
+     * table. Fetching node coordinates is the most frequent operation when building a street network, and is several
+     * times faster from a NodeStore. However a NodeStore is not persisted and does not support removing nodes, so it
+     * can only be used for temporary storage that will not receive replication updates.
+     *
+     * @param diskPath - the file in which to save the data, null for a temp file, or "__MEMORY__" for in-memory.
+     * @param compactNodes - if true, store nodes in a NodeStore. diskPath must then be null or "__MEMORY__".
+     */
+    public OSM (String diskPath, boolean compactNodes) {
+        if (compactNodes && diskPath != null && !diskPath.equals("__MEMORY__")) {
+            throw new IllegalArgumentException("Compact node storage is temporary and cannot be saved to a file.");
+        }
         DBMaker dbMaker;
         if (diskPath == null) {
             LOG.info("OSM will be stored in a temporary file.");
@@ -92,10 +125,13 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
             } else {
                 File dp = new File(diskPath);
                 reading = (diskPath.endsWith(".mapdb") || diskPath.endsWith(".db")) && dp.exists();
+                intersectionNodesFile = new File(diskPath + ".intersections");
                 if (reading) {
                     LOG.info("Reading OSM DB from: {}", diskPath);
                 } else {
                     LOG.info("OSM will be stored in file {}.", diskPath);
+                    // Any saved intersections are left over from a previous database and don't match the new one.
+                    intersectionNodesFile.delete();
                 }
                 dbMaker = DBMaker.newFileDB(dp);
             }
@@ -129,11 +165,16 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
             LOG.info("No OSM tables exist yet, they will be created.");
         }
         
-        nodes = db.createTreeMap("nodes")
-                .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
-                .valueSerializer(new NodeSerializer())
-                .makeOrGet();
-        
+        if (compactNodes) {
+            LOG.info("OSM nodes will be stored in a compact memory-mapped node store.");
+            nodes = new NodeStore();
+        } else {
+            nodes = db.createTreeMap("nodes")
+                    .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                    .valueSerializer(new NodeSerializer())
+                    .makeOrGet();
+        }
+
         ways =  db.createTreeMap("ways")
                 .keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
                 .valueSerializer(new WaySerializer())
@@ -182,23 +223,15 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
         if (reading && !nodes.isEmpty()) {
             LOG.info("Not reading from file since database is already filled!");
             if (intersectionDetection) {
-                // We need to rebuild intersectionNodes since it isn't saved in mapDB
-                // and without it edge creation is wrong (since edges aren't split in intersections)
-                // FIXME this takes two minutes on NL OSM. We should probably save the intersections in a MapDB table.
-                LOG.info("Detecting intersections...");
-                for (Way way : ways.values()) {
-                    if (way.hasTag("building")) continue;
-                    for (long nodeId : way.nodes) {
-                        if (referencedNodes.contains(nodeId)) {
-                            intersectionNodes.add(nodeId);
-                        } else {
-                            referencedNodes.add(nodeId);
-                        }
-                    }
+                // We need intersectionNodes since without it edge creation is wrong (edges aren't split at
+                // intersections). They are not in the MapDB, so load them from the file saved alongside it, or
+                // rebuild them from the ways if that file is missing (e.g. intersection detection was off on import).
+                if (!loadIntersectionNodes()) {
+                    detectIntersections();
+                    saveIntersectionNodes();
                 }
                 //referenceNodes isn't needed after intersectionNodes is built
                 referencedNodes = null;
-                LOG.info("Done detecting intersections.");
             }
             return;
         }
@@ -209,6 +242,96 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
         } catch (Exception ex) {
             throw new RuntimeException("Error occurred while parsing OSM file " + filePath, ex);
         }
+        if (intersectionDetection) {
+            saveIntersectionNodes();
+        }
+    }
+
+    /**
+     * Rebuild intersectionNodes by finding nodes referenced by more than one way. Ways are split into ranges of IDs
+     * which are scanned in parallel, then the nodes found in each range are merged.
+     */
+    private void detectIntersections () {
+        LOG.info("Detecting intersections...");
+        if (ways.isEmpty()) {
+            return;
+        }
+        // MapDB TreeMaps are navigable and threadsafe, so we can scan ranges of them on several threads.
+        NavigableMap<Long, Way> navigableWays = (NavigableMap<Long, Way>) ways;
+        long firstWayId = navigableWays.firstKey();
+        long lastWayId = navigableWays.lastKey();
+        int nRanges = Runtime.getRuntime().availableProcessors() * 4;
+        long rangeWidth = (lastWayId - firstWayId) / nRanges + 1;
+        IntersectionDetector detector = IntStream.range(0, nRanges).parallel().mapToObj(range -> {
+            long fromId = firstWayId + range * rangeWidth;
+            IntersectionDetector rangeDetector = new IntersectionDetector();
+            for (Way way : navigableWays.subMap(fromId, true, fromId + rangeWidth, false).values()) {
+                rangeDetector.addWay(way);
+            }
+            return rangeDetector;
+        }).reduce(IntersectionDetector::merge).get();
+        intersectionNodes = detector.intersectionNodes;
+        LOG.info("Done detecting intersections.");
+    }
+
+    /** Finds the nodes referenced by more than one non-building way, among the ways in one range of IDs. */
+    private static class IntersectionDetector {
+
+        final NodeTracker referencedNodes = new NodeTracker();
+        final NodeTracker intersectionNodes = new NodeTracker();
+
+        void addWay (Way way) {
+            if (way.hasTag("building")) return;
+            for (long nodeId : way.nodes) {
+                if (referencedNodes.contains(nodeId)) {
+                    intersectionNodes.add(nodeId);
+                } else {
+                    referencedNodes.add(nodeId);
+                }
+            }
+        }
+
+        /** Combine the results for two ranges of ways, including nodes referenced once in each range. */
+        IntersectionDetector merge (IntersectionDetector other) {
+            intersectionNodes.addAll(other.intersectionNodes);
+            intersectionNodes.addAll(NodeTracker.intersection(referencedNodes, other.referencedNodes));
+            referencedNodes.addAll(other.referencedNodes);
+            return this;
+        }
+    }
+
+    /** @return true if intersectionNodes were successfully loaded from the file saved alongside the database. */
+    private boolean loadIntersectionNodes () {
+        if (intersectionNodesFile == null || !intersectionNodesFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(intersectionNodesFile)))) {
+            if (in.readInt() != INTERSECTION_NODES_HEADER) {
+                LOG.warn("Saved intersection nodes are in an unrecognized format, they will be rebuilt.");
+                return false;
+            }
+            intersectionNodes = NodeTracker.read(in);
+            LOG.info("Loaded {} intersection nodes from {}.", intersectionNodes.cardinality(), intersectionNodesFile);
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Could not load saved intersection nodes, they will be rebuilt.", e);
+            return false;
+        }
+    }
+
+    private void saveIntersectionNodes () {
+        if (intersectionNodesFile == null) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(intersectionNodesFile)))) {
+            out.writeInt(INTERSECTION_NODES_HEADER);
+            intersectionNodes.write(out);
+        } catch (IOException e) {
+            LOG.warn("Could not save intersection nodes, they will be rebuilt when this database is reopened.", e);
+            intersectionNodesFile.delete();
+        }
     }
 
     public void readFromUrl(String urlString) {
@@ -386,6 +509,9 @@ public class OSM implements OSMEntitySource, OSMEntitySink {
     /** Close the database file to ensure clean shutdown and avoid leaving the async write thread running. */
     public void close() {
         db.close();
+        if (nodes instanceof NodeStore) {
+            ((NodeStore) nodes).close();
+        }
     }
 
 }
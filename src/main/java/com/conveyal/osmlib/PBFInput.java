@@ -13,21 +13,43 @@ package com.conveyal.osmlib;
  */
 
 import com.conveyal.osmlib.OSMEntity.Type;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
 import org.openstreetmap.osmosis.osmbinary.BinaryParser;
+import org.openstreetmap.osmosis.osmbinary.Fileformat;
 import org.openstreetmap.osmosis.osmbinary.Osmformat;
 import org.openstreetmap.osmosis.osmbinary.file.BlockInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * An OpenStreetMap entity source that reads from the PBF Format. This class implements callbacks for
  * the crosby.binary OSMPBF library. It loads OSM data into the osm-lib model classes, then sends those
  * objects through to the specified OSM entity sink.
+ *
+ * Reading a large PBF file is dominated by zlib inflation and protobuf decoding of its blocks, so by default blocks
+ * are inflated and decoded into entities on a pool of threads, while the calling thread reads the file and passes
+ * the decoded entities to the sink. Entities reach the sink in file order unless the sink is declared insensitive to
+ * order with setOrdered(false), in which case each block is passed on as soon as it's decoded. In either case at most
+ * a few blocks per thread are held in memory at once.
  */
 public class PBFInput extends BinaryParser implements OSMEntitySource {
 
@@ -39,12 +61,50 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
     private InputStream inputStream;
     private OSMEntitySink entitySink;
 
+    /** The number of threads used to inflate and decode blocks. With one thread, everything happens on the caller. */
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+
+    /** Whether entities must be passed to the sink in the order they appear in the file. */
+    private boolean ordered = true;
+
+    /** Whether this instance is decoding a single block on behalf of another PBFInput, and should not log progress. */
+    private final boolean blockDecoder;
+
+    /** The maximum number of decoded blocks held in memory per decoding thread, waiting to be passed to the sink. */
+    private static final int PENDING_BLOCKS_PER_THREAD = 2;
+
+    /** Limits from the PBF specification, protecting against corrupt files causing huge allocations. */
+    private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
     private static final String[] retainKeys = new String[] {
         "highway", "parking", "bicycle", "name"
     };
 
     public PBFInput(InputStream inputStream) {
         this.inputStream = inputStream;
+        this.blockDecoder = false;
+    }
+
+    /** Create an instance that decodes one block at a time into the given sink, for use by the decoding threads. */
+    private PBFInput(DecodedBlock decodedBlock) {
+        this.entitySink = decodedBlock;
+        this.blockDecoder = true;
+    }
+
+    /** Set the number of threads used to inflate and decode blocks. Must be called before copyTo. */
+    public PBFInput setThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+        return this;
+    }
+
+    /**
+     * Set whether the sink requires entities in the order they appear in the file (the default). Sinks that don't
+     * (e.g. those only collecting statistics) can receive each block as soon as it is decoded.
+     */
+    public PBFInput setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
     }
 
     // Accepting all tags increases size by about 15 percent when storing all elements.
@@ -63,16 +123,13 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
     protected void parseNodes(List<Osmformat.Node> nodes) {
         try {
             for (Osmformat.Node n : nodes) {
-                if (nodeCount++ % 10000000 == 0) {
-                    LOG.info("node {}", human(nodeCount));
-                }
                 Node node = new Node(parseLat(n.getLat()), parseLon(n.getLon()));
                 for (int k = 0; k < n.getKeysCount(); k++) {
                     String key = getStringById(n.getKeys(k));
                     String val = getStringById(n.getVals(k));
                     if (retainTag(key)) node.addTag(key, val);
                 }
-                entitySink.writeNode(n.getId(), node);
+                writeNode(n.getId(), node);
             }
         } catch (IOException ex) {
             LOG.error("An I/O exception occurred in the OSM entity sink.");
@@ -90,9 +147,6 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
         int kv = 0; // index into the keysvals array
         try {
             for (int n = 0; n < nodes.getIdCount(); n++) {
-                if (nodeCount++ % 5000000 == 0) {
-                    LOG.info("node {}", human(nodeCount));
-                }
                 Node node = new Node();
                 long id = nodes.getId(n) + lastId;
                 long lat = nodes.getLat(n) + lastLat;
@@ -112,7 +166,7 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     }
                     kv++; // Skip over the '0' delimiter.
                 }
-                entitySink.writeNode(id, node);
+                writeNode(id, node);
             }
         } catch (IOException ex) {
             LOG.error("An I/O exception occurred in the OSM entity sink.");
@@ -124,9 +178,6 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
     protected void parseWays(List<Osmformat.Way> ways) {
         try {
             for (Osmformat.Way w : ways) {
-                if (wayCount++ % 1000000 == 0) {
-                    LOG.info("way {}", human(wayCount));
-                }
                 Way way = new Way();
                 /* Handle tags */
                 for (int k = 0; k < w.getKeysCount(); k++) {
@@ -143,7 +194,7 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     nodes[n] = ref;
                 }
                 way.nodes = nodes;
-                entitySink.writeWay(w.getId(), way);
+                writeWay(w.getId(), way);
             }
         } catch (IOException ex) {
             LOG.error("An I/O exception occurred in the OSM entity sink.");
@@ -155,9 +206,6 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
     protected void parseRelations(List<Osmformat.Relation> rels) {
         try {
             for (Osmformat.Relation r : rels) {
-                if (relationCount++ % 100000 == 0) {
-                    LOG.info("relation {}", human(relationCount));
-                }
                 Relation rel = new Relation();
                 /* Handle Tags */
                 for (int k = 0; k < r.getKeysCount(); k++) {
@@ -187,7 +235,7 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
                     }
                     rel.members.add(member);
                 }
-                entitySink.writeRelation(r.getId(), rel);
+                writeRelation(r.getId(), rel);
             }
         } catch (IOException ex) {
             LOG.error("An I/O exception occurred in the OSM entity sink.");
@@ -221,6 +269,28 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
         LOG.info("Read {} nodes, {} ways, {} relations.", nodeCount, wayCount, relationCount);
     }
 
+    /** Pass a node on to the sink, counting it and periodically logging progress. */
+    private void writeNode(long id, Node node) throws IOException {
+        if (!blockDecoder && nodeCount++ % 5000000 == 0) {
+            LOG.info("node {}", human(nodeCount));
+        }
+        entitySink.writeNode(id, node);
+    }
+
+    private void writeWay(long id, Way way) throws IOException {
+        if (!blockDecoder && wayCount++ % 1000000 == 0) {
+            LOG.info("way {}", human(wayCount));
+        }
+        entitySink.writeWay(id, way);
+    }
+
+    private void writeRelation(long id, Relation relation) throws IOException {
+        if (!blockDecoder && relationCount++ % 100000 == 0) {
+            LOG.info("relation {}", human(relationCount));
+        }
+        entitySink.writeRelation(id, relation);
+    }
+
     private static String human(long n) {
         if (n > 1000000)
             return String.format("%.1fM", n / 1000000.0);
@@ -234,8 +304,179 @@ public class PBFInput extends BinaryParser implements OSMEntitySource {
     public void copyTo(OSMEntitySink sink) throws IOException {
         entitySink = sink;
         entitySink.writeBegin();
-        new BlockInputStream(inputStream, this).process();
+        if (nThreads > 1) {
+            processInParallel();
+        } else {
+            new BlockInputStream(inputStream, this).process();
+        }
         entitySink.writeEnd();
     }
 
+    /**
+     * Read the file's blocks on the calling thread, handing them off to a pool of threads to be inflated and decoded
+     * into entities, then pass the decoded entities to the sink on the calling thread. The number of blocks waiting
+     * to be passed on is bounded, so reading pauses when the sink can't keep up with decoding.
+     */
+    private void processInParallel() throws IOException {
+        LOG.info("Decoding PBF blocks with {} threads, {}.", nThreads, ordered ? "in file order" : "in any order");
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        Deque<Future<DecodedBlock>> pendingBlocks = new ArrayDeque<>();
+        int maxPendingBlocks = nThreads * PENDING_BLOCKS_PER_THREAD;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (headerSize < 0 || headerSize > MAX_BLOB_HEADER_SIZE) {
+                    throw new OsmLibException("PBF blob header has invalid size " + headerSize);
+                }
+                byte[] headerBytes = new byte[headerSize];
+                in.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+                if (header.getDatasize() < 0 || header.getDatasize() > MAX_BLOB_SIZE) {
+                    throw new OsmLibException("PBF blob has invalid size " + header.getDatasize());
+                }
+                byte[] blobBytes = new byte[header.getDatasize()];
+                in.readFully(blobBytes);
+                if (header.getType().equals("OSMHeader")) {
+                    // The header block is small and must be handled before any entities, so decode it here.
+                    parse(Osmformat.HeaderBlock.parseFrom(inflateBlob(blobBytes)));
+                } else if (header.getType().equals("OSMData")) {
+                    pendingBlocks.add(executor.submit(() -> decodeBlock(blobBytes)));
+                    while (pendingBlocks.size() >= maxPendingBlocks) {
+                        writeDecodedBlock(nextDecodedBlock(pendingBlocks));
+                    }
+                } else {
+                    LOG.warn("Skipping PBF block of unrecognized type {}.", header.getType());
+                }
+            }
+            while (!pendingBlocks.isEmpty()) {
+                writeDecodedBlock(nextDecodedBlock(pendingBlocks));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        complete();
+    }
+
+    /**
+     * Wait for the next decoded block. If entities must reach the sink in file order this is the oldest block,
+     * otherwise any block that has already been decoded is taken first.
+     */
+    private DecodedBlock nextDecodedBlock(Deque<Future<DecodedBlock>> pendingBlocks) throws IOException {
+        Future<DecodedBlock> future = null;
+        if (!ordered) {
+            Iterator<Future<DecodedBlock>> iterator = pendingBlocks.iterator();
+            while (iterator.hasNext()) {
+                Future<DecodedBlock> pending = iterator.next();
+                if (pending.isDone()) {
+                    iterator.remove();
+                    future = pending;
+                    break;
+                }
+            }
+        }
+        if (future == null) {
+            future = pendingBlocks.removeFirst();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OsmLibException("Interrupted while decoding PBF blocks.", e);
+        } catch (ExecutionException e) {
+            throw new OsmLibException("Failed to decode PBF block.", e.getCause());
+        }
+    }
+
+    /** Inflate and decode one PrimitiveBlock. This is called on the decoding threads. */
+    private static DecodedBlock decodeBlock(byte[] blobBytes) throws IOException {
+        Osmformat.PrimitiveBlock primitiveBlock = Osmformat.PrimitiveBlock.parseFrom(inflateBlob(blobBytes));
+        DecodedBlock decodedBlock = new DecodedBlock();
+        new PBFInput(decodedBlock).parse(primitiveBlock);
+        return decodedBlock;
+    }
+
+    /** @return the uncompressed contents of the given serialized Blob. */
+    private static byte[] inflateBlob(byte[] blobBytes) throws IOException {
+        Fileformat.Blob blob = Fileformat.Blob.parseFrom(blobBytes);
+        if (blob.hasRaw()) {
+            return blob.getRaw().toByteArray();
+        }
+        if (!blob.hasZlibData()) {
+            throw new OsmLibException("PBF blob uses an unsupported compression method.");
+        }
+        byte[] inflated = new byte[blob.getRawSize()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getZlibData().toByteArray());
+            int inflatedSize = inflater.inflate(inflated);
+            if (inflatedSize != inflated.length || !inflater.finished()) {
+                throw new OsmLibException("PBF blob did not inflate to its declared size.");
+            }
+        } catch (DataFormatException e) {
+            throw new OsmLibException("PBF blob contains invalid zlib data.", e);
+        } finally {
+            inflater.end();
+        }
+        return inflated;
+    }
+
+    /** Pass all the entities in a decoded block on to the real sink, in the order they were decoded. */
+    private void writeDecodedBlock(DecodedBlock decodedBlock) throws IOException {
+        for (int i = 0; i < decodedBlock.entities.size(); i++) {
+            OSMEntity entity = decodedBlock.entities.get(i);
+            long id = decodedBlock.ids.get(i);
+            switch (entity.getType()) {
+                case NODE:
+                    writeNode(id, (Node) entity);
+                    break;
+                case WAY:
+                    writeWay(id, (Way) entity);
+                    break;
+                case RELATION:
+                    writeRelation(id, (Relation) entity);
+                    break;
+            }
+        }
+    }
+
+    /** Holds the entities decoded from one PrimitiveBlock until they can be passed on to the real sink. */
+    private static class DecodedBlock implements OSMEntitySink {
+
+        final TLongList ids = new TLongArrayList();
+        final List<OSMEntity> entities = new ArrayList<>();
+
+        @Override
+        public void writeBegin() { }
+
+        @Override
+        public void setReplicationTimestamp(long secondsSinceEpoch) { }
+
+        @Override
+        public void writeNode(long id, Node node) {
+            ids.add(id);
+            entities.add(node);
+        }
+
+        @Override
+        public void writeWay(long id, Way way) {
+            ids.add(id);
+            entities.add(way);
+        }
+
+        @Override
+        public void writeRelation(long id, Relation relation) {
+            ids.add(id);
+            entities.add(relation);
+        }
+
+        @Override
+        public void writeEnd() { }
+    }
+
 }
@@ -4,9 +4,11 @@ import com.conveyal.r5.common.GeometryUtils;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +23,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This is similar to the IsochroneData class in OTP, and in fact for compatibility can be serialized to JSON and
@@ -50,8 +53,52 @@ public class IsochroneFeature implements Serializable {
      * https://en.wikipedia.org/wiki/Marching_squares
      */
     public IsochroneFeature (int cutoffSec, WebMercatorGridPointSet points, int[] times) {
-        // slightly hacky, but simple: set all of the times around the edges of the pointset to MAX_VALUE so that
-        // the isochrone never runs off the edge of the display.
+        int[] maskedTimes = maskEdges(points, times);
+        int[] cutoffs = new int[] { cutoffSec };
+        build(cutoffSec, 0, points, maskedTimes, bandForEachPoint(cutoffs, maskedTimes));
+    }
+
+    /**
+     * Create isochrones for several cutoffs at once. The travel time grid is scanned only once to find, for every
+     * point, the lowest cutoff it falls within (its band). The contours for each cutoff are then derived from these
+     * bands, and traced on separate threads. The geometries are identical to those produced by constructing one
+     * IsochroneFeature per cutoff.
+     * @return one isochrone for each cutoff, in the same order as the cutoffs.
+     */
+    public static List<IsochroneFeature> forCutoffs (int[] cutoffsSec, WebMercatorGridPointSet points, int[] times) {
+        int[] maskedTimes = maskEdges(points, times);
+        int[] sortedCutoffs = Arrays.copyOf(cutoffsSec, cutoffsSec.length);
+        Arrays.sort(sortedCutoffs);
+        int[] bands = bandForEachPoint(sortedCutoffs, maskedTimes);
+        return IntStream.range(0, cutoffsSec.length).parallel().mapToObj(c -> {
+            IsochroneFeature feature = new IsochroneFeature();
+            int band = Arrays.binarySearch(sortedCutoffs, cutoffsSec[c]);
+            feature.build(cutoffsSec[c], band, points, maskedTimes, bands);
+            return feature;
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * @param sortedCutoffs cutoffs in seconds, in ascending order.
+     * @return for each point, the index of the lowest cutoff that the travel time to that point is below, or the
+     *         number of cutoffs if it is below none of them. A point is within the cutoff at index i iff its band <= i.
+     */
+    private static int[] bandForEachPoint (int[] sortedCutoffs, int[] times) {
+        int[] bands = new int[times.length];
+        for (int p = 0; p < times.length; p++) {
+            int band = 0;
+            while (band < sortedCutoffs.length && times[p] >= sortedCutoffs[band]) band++;
+            bands[p] = band;
+        }
+        return bands;
+    }
+
+    /**
+     * Slightly hacky, but simple: set all of the times around the edges of the pointset to MAX_VALUE so that
+     * the isochrone never runs off the edge of the display.
+     * @return a copy of the times with the edges replaced.
+     */
+    private static int[] maskEdges (WebMercatorGridPointSet points, int[] times) {
         // first, protective copy
         times = Arrays.copyOf(times, times.length);
 
@@ -64,17 +111,26 @@ public class IsochroneFeature implements Serializable {
             times[(int) points.width * y] = Integer.MAX_VALUE;
             times[(int) points.width * (y + 1) - 1] = Integer.MAX_VALUE;
         }
+        return times;
+    }
 
+    /**
+     * Trace the contours for one cutoff and set the geometry of this feature.
+     * @param times travel times with the edges already masked by maskEdges.
+     * @param bands the band of each point as computed by bandForEachPoint, where points within this cutoff have a
+     *              band less than or equal to the supplied band.
+     */
+    private void build (int cutoffSec, int band, WebMercatorGridPointSet points, int[] times, int[] bands) {
         LOG.debug("Making isochrone for {}sec", cutoffSec);
         this.cutoffSec = cutoffSec;
         // make contouring grid
         byte[][] contour = new byte[(int) points.width - 1][(int) points.height - 1];
         for (int y = 0; y < points.height - 1; y++) {
             for (int x = 0; x < points.width - 1; x++) {
-                boolean topLeft = times[(int) (points.width * y + x)] < cutoffSec;
-                boolean topRight = times[(int) (points.width * y + x + 1)] < cutoffSec;
-                boolean botLeft = times[(int) (points.width * (y + 1) + x)] < cutoffSec;
-                boolean botRight = times[(int) (points.width * (y + 1) + x + 1)] < cutoffSec;
+                boolean topLeft = bands[(int) (points.width * y + x)] <= band;
+                boolean topRight = bands[(int) (points.width * y + x + 1)] <= band;
+                boolean botLeft = bands[(int) (points.width * (y + 1) + x)] <= band;
+                boolean botRight = bands[(int) (points.width * (y + 1) + x + 1)] <= band;
 
                 byte idx = 0;
 
@@ -305,21 +361,35 @@ public class IsochroneFeature implements Serializable {
 
         LOG.info("Found {} outer rings and {} inner rings for cutoff {}m", polygonsForOuterRing.size(), polygonsForInnerRing.size(), cutoffSec / 60);
 
+        // Index the outer rings by envelope, so each hole is only tested against the few shells that could contain it
+        // rather than every shell. Each item is the position of the ring in the sorted list.
+        STRtree outerRingIndex = new STRtree();
+        for (int r = 0; r < outerRings.size(); r++) {
+            LinearRing ring = outerRings.get(r);
+            outerRingIndex.insert(ring.getEnvelopeInternal(), r);
+        }
+
         int holeIdx = -1;
-        HOLES: for (Map.Entry<LinearRing, Polygon> hole : polygonsForInnerRing.entrySet()) {
+        for (Map.Entry<LinearRing, Polygon> hole : polygonsForInnerRing.entrySet()) {
             holeIdx++;
 
             // get rid of tiny holes
             if (hole.getValue().getArea() < 1e-6) continue;
 
-            for (LinearRing ring : outerRings) {
-                // fine to test membership of first coordinate only since shells and holes are disjoint, and holes
-                // nest completely in shells
-                if (polygonsForOuterRing.get(ring).contains(hole.getKey().getPointN(0))) {
-                    holesForRing.put(ring, hole.getKey());
-                    continue HOLES;
+            // fine to test membership of first coordinate only since shells and holes are disjoint, and holes
+            // nest completely in shells. When several shells contain the point, use the first in the sorted list.
+            Coordinate holePoint = hole.getKey().getCoordinateN(0);
+            int shellIndex = Integer.MAX_VALUE;
+            for (Object candidate : outerRingIndex.query(new Envelope(holePoint))) {
+                int r = (Integer) candidate;
+                if (r < shellIndex && polygonsForOuterRing.get(outerRings.get(r)).contains(hole.getKey().getPointN(0))) {
+                    shellIndex = r;
                 }
             }
+            if (shellIndex < Integer.MAX_VALUE) {
+                holesForRing.put(outerRings.get(shellIndex), hole.getKey());
+                continue;
+            }
 
             LOG.warn("Found no fitting shell for isochrone hole {} at cutoff {}, dropping this hole.", holeIdx, cutoffSec);
         }
@@ -175,6 +175,28 @@ public class LinkageCache {
         }
     }
 
+    /**
+     * @return the linkage for the given PointSet, StreetLayer and StreetMode if it is already in memory, otherwise
+     *         null. Unlike getLinkage this will never trigger building a new linkage.
+     */
+    public LinkedPointSet getLinkageIfPresent (PointSet pointSet, StreetLayer streetLayer, StreetMode streetMode) {
+        Key key = new Key(pointSet, streetLayer, streetMode);
+        LinkedPointSet value = linkageMap.get(key);
+        if (value == null) {
+            value = linkageCache.getIfPresent(key);
+        }
+        return value;
+    }
+
+    /**
+     * Insert a linkage that was obtained by some means other than the cache loader, such as reading it back from a
+     * file. It will be keyed on its own PointSet, StreetLayer and StreetMode, and is subject to eviction.
+     */
+    public void putLinkage (LinkedPointSet linkedPointSet) {
+        Key key = new Key(linkedPointSet.pointSet, linkedPointSet.streetLayer, linkedPointSet.streetMode);
+        linkageCache.put(key, linkedPointSet);
+    }
+
     /**
      * Combines the attributes that uniquely identify a linkage.
      */
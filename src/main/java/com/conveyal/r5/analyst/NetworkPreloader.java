@@ -1,20 +1,33 @@
 package com.conveyal.r5.analyst;
 
+import com.conveyal.file.FileStorage;
+import com.conveyal.file.FileStorageKey;
+import com.conveyal.file.FileUtils;
 import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
 import com.conveyal.r5.analyst.progress.NetworkPreloaderProgressListener;
 import com.conveyal.r5.analyst.progress.ProgressListener;
 import com.conveyal.r5.api.util.LegMode;
+import com.conveyal.r5.kryo.KryoNetworkSerializer;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.streets.LinkedPointSet;
+import com.conveyal.r5.streets.LinkedPointSetSerializer;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.conveyal.r5.transit.TransportNetworkCache;
 import com.conveyal.r5.util.AsyncLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.EnumSet;
+import java.util.Locale;
 import java.util.Objects;
 
+import static com.conveyal.file.FileCategory.BUNDLES;
+
 /**
  * This either returns a network that can be immediately used for a certain analysis task (if it's already prepared)
  * or kicks off an asynchronous task to prepare such a network, and reports status to the caller. See #381.
@@ -75,8 +88,19 @@ public class NetworkPreloader extends AsyncLoader<NetworkPreloader.Key, Transpor
     /** Keeps one or more TransportNetworks around, lazy-loading or lazy-building them. Ideally should be private. */
     public final TransportNetworkCache transportNetworkCache;
 
+    /**
+     * If not null, egress linkages and their cost tables are saved here after they are built, and read back when
+     * another worker (or this one after a restart) needs them, instead of being rebuilt from scratch.
+     */
+    private final FileStorage fileStorage;
+
     public NetworkPreloader(TransportNetworkCache transportNetworkCache) {
+        this(transportNetworkCache, null);
+    }
+
+    public NetworkPreloader(TransportNetworkCache transportNetworkCache, FileStorage fileStorage) {
         this.transportNetworkCache = transportNetworkCache;
+        this.fileStorage = fileStorage;
     }
 
     public LoaderState<TransportNetwork> preloadData (AnalysisWorkerTask task) {
@@ -130,18 +154,114 @@ public class NetworkPreloader extends AsyncLoader<NetworkPreloader.Key, Transpor
         // progressListeners per key in the cache. It may be a good idea to keep progressListener objects in
         // fields on Factory classes rather than passing them as parameters into constructors or factory methods.
         for (StreetMode mode : key.allModes) {
-            setProgress(key, 0, "Linking destination grid to streets for " + mode + "...");
-            LinkedPointSet linkedPointSet = scenarioNetwork.linkageCache
-                    .getLinkage(pointSet, scenarioNetwork.streetLayer, mode);
-            if (key.egressModes.contains(mode)) {
+            boolean egress = key.egressModes.contains(mode);
+            LinkedPointSet linkedPointSet = null;
+            if (egress) {
+                setProgress(key, 0, "Loading saved egress cost tables for " + mode + "...");
+                linkedPointSet = loadSavedLinkage(key, scenarioNetwork, pointSet, mode);
+            }
+            if (linkedPointSet == null) {
+                setProgress(key, 0, "Linking destination grid to streets for " + mode + "...");
+                linkedPointSet = scenarioNetwork.linkageCache.getLinkage(pointSet, scenarioNetwork.streetLayer, mode);
+            }
+            if (egress) {
                 ProgressListener progressListener = new NetworkPreloaderProgressListener(this, key);
                 linkedPointSet.getEgressCostTable(progressListener);
+                saveLinkage(key, linkedPointSet);
             }
         }
         // Finished building all needed inputs for analysis, return the completed network to the AsyncLoader code.
         return scenarioNetwork;
     }
 
+    /**
+     * If the linkage is not already in memory but was saved to file storage by a previous preload (on this or any
+     * other worker), read it back and add it to the network's linkage cache. Any failure to read is logged and
+     * tolerated, as the linkage can always be rebuilt.
+     * @return the linkage read from storage, or null if it should be fetched or built through the linkage cache.
+     */
+    private LinkedPointSet loadSavedLinkage (
+            Key key, TransportNetwork scenarioNetwork, PointSet pointSet, StreetMode mode
+    ) {
+        if (fileStorage == null || scenarioNetwork.linkageCache
+                .getLinkageIfPresent(pointSet, scenarioNetwork.streetLayer, mode) != null) {
+            return null;
+        }
+        FileStorageKey fileStorageKey = linkageFileStorageKey(key, mode);
+        if (!fileStorage.exists(fileStorageKey)) {
+            return null;
+        }
+        try {
+            File file = fileStorage.getFile(fileStorageKey);
+            LinkedPointSet linkedPointSet;
+            try (InputStream inputStream = new FileInputStream(file)) {
+                linkedPointSet = LinkedPointSetSerializer.read(
+                        inputStream, pointSet, scenarioNetwork.streetLayer, mode
+                );
+            }
+            scenarioNetwork.linkageCache.putLinkage(linkedPointSet);
+            return linkedPointSet;
+        } catch (Exception e) {
+            LOG.warn("Could not read saved linkage {}, it will be rebuilt.", fileStorageKey, e);
+            return null;
+        }
+    }
+
+    /**
+     * Save a linkage and its egress cost tables to file storage unless they are already stored there. Failure to save
+     * is logged and tolerated, as we still have the linkage in memory.
+     */
+    private void saveLinkage (Key key, LinkedPointSet linkedPointSet) {
+        if (fileStorage == null) {
+            return;
+        }
+        FileStorageKey fileStorageKey = linkageFileStorageKey(key, linkedPointSet.streetMode);
+        if (fileStorage.exists(fileStorageKey)) {
+            return;
+        }
+        File scratchFile = null;
+        try {
+            // The linkage is written to a uniquely named scratch file, which only replaces any file saved concurrently
+            // by another request or worker once it is complete. The move into storage is atomic.
+            scratchFile = FileUtils.createScratchFile();
+            try (OutputStream outputStream = new FileOutputStream(scratchFile)) {
+                LinkedPointSetSerializer.write(linkedPointSet, outputStream);
+            }
+            fileStorage.moveIntoStorage(fileStorageKey, scratchFile);
+        } catch (IllegalStateException e) {
+            // Another request has already transposed the tables for propagation, so there is nothing left to save.
+            LOG.debug("Egress cost tables for {} were already transposed, not saving linkage.", fileStorageKey);
+        } catch (Exception e) {
+            LOG.error("Error saving linkage {}, continuing with the one in memory.", fileStorageKey, e);
+        } finally {
+            // The file is normally gone once moved into storage, but is left behind if anything above failed.
+            if (scratchFile != null && scratchFile.exists()) {
+                scratchFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Saved linkages are identified by network, scenario, grid extents and street mode. They refer to street edges
+     * by index, so the network and linkage format versions are also included to avoid reusing stale files.
+     */
+    private static FileStorageKey linkageFileStorageKey (Key key, StreetMode mode) {
+        WebMercatorExtents extents = key.destinationGridExtents;
+        String filename = String.format("%s_%s_%d_%d_%d_%d_%d_%s_%s_lv%d.linkage",
+                key.networkId,
+                key.scenarioId,
+                extents.zoom,
+                extents.west,
+                extents.north,
+                extents.width,
+                extents.height,
+                mode.toString().toLowerCase(Locale.ROOT),
+                KryoNetworkSerializer.NETWORK_FORMAT_VERSION,
+                LinkedPointSetSerializer.FORMAT_VERSION
+        );
+        return new FileStorageKey(BUNDLES, filename);
+    }
+
     /**
      * A compound key containing all items uniquely identifying the set of data is needed to perform an analysis.
      * Namely: the network ID, the scenario ID, the extents of the grid, and the modes of on-street transport.
@@ -0,0 +1,208 @@
+package com.conveyal.r5.analyst;
+
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * The proportion of each web Mercator pixel covered by a polygon, stored sparsely as runs of horizontally adjacent
+ * pixels with nonzero weight. A polygon such as an aggregation area usually covers a small compact part of a much
+ * larger regional grid, so this is far smaller than a full grid and can be applied to any grid at the same zoom level
+ * without rasterizing the polygon again. Pixel coordinates are absolute web Mercator pixel numbers rather than
+ * relative to some grid's extents, and runs are sorted by row then by column.
+ * <p>
+ * The serialized form looks like this (all integers are big-endian, and files are gzipped in storage):
+ * <ol>
+ * <li>Header (ASCII text "PIXWGHTS")</li>
+ * <li>(4 byte int) File format version</li>
+ * <li>(4 byte int) Web Mercator zoom level</li>
+ * <li>(4 byte int) Number of runs</li>
+ * <li>(repeated) runs, each consisting of (4 byte int) y, (4 byte int) x of the first pixel, (4 byte int) number of
+ *     pixels, and (repeated 4 byte float) the weight of each pixel in the range (0, 1].</li>
+ * </ol>
+ */
+public class SparsePixelWeights {
+
+    private static final String HEADER = "PIXWGHTS";
+
+    private static final int VERSION = 0;
+
+    public final int zoom;
+
+    /** The absolute web Mercator y coordinate of each run. */
+    private final int[] runY;
+
+    /** The absolute web Mercator x coordinate of the first pixel in each run. */
+    private final int[] runX;
+
+    /** The position in the weights array of the first pixel in each run, with one extra element marking the end. */
+    private final int[] runOffsets;
+
+    /** The weights of all pixels in all runs, concatenated. */
+    private final float[] weights;
+
+    private SparsePixelWeights (int zoom, int[] runY, int[] runX, int[] runOffsets, float[] weights) {
+        this.zoom = zoom;
+        this.runY = runY;
+        this.runX = runX;
+        this.runOffsets = runOffsets;
+        this.weights = weights;
+    }
+
+    /**
+     * @param pixelWeights weights as returned by Grid.getPixelWeights, with coordinates relative to the given extents.
+     */
+    public static SparsePixelWeights fromPixelWeights (List<Grid.PixelWeight> pixelWeights, WebMercatorExtents extents) {
+        List<Grid.PixelWeight> sorted = new ArrayList<>(pixelWeights);
+        sorted.sort(Comparator.comparingInt((Grid.PixelWeight p) -> p.y).thenComparingInt(p -> p.x));
+        Builder builder = new Builder(extents.zoom);
+        for (Grid.PixelWeight pixel : sorted) {
+            builder.add(extents.west + pixel.x, extents.north + pixel.y, pixel.weight);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Recover the weights from a mask grid as stored for aggregation areas, whose pixel values are the proportion of
+     * each pixel covered by the polygon scaled to the range 0 to 100,000.
+     */
+    public static SparsePixelWeights fromMaskGrid (Grid maskGrid) {
+        WebMercatorExtents extents = maskGrid.extents;
+        Builder builder = new Builder(extents.zoom);
+        for (int y = 0; y < extents.height; y++) {
+            for (int x = 0; x < extents.width; x++) {
+                builder.add(extents.west + x, extents.north + y, maskGrid.grid[x][y] / 100_000);
+            }
+        }
+        return builder.build();
+    }
+
+    /** Accumulates pixels, which must be added in row-major order, into runs. Pixels with zero weight are dropped. */
+    private static class Builder {
+        final int zoom;
+        final TIntArrayList runY = new TIntArrayList();
+        final TIntArrayList runX = new TIntArrayList();
+        final TIntArrayList runOffsets = new TIntArrayList();
+        final TFloatArrayList weights = new TFloatArrayList();
+        int nextX;
+        int lastY;
+
+        Builder (int zoom) {
+            this.zoom = zoom;
+        }
+
+        void add (int x, int y, double weight) {
+            if (weight <= 0) return;
+            boolean newRun = runY.isEmpty() || y != lastY || x != nextX;
+            if (newRun) {
+                checkArgument(runY.isEmpty() || y > lastY || (y == lastY && x > nextX),
+                        "Pixels must be supplied in row-major order.");
+                runY.add(y);
+                runX.add(x);
+                runOffsets.add(weights.size());
+            }
+            weights.add((float) Math.min(weight, 1));
+            lastY = y;
+            nextX = x + 1;
+        }
+
+        SparsePixelWeights build () {
+            runOffsets.add(weights.size());
+            return new SparsePixelWeights(
+                    zoom, runY.toArray(), runX.toArray(), runOffsets.toArray(), weights.toArray()
+            );
+        }
+    }
+
+    public int nRuns () {
+        return runY.length;
+    }
+
+    /** @return the number of pixels with nonzero weight. */
+    public int nPixels () {
+        return weights.length;
+    }
+
+    public int runY (int run) {
+        return runY[run];
+    }
+
+    public int runX (int run) {
+        return runX[run];
+    }
+
+    public int runLength (int run) {
+        return runOffsets[run + 1] - runOffsets[run];
+    }
+
+    /** @return the weight of the pixel at the given position within the given run. */
+    public float weight (int run, int position) {
+        return weights[runOffsets[run] + position];
+    }
+
+    /** @return the smallest y coordinate of any pixel, or Integer.MAX_VALUE if there are none. */
+    public int minY () {
+        return runY.length == 0 ? Integer.MAX_VALUE : runY[0];
+    }
+
+    /** @return the largest y coordinate of any pixel, or Integer.MIN_VALUE if there are none. */
+    public int maxY () {
+        return runY.length == 0 ? Integer.MIN_VALUE : runY[runY.length - 1];
+    }
+
+    public void write (OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeBytes(HEADER);
+        out.writeInt(VERSION);
+        out.writeInt(zoom);
+        out.writeInt(runY.length);
+        for (int run = 0; run < runY.length; run++) {
+            out.writeInt(runY[run]);
+            out.writeInt(runX[run]);
+            out.writeInt(runLength(run));
+            for (int i = runOffsets[run]; i < runOffsets[run + 1]; i++) {
+                out.writeFloat(weights[i]);
+            }
+        }
+        out.close();
+    }
+
+    public static SparsePixelWeights read (InputStream inputStream) throws IOException {
+        DataInputStream in = new DataInputStream(inputStream);
+        byte[] header = new byte[HEADER.length()];
+        in.readFully(header);
+        checkState(HEADER.equals(new String(header)), "Input is not in pixel weights format.");
+        int version = in.readInt();
+        checkState(version == VERSION, "Unsupported pixel weights format version %s.", version);
+        int zoom = in.readInt();
+        int nRuns = in.readInt();
+        int[] runY = new int[nRuns];
+        int[] runX = new int[nRuns];
+        int[] runOffsets = new int[nRuns + 1];
+        TFloatArrayList weights = new TFloatArrayList();
+        for (int run = 0; run < nRuns; run++) {
+            runY[run] = in.readInt();
+            runX[run] = in.readInt();
+            runOffsets[run] = weights.size();
+            int length = in.readInt();
+            for (int i = 0; i < length; i++) {
+                weights.add(in.readFloat());
+            }
+        }
+        runOffsets[nRuns] = weights.size();
+        in.close();
+        return new SparsePixelWeights(zoom, runY, runX, runOffsets, weights.toArray());
+    }
+
+}
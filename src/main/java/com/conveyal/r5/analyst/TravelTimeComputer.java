@@ -4,6 +4,7 @@ import com.conveyal.r5.OneOriginResult;
 import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
 import com.conveyal.r5.analyst.cluster.PathWriter;
 import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.TravelTimeSurfaceTask;
 import com.conveyal.r5.analyst.fare.InRoutingFareCalculator;
 import com.conveyal.r5.analyst.scenario.PickupWaitTimes;
 import com.conveyal.r5.api.util.LegMode;
@@ -15,6 +16,7 @@ import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter;
 import com.conveyal.r5.profile.PerTargetPropagater;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.streets.LinkedPointSet;
+import com.conveyal.r5.streets.OneToManyStreetRouter;
 import com.conveyal.r5.streets.PointSetTimes;
 import com.conveyal.r5.streets.Split;
 import com.conveyal.r5.streets.StreetRouter;
@@ -135,12 +137,13 @@ public class TravelTimeComputer {
             // This allows us to skip routing calculations if the network is entirely inaccessible. In the CAR_PARK
             // case this StreetRouter will be replaced but this still serves to bypass unnecessary computation.
             // The request must be provided to the StreetRouter before setting the origin point.
-            StreetRouter sr = new StreetRouter(network.streetLayer);
-            sr.profileRequest = request;
-            sr.streetMode = accessMode;
+            // Where no turn restrictions apply, the allocation-free router produces identical results more quickly.
+            OneToManyStreetRouter sr = OneToManyStreetRouter.create(network.streetLayer, accessMode);
+            sr.setProfileRequest(request);
             if ( ! sr.setOrigin(request.fromLat, request.fromLon)) {
                 // Short circuit around routing and propagation if the origin point was not attached to the street network.
                 LOG.info("Origin point could not be linked to the street network for mode {}.", accessMode);
+                sr.release();
                 continue;
             }
             foundAnyOriginPoint = true;
@@ -159,12 +162,12 @@ public class TravelTimeComputer {
                 if (request.hasTransit()) {
                     limitSeconds = Math.min(limitSeconds, request.getMaxTimeSeconds(accessMode));
                 }
-                sr.timeLimitSeconds = limitSeconds;
+                sr.setTimeLimitSeconds(limitSeconds);
             }
 
             // Even if generalized cost tags were present on the input data, we always minimize travel time.
             // The generalized cost calculations currently increment time and weight by the same amount.
-            sr.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+            sr.setQuantityToMinimize(StreetRouter.State.RoutingVariable.DURATION_SECONDS);
             sr.route();
             // Change to walking in order to reach transit stops in pedestrian-only areas like train stations.
             // This implies you are dropped off or have a very easy parking spot for your vehicle.
@@ -234,6 +237,7 @@ public class TravelTimeComputer {
                 }
                 nonTransitTravelTimesToDestinations = PointSetTimes.minMerge(nonTransitTravelTimesToDestinations, pointSetTimes);
             }
+            sr.release();
         }
 
         // Handle park+ride, a mode represented in the request LegMode but not in the internal StreetMode.
@@ -295,6 +299,10 @@ public class TravelTimeComputer {
                 // TODO do we really need to save all states just to get the travel time breakdown?
                 worker.retainPaths = true;
             }
+            if (request instanceof TravelTimeSurfaceTask && ((TravelTimeSurfaceTask) request).parallelTransitSearch) {
+                // Single-point requests are latency-sensitive and are not otherwise parallelized, so use all cores.
+                worker.nSubWindows = Runtime.getRuntime().availableProcessors();
+            }
             // Run the main RAPTOR algorithm to find paths and travel times to all stops in the network.
             // Returns the total travel times as a 2D array of [searchIteration][destinationStopIndex].
             // Additional detailed path information is retained in the FastRaptorWorker after routing.
@@ -308,6 +316,9 @@ public class TravelTimeComputer {
                             departureTime + request.maxTripDurationMinutes * FastRaptorWorker.SECONDS_PER_MINUTE);
             McRaptorSuboptimalPathProfileRouter mcRaptorWorker = new McRaptorSuboptimalPathProfileRouter(network,
                     request, null, null, listSupplier, InRoutingFareCalculator.getCollator(request));
+            if (request instanceof TravelTimeSurfaceTask && ((TravelTimeSurfaceTask) request).parallelTransitSearch) {
+                mcRaptorWorker.nSubWindows = Runtime.getRuntime().availableProcessors();
+            }
             mcRaptorWorker.route();
             transitTravelTimesToStops = mcRaptorWorker.getBestTimes();
         }
@@ -25,6 +25,8 @@ import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.config.SocketConfig;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
@@ -85,6 +87,15 @@ public class AnalysisWorker implements Component {
      */
     private static final int HTTP_CLIENT_TIMEOUT_SEC = 55;
 
+    /**
+     * The maximum number of finished regional results waiting to be streamed to the broker. When this many are
+     * waiting, the threads computing results block until the broker catches up.
+     */
+    private static final int RESULT_STREAM_QUEUE_LENGTH = 1000;
+
+    /** The maximum number of results sent to the broker in a single streaming request. */
+    private static final int MAX_RESULTS_PER_STREAM_REQUEST = 200;
+
     // STATIC FIELDS
 
     /**
@@ -126,8 +137,22 @@ public class AnalysisWorker implements Component {
      */
     private final List<RegionalWorkResult> workResults = new ArrayList<>();
 
+    /**
+     * Finished results waiting to be sent to the broker's streaming endpoint as soon as possible, rather than with
+     * the next poll. This is bounded to apply backpressure: if the broker is slow to accept results, the worker
+     * threads producing them will block.
+     */
+    private final BlockingQueue<RegionalWorkResult> resultsToStream =
+            new LinkedBlockingQueue<>(RESULT_STREAM_QUEUE_LENGTH);
+
+    /**
+     * Whether results should be streamed to the broker. This is switched off if the broker does not have a streaming
+     * endpoint (i.e. it is an older version) after which results are delivered with polling requests.
+     */
+    private volatile boolean streamResults = true;
+
     /** The last time (in milliseconds since the epoch) that we polled for work. */
-    private long lastPollingTime;
+    private volatile long lastPollingTime;
 
     /** Keep track of how many tasks per minute this worker is processing, broken down by scenario ID. */
     private final ThroughputTracker throughputTracker = new ThroughputTracker();
@@ -192,7 +217,7 @@ public class AnalysisWorker implements Component {
         this.networkId = config.initialGraphId();
         this.fileStorage = fileStorage;
         this.pointSetCache = new PointSetCache(fileStorage); // Make this cache a component?
-        this.networkPreloader = new NetworkPreloader(transportNetworkCache);
+        this.networkPreloader = new NetworkPreloader(transportNetworkCache, fileStorage);
         this.eventBus = eventBus;
     }
 
@@ -200,27 +225,27 @@ public class AnalysisWorker implements Component {
     public void startPolling () {
 
         // Create executors with up to one thread per processor.
-        // The default task rejection policy is "Abort".
-        // The executor's queue is rather long because some tasks complete very fast and we poll max once per second.
+        // When the queue is full, the thread submitting a task blocks until there is room for it, rather than the
+        // default "Abort" policy. The polling loop then only asks the broker for more work once the queue has room.
         int availableProcessors = Runtime.getRuntime().availableProcessors();
         LOG.debug("Java reports the number of available processors is: {}", availableProcessors);
         int maxThreads = availableProcessors;
         int taskQueueLength = availableProcessors * 6;
         LOG.debug("Maximum number of regional processing threads is {}, length of task queue is {}.", maxThreads, taskQueueLength);
         BlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<>(taskQueueLength);
-        regionalTaskExecutor = new ThreadPoolExecutor(1, maxThreads, 60, TimeUnit.SECONDS, taskQueue);
+        regionalTaskExecutor = new ThreadPoolExecutor(
+                1, maxThreads, 60, TimeUnit.SECONDS, taskQueue, AnalysisWorker::blockUntilQueued
+        );
+
+        // Send results to the broker as they are produced, on a separate thread from the polling loop.
+        Thread resultStreamingThread = new Thread(this::streamResultsToBroker, "result-streaming");
+        resultStreamingThread.setDaemon(true);
+        resultStreamingThread.start();
 
         // Main polling loop to fill the regional work queue.
         // Go into an endless loop polling for regional tasks that can be computed asynchronously.
-        // You'd think the ThreadPoolExecutor could just block when the blocking queue is full, but apparently
-        // people all over the world have been jumping through hoops to try to achieve this simple behavior
-        // with no real success, at least without writing bug and deadlock-prone custom executor services.
-        // Two alternative approaches are trying to keep the queue full and waiting for the queue to be almost empty.
-        // To keep the queue full, we repeatedly try to add each task to the queue, pausing and retrying when
-        // it's full. To wait until it's almost empty, we could use wait() in a loop and notify() as tasks are handled.
-        // see https://stackoverflow.com/a/15185004/778449
-        // A simpler approach might be to spin-wait checking whether the queue is low and sleeping briefly,
-        // then fetch more work only when the queue is getting empty.
+        // Submitting tasks blocks while the executor's queue is full, so the broker sizes each delivery to keep this
+        // worker busy for a while at its recent throughput, rather than us polling as fast as tasks are consumed.
         while (true) {
             List<RegionalTask> tasks = getSomeWork();
             if (tasks == null || tasks.isEmpty()) {
@@ -233,37 +258,40 @@ public class AnalysisWorker implements Component {
                 continue;
             }
             for (RegionalTask task : tasks) {
-                // Try to enqueue each task for execution, repeatedly failing until the queue is not full.
-                // The list of fetched tasks essentially serves as a secondary queue, which is awkward. This is using
-                // exceptions for normal flow control, which is nasty. We should do this differently (#596).
-                while (true) {
+                // Enqueue each task for execution, blocking until the queue has room for it.
+                // TODO define non-anonymous runnable class to instantiate here, specifically for async regional tasks.
+                regionalTaskExecutor.execute(() -> {
                     try {
-                        // TODO define non-anonymous runnable class to instantiate here, specifically for async regional tasks.
-                        regionalTaskExecutor.execute(() -> {
-                            try {
-                                this.handleOneRegionalTask(task);
-                            } catch (Throwable t) {
-                                LOG.error(
-                                    "An error occurred while handling a regional task, reporting to backend. {}",
-                                    ExceptionUtils.stackTraceString(t)
-                                );
-                                synchronized (workResults) {
-                                    workResults.add(new RegionalWorkResult(t, task));
-                                }
-                            }
-                        });
-                        break;
-                    } catch (RejectedExecutionException e) {
-                        // Queue is full, wait a bit and try to feed it more tasks. If worker handles all tasks in its
-                        // internal queue in less than 1 second, this is a speed bottleneck. This happens with regions
-                        // unconnected to transit and with very small travel time cutoffs.
-                        sleepSeconds(1);
+                        this.handleOneRegionalTask(task);
+                    } catch (Throwable t) {
+                        LOG.error(
+                            "An error occurred while handling a regional task, reporting to backend. {}",
+                            ExceptionUtils.stackTraceString(t)
+                        );
+                        reportRegionalResult(new RegionalWorkResult(t, task));
                     }
-                }
+                });
             }
         }
     }
 
+    /**
+     * A RejectedExecutionHandler that waits for space in the executor's queue instead of throwing an exception.
+     * The executor only calls this after failing to add the task to its queue or start a new thread for it, so all
+     * threads are already busy and the task will be picked up as soon as it's queued.
+     */
+    private static void blockUntilQueued (Runnable runnable, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Executor has been shut down.");
+        }
+        try {
+            executor.getQueue().put(runnable);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for space in the task queue.", e);
+        }
+    }
+
     /** Bypass idiotic java checked exceptions. */
     public static void sleepSeconds (int seconds) {
         try {
@@ -464,10 +492,83 @@ public class AnalysisWorker implements Component {
         // For most regional analyses, this is an accessibility indicator value for one of many origins,
         // but for static sites the indicator value is not known, it is computed in the UI. We still want to return
         // dummy (zero) accessibility results so the backend is aware of progress through the list of origins.
+        reportRegionalResult(new RegionalWorkResult(oneOriginResult, task));
+        throughputTracker.recordTaskCompletion(task.jobId);
+    }
+
+    /**
+     * Queue a finished regional result for delivery to the broker. It is streamed immediately where possible, which
+     * may block if many results are already waiting. Otherwise it will be sent with the next poll.
+     */
+    private void reportRegionalResult (RegionalWorkResult result) {
+        if (streamResults && RegionalWorkResultCodec.canEncode(result)) {
+            try {
+                resultsToStream.put(result);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         synchronized (workResults) {
-            workResults.add(new RegionalWorkResult(oneOriginResult, task));
+            workResults.add(result);
         }
-        throughputTracker.recordTaskCompletion(task.jobId);
+    }
+
+    /**
+     * Loop forever, sending results to the broker as soon as they are available. Any results that accumulate while
+     * a request is in progress are sent together in the next one. If sending fails, the results are handed over to
+     * the polling loop for delivery, so they are never lost.
+     */
+    private void streamResultsToBroker () {
+        List<RegionalWorkResult> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(resultsToStream.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            resultsToStream.drainTo(batch, MAX_RESULTS_PER_STREAM_REQUEST - 1);
+            if (!streamResults || !postResults(batch)) {
+                synchronized (workResults) {
+                    workResults.addAll(batch);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Send the given results to the broker's streaming endpoint in our binary result format.
+     * @return true if the broker accepted the results.
+     */
+    private boolean postResults (List<RegionalWorkResult> results) {
+        HttpPost httpPost = new HttpPost(brokerBaseUrl + "/results");
+        HttpEntity responseEntity = null;
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            RegionalWorkResultCodec.write(createWorkerStatus(), results, outputStream);
+            httpPost.setEntity(new ByteArrayEntity(
+                    outputStream.toByteArray(),
+                    ContentType.create(RegionalWorkResultCodec.CONTENT_TYPE)
+            ));
+            HttpResponse response = httpClient.execute(httpPost);
+            responseEntity = response.getEntity();
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == 200) {
+                return true;
+            }
+            if (statusCode == 404) {
+                LOG.warn("Broker does not accept streamed results. Results will be returned when polling.");
+                streamResults = false;
+            } else {
+                LOG.error("Unsuccessful result streaming. HTTP response code: " + statusCode);
+            }
+        } catch (Exception e) {
+            LOG.error("Exception while streaming results to backend: {}", ExceptionUtils.stackTraceString(e));
+        } finally {
+            EntityUtils.consumeQuietly(responseEntity);
+        }
+        return false;
     }
 
     /**
@@ -533,6 +634,23 @@ public class AnalysisWorker implements Component {
         LOG.debug("Done writing");
     }
 
+    /**
+     * Describe this worker to the backend, which keeps track of workers by the status they send when polling for work
+     * or streaming results. The status does not include any results.
+     */
+    private WorkerStatus createWorkerStatus () {
+        WorkerStatus workerStatus = new WorkerStatus(this);
+
+        // Compute throughput in tasks per minute and include it in the worker status report.
+        // We poll too frequently to compute throughput just since the last poll operation.
+        // TODO reduce polling frequency (larger queue in worker), compute shorter-term throughput.
+        workerStatus.tasksPerMinuteByJobId = throughputTracker.getTasksPerMinuteByJobId();
+
+        // Report how often we're polling for work, just for monitoring.
+        workerStatus.secondsSinceLastPoll = (System.currentTimeMillis() - lastPollingTime) / 1000D;
+        return workerStatus;
+    }
+
     /**
      * Ask the backend if it has any work for this worker, considering its software version and loaded networks.
      * Also report the worker status to the backend, serving as a heartbeat so the backend knows this worker is alive.
@@ -542,7 +660,8 @@ public class AnalysisWorker implements Component {
     public List<RegionalTask> getSomeWork () {
         String url = brokerBaseUrl + "/poll";
         HttpPost httpPost = new HttpPost(url);
-        WorkerStatus workerStatus = new WorkerStatus(this);
+        WorkerStatus workerStatus = createWorkerStatus();
+        lastPollingTime = System.currentTimeMillis();
         // Include all completed work results when polling the backend.
         // Atomically copy and clear the accumulated work results, while blocking writes from other threads.
         synchronized (workResults) {
@@ -550,16 +669,6 @@ public class AnalysisWorker implements Component {
             workResults.clear();
         }
 
-        // Compute throughput in tasks per minute and include it in the worker status report.
-        // We poll too frequently to compute throughput just since the last poll operation.
-        // TODO reduce polling frequency (larger queue in worker), compute shorter-term throughput.
-        workerStatus.tasksPerMinuteByJobId = throughputTracker.getTasksPerMinuteByJobId();
-
-        // Report how often we're polling for work, just for monitoring.
-        long timeNow = System.currentTimeMillis();
-        workerStatus.secondsSinceLastPoll = (timeNow - lastPollingTime) / 1000D;
-        lastPollingTime = timeNow;
-
         httpPost.setEntity(JsonUtilities.objectToJsonHttpEntity(workerStatus));
         HttpEntity responseEntity = null;
         try {
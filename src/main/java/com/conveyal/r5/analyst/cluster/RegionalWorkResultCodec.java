@@ -0,0 +1,199 @@
+package com.conveyal.r5.analyst.cluster;
+
+import com.conveyal.r5.common.JsonUtilities;
+import com.google.common.io.LittleEndianDataInputStream;
+import com.google.common.io.LittleEndianDataOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A compact binary framing for regional results streamed from workers to the broker, as an alternative to sending
+ * them as JSON in the body of the worker's next poll request. On large jobs, parsing and producing those JSON
+ * payloads dominates broker CPU usage.
+ *
+ * A stream begins with a header and a format version, then the sending worker's status as a JSON string, so the
+ * broker can keep track of the worker just as it does when the worker polls. This is followed by any number of frames
+ * each representing one RegionalWorkResult, then a zero byte marking the end of the stream. Each frame begins with a
+ * one byte, followed by the job ID, the task ID, the error message, and the travel time and accessibility arrays. All
+ * numbers are little-endian ints. Strings are UTF-8 and prefixed with their length in bytes, and arrays are prefixed
+ * with their length, with -1 representing null.
+ *
+ * The whole stream is decoded before any result is returned, so a truncated stream yields no results at all. A worker
+ * resends all the results in a request that failed, and results already handled would otherwise be handled twice.
+ *
+ * Path results are a list of string arrays with no compact representation, so they cannot be sent in this format.
+ * Results containing paths should still be delivered by polling.
+ */
+public abstract class RegionalWorkResultCodec {
+
+    private static final byte[] HEADER = "R5RESULTS".getBytes(StandardCharsets.US_ASCII);
+
+    public static final int FORMAT_VERSION = 2;
+
+    private static final int NULL_LENGTH = -1;
+
+    /** MIME type of request bodies in this format. */
+    public static final String CONTENT_TYPE = "application/x-r5-regional-results";
+
+    /** @return whether the given result can be represented in this format. */
+    public static boolean canEncode (RegionalWorkResult result) {
+        return result.pathResult == null;
+    }
+
+    /**
+     * Write the given worker status followed by the given results to the supplied stream as a single sequence of
+     * frames, then close the stream. The results are sent as binary frames rather than in the status itself.
+     */
+    public static void write (WorkerStatus workerStatus, Iterable<RegionalWorkResult> results,
+                              OutputStream outputStream) throws IOException {
+        checkArgument(workerStatus.results == null, "Results must be written as frames, not in the worker status.");
+        try (LittleEndianDataOutputStream out =
+                     new LittleEndianDataOutputStream(new BufferedOutputStream(outputStream))) {
+            out.write(HEADER);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, JsonUtilities.objectMapper.writeValueAsString(workerStatus));
+            for (RegionalWorkResult result : results) {
+                checkArgument(canEncode(result), "Path results cannot be written in binary result frames.");
+                out.writeByte(1);
+                writeString(out, result.jobId);
+                out.writeInt(result.taskId);
+                writeString(out, result.error);
+                writeArray(out, result.travelTimeValues);
+                writeArray(out, result.accessibilityValues);
+            }
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Read an entire stream of results. Nothing is returned unless the stream is complete, so the caller can be sure
+     * it is not handling part of a request that will be retried. The stream is not closed.
+     * @return the status of the worker that sent the stream, with all the results it contained in its results field.
+     */
+    public static WorkerStatus read (InputStream inputStream) throws IOException {
+        LittleEndianDataInputStream in = new LittleEndianDataInputStream(new BufferedInputStream(inputStream));
+        byte[] header = new byte[HEADER.length];
+        in.readFully(header);
+        checkState(Arrays.equals(HEADER, header), "Stream does not contain regional results.");
+        int version = in.readInt();
+        checkState(version == FORMAT_VERSION, "Regional result format version %s, expected %s.",
+                version, FORMAT_VERSION);
+        String workerStatusJson = readString(in);
+        checkState(workerStatusJson != null, "Stream does not contain a worker status.");
+        // Use the lenient object mapper in case the worker is a newer version sending unrecognized fields.
+        WorkerStatus workerStatus = JsonUtilities.lenientObjectMapper.readValue(workerStatusJson, WorkerStatus.class);
+        List<RegionalWorkResult> results = new ArrayList<>();
+        while (in.readByte() != 0) {
+            RegionalWorkResult result = new RegionalWorkResult();
+            result.jobId = readString(in);
+            result.taskId = in.readInt();
+            result.error = readString(in);
+            result.travelTimeValues = readIntArray2(in);
+            result.accessibilityValues = readIntArray3(in);
+            results.add(result);
+        }
+        workerStatus.results = results;
+        return workerStatus;
+    }
+
+    private static void writeString (LittleEndianDataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString (LittleEndianDataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeArray (LittleEndianDataOutputStream out, int[][][] array) throws IOException {
+        if (array == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        out.writeInt(array.length);
+        for (int[][] subArray : array) {
+            writeArray(out, subArray);
+        }
+    }
+
+    private static void writeArray (LittleEndianDataOutputStream out, int[][] array) throws IOException {
+        if (array == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        out.writeInt(array.length);
+        for (int[] subArray : array) {
+            writeArray(out, subArray);
+        }
+    }
+
+    private static void writeArray (LittleEndianDataOutputStream out, int[] array) throws IOException {
+        if (array == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        out.writeInt(array.length);
+        for (int value : array) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[][][] readIntArray3 (LittleEndianDataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        int[][][] array = new int[length][][];
+        for (int i = 0; i < length; i++) {
+            array[i] = readIntArray2(in);
+        }
+        return array;
+    }
+
+    private static int[][] readIntArray2 (LittleEndianDataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        int[][] array = new int[length][];
+        for (int i = 0; i < length; i++) {
+            array[i] = readIntArray(in);
+        }
+        return array;
+    }
+
+    private static int[] readIntArray (LittleEndianDataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = in.readInt();
+        }
+        return array;
+    }
+
+}
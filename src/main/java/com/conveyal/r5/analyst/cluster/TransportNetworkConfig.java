@@ -54,4 +54,11 @@ public class TransportNetworkConfig {
      */
     public Set<StreetMode> buildGridsForModes;
 
+    /**
+     * If true, save the built network in the memory-mapped format (see MappedNetworkSerializer) instead of the Kryo
+     * format. Workers then start routing almost immediately and share the large street layer arrays with any other
+     * worker processes on the same machine. This is a Boolean rather than a boolean so it is not serialized when unset.
+     */
+    public Boolean memoryMapped;
+
 }
@@ -33,6 +33,13 @@ public class TravelTimeSurfaceTask extends AnalysisWorkerTask {
     /** Default format is a Conveyal flat binary file */
     private Format format = Format.GRID;
 
+    /**
+     * Opt-in: split the departure time window into contiguous sub-windows and search them in parallel on all the
+     * worker's processors. This reduces latency of interactive requests with wide time windows, at the cost of some
+     * lost range-RAPTOR reuse between departure minutes (see FastRaptorWorker.nSubWindows).
+     */
+    public boolean parallelTransitSearch = false;
+
     public void setFormat(Format format){
         this.format = format;
     }
@@ -36,7 +36,11 @@ public class BogotaMixedInRoutingFareCalculator extends InRoutingFareCalculator
     public static final boolean LOG_FARES = false;
 
     private static final WeakHashMap<TransitLayer, FareSystemWrapper> fareSystemCache = new WeakHashMap<>();
-    private Map<String, Fare> fares;
+    /**
+     * Loaded lazily on first use. Volatile and assigned after secondHighestFarePrice, because several threads of a
+     * parallel McRaptor search may call calculateFare on the same calculator concurrently.
+     */
+    private volatile Map<String, Fare> fares;
     // With a standard TransferAllowance, paying the fare to enter a station would confer a transfer allowance with
     // that full fare, which we assume is the most expensive fare in the system.  But in practice, entering a paid
     // area for a subsequent time in the same itinerary would require full payment again.  So the effective value of
@@ -89,8 +93,8 @@ public class BogotaMixedInRoutingFareCalculator extends InRoutingFareCalculator
                     synchronized (fareSystemCache) {
                         FareSystemWrapper fareSystem = fareSystemCache.computeIfAbsent(this.transitLayer,
                                 BogotaMixedInRoutingFareCalculator::loadFaresFromGTFS);
-                        this.fares = fareSystem.fares;
                         this.secondHighestFarePrice = fareSystem.secondHighestFarePrice;
+                        this.fares = fareSystem.fares;
                     }
                 }
             }
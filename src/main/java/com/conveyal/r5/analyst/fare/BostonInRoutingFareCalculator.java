@@ -28,7 +28,11 @@ public class BostonInRoutingFareCalculator extends InRoutingFareCalculator {
     public static final boolean LOG_FARES = false;
 
     private static final WeakHashMap<TransitLayer, FareSystemWrapper> fareSystemCache = new WeakHashMap<>();
-    private RouteBasedFareRules fares;
+    /**
+     * Loaded lazily on first use. Volatile and fully configured before assignment, because several threads of a
+     * parallel McRaptor search may call calculateFare on the same calculator concurrently.
+     */
+    private volatile RouteBasedFareRules fares;
 
     // Some fares may confer different transfer allowance values, but have the same issuing and acceptance rules.
     // For example, in Boston, the transfer allowances from inner and outer express bus fares have different values,
@@ -245,8 +249,9 @@ public class BostonInRoutingFareCalculator extends InRoutingFareCalculator {
                     synchronized (fareSystemCache) {
                         FareSystemWrapper fareSystem = fareSystemCache.computeIfAbsent(this.transitLayer,
                                 BostonInRoutingFareCalculator::loadFaresFromGTFS);
-                        this.fares = fareSystem.fares;
-                        this.fares.defaultFare = DEFAULT_FARE_ID;
+                        RouteBasedFareRules loadedFares = fareSystem.fares;
+                        loadedFares.defaultFare = DEFAULT_FARE_ID;
+                        this.fares = loadedFares;
                     }
                 }
             }
@@ -53,7 +53,10 @@ public abstract class InRoutingFareCalculator implements Serializable {
                 // check if this state falls below the fare cutoff.
                 // We generally try not to impose cutoffs at calculation time, but leaving two free cutoffs creates a grid
                 // of possibilities that is too large to be stored.
-                FareBounds fareAtState = request.inRoutingFareCalculator.calculateFare(state, maxClockTime);
+                // The fare is usually already memoized on the state by FareDominatingList, which uses the same
+                // maxClockTime. Walking back through the whole path to recompute it for every state is slow.
+                if (state.fare == null) state.fare = request.inRoutingFareCalculator.calculateFare(state, maxClockTime);
+                FareBounds fareAtState = state.fare;
 
                 if (fareAtState.cumulativeFarePaid > request.maxFare) {
                     continue;
@@ -69,6 +69,8 @@ public class ParetoServer {
                 listSupplier,
                 null,
                 true); // no collator - route will return states at destination
+        // This is an interactive request, so search departure times on all cores.
+        mcraptor.nSubWindows = Runtime.getRuntime().availableProcessors();
 
         mcraptor.route();
         long totalTime = System.currentTimeMillis() - startTime;
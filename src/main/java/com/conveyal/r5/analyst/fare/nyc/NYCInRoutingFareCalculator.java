@@ -77,19 +77,31 @@ public class NYCInRoutingFareCalculator extends InRoutingFareCalculator {
     /** Map for from stop -> to stop -> via stop -> fare for LIRR offpeak via fare overrides coming from JSON */
     Map<LIRRStop, Map<LIRRStop, TObjectIntMap<LIRRStop>>> lirrOffPeakViaFareOverrides = null;
 
+    /**
+     * Set once all the fare override maps above have been built. Several threads of a parallel McRaptor search may
+     * call calculateFare on the same calculator, so this volatile write is what publishes the maps to other threads.
+     */
+    private volatile boolean fareOverridesInitialized = false;
+
+    /** The fare data for this calculator's transit layer, looked up once and then read without locking. */
+    private transient volatile NYCFareDataCache cachedFareData = null;
+
     /** Create the cached fare data iff there is a cache mix, otherwise just return it */
     private NYCFareDataCache getOrCreateFareData () {
-        if (!fareDataForTransitLayer.containsKey(transitLayer)) {
+        NYCFareDataCache result = cachedFareData;
+        if (result == null) {
+            // A WeakHashMap may restructure itself even on reads, so every access to it must hold the lock.
             synchronized (fareDataForTransitLayer) {
-                if (!fareDataForTransitLayer.containsKey(transitLayer)) {
+                result = fareDataForTransitLayer.get(transitLayer);
+                if (result == null) {
                     LOG.info("Initializing NYC InRoutingFareCalculator");
-                    NYCFareDataCache fareData = new NYCFareDataCache(this.transitLayer);
-                    fareDataForTransitLayer.put(transitLayer, fareData);
+                    result = new NYCFareDataCache(this.transitLayer);
+                    fareDataForTransitLayer.put(transitLayer, result);
                 }
             }
+            cachedFareData = result;
         }
-
-        return fareDataForTransitLayer.get(transitLayer);
+        return result;
     }
 
     /** Initialize the fare overrides for direct trips on Metro-North */
@@ -174,9 +186,9 @@ public class NYCInRoutingFareCalculator extends InRoutingFareCalculator {
     }
 
     private void initializeFareOverrides (NYCFareDataCache fareData) {
-        if (mnrPeakFareOverrides == null) {
+        if (!fareOverridesInitialized) {
             synchronized (this) {
-                if (mnrPeakFareOverrides == null) {
+                if (!fareOverridesInitialized) {
                     mnrPeakFareOverrides = initializeMnrDirectFareOverrides(metroNorthFareOverrides, true);
                     mnrOffPeakFareOverrides = initializeMnrDirectFareOverrides(metroNorthFareOverrides, false);
 
@@ -185,6 +197,8 @@ public class NYCInRoutingFareCalculator extends InRoutingFareCalculator {
 
                     lirrPeakViaFareOverrides = initializeLirrViaFareOverrides(lirrFareOverrides, true, fareData);
                     lirrOffPeakViaFareOverrides = initializeLirrViaFareOverrides(lirrFareOverrides, false, fareData);
+
+                    fareOverridesInitialized = true;
                 }
             }
         }
@@ -5,8 +5,6 @@ import com.conveyal.file.FileStorageKey;
 import com.conveyal.r5.streets.EdgeStore;
 import com.conveyal.r5.transit.TransportNetwork;
 import com.conveyal.r5.util.ExceptionUtils;
-import gnu.trove.list.TShortList;
-import gnu.trove.list.array.TShortArrayList;
 import gnu.trove.map.TObjectIntMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import org.geotools.data.geojson.GeoJSONDataStore;
@@ -204,7 +202,6 @@ public class RoadCongestion extends Modification {
         // network.streetLayer is already a protective copy made by method Scenario.applyToTransportNetwork,
         // and network.streetLayer.edgeStore is already an extend-only copy.
         EdgeStore edgeStore = network.streetLayer.edgeStore;
-        TShortList adjustedSpeeds = new TShortArrayList(edgeStore.speeds.size());
         EdgeStore.Edge edge = edgeStore.getCursor();
         CongestionPolygon defaultPolygon =
                 new CongestionPolygon(null, "DEFAULT", defaultScaling, 0);
@@ -235,7 +232,8 @@ public class RoadCongestion extends Modification {
                 edgeCounts.adjustOrPutValue(winner, 1, 1);
             }
             // TODO reconsider why we are saving cm/sec, it apparently only shaves a few percent off the file size.
-            adjustedSpeeds.add((short)(edge.getSpeed() * winner.scale));
+            // Setting the speed in place records which baseline edges were changed, see scenarioChangedEdgeEnvelopes.
+            edge.setSpeed((short)(edge.getSpeed() * winner.scale));
         }
         if (logUpdatedEdgeCounts) {
             edgeCounts.forEachEntry((polygon, quantity) -> {
@@ -244,7 +242,6 @@ public class RoadCongestion extends Modification {
                 return true;
             });
         }
-        edgeStore.speeds = adjustedSpeeds;
         return hasErrors();
     }
 
@@ -44,7 +44,7 @@ public abstract class KryoNetworkSerializer {
      * the serialization format itself does not change. This will ensure newer workers will not load cached older files.
      * We considered using an ISO date string as the version but that could get confusing when seen in filenames.
      */
-    public static final String NETWORK_FORMAT_VERSION = "nv2";
+    public static final String NETWORK_FORMAT_VERSION = "nv3";
 
     public static final byte[] HEADER = "R5NETWORK".getBytes();
 
@@ -58,7 +58,7 @@ public abstract class KryoNetworkSerializer {
      * Because these networks are so big though, pre-registration should provide very little savings.
      * Registration is more important for small network messages.
      */
-    private static Kryo makeKryo () {
+    static Kryo makeKryo () {
         Kryo kryo;
         if (COUNT_CLASS_INSTANCES) {
             kryo = new Kryo(new InstanceCountingClassResolver(), new MapReferenceResolver(), new DefaultStreamFactory());
@@ -0,0 +1,383 @@
+package com.conveyal.r5.kryo;
+
+import com.conveyal.r5.SoftwareVersion;
+import com.conveyal.r5.streets.EdgeStore;
+import com.conveyal.r5.streets.VertexStore;
+import com.conveyal.r5.transit.TransportNetwork;
+import com.conveyal.r5.trove.IntArrayBufferList;
+import com.conveyal.r5.trove.TByteBufferList;
+import com.conveyal.r5.trove.TIntBufferList;
+import com.conveyal.r5.trove.TLongBufferList;
+import com.conveyal.r5.trove.TShortBufferList;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import gnu.trove.list.TByteList;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.TShortList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * This class groups the static methods for saving and loading TransportNetworks in a format that can be memory-mapped.
+ *
+ * Loading a Kryo network means decoding every array onto the heap, which takes minutes for large networks, and every
+ * worker JVM on a machine holds its own copy. In this format the largest primitive lists of the street layer (edge
+ * flags, speeds, vertices, lengths, OSM IDs, street classes, angles and geometries, and vertex coordinates and flags)
+ * are stored as flat little-endian arrays, which are memory-mapped read-only on load and wrapped in read-only list
+ * views. The operating system pages them in as they are used and shares them between all processes mapping the same
+ * file. The rest of the network is a much smaller Kryo object graph in which those fields are skipped.
+ *
+ * The transit layer (trip schedules, stop-to-vertex distance tables etc.) is made of many small objects and hash maps
+ * rather than a few large arrays, so it remains in the Kryo part of the file.
+ *
+ * The file layout is: header, 8-byte offset of the table of contents, mapped columns each aligned to 8 bytes, the
+ * Kryo-serialized remainder of the network, then the table of contents giving the position and length of each column
+ * in the order they are written, followed by the position and length of the Kryo part.
+ */
+public abstract class MappedNetworkSerializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedNetworkSerializer.class);
+
+    public static final byte[] HEADER = "R5MAPPED".getBytes();
+
+    private static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /** EdgeStore fields that are stored as mapped columns and not serialized with Kryo. */
+    private static final List<String> MAPPED_EDGE_FIELDS = Arrays.asList("flags", "speeds", "fromVertices",
+            "toVertices", "lengths_mm", "osmids", "streetClasses", "geometries", "inAngles", "outAngles");
+
+    /** VertexStore fields that are stored as mapped columns and not serialized with Kryo. */
+    private static final List<String> MAPPED_VERTEX_FIELDS = Arrays.asList("fixedLats", "fixedLons", "vertexFlags");
+
+    /**
+     * Configure Kryo exactly as for a Kryo network file, except that it skips the fields stored as mapped columns.
+     * These are null after deserialization and must be attached from the mapped file.
+     */
+    private static Kryo makeKryo () {
+        Kryo kryo = KryoNetworkSerializer.makeKryo();
+        FieldSerializer<EdgeStore> edgeStoreSerializer = new FieldSerializer<>(kryo, EdgeStore.class);
+        MAPPED_EDGE_FIELDS.forEach(edgeStoreSerializer::removeField);
+        kryo.register(EdgeStore.class, edgeStoreSerializer);
+        FieldSerializer<VertexStore> vertexStoreSerializer = new FieldSerializer<>(kryo, VertexStore.class);
+        MAPPED_VERTEX_FIELDS.forEach(vertexStoreSerializer::removeField);
+        kryo.register(VertexStore.class, vertexStoreSerializer);
+        return kryo;
+    }
+
+    /**
+     * Save the supplied network in a file that can be loaded with read(). The network itself is not modified.
+     */
+    public static void write (TransportNetwork network, File file) throws IOException {
+        LOG.info("Writing memory-mappable transport network...");
+        EdgeStore edgeStore = network.streetLayer.edgeStore;
+        VertexStore vertexStore = network.streetLayer.vertexStore;
+        try (FileChannel channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ColumnWriter writer = new ColumnWriter(channel);
+            // The offset of the table of contents is filled in at the end.
+            writer.write(ByteBuffer.wrap(Arrays.copyOf(HEADER, HEADER.length + Long.BYTES)));
+            // The order of these columns must match the order in which they are attached in read().
+            writer.writeInts(edgeStore.flags);
+            writer.writeShorts(edgeStore.speeds);
+            writer.writeInts(edgeStore.fromVertices);
+            writer.writeInts(edgeStore.toVertices);
+            writer.writeInts(edgeStore.lengths_mm);
+            writer.writeLongs(edgeStore.osmids);
+            writer.writeBytes(edgeStore.streetClasses);
+            writer.writeBytes(edgeStore.inAngles);
+            writer.writeBytes(edgeStore.outAngles);
+            writer.writeIntArrays(edgeStore.geometries);
+            writer.writeInts(vertexStore.fixedLats);
+            writer.writeInts(vertexStore.fixedLons);
+            writer.writeBytes(vertexStore.vertexFlags);
+
+            ByteArrayOutputStream kryoBytes = new ByteArrayOutputStream();
+            Output output = new Output(kryoBytes);
+            Kryo kryo = makeKryo();
+            kryo.writeObject(output, KryoNetworkSerializer.NETWORK_FORMAT_VERSION);
+            kryo.writeObject(output, SoftwareVersion.instance.commit);
+            kryo.writeObject(output, network);
+            output.close();
+            long kryoPosition = writer.position;
+            writer.write(ByteBuffer.wrap(kryoBytes.toByteArray()));
+
+            long tableOfContentsPosition = writer.position;
+            int nColumns = writer.columnPositions.size();
+            ByteBuffer tableOfContents = ByteBuffer.allocate(Integer.BYTES + (nColumns + 1) * Long.BYTES * 2);
+            tableOfContents.order(BYTE_ORDER).putInt(nColumns);
+            for (int c = 0; c < nColumns; c++) {
+                tableOfContents.putLong(writer.columnPositions.get(c)).putLong(writer.columnLengths.get(c));
+            }
+            tableOfContents.putLong(kryoPosition).putLong(tableOfContentsPosition - kryoPosition);
+            tableOfContents.flip();
+            writer.write(tableOfContents);
+            channel.write(ByteBuffer.allocate(Long.BYTES).order(BYTE_ORDER).putLong(0, tableOfContentsPosition),
+                    HEADER.length);
+        }
+        LOG.info("Done writing.");
+    }
+
+    /**
+     * Memory-map the given file and decode the Kryo part of it into a new R5 TransportNetwork, whose street layer
+     * uses read-only views of the mapped columns. The file must not be modified or deleted while the network is in use.
+     * Transient fields that were not serialized will be rebuilt (indexes and cached PointSet linkage).
+     */
+    public static TransportNetwork read (File file) throws Exception {
+        LOG.info("Reading memory-mapped transport network...");
+        TransportNetwork result;
+        // Mappings remain valid after the channel is closed.
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER.length + Long.BYTES).order(BYTE_ORDER);
+            readFully(channel, header, 0);
+            byte[] headerBytes = new byte[HEADER.length];
+            header.get(headerBytes);
+            if (!Arrays.equals(HEADER, headerBytes)) {
+                throw new RuntimeException("Unrecognized file header. Is this a memory-mapped R5 network?");
+            }
+            long tableOfContentsPosition = header.getLong(HEADER.length);
+            ByteBuffer tableOfContents = ByteBuffer.allocate((int) (channel.size() - tableOfContentsPosition));
+            readFully(channel, tableOfContents.order(BYTE_ORDER), tableOfContentsPosition);
+            ColumnReader reader = new ColumnReader(channel, tableOfContents);
+
+            ByteBuffer kryoBytes = ByteBuffer.allocate(reader.kryoLength);
+            readFully(channel, kryoBytes, reader.kryoPosition);
+            Input input = new Input(kryoBytes.array());
+            Kryo kryo = makeKryo();
+            String formatVersion = kryo.readObject(input, String.class);
+            String commit = kryo.readObject(input, String.class);
+            LOG.info("Loading network from file format version {}, written by R5 commit {}", formatVersion, commit);
+            if (!KryoNetworkSerializer.NETWORK_FORMAT_VERSION.equals(formatVersion)) {
+                throw new RuntimeException(String.format("File format version is %s, this R5 requires %s",
+                        formatVersion, KryoNetworkSerializer.NETWORK_FORMAT_VERSION));
+            }
+            result = kryo.readObject(input, TransportNetwork.class);
+
+            EdgeStore edgeStore = result.streetLayer.edgeStore;
+            VertexStore vertexStore = result.streetLayer.vertexStore;
+            edgeStore.flags = reader.nextInts();
+            edgeStore.speeds = reader.nextShorts();
+            edgeStore.fromVertices = reader.nextInts();
+            edgeStore.toVertices = reader.nextInts();
+            edgeStore.lengths_mm = reader.nextInts();
+            edgeStore.osmids = reader.nextLongs();
+            edgeStore.streetClasses = reader.nextBytes();
+            edgeStore.inAngles = reader.nextBytes();
+            edgeStore.outAngles = reader.nextBytes();
+            edgeStore.geometries = reader.nextIntArrays();
+            vertexStore.fixedLats = reader.nextInts();
+            vertexStore.fixedLons = reader.nextInts();
+            vertexStore.vertexFlags = reader.nextBytes();
+        }
+        LOG.info("Done reading.");
+        if (result.fareCalculator != null) {
+            result.fareCalculator.transitLayer = result.transitLayer;
+        }
+        result.rebuildTransientIndexes();
+        return result;
+    }
+
+    private static void readFully (FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) throw new IOException("Unexpected end of memory-mapped network file.");
+        }
+        buffer.flip();
+    }
+
+    /** Appends columns to a file, keeping track of their positions and lengths in bytes. */
+    private static class ColumnWriter {
+
+        private static final int BUFFER_BYTES = 1024 * 1024;
+
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(BYTE_ORDER);
+        final List<Long> columnPositions = new ArrayList<>();
+        final List<Long> columnLengths = new ArrayList<>();
+        long position = 0;
+
+        ColumnWriter (FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /** Write the remaining bytes in the given buffer at the end of the file. */
+        void write (ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes);
+            }
+        }
+
+        private void flush () throws IOException {
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        /** Start a new column, padding the file so that the column is aligned to 8 bytes. */
+        private void startColumn () throws IOException {
+            int padding = (int) ((Long.BYTES - position % Long.BYTES) % Long.BYTES);
+            if (padding > 0) {
+                write(ByteBuffer.allocate(padding));
+            }
+            columnPositions.add(position);
+        }
+
+        private void flushIfFull (int nextValueBytes) throws IOException {
+            if (buffer.remaining() < nextValueBytes) {
+                flush();
+            }
+        }
+
+        private void endColumn () throws IOException {
+            flush();
+            columnLengths.add(position - columnPositions.get(columnPositions.size() - 1));
+        }
+
+        void writeInts (TIntList values) throws IOException {
+            startColumn();
+            for (int i = 0; i < values.size(); i++) {
+                flushIfFull(Integer.BYTES);
+                buffer.putInt(values.get(i));
+            }
+            endColumn();
+        }
+
+        void writeShorts (TShortList values) throws IOException {
+            startColumn();
+            for (int i = 0; i < values.size(); i++) {
+                flushIfFull(Short.BYTES);
+                buffer.putShort(values.get(i));
+            }
+            endColumn();
+        }
+
+        void writeLongs (TLongList values) throws IOException {
+            startColumn();
+            for (int i = 0; i < values.size(); i++) {
+                flushIfFull(Long.BYTES);
+                buffer.putLong(values.get(i));
+            }
+            endColumn();
+        }
+
+        void writeBytes (TByteList values) throws IOException {
+            startColumn();
+            for (int i = 0; i < values.size(); i++) {
+                flushIfFull(Byte.BYTES);
+                buffer.put(values.get(i));
+            }
+            endColumn();
+        }
+
+        /** Write two columns: the offset of each array followed by the end of the last one, then the values. */
+        void writeIntArrays (List<int[]> arrays) throws IOException {
+            startColumn();
+            long offset = 0;
+            for (int[] array : arrays) {
+                flushIfFull(Integer.BYTES);
+                buffer.putInt((int) offset);
+                offset += (array == null) ? 0 : array.length;
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("Arrays hold too many values in total to be indexed with int offsets.");
+                }
+            }
+            flushIfFull(Integer.BYTES);
+            buffer.putInt((int) offset);
+            endColumn();
+            startColumn();
+            for (int[] array : arrays) {
+                if (array == null) continue;
+                for (int value : array) {
+                    flushIfFull(Integer.BYTES);
+                    buffer.putInt(value);
+                }
+            }
+            endColumn();
+        }
+    }
+
+    /** Maps successive columns of a file, as listed in its table of contents. */
+    private static class ColumnReader {
+
+        /** The size of each buffer a column is mapped as, except the last. This is a multiple of every value size. */
+        static final int MAPPED_BUFFER_BYTES = 1 << 30;
+
+        final FileChannel channel;
+        final ByteBuffer tableOfContents;
+        final int nColumns;
+        final long kryoPosition;
+        final int kryoLength;
+        int column = 0;
+
+        ColumnReader (FileChannel channel, ByteBuffer tableOfContents) {
+            this.channel = channel;
+            this.tableOfContents = tableOfContents;
+            nColumns = tableOfContents.getInt(0);
+            kryoPosition = tableOfContents.getLong(Integer.BYTES + nColumns * Long.BYTES * 2);
+            kryoLength = (int) tableOfContents.getLong(Integer.BYTES + nColumns * Long.BYTES * 2 + Long.BYTES);
+        }
+
+        /**
+         * Map the next column. A single buffer can only address 2GB, so long columns are mapped as several buffers of
+         * MAPPED_BUFFER_BYTES each, followed by one holding the rest of the column.
+         */
+        private ByteBuffer[] next () throws IOException {
+            if (column >= nColumns) {
+                throw new IOException("Memory-mapped network file has fewer columns than expected.");
+            }
+            long position = tableOfContents.getLong(Integer.BYTES + column * Long.BYTES * 2);
+            long length = tableOfContents.getLong(Integer.BYTES + column * Long.BYTES * 2 + Long.BYTES);
+            column += 1;
+            ByteBuffer[] buffers = new ByteBuffer[(int) (length / MAPPED_BUFFER_BYTES) + 1];
+            for (int b = 0; b < buffers.length; b++) {
+                long offset = (long) b * MAPPED_BUFFER_BYTES;
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position + offset,
+                        Math.min(MAPPED_BUFFER_BYTES, length - offset));
+                buffers[b] = mapped.order(BYTE_ORDER);
+            }
+            return buffers;
+        }
+
+        TIntList nextInts () throws IOException {
+            return new TIntBufferList(Arrays.stream(next()).map(ByteBuffer::asIntBuffer).toArray(IntBuffer[]::new));
+        }
+
+        TShortList nextShorts () throws IOException {
+            return new TShortBufferList(
+                    Arrays.stream(next()).map(ByteBuffer::asShortBuffer).toArray(ShortBuffer[]::new));
+        }
+
+        TLongList nextLongs () throws IOException {
+            return new TLongBufferList(Arrays.stream(next()).map(ByteBuffer::asLongBuffer).toArray(LongBuffer[]::new));
+        }
+
+        TByteList nextBytes () throws IOException {
+            return new TByteBufferList(next());
+        }
+
+        List<int[]> nextIntArrays () throws IOException {
+            return new IntArrayBufferList(nextInts(), nextInts());
+        }
+    }
+
+}
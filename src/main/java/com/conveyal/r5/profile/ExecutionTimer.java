@@ -65,6 +65,19 @@ public class ExecutionTimer {
         this.stop();
     }
 
+    /**
+     * Add the time accumulated by another timer with the same structure of children (for example one timing the same
+     * operations on another thread) to this timer and its children, recursively. The other timer must be stopped.
+     */
+    public void add (ExecutionTimer other) {
+        checkState(!other.running, "Only a stopped timer can be added to another timer.");
+        checkState(children.size() == other.children.size(), "Timers must have the same structure to be added.");
+        accumulatedDurationNanos += other.accumulatedDurationNanos;
+        for (int i = 0; i < children.size(); i++) {
+            children.get(i).add(other.children.get(i));
+        }
+    }
+
     public String getMessage () {
         String description = running ? "[RUNNING]" : accumulatedDurationNanos / 1e9D + "s";
         return String.format("%s: %s", name, description);
@@ -1,20 +1,36 @@
 package com.conveyal.r5.profile;
 
+import com.conveyal.r5.analyst.fare.FareBounds;
 import com.conveyal.r5.analyst.fare.InRoutingFareCalculator;
+import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter.McRaptorState;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 
 /**
  * An implementation of DominatingList, retaining pareto-optimal paths on time and fare.
+ *
+ * Every new state is compared against every retained state, so the values used in those comparisons are copied out
+ * of the states into parallel primitive arrays, indexed the same way as the list of states. Only when the time and
+ * fare paid do not settle the comparison is the transfer allowance of the retained state examined.
  */
 public class FareDominatingList implements DominatingList {
     private final int maxFare;
     private final int maxClockTime;
     private InRoutingFareCalculator fareCalculator;
 
-    private LinkedList<McRaptorSuboptimalPathProfileRouter.McRaptorState> states = new LinkedList<>();
+    private final List<McRaptorState> states = new ArrayList<>();
+
+    /** The clock time of each state in the list. */
+    private int[] times = new int[4];
+
+    /** The cumulative fare paid to reach each state in the list. */
+    private int[] faresPaid = new int[4];
+
+    /** The cumulative fare paid to reach each state in the list, minus the value of its transfer allowance. */
+    private int[] consumedValues = new int[4];
 
     public FareDominatingList(InRoutingFareCalculator fareCalculator, int maxFare, int maxClockTime) {
         this.fareCalculator = fareCalculator;
@@ -31,13 +47,15 @@ public class FareDominatingList implements DominatingList {
      * International Journal of Geographical Information Science, 33(9), 1759–1787. https://doi.org/10.1080/13658816.2019.1605075
      * available open-access at https://files.indicatrix.org/Conway-Stewart-2019-Charlie-Fare-Constraints.pdf
      */
-    private boolean betterOrEqual(McRaptorSuboptimalPathProfileRouter.McRaptorState dominator, McRaptorSuboptimalPathProfileRouter.McRaptorState dominatee) {
+    private static boolean betterOrEqual(
+            int dominatorTime, int dominatorFarePaid, FareBounds dominatorFare,
+            int dominateeTime, int dominateeFarePaid, int dominateeConsumedValue, FareBounds dominateeFare
+    ) {
         // FIXME add check for nonnegative
 
-        int dominateeConsumedValue = dominatee.fare.cumulativeFarePaid - dominatee.fare.transferAllowance.value;
-        if (dominator.time <= dominatee.time) {
+        if (dominatorTime <= dominateeTime) {
             // this route is as good or better on time
-            if (dominator.fare.cumulativeFarePaid <= dominateeConsumedValue) {
+            if (dominatorFarePaid <= dominateeConsumedValue) {
                 // This route is as fast as the alternate route, and it costs no more than the fare paid for the other route
                 // minus any transfer priviliges that the user gets from the other route that could be realized in the future.
                 // This is Theorem 3.1 from Conway and Stewart (2019)
@@ -48,8 +66,8 @@ public class FareDominatingList implements DominatingList {
             // other transfer allowance (exact definition depends on the system, see javadoc), then there is no way that
             // dominatee could yield a better fare than dominator.
             // This is Theorem 3.2 from Conway and Stewart (2019)
-            if (dominator.fare.cumulativeFarePaid <= dominatee.fare.cumulativeFarePaid &&
-                    dominator.fare.transferAllowance.atLeastAsGoodForAllFutureRedemptions(dominatee.fare.transferAllowance)) {
+            if (dominatorFarePaid <= dominateeFarePaid &&
+                    dominatorFare.transferAllowance.atLeastAsGoodForAllFutureRedemptions(dominateeFare.transferAllowance)) {
                 return true;
             }
         }
@@ -59,7 +77,7 @@ public class FareDominatingList implements DominatingList {
     }
 
     @Override
-    public boolean add(McRaptorSuboptimalPathProfileRouter.McRaptorState newState) {
+    public boolean add(McRaptorState newState) {
         // if it is past the time limit, drop it
         if (newState.time > maxClockTime) return false;
 
@@ -79,36 +97,63 @@ public class FareDominatingList implements DominatingList {
         // at some times of day when direct SFO-Millbrae service is not running. If we cut off the search when cumulativeFarePaid
         // exceeded, say, $5, we'd prevent this trip. But if cumulativeFarePaid is set to $7.85 when alighting at San
         // Bruno, and transferAllowance.value is set to $7.85 - $4.55 = $3.30, we will retain it properly.
-        if (newState.fare.cumulativeFarePaid - newState.fare.transferAllowance.value > maxFare) return false;
-
-        for (Iterator<McRaptorSuboptimalPathProfileRouter.McRaptorState> it = states.iterator(); it.hasNext();) {
-            McRaptorSuboptimalPathProfileRouter.McRaptorState existing = it.next();
-
-
-            // Check first if the existing state is better than or equal to the new state. We check the existing state
-            // vs the new state before doing the opposite, because two states may be equal (for instance, in Boston,
-            // a trip from the Conveyal office at Mass Ave and Newbury to Alewife using CT1 -> Red and 1 -> Red are
-            // equal if they both get you on the same red line train - they have the same time, and the same fare situation
-            // (both leave you coming off the subway with a 2.25 fare privilige that can be used on any mode that has
-            // discounted transfer). We prefer to save the state that was found first, to minimize churn. This also prefers
-            // fewer-transfer routes, all else equal, because fewer-transfer routes are found before more-transfer routes
-            // due to the RAPTOR algorithm.
-            if (betterOrEqual(existing, newState)) {
-                return false;
+        FareBounds newFare = newState.fare;
+        int newTime = newState.time;
+        int newFarePaid = newFare.cumulativeFarePaid;
+        int newConsumedValue = newFarePaid - newFare.transferAllowance.value;
+        if (newConsumedValue > maxFare) return false;
+
+        // Compact the arrays in place as states dominated by the new state are removed, preserving their order.
+        int nStates = states.size();
+        int nKept = 0;
+        boolean dominated = false;
+        for (int i = 0; i < nStates; i++) {
+            McRaptorState existing = states.get(i);
+            // Once the new state is known to be dominated, the remaining existing states are all kept.
+            if (!dominated) {
+                // Check first if the existing state is better than or equal to the new state. We check the existing state
+                // vs the new state before doing the opposite, because two states may be equal (for instance, in Boston,
+                // a trip from the Conveyal office at Mass Ave and Newbury to Alewife using CT1 -> Red and 1 -> Red are
+                // equal if they both get you on the same red line train - they have the same time, and the same fare situation
+                // (both leave you coming off the subway with a 2.25 fare privilige that can be used on any mode that has
+                // discounted transfer). We prefer to save the state that was found first, to minimize churn. This also prefers
+                // fewer-transfer routes, all else equal, because fewer-transfer routes are found before more-transfer routes
+                // due to the RAPTOR algorithm.
+                if (betterOrEqual(times[i], faresPaid[i], existing.fare,
+                        newTime, newFarePaid, newConsumedValue, newFare)) {
+                    dominated = true;
+                } else if (betterOrEqual(newTime, newFarePaid, newFare,
+                        times[i], faresPaid[i], consumedValues[i], existing.fare)) {
+                    continue; // Drop the existing state.
+                }
             }
-
-            if (betterOrEqual(newState, existing)) {
-                it.remove();
+            if (nKept != i) {
+                states.set(nKept, existing);
+                times[nKept] = times[i];
+                faresPaid[nKept] = faresPaid[i];
+                consumedValues[nKept] = consumedValues[i];
             }
+            nKept++;
         }
+        states.subList(nKept, nStates).clear();
+        if (dominated) return false;
 
         // if we haven't returned false by now, state is nondominated.
+        if (nKept == times.length) {
+            int newLength = times.length * 2;
+            times = Arrays.copyOf(times, newLength);
+            faresPaid = Arrays.copyOf(faresPaid, newLength);
+            consumedValues = Arrays.copyOf(consumedValues, newLength);
+        }
         states.add(newState);
+        times[nKept] = newTime;
+        faresPaid[nKept] = newFarePaid;
+        consumedValues[nKept] = newConsumedValue;
         return true;
     }
 
     @Override
-    public Collection<McRaptorSuboptimalPathProfileRouter.McRaptorState> getNonDominatedStates() {
+    public Collection<McRaptorState> getNonDominatedStates() {
         return states;
     }
-}
\ No newline at end of file
+}
@@ -20,6 +20,8 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.conveyal.r5.profile.FastRaptorWorker.FrequencyBoardingMode.HALF_HEADWAY;
 import static com.conveyal.r5.profile.FastRaptorWorker.FrequencyBoardingMode.MONTE_CARLO;
@@ -75,6 +77,12 @@ public class FastRaptorWorker {
      */
     private static final int MINIMUM_BOARD_WAIT_SEC = 60;
 
+    /**
+     * When splitting the departure time window for parallel search, never create sub-windows shorter than this.
+     * Range-RAPTOR reuse makes each additional minute within a sub-window much cheaper than the first one.
+     */
+    private static final int MIN_SUB_WINDOW_MINUTES = 10;
+
     // ENABLE_OPTIMIZATION_X flags enable code paths that should affect efficiency but have no effect on output.
     // They may change results where our algorithm is not perfectly optimal, for example with respect to overtaking
     // (see discussion at #708).
@@ -83,6 +91,7 @@ public class FastRaptorWorker {
     public static final boolean ENABLE_OPTIMIZATION_FREQ_UPPER_BOUND = true;
     public static final boolean ENABLE_OPTIMIZATION_UPDATED_STOPS = true;
     public static final boolean ENABLE_OPTIMIZATION_CLEAR_LONG_PATHS = true;
+    public static final boolean ENABLE_OPTIMIZATION_MIN_RIDE_PRUNING = true;
 
     /** The width of the departure time window in minutes. */
     public final int nMinutes;
@@ -110,9 +119,6 @@ public class FastRaptorWorker {
     /** Generates and stores departure time offsets for every frequency-based set of trips. */
     private final FrequencyRandomOffsets offsets;
 
-    /** Services active on the date of the search. */
-    private final BitSet servicesActive;
-
     /** TripPatterns that have been prefiltered for the specific search date and modes. */
     private FilteredPatterns filteredPatterns;
 
@@ -135,6 +141,17 @@ public class FastRaptorWorker {
     /** If we're going to store paths to every destination (e.g. for static sites) then they'll be retained here. */
     public List<Path[]> pathsPerIteration;
 
+    /**
+     * The number of contiguous sub-windows the departure time window will be split into, each searched on its own
+     * thread. The default value of 1 performs a single sequential range-RAPTOR search over the whole window. Higher
+     * values trade some range-RAPTOR reuse for lower wall-clock time, which is useful for interactive single-point
+     * requests but pointless for regional tasks, which are already parallelized across origins.
+     */
+    public int nSubWindows = 1;
+
+    /** Results of the search over one sub-window, when this instance is working on behalf of a parent worker. */
+    private int[][] subWindowResults;
+
     /**
      * Only fast initialization steps are performed in the constructor.
      * All slower work is done in route() so timing information can be collected.
@@ -143,7 +160,6 @@ public class FastRaptorWorker {
         this.transit = transitLayer;
         this.request = request;
         this.accessStops = accessStops;
-        this.servicesActive  = transit.getActiveServicesForDate(request.date);
 
         offsets = new FrequencyRandomOffsets(transitLayer);
 
@@ -160,6 +176,25 @@ public class FastRaptorWorker {
         boardingMode = (request.monteCarloDraws == 0) ? HALF_HEADWAY : MONTE_CARLO;
     }
 
+    /**
+     * Create a worker that will search one sub-window of the departure time window of the supplied parent worker.
+     * Immutable inputs and prefiltered patterns are shared with the parent, but all mutable search state (the
+     * RaptorState arrays, randomized frequency offsets, timers and retained paths) belongs to the new instance, so
+     * sub-window workers can run on separate threads. The parent must already have filtered its patterns.
+     */
+    private FastRaptorWorker (FastRaptorWorker parent) {
+        this.transit = parent.transit;
+        this.request = parent.request;
+        this.accessStops = parent.accessStops;
+        this.filteredPatterns = parent.filteredPatterns;
+        this.offsets = new FrequencyRandomOffsets(transit);
+        this.nMinutes = parent.nMinutes;
+        this.iterationsPerMinute = parent.iterationsPerMinute;
+        this.boardingMode = parent.boardingMode;
+        this.retainPaths = parent.retainPaths;
+        if (retainPaths) pathsPerIteration = new ArrayList<>();
+    }
+
     /**
      * For each iteration (minute + MC draw combination), return the minimum travel time (duration) to each transit stop
      * in seconds.
@@ -169,21 +204,47 @@ public class FastRaptorWorker {
     public int[][] route () {
         raptorTimer.fullSearch.start();
         raptorTimer.patternFiltering.start();
-        filteredPatterns = transit.filteredPatternCache.get(request.transitModes, servicesActive);
+        // Trips outside the departure time window plus the maximum trip duration can never produce a retained arrival.
+        filteredPatterns = transit.filteredPatternCache.get(request.transitModes, request.date, request.fromTime,
+                request.toTime + request.maxTripDurationMinutes * SECONDS_PER_MINUTE);
         raptorTimer.patternFiltering.stop();
         // Initialize result storage. Results are one arrival time at each stop, for every raptor iteration.
-        final int nStops = transit.getStopCount();
         final int nIterations = iterationsPerMinute * nMinutes;
-        LOG.info("Performing {} total iterations ({} per minute); boarding {}; frequencies {}",
-                nIterations, iterationsPerMinute, boardingMode, transit.hasFrequencies);
-        int[][] travelTimesToStopsPerIteration = new int[nIterations][];
-        if (retainPaths) pathsPerIteration = new ArrayList<>();
+        final int nWindows = Math.max(1, Math.min(nSubWindows, nMinutes / MIN_SUB_WINDOW_MINUTES));
+        LOG.info("Performing {} total iterations ({} per minute); boarding {}; frequencies {}; {} sub-windows",
+                nIterations, iterationsPerMinute, boardingMode, transit.hasFrequencies, nWindows);
+        int[][] travelTimesToStopsPerIteration;
+        if (nWindows > 1) {
+            travelTimesToStopsPerIteration = routeSubWindowsInParallel(nWindows);
+        } else {
+            if (retainPaths) pathsPerIteration = new ArrayList<>();
+            travelTimesToStopsPerIteration = routeDepartureTimes(request.fromTime, request.toTime);
+        }
+        checkState(travelTimesToStopsPerIteration.length == nIterations, "Unexpected number of iterations.");
+        raptorTimer.fullSearch.stop();
+        raptorTimer.log();
+        // For debugging:
+        // dumpAllTimesToFile(travelTimesToStopsPerIteration, 45);
+        return travelTimesToStopsPerIteration;
+    }
+
+    /**
+     * Perform a range-RAPTOR search over all departure minutes from fromTime (inclusive) to toTime (exclusive),
+     * iterating backward from the latest departure minute and reusing scheduleState between minutes.
+     * If retainPaths is true, paths are appended to pathsPerIteration, which must already be initialized.
+     * @return travel times (durations) to each stop, with dimension order [searchIteration][transitStopIndex]. As in
+     *         route(), iterations are ordered from the latest departure minute to the earliest.
+     */
+    private int[][] routeDepartureTimes (int fromTime, int toTime) {
+        final int nStops = transit.getStopCount();
+        final int nMinutesThisWindow = (toTime - fromTime) / DEPARTURE_STEP_SEC;
+        int[][] travelTimesToStopsPerIteration = new int[iterationsPerMinute * nMinutesThisWindow][];
 
         // This main outer loop iterates backward over all minutes in the departure times window.
         // TODO revise this loop so seconds are derived from minute numbers
         int currentIteration = 0;
-        for (int departureTime = request.toTime - DEPARTURE_STEP_SEC, minute = nMinutes;
-                 departureTime >= request.fromTime;
+        for (int departureTime = toTime - DEPARTURE_STEP_SEC, minute = nMinutesThisWindow;
+                 departureTime >= fromTime;
                  departureTime -= DEPARTURE_STEP_SEC, minute--
         ) {
             if (minute % 15 == 0) LOG.debug("  minute {}", minute);
@@ -205,11 +266,42 @@ public class FastRaptorWorker {
                 travelTimesToStopsPerIteration[currentIteration++] = travelTimesToStops;
             }
         }
-        checkState(currentIteration == nIterations, "Unexpected number of iterations.");
-        raptorTimer.fullSearch.stop();
-        raptorTimer.log();
-        // For debugging:
-        // dumpAllTimesToFile(travelTimesToStopsPerIteration, 45);
+        checkState(currentIteration == travelTimesToStopsPerIteration.length, "Unexpected number of iterations.");
+        return travelTimesToStopsPerIteration;
+    }
+
+    /**
+     * Split the departure time window into nWindows contiguous sub-windows, and perform an independent range-RAPTOR
+     * search over each one on its own thread, with its own RaptorState arrays and randomized frequency offsets.
+     * Range-RAPTOR state is only reused within each sub-window, so the total amount of work is somewhat higher than
+     * a single sequential search, but wall-clock time is much lower on a multi-core machine. Travel times at the
+     * latest minute of each sub-window are computed from scratch, so results may differ slightly from a sequential
+     * search where riders have "look-ahead" about overtaking trips (see advanceScheduledSearchToPreviousMinute).
+     * @return per-iteration results in the same order as a sequential search: latest departure minute first.
+     */
+    private int[][] routeSubWindowsInParallel (int nWindows) {
+        // Sub-window zero holds the latest minutes of the time window, to preserve the order of iterations.
+        // Sub-windows differ in length by at most one minute.
+        final int[] windowEndTimes = new int[nWindows + 1];
+        for (int w = 0; w <= nWindows; w++) {
+            windowEndTimes[w] = request.toTime - (nMinutes * w / nWindows) * DEPARTURE_STEP_SEC;
+        }
+        List<FastRaptorWorker> subWorkers = IntStream.range(0, nWindows).parallel().mapToObj(w -> {
+            FastRaptorWorker subWorker = new FastRaptorWorker(this);
+            subWorker.subWindowResults = subWorker.routeDepartureTimes(windowEndTimes[w + 1], windowEndTimes[w]);
+            return subWorker;
+        }).collect(Collectors.toList());
+        // Merge results of all sub-windows in order.
+        int[][] travelTimesToStopsPerIteration = new int[iterationsPerMinute * nMinutes][];
+        if (retainPaths) pathsPerIteration = new ArrayList<>();
+        int currentIteration = 0;
+        for (FastRaptorWorker subWorker : subWorkers) {
+            for (int[] travelTimesToStops : subWorker.subWindowResults) {
+                travelTimesToStopsPerIteration[currentIteration++] = travelTimesToStops;
+            }
+            if (retainPaths) pathsPerIteration.addAll(subWorker.pathsPerIteration);
+            raptorTimer.add(subWorker.raptorTimer);
+        }
         return travelTimesToStopsPerIteration;
     }
 
@@ -451,41 +543,31 @@ public class FastRaptorWorker {
 
 
     /**
-     * Starting from a trip we're already riding, step backward through the trips in the supplied filteredPattern to see
-     * if there is a usable one that departs earlier from the current stop position in the pattern, and if so return its
-     * index within the filtered pattern. This method assumes there is no overtaking in the FilteredPattern's schedules.
+     * Starting from a trip we're already riding, search backward through the trips in the supplied filteredPattern to
+     * see if there is a usable one that departs earlier from the current stop position in the pattern, and if so return
+     * its index within the filtered pattern. This method assumes there is no overtaking in the FilteredPattern's
+     * schedules. The trip being ridden is usually very close to the result, so the search gallops backward from it.
      */
     private int checkEarlierScheduledDeparture (
             int departAfter, FilteredPattern filteredPattern, int stopInPattern, int currentTrip
     ) {
         checkArgument(filteredPattern.noScheduledOvertaking);
-        int bestTrip  = currentTrip;
-        int candidateTrip = currentTrip;
-        while (--candidateTrip >= 0) {
-            // The tripSchedules in the supplied pattern are known to be sorted by departure time at all stops.
-            TripSchedule candidateSchedule = filteredPattern.runningScheduledTrips.get(candidateTrip);
-            final int candidateDeparture = candidateSchedule.departures[stopInPattern];
-            if (candidateDeparture > departAfter) {
-                bestTrip = candidateTrip;
-            } else {
-                // We are confident of being on the earliest feasible departure.
-                break;
-            }
-        }
-        return bestTrip;
+        return filteredPattern.findEarliestDeparture(stopInPattern, departAfter, currentTrip);
     }
 
 
     /**
-     * Perform a linear search through the trips in the supplied filteredPattern, finding the one that departs
-     * earliest from the given stop position in the pattern, and returning its index within the filtered pattern.
+     * Find the trip in the supplied filteredPattern that departs earliest from the given stop position in the pattern,
+     * and return its index within the filtered pattern. When no trips overtake one another, departures at each stop are
+     * sorted and this is a binary search. Otherwise we fall back on a linear search through all trips.
      */
     private int findEarliestScheduledDeparture (
             int departAfter, FilteredPattern filteredPattern, int stopInPattern
     ) {
-        // Trips are sorted in ascending order by time of departure from first stop
+        if (filteredPattern.noScheduledOvertaking) {
+            return filteredPattern.findEarliestDeparture(stopInPattern, departAfter, NONE);
+        }
         List<TripSchedule> trips = filteredPattern.runningScheduledTrips;
-        boolean noOvertaking = filteredPattern.noScheduledOvertaking;
         int bestTrip = -1;
         int bestDeparture = Integer.MAX_VALUE;
         for (int t = 0; t < trips.size(); t++) {
@@ -494,9 +576,6 @@ public class FastRaptorWorker {
             if (departure > departAfter && departure < bestDeparture) {
                 bestTrip = t;
                 bestDeparture = departure;
-                // No overtaking plus sorting by time of departure from first stop guarantees sorting by time of
-                // departure at this stop; so we know this is the earliest departure and can break early.
-                if (noOvertaking) break;
             }
         }
         return bestTrip;
@@ -891,8 +970,18 @@ public class FastRaptorWorker {
         }
         BitSet patternsToExplore = new BitSet();
         final int nStops = state.bestTimes.length;
+        final int[] minRideSeconds = filteredPatterns.minRideSecondsFromStop;
+        // Arrivals at or after this clock time are discarded by RaptorState.
+        final int cutoffTime = state.departureTime + state.maxDurationSeconds;
         for (int stop = 0; stop < nStops; stop++) {
             if (!state.stopWasUpdated(stop, withinMinute)) continue;
+            // Skip stops reached too late for any ride from them to arrive before the cutoff. This is subtracted from
+            // the cutoff rather than added to the arrival time since the minimum ride time may be Integer.MAX_VALUE.
+            if (ENABLE_OPTIMIZATION_MIN_RIDE_PRUNING &&
+                minRideSeconds[stop] >= cutoffTime - MINIMUM_BOARD_WAIT_SEC - state.bestTimes[stop]
+            ) {
+                continue;
+            }
             TIntIterator patternsAtStop = transit.patternsForStop.get(stop).iterator();
             while (patternsAtStop.hasNext()) {
                 int pattern = patternsAtStop.next();
@@ -12,6 +12,7 @@ import com.conveyal.r5.transit.TripFlag;
 import com.conveyal.r5.transit.TripPattern;
 import com.conveyal.r5.transit.TripSchedule;
 import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectIntMap;
@@ -31,6 +32,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.IntFunction;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * A profile routing implementation which uses McRAPTOR to store bags of arrival times and paths per
@@ -69,6 +72,8 @@ public class McRaptorSuboptimalPathProfileRouter {
     private BitSet touchedPatterns;
     private BitSet patternsNearDestination;
     private BitSet servicesActive;
+    /** Patterns running on the requested date with a requested mode. This does not vary between departure times. */
+    private BitSet patternsRunning;
     // Used in creating the McRaptorStateBag; the type of list supplied determines the domination rules. Receives the departure time as an argument.
     private IntFunction<DominatingList> listSupplier;
     private MersenneTwister mersenneTwister;
@@ -81,6 +86,14 @@ public class McRaptorSuboptimalPathProfileRouter {
 
     public final boolean saveFinalStates;
 
+    /**
+     * The number of groups of contiguous sampled departure times to search on separate threads. The default value of 1
+     * searches all departure times sequentially. Each group is searched by a copy of this router with its own state
+     * bags and frequency offsets. Target pruning in point-to-point searches only uses the best times found within the
+     * same group, so with more than one group a few more suboptimal states may be returned.
+     */
+    public int nSubWindows = 1;
+
     /** backwards compatibility */
     public McRaptorSuboptimalPathProfileRouter (TransportNetwork network, ProfileRequest req, Map<LegMode,
             TIntIntMap> accessTimes, Map<LegMode, TIntIntMap> egressTimes, IntFunction<DominatingList> listSupplier,
@@ -113,6 +126,17 @@ public class McRaptorSuboptimalPathProfileRouter {
         this.touchedPatterns = new BitSet(network.transitLayer.tripPatterns.size());
         this.patternsNearDestination = new BitSet(network.transitLayer.tripPatterns.size());
         this.servicesActive = network.transitLayer.getActiveServicesForDate(req.date);
+        this.patternsRunning = new BitSet(network.transitLayer.tripPatterns.size());
+        for (int p = 0; p < network.transitLayer.tripPatterns.size(); p++) {
+            TripPattern pattern = network.transitLayer.tripPatterns.get(p);
+            RouteInfo routeInfo = network.transitLayer.routes.get(pattern.routeIndex);
+            TransitModes mode = TransitLayer.getTransitModes(routeInfo.route_type);
+            // skips trip patterns with trips which don't run on wanted date, and patterns with transit modes which
+            // aren't wanted by profileRequest
+            if (pattern.servicesActive.intersects(servicesActive) && request.transitModes.contains(mode)) {
+                patternsRunning.set(p);
+            }
+        }
         this.offsets = new FrequencyRandomOffsets(network.transitLayer);
         this.saveFinalStates = saveFinalStates;
         if (saveFinalStates) this.finalStatesByDepartureTime = new TIntObjectHashMap<>();
@@ -123,6 +147,27 @@ public class McRaptorSuboptimalPathProfileRouter {
         this.mersenneTwister = new MersenneTwister((int) (request.fromLat * 1e9));
     }
 
+    /**
+     * Create a copy of the given router to search a subset of its departure times on another thread. Inputs and
+     * derived data that are not modified during routing are shared, while all search state is created anew.
+     */
+    private McRaptorSuboptimalPathProfileRouter (McRaptorSuboptimalPathProfileRouter parent) {
+        this.network = parent.network;
+        this.request = parent.request;
+        this.accessTimes = parent.accessTimes;
+        this.egressTimes = parent.egressTimes;
+        this.listSupplier = parent.listSupplier;
+        this.collapseParetoSurfaceToTime = parent.collapseParetoSurfaceToTime;
+        this.touchedStops = new BitSet(network.transitLayer.getStopCount());
+        this.touchedPatterns = new BitSet(network.transitLayer.tripPatterns.size());
+        this.patternsNearDestination = parent.patternsNearDestination;
+        this.servicesActive = parent.servicesActive;
+        this.patternsRunning = parent.patternsRunning;
+        this.offsets = new FrequencyRandomOffsets(network.transitLayer);
+        this.saveFinalStates = parent.saveFinalStates;
+        if (saveFinalStates) this.finalStatesByDepartureTime = new TIntObjectHashMap<>();
+    }
+
     /** Get a McRAPTOR state bag for every departure minute */
     public Collection<McRaptorState> route () {
 
@@ -146,8 +191,6 @@ public class McRaptorSuboptimalPathProfileRouter {
             LOG.info("{} patterns found near the destination", patternsNearDestination.cardinality());
         }
 
-        List<McRaptorState> codominatingStatesToBeReturned = new ArrayList<>();
-
         // We start at end of time window and work backwards (which is what range-RAPTOR does, in case we
         // re-implement that here). We use a constrained random walk to choose which departure minutes to sample as we
         // work backward through the time window.  According to others (Owen and Jiang?), this is a good way to reduce
@@ -170,6 +213,25 @@ public class McRaptorSuboptimalPathProfileRouter {
             departureTimes = generateDepartureTimesToSample(request);
         }
 
+        final int nWindows = Math.max(1, Math.min(nSubWindows, departureTimes.size()));
+        List<McRaptorState> codominatingStatesToBeReturned = (nWindows > 1)
+                ? routeSubWindowsInParallel(departureTimes, nWindows)
+                : routeDepartureTimes(departureTimes);
+
+        LOG.info("McRAPTOR took {}ms", System.currentTimeMillis() - startTime);
+
+        // will be empty unless this is for a PointToPointQuery.
+        return codominatingStatesToBeReturned;
+    }
+
+    /**
+     * Perform a McRAPTOR search from scratch at each of the given departure times in turn, accumulating results in
+     * timesAtStopsEachIteration and finalStatesByDepartureTime.
+     * @return the codominating states at the destination for all departure times, in a point-to-point search.
+     */
+    private List<McRaptorState> routeDepartureTimes (List<Integer> departureTimes) {
+        List<McRaptorState> codominatingStatesToBeReturned = new ArrayList<>();
+
         for (int n = 0; n < departureTimes.size(); n++) {
             departureTime = departureTimes.get(n);
 
@@ -212,12 +274,34 @@ public class McRaptorSuboptimalPathProfileRouter {
                 collateTravelTimes(departureTime);
             }
 
-            LOG.info("minute {} / {}", n + 1, request.monteCarloDraws);
+            LOG.info("minute {} / {}", n + 1, departureTimes.size());
         }
 
-        LOG.info("McRAPTOR took {}ms", System.currentTimeMillis() - startTime);
+        return codominatingStatesToBeReturned;
+    }
 
-        // will be empty unless this is for a PointToPointQuery.
+    /**
+     * Split the sampled departure times into nWindows groups of contiguous times, and search each group on its own
+     * thread with a copy of this router. Results are merged in the same order as a sequential search.
+     */
+    private List<McRaptorState> routeSubWindowsInParallel (List<Integer> departureTimes, int nWindows) {
+        final int nDepartureTimes = departureTimes.size();
+        List<McRaptorSuboptimalPathProfileRouter> subRouters = new ArrayList<>();
+        for (int w = 0; w < nWindows; w++) {
+            subRouters.add(new McRaptorSuboptimalPathProfileRouter(this));
+        }
+        List<List<McRaptorState>> subWindowStates = IntStream.range(0, nWindows).parallel().mapToObj(w ->
+            subRouters.get(w).routeDepartureTimes(departureTimes.subList(
+                    nDepartureTimes * w / nWindows, nDepartureTimes * (w + 1) / nWindows
+            ))
+        ).collect(Collectors.toList());
+        List<McRaptorState> codominatingStatesToBeReturned = new ArrayList<>();
+        for (int w = 0; w < nWindows; w++) {
+            McRaptorSuboptimalPathProfileRouter subRouter = subRouters.get(w);
+            codominatingStatesToBeReturned.addAll(subWindowStates.get(w));
+            timesAtStopsEachIteration.addAll(subRouter.timesAtStopsEachIteration);
+            if (saveFinalStates) finalStatesByDepartureTime.putAll(subRouter.finalStatesByDepartureTime);
+        }
         return codominatingStatesToBeReturned;
     }
 
@@ -310,28 +394,16 @@ public class McRaptorSuboptimalPathProfileRouter {
         if (round == request.maxRides && egressTimes != null)
             touchedPatterns.and(patternsNearDestination);
 
-        for (int patIdx = touchedPatterns.nextSetBit(0); patIdx >= 0; patIdx = touchedPatterns.nextSetBit(patIdx + 1)) {
-            // All states that have been propagated
-            List<McRaptorState> states = new ArrayList<>();
-
-            // The board stop position in the pattern for each state (not the R5 or GTFS stop ID)
-            TObjectIntMap<McRaptorState> boardStopPositionInPattern = new TObjectIntHashMap<>();
+        // The states riding each pattern, reused from one pattern to the next.
+        PatternRiders riders = new PatternRiders();
 
-            // The board time, for frequency trips
-            TObjectIntMap<McRaptorState> boardTimeForFrequencyTrips = new TObjectIntHashMap<>();
+        for (int patIdx = touchedPatterns.nextSetBit(0); patIdx >= 0; patIdx = touchedPatterns.nextSetBit(patIdx + 1)) {
+            riders.clear();
 
-            // The trip index in the pattern (not GTFS Trip ID) that produced each state
-            TObjectIntMap<McRaptorState> tripIndicesInPattern = new TObjectIntHashMap<>();
+            // skips trip patterns with trips which don't run on wanted date or modes which aren't wanted
+            if (!patternsRunning.get(patIdx)) continue;
 
             TripPattern pattern = network.transitLayer.tripPatterns.get(patIdx);
-            RouteInfo routeInfo = network.transitLayer.routes.get(pattern.routeIndex);
-            TransitModes mode = TransitLayer.getTransitModes(routeInfo.route_type);
-            // skips trip patterns with trips which don't run on wanted date
-            if (!pattern.servicesActive.intersects(servicesActive) ||
-                // skips pattern with Transit mode which isn't wanted by profileRequest
-                !request.transitModes.contains(mode)) {
-                continue;
-            }
 
             // ride along the entire pattern, picking up states as we go
             for (int stopPositionInPattern = 0; stopPositionInPattern < pattern.stops.length; stopPositionInPattern++) {
@@ -349,16 +421,17 @@ public class McRaptorSuboptimalPathProfileRouter {
                 boolean stopReachedViaDifferentPattern = bestStatesBeforeRound.containsKey(stop);
 
                 // get off the bus, if we can
-                for (McRaptorState state : states) {
-                    int tripIndexInPattern = tripIndicesInPattern.get(state);
+                for (int rider = 0; rider < riders.states.size(); rider++) {
+                    McRaptorState state = riders.states.get(rider);
+                    int tripIndexInPattern = riders.tripIndices.get(rider);
                     TripSchedule sched = pattern.tripSchedules.get(tripIndexInPattern);
-                    int boardStopPosition = boardStopPositionInPattern.get(state);
+                    int boardStopPosition = riders.boardStopPositions.get(rider);
                     int arrival, boardTime;
 
                     // we know we have no mixed schedule/frequency patterns, see check on boarding
                     if (sched.headwaySeconds != null) {
                         int travelTimeToStop = sched.arrivals[stopPositionInPattern] - sched.departures[boardStopPosition];
-                        boardTime = boardTimeForFrequencyTrips.get(state);
+                        boardTime = riders.boardTimes.get(rider);
                         arrival = boardTime + travelTimeToStop;
                     } else {
                         arrival = sched.arrivals[stopPositionInPattern];
@@ -404,9 +477,7 @@ public class McRaptorSuboptimalPathProfileRouter {
                                 int departure = tripSchedule.departures[stopPositionInPattern];
                                 if (departure > state.time + BOARD_SLACK) {
                                     // boarding is possible here
-                                    states.add(state);
-                                    tripIndicesInPattern.put(state, currentTrip);
-                                    boardStopPositionInPattern.put(state, stopPositionInPattern);
+                                    riders.board(state, currentTrip, stopPositionInPattern, departure);
 
                                     // we found the best trip we can board at this stop based on travel time (we know this because trips
                                     // are sorted by departure time from first stop), break loop regardless of whether
@@ -459,10 +530,7 @@ public class McRaptorSuboptimalPathProfileRouter {
                                     // on end time may not actually occur
                                     if (departure > latestDeparture) continue;
 
-                                    states.add(state);
-                                    tripIndicesInPattern.put(state, currentTrip);
-                                    boardTimeForFrequencyTrips.put(state, departure);
-                                    boardStopPositionInPattern.put(state, stopPositionInPattern);
+                                    riders.board(state, currentTrip, stopPositionInPattern, departure);
                                 }
                             }
                         }
@@ -479,6 +547,48 @@ public class McRaptorSuboptimalPathProfileRouter {
         return !touchedPatterns.isEmpty();
     }
 
+    /**
+     * The states riding a single pattern in one round, with the trip index in the pattern (not GTFS Trip ID), board
+     * stop position in the pattern (not the R5 or GTFS stop ID) and board time of each one held at the same index in
+     * parallel primitive lists. This avoids a hash lookup per riding state at every stop along the pattern.
+     */
+    private static class PatternRiders {
+        final List<McRaptorState> states = new ArrayList<>();
+        final TIntList tripIndices = new TIntArrayList();
+        final TIntList boardStopPositions = new TIntArrayList();
+        final TIntList boardTimes = new TIntArrayList();
+
+        /** The index of each boarded state in the lists above. */
+        private final TObjectIntMap<McRaptorState> indexForState = new TObjectIntHashMap<>(64, 0.5f, -1);
+
+        /**
+         * Record that the given state boards this pattern. A state may be offered several boardings (e.g. on several
+         * frequency entries, or at a stop visited twice by a looping pattern), in which case only the last is kept.
+         */
+        void board (McRaptorState state, int tripIndex, int boardStopPosition, int boardTime) {
+            int index = indexForState.get(state);
+            if (index == -1) {
+                indexForState.put(state, states.size());
+                states.add(state);
+                tripIndices.add(tripIndex);
+                boardStopPositions.add(boardStopPosition);
+                boardTimes.add(boardTime);
+            } else {
+                tripIndices.set(index, tripIndex);
+                boardStopPositions.set(index, boardStopPosition);
+                boardTimes.set(index, boardTime);
+            }
+        }
+
+        void clear () {
+            states.clear();
+            tripIndices.clear();
+            boardStopPositions.clear();
+            boardTimes.clear();
+            indexForState.clear();
+        }
+    }
+
     /** Perform transfers */
     private void doTransfers () {
         BitSet stopsTouchedByTransfer = new BitSet(network.transitLayer.getStopCount());
@@ -677,9 +787,11 @@ public class McRaptorSuboptimalPathProfileRouter {
     }
 
     /**
-     * This is the McRAPTOR state, which stores a way to get to a stop in a round. It is an object,
-     * so there is a certain level of indirection, but note that all of its members are primitives so the entire object
-     * can be packed.
+     * This is the McRAPTOR state, which stores a way to get to a stop in a round. It is an object, so there is a
+     * certain level of indirection. The in-routing fare calculators, PathWithTimes and ParetoServer all walk the back
+     * pointers of these objects, so states are not packed into primitive arrays. Instead the hot loops that compare or
+     * ride many states (FareDominatingList and PatternRiders) copy the primitive values they need out of the states,
+     * and the fare to each state is memoized on it.
      */
     public static class McRaptorState {
         /** what is the previous state? */
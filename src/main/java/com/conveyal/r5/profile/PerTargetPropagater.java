@@ -17,6 +17,7 @@ import com.conveyal.r5.streets.StreetLayer;
 import com.conveyal.r5.streets.StreetRouter;
 import com.conveyal.r5.transit.path.Path;
 import com.conveyal.r5.transit.path.PatternSequence;
+import gnu.trove.iterator.TIntIntIterator;
 import gnu.trove.map.TIntIntMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -136,6 +137,12 @@ public class PerTargetPropagater {
 
     private StreetTimesAndModes.StreetTimeAndMode[] perIterationEgress;
 
+    /**
+     * The stops near the current target and the egress time from each of them to that target, for the egress mode
+     * currently being processed. These are reused across targets and only reallocated when a target has more stops.
+     */
+    private int[] nearbyStops, nearbyStopEgressSeconds;
+
     private final PropagationTimer timer = new PropagationTimer();
 
     /**
@@ -316,12 +323,17 @@ public class PerTargetPropagater {
      * array being transposed and duplicated is 70,000 * 1000 * 4 bytes per int ~= 267 megabytes. It does not seem
      * worthwhile to change the routing algorithm to output already-transposed data, as that will create memory
      * locality problems elsewhere (since the pathfinding algorithm solves one iteration for all stops simultaneously).
+     *
+     * While transposing, travel times are clamped to maxTravelTimeSeconds. Propagation already treats any time at or
+     * above that limit as unreachable, and clamping means egress times can be added without risk of overflow
+     * (as would happen with UNREACHED) so the propagation kernel does not need to branch on unreachable stops.
      */
     private void invertTravelTimes() {
         travelTimesToStop = new int[nStops][nIterations];
         for (int iteration = 0; iteration < nIterations; iteration++) {
             for (int stop = 0; stop < nStops; stop++) {
-                travelTimesToStop[stop][iteration] = travelTimesToStopsForIteration[iteration][stop];
+                travelTimesToStop[stop][iteration] =
+                        Math.min(travelTimesToStopsForIteration[iteration][stop], maxTravelTimeSeconds);
             }
         }
     }
@@ -369,64 +381,91 @@ public class PerTargetPropagater {
         // Only try to propagate transit travel times if there are transit stops near this target.
         // Even if we don't propagate transit travel times, we still need to pass these non-transit times to
         // the reducer later in the caller, because you can walk even where there is no transit.
-        if (pointToStopLinkageCostTable != null) {
-            // Propagate all iterations from each relevant alighting stop out to this target.
-            pointToStopLinkageCostTable.forEachEntry((stop, linkageCost) -> {
-                int secondsFromStopToTarget;
-                if (unit == StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS) {
-                    secondsFromStopToTarget = linkageCost / speedMillimetersPerSecond;
-                } else if (unit == StreetRouter.State.RoutingVariable.DURATION_SECONDS) {
-                    secondsFromStopToTarget = linkageCost;
-                } else {
-                    throw new UnsupportedOperationException("Linkage costs have an unknown unit.");
+        if (pointToStopLinkageCostTable == null) {
+            return;
+        }
+
+        // Lay out the egress times from all relevant alighting stops to this target in contiguous primitive arrays,
+        // so the propagation kernel does not need to touch the Trove map or repeat the unit conversion per iteration.
+        if (nearbyStops == null || nearbyStops.length < pointToStopLinkageCostTable.size()) {
+            nearbyStops = new int[pointToStopLinkageCostTable.size()];
+            nearbyStopEgressSeconds = new int[pointToStopLinkageCostTable.size()];
+        }
+        int nNearbyStops = 0;
+        for (TIntIntIterator it = pointToStopLinkageCostTable.iterator(); it.hasNext(); ) {
+            it.advance();
+            int stop = it.key();
+            int linkageCost = it.value();
+            int secondsFromStopToTarget;
+            if (unit == StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS) {
+                secondsFromStopToTarget = linkageCost / speedMillimetersPerSecond;
+            } else if (unit == StreetRouter.State.RoutingVariable.DURATION_SECONDS) {
+                secondsFromStopToTarget = linkageCost;
+            } else {
+                throw new UnsupportedOperationException("Linkage costs have an unknown unit.");
+            }
+            if (secondsFromStopToTarget >= egressLegTimeLimitSeconds) {
+                continue;
+            }
+            // Account for any additional delay waiting for pickup at the egress stop.
+            if (egressCostTable.egressStopDelaysSeconds != null) {
+                int delayAtEgress = egressCostTable.egressStopDelaysSeconds[stop];
+                if (delayAtEgress < 0) {
+                    // Pickup for this mode not allowed at this stop.
+                    continue;
                 }
-                if (secondsFromStopToTarget < egressLegTimeLimitSeconds){
-                    // Account for any additional delay waiting for pickup at the egress stop.
-                    if (egressCostTable.egressStopDelaysSeconds != null) {
-                        int delayAtEgress = egressCostTable.egressStopDelaysSeconds[stop];
-                        if (delayAtEgress < 0) {
-                            // Pickup for this mode not allowed at this stop, so trove iteration should
-                            // continue
-                            return true;
-                        } else {
-                            secondsFromStopToTarget += delayAtEgress;
-                        }
-                    }
+                secondsFromStopToTarget += delayAtEgress;
+            }
+            nearbyStops[nNearbyStops] = stop;
+            nearbyStopEgressSeconds[nNearbyStops] = secondsFromStopToTarget;
+            nNearbyStops += 1;
+        }
 
-                    StreetTimesAndModes.StreetTimeAndMode egress = new StreetTimesAndModes.StreetTimeAndMode(
-                            secondsFromStopToTarget,
-                            linkedTargets.streetMode
-                    );
-
-                    for (int iteration = 0; iteration < nIterations; iteration++) {
-                        // The travel time (in seconds) needed to reach this stop. Note this is indeed a duration, as
-                        // calculated in the Raptor route() method.
-                        int timeToReachStop = travelTimesToStop[stop][iteration];
-                        if (timeToReachStop >= maxTravelTimeSeconds || timeToReachStop >= perIterationTravelTimes[iteration]) {
-                            // Skip propagation if the travel time to reach this stop is longer than the maximum
-                            // travel time, or the travel time all the way to this target (via another stop).
-                            continue;
-                        }
-
-                        int timeToReachTarget = timeToReachStop + secondsFromStopToTarget;
-                        if (timeToReachTarget < maxTravelTimeSeconds && timeToReachTarget < perIterationTravelTimes[iteration]) {
-                            // To reach this target in this iteration, alighting at this stop and proceeding by this
-                            // egress mode is faster than any previously checked stop/egress mode combination.
-                            // Because that's the case, update the best known travel time and, if requested, the
-                            // corresponding path.
-                            perIterationTravelTimes[iteration] = timeToReachTarget;
-                            if (pathsToStopsForIteration != null) {
-                                Path path = pathsToStopsForIteration.get(iteration)[stop];
-                                if (path != null) {
-                                    perIterationPaths[iteration] = path;
-                                    perIterationEgress[iteration] = egress;
-                                }
-                            }
-                        }
+        if (pathsToStopsForIteration == null) {
+            // Only travel times are needed, not the stop each one came from. Use the fast tiled kernel.
+            PropagationKernel.propagateTiled(
+                travelTimesToStop,
+                nearbyStops,
+                nearbyStopEgressSeconds,
+                nNearbyStops,
+                maxTravelTimeSeconds,
+                perIterationTravelTimes
+            );
+            return;
+        }
+
+        // Paths are being recorded, so propagate all iterations from one stop at a time, remembering which stop
+        // and path yielded the best travel time at each iteration.
+        for (int s = 0; s < nNearbyStops; s++) {
+            int stop = nearbyStops[s];
+            int secondsFromStopToTarget = nearbyStopEgressSeconds[s];
+            StreetTimesAndModes.StreetTimeAndMode egress = new StreetTimesAndModes.StreetTimeAndMode(
+                    secondsFromStopToTarget,
+                    linkedTargets.streetMode
+            );
+            for (int iteration = 0; iteration < nIterations; iteration++) {
+                // The travel time (in seconds) needed to reach this stop. Note this is indeed a duration, as
+                // calculated in the Raptor route() method.
+                int timeToReachStop = travelTimesToStop[stop][iteration];
+                if (timeToReachStop >= maxTravelTimeSeconds || timeToReachStop >= perIterationTravelTimes[iteration]) {
+                    // Skip propagation if the travel time to reach this stop is longer than the maximum
+                    // travel time, or the travel time all the way to this target (via another stop).
+                    continue;
+                }
+
+                int timeToReachTarget = timeToReachStop + secondsFromStopToTarget;
+                if (timeToReachTarget < maxTravelTimeSeconds && timeToReachTarget < perIterationTravelTimes[iteration]) {
+                    // To reach this target in this iteration, alighting at this stop and proceeding by this
+                    // egress mode is faster than any previously checked stop/egress mode combination.
+                    // Because that's the case, update the best known travel time and the corresponding path.
+                    perIterationTravelTimes[iteration] = timeToReachTarget;
+                    Path path = pathsToStopsForIteration.get(iteration)[stop];
+                    if (path != null) {
+                        perIterationPaths[iteration] = path;
+                        perIterationEgress[iteration] = egress;
                     }
                 }
-                return true; // Trove "continue iteration" signal.
-            });
+            }
         }
     }
 
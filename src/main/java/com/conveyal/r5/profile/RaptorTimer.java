@@ -21,6 +21,15 @@ public class RaptorTimer {
     public final ExecutionTimer frequencySearchScheduled = new ExecutionTimer(frequencySearch, "Resulting updates to scheduled component");
     public final ExecutionTimer frequencySearchTransfers = new ExecutionTimer(frequencySearch, "Transfers");
 
+    /**
+     * Add the times recorded by another RaptorTimer, such as one belonging to a worker that searched a sub-window on
+     * another thread. Times from parallel threads are summed, so the parts of a search may add up to more than the
+     * wall-clock time of the full search.
+     */
+    public void add (RaptorTimer other) {
+        fullSearch.add(other.fullSearch);
+    }
+
     public void log () {
         fullSearch.logWithChildren();
     }
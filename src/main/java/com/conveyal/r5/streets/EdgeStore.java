@@ -8,6 +8,7 @@ import com.conveyal.r5.profile.ProfileRequest;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.rastercost.CostField;
 import com.conveyal.r5.trove.AugmentedList;
+import com.conveyal.r5.trove.IntArrayBufferList;
 import com.conveyal.r5.trove.TByteAugmentedList;
 import com.conveyal.r5.trove.TIntAugmentedList;
 import com.conveyal.r5.trove.TLongAugmentedList;
@@ -158,6 +159,14 @@ public class EdgeStore implements Serializable {
      */
     public TIntSet temporarilyDeletedEdges = null;
 
+    /**
+     * The speeds of baseline edges are the one characteristic a scenario may change in place (e.g. RoadCongestion),
+     * since the speeds list is fully copied rather than extended. The index of every edge below firstModifiableEdge
+     * whose speed was changed is recorded here, so we can find the edges affected by a scenario without comparing
+     * every speed against the baseline. Null when this is not an extend-only copy.
+     */
+    public transient TIntSet baseEdgesWithChangedSpeeds = null;
+
     /**
      * This method will tell you whether a scenario has been applied to this EdgeStore, i.e. whether its lists have
      * been extended. There's one case where this method will fail: using Scenarios to create street networks from a
@@ -540,11 +549,14 @@ public class EdgeStore implements Serializable {
 
         // This is really ugly, we should store speeds in mm/sec or something. There is an outstanding PR for this.
         public void setSpeedKph (double speedKph) {
-            speeds.set(edgeIndex, (short)(speedKph / 3.6 * 100));
+            setSpeed((short)(speedKph / 3.6 * 100));
         }
 
         /** Note, this is expecting weird units and should be hidden. Use setSpeedKph. */
         public void setSpeed(short speed) {
+            if (edgeIndex < firstModifiableEdge && speeds.get(edgeIndex) != speed) {
+                baseEdgesWithChangedSpeeds.add(edgeIndex);
+            }
             speeds.set(edgeIndex, speed);
         }
 
@@ -660,31 +672,9 @@ public class EdgeStore implements Serializable {
             }
 
             // Check whether this edge allows the selected mode, considering the request settings.
-            if (streetMode == StreetMode.WALK) {
-                if (!getFlag(EdgeFlag.ALLOWS_PEDESTRIAN)) {
-                    return null;
-                }
-                if (req.wheelchair && !getFlag(EdgeFlag.ALLOWS_WHEELCHAIR)) {
-                    return null;
-                }
-            } else if (streetMode == StreetMode.BICYCLE) {
-                // If biking is not allowed on this edge, or if the traffic stress is too high, walk the bike.
-                boolean tryWalking = !getFlag(EdgeFlag.ALLOWS_BIKE);
-                if (req.bikeTrafficStress > 0 && req.bikeTrafficStress < 4) {
-                    if (getFlag(EdgeFlag.BIKE_LTS_4)) tryWalking = true;
-                    if (req.bikeTrafficStress < 3 && getFlag(EdgeFlag.BIKE_LTS_3)) tryWalking = true;
-                    if (req.bikeTrafficStress < 2 && getFlag(EdgeFlag.BIKE_LTS_2)) tryWalking = true;
-                }
-                if (tryWalking) {
-                    if (!getFlag(EdgeFlag.ALLOWS_PEDESTRIAN)) {
-                        return null;
-                    }
-                    streetMode = StreetMode.WALK;
-                }
-            } else if (streetMode == StreetMode.CAR) {
-                if (!getFlag(EdgeFlag.ALLOWS_CAR)) {
-                    return null;
-                }
+            streetMode = traversalMode(streetMode, req);
+            if (streetMode == null) {
+                return null;
             }
 
             s1.streetMode = streetMode;
@@ -717,6 +707,40 @@ public class EdgeStore implements Serializable {
             return s1;
         }
 
+        /**
+         * Check whether this edge allows the selected mode, considering the request settings. If biking is not allowed
+         * on this edge, or if its traffic stress is too high, the bike is walked.
+         * @return the mode in which this edge will actually be traversed, or null if it cannot be traversed at all.
+         */
+        public StreetMode traversalMode (StreetMode streetMode, ProfileRequest req) {
+            if (streetMode == StreetMode.WALK) {
+                if (!getFlag(EdgeFlag.ALLOWS_PEDESTRIAN)) {
+                    return null;
+                }
+                if (req.wheelchair && !getFlag(EdgeFlag.ALLOWS_WHEELCHAIR)) {
+                    return null;
+                }
+            } else if (streetMode == StreetMode.BICYCLE) {
+                boolean tryWalking = !getFlag(EdgeFlag.ALLOWS_BIKE);
+                if (req.bikeTrafficStress > 0 && req.bikeTrafficStress < 4) {
+                    if (getFlag(EdgeFlag.BIKE_LTS_4)) tryWalking = true;
+                    if (req.bikeTrafficStress < 3 && getFlag(EdgeFlag.BIKE_LTS_3)) tryWalking = true;
+                    if (req.bikeTrafficStress < 2 && getFlag(EdgeFlag.BIKE_LTS_2)) tryWalking = true;
+                }
+                if (tryWalking) {
+                    if (!getFlag(EdgeFlag.ALLOWS_PEDESTRIAN)) {
+                        return null;
+                    }
+                    return StreetMode.WALK;
+                }
+            } else if (streetMode == StreetMode.CAR) {
+                if (!getFlag(EdgeFlag.ALLOWS_CAR)) {
+                    return null;
+                }
+            }
+            return streetMode;
+        }
+
         /** Can we turn onto this edge from this state? Also copies still-applicable restrictions forward. */
         public boolean canTurnFrom(StreetRouter.State s0, StreetRouter.State s1, boolean reverseSearch) {
             // Turn restrictions only apply to cars for now. This is also coded in traverse, so change it both places
@@ -963,12 +987,13 @@ public class EdgeStore implements Serializable {
             VertexStore.Vertex vertex = vertexStore.getCursor(fromVertices.get(pairIndex));
             int prevFixedLat = vertex.getFixedLat();
             int prevFixedLon = vertex.getFixedLon();
-            int[] intermediates = geometries.get(pairIndex);
+            // Read the intermediate coordinates in place, as this is called for every edge when linking points.
+            int nIntermediates = IntArrayBufferList.size(geometries, pairIndex);
             int s = 0;
             int i = 0;
-            while (i < intermediates.length) {
-                int fixedLat = intermediates[i++];
-                int fixedLon = intermediates[i++];
+            while (i < nIntermediates) {
+                int fixedLat = IntArrayBufferList.get(geometries, pairIndex, i++);
+                int fixedLon = IntArrayBufferList.get(geometries, pairIndex, i++);
                 segmentConsumer.consumeSegment(s, prevFixedLat, prevFixedLon, fixedLat, fixedLon);
                 prevFixedLat = fixedLat;
                 prevFixedLon = fixedLon;
@@ -987,10 +1012,12 @@ public class EdgeStore implements Serializable {
             VertexStore.Vertex vertex = vertexStore.getCursor(fromVertices.get(pairIndex));
             int p = 0;
             pointConsumer.consumePoint(p++, vertex.getFixedLat(), vertex.getFixedLon());
-            int[] intermediates = geometries.get(pairIndex);
+            int nIntermediates = IntArrayBufferList.size(geometries, pairIndex);
             int i = 0;
-            while (i < intermediates.length) {
-                pointConsumer.consumePoint(p++, intermediates[i++], intermediates[i++]);
+            while (i < nIntermediates) {
+                int fixedLat = IntArrayBufferList.get(geometries, pairIndex, i++);
+                int fixedLon = IntArrayBufferList.get(geometries, pairIndex, i++);
+                pointConsumer.consumePoint(p++, fixedLat, fixedLon);
             }
             vertex.seek(toVertices.get(pairIndex));
             pointConsumer.consumePoint(p, vertex.getFixedLat(), vertex.getFixedLon());
@@ -1007,14 +1034,9 @@ public class EdgeStore implements Serializable {
          * @return the number of segments in the geometry of the current edge.
          */
         public int nSegments () {
-            int[] geom = geometries.get(pairIndex);
-            if (geom != null) {
-                // Number of packed lat-lon pairs plus the final segment.
-                return (geom.length / 2) + 1;
-            } else {
-                // A single segment from the initial vertex to the final vertex.
-                return 1;
-            }
+            // Number of packed lat-lon pairs plus the final segment. With no intermediate points (or a null geometry)
+            // this is a single segment from the initial vertex to the final vertex.
+            return (IntArrayBufferList.size(geometries, pairIndex) / 2) + 1;
         }
 
         @Override
@@ -1292,6 +1314,7 @@ public class EdgeStore implements Serializable {
         copy.osmids = new TLongAugmentedList(this.osmids);
         copy.streetClasses = new TByteAugmentedList(this.streetClasses);
         copy.temporarilyDeletedEdges = new TIntHashSet();
+        copy.baseEdgesWithChangedSpeeds = new TIntHashSet();
         copy.inAngles = new TByteAugmentedList(inAngles);
         copy.outAngles = new TByteAugmentedList(outAngles);
         // We don't expect to add/change any turn restrictions. TODO Consider split streets though.
@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -109,6 +110,14 @@ public class EgressCostTable implements Serializable {
      */
     public int[] egressStopDelaysSeconds;
 
+    /**
+     * For each transit stop, the bounding envelope in FIXED POINT DEGREES of all street vertices reached by the search
+     * that produced its cost table, or null if it has no table. This serves as a dependency index from street edges
+     * to stops: a scenario change to an edge can only alter a stop's table if the edge's envelope intersects the
+     * stop's envelope, so scenario cost tables only recompute those stops and reuse the baseline rows for the rest.
+     */
+    public List<Envelope> stopSearchEnvelopes;
+
     /**
      * Build an EgressCostTable for the given LinkedPointSet.
      * If the LinkedPointSet is for a scenario built on top of a baseline, elements in the EgressCostTable for the
@@ -179,38 +188,25 @@ public class EgressCostTable implements Serializable {
             throw new UnsupportedOperationException("Unrecognized streetMode");
         }
 
-        // The regions within which we want to link points to edges, then connect transit stops to points.
-        // Null means relink and rebuild everything. This will be constrained below if a base linkage was supplied, to
-        // encompass only areas near changed or created edges.
-        //
-        // Only build trees for stops inside this geometry in FIXED POINT DEGREES, leaving all the others alone.
-        // If null, build trees for all stops.
-        final Geometry rebuildZone;
+        // For each stop, whether its cost table can be copied unchanged from the baseline on which a scenario is built.
+        // Null means relink and rebuild everything.
+        final boolean[] reuseBaseTable;
         if (baseLinkage == null) {
             // No base linkage was provided, we are not selectively rebuilding for a scenario. Rebuild everything.
-            rebuildZone = null;
+            reuseBaseTable = null;
         } else {
             checkArgument(
                 this.linkageCostUnit == baseEgressCostTable.linkageCostUnit,
                 "The base linkage's cost table is in the wrong units."
             );
-            // TODO perhaps create alternate constructor of EgressCostTable which copies an existing one
-            // TODO We need to determine which points to re-link and which stops should have their stop-to-point tables re-built.
-            // TODO check where and how we re-link to streets split/modified by the scenario.
-            // This should be all the points within the (bird-fly) linking radius of any modified edge.
-            // The stop-to-vertex trees should already be rebuilt elsewhere when applying the scenario.
-            // This should be all the stops within the (network or bird-fly) tree radius of any modified edge, including
-            // any new stops that were created by the scenario (which will naturally fall within this distance).
-            // And build trees from stops to points.
-            // Even though currently the only changes to the street network are re-splitting edges to connect new
-            // transit stops, we still need to re-link points and rebuild stop trees (both the trees to the vertices
-            // and the trees to the points, because some existing stop-to-vertex trees might not include new splitter
-            // vertices).
-            rebuildZone = linkedPointSet.streetLayer.scenarioEdgesBoundingGeometry(linkingDistanceLimitMeters);
+            // The stop-to-vertex trees should already be rebuilt elsewhere when applying the scenario. Even though
+            // scenarios may only change a handful of edges, we still need to rebuild the trees to the points for any
+            // stop whose search could reach those edges, and for any stop reaching points that were re-linked.
+            reuseBaseTable = findReusableBaseTables(linkedPointSet, baseEgressCostTable, linkingDistanceLimitMeters);
         }
 
         LOG.info("Creating EgressCostTables from each transit stop to PointSet points for mode {}.", streetMode);
-        if (rebuildZone != null) {
+        if (reuseBaseTable != null) {
             LOG.info("Selectively computing tables for only those stops that might be affected by the scenario.");
         }
 
@@ -239,21 +235,19 @@ public class EgressCostTable implements Serializable {
         // Each table is a flattened 2D array. Two values for each point reachable from this stop: (pointIndex, cost)
         // When applying a scenario, keep the existing distance table for those stops that could not be affected.
         // TODO factor out the function that computes a cost table for one stop.
+        // Each parallel task writes only its own stop's element, so this array needs no synchronization.
+        final Envelope[] searchEnvelopes = new Envelope[nStops];
         stopToPointLinkageCostTables = IntStream.range(0, nStops).parallel().mapToObj(stopIndex -> {
-            progressListener.increment(); // TODO pre-count points inside rebuild zone, and only show progress for those
+            progressListener.increment(); // TODO pre-count stops to rebuild, and only show progress for those
             Point stopPoint = transitLayer.getJTSPointForStopFixed(stopIndex);
             // If the stop is not linked to the street network, it should have no distance table.
             if (stopPoint == null) return null;
-            if (rebuildZone != null && !rebuildZone.contains(stopPoint) && egressStopDelaysSeconds == null) {
+            if (reuseBaseTable != null && reuseBaseTable[stopIndex] && egressStopDelaysSeconds == null) {
                 // This cannot be affected by the scenario. Return the existing distance table.
-                // All new stops created by a scenario should be inside the relink zone, so
-                // all stops outside the relink zone should already have a distance table entry.
-                // TODO having a rebuild zone always implies there is a baseLinkage? If it's possible to not have a base
-                //      linkage, this should return null.
-                // All stops created by the scenario should by definition be inside the relink zone.
-                // This conditional is handling stops outside the relink zone, which should always have existed before
-                // scenario application. Therefore they should be present in the base linkage cost tables.
+                // Stops created by the scenario are never marked reusable, so this conditional is handling stops
+                // that existed before scenario application, which are present in the base linkage cost tables.
                 copyCounter.increment();
+                searchEnvelopes[stopIndex] = baseEgressCostTable.stopSearchEnvelopes.get(stopIndex);
                 return baseEgressCostTable.stopToPointLinkageCostTables.get(stopIndex);
             }
 
@@ -268,8 +262,9 @@ public class EgressCostTable implements Serializable {
                 // code that pre-computes walk tables at TransitLayer.buildOneDistanceTable() rather than duplicating
                 // it below for other (non-walk) modes.
                 TIntIntMap distanceTableToVertices = transitLayer.stopToVertexDistanceTables.get(stopIndex);
-                return distanceTableToVertices == null ? null :
-                        linkedPointSet.extendDistanceTableToPoints(distanceTableToVertices, envelopeAroundStop);
+                if (distanceTableToVertices == null) return null;
+                searchEnvelopes[stopIndex] = envelopeOfVertices(streetLayer, distanceTableToVertices);
+                return linkedPointSet.extendDistanceTableToPoints(distanceTableToVertices, envelopeAroundStop);
             } else {
                 // For non-walk modes perform a search from each stop, as stop-to-vertex tables are not precomputed.
                 Geometry egressArea = null;
@@ -294,45 +289,145 @@ public class EgressCostTable implements Serializable {
                     }
                 }
 
-                StreetRouter sr = new StreetRouter(transitLayer.parentNetwork.streetLayer);
-                sr.streetMode = streetMode;
                 int vertexId = transitLayer.streetVertexForStop.get(stopIndex);
                 if (vertexId < 0) {
                     LOG.warn("Stop unlinked, cannot build distance table: {}", stopIndex);
                     return null;
                 }
-                // Setting the origin point of the router to the stop vertex (as follows) does not work.
-                // sr.setOrigin(vertexId);
-                // This is probably because link edges do not allow car traversal. We could traverse them.
-                // As a workaround we perform car linking at the geographic coordinate of the stop.
-                VertexStore.Vertex vertex = linkedPointSet.streetLayer.vertexStore.getCursor(vertexId);
-                sr.setOrigin(vertex.getLat(), vertex.getLon());
-
-                // WALK is handled in the if clause above, this else block is exhaustively handling all other modes.
-                if (streetMode == StreetMode.BICYCLE) {
-                    sr.distanceLimitMeters = linkingDistanceLimitMeters;
-                } else if (streetMode == StreetMode.CAR) {
-                    // Car speeds vary by link and cannot be set in analysis requests, so it makes sense to use
-                    // seconds directly as the linkage cost. In contrast, the speeds for Walk and Bicycle can be
-                    // specified in an analysis request, so it makes sense above to store distances and apply the
-                    // requested speed.
-                    // TODO confirm this works as expected when modifications can affect street layer.
-                    sr.timeLimitSeconds = CAR_TIME_LINKING_LIMIT_SECONDS;
-                } else {
-                    throw new UnsupportedOperationException("Tried to link a pointset with an unsupported street mode");
+                OneToManyStreetRouter sr = OneToManyStreetRouter.create(streetLayer, streetMode);
+                TIntIntMap reachedVertices;
+                try {
+                    // Setting the origin point of the router to the stop vertex does not work.
+                    // This is probably because link edges do not allow car traversal. We could traverse them.
+                    // As a workaround we perform car linking at the geographic coordinate of the stop.
+                    VertexStore.Vertex vertex = linkedPointSet.streetLayer.vertexStore.getCursor(vertexId);
+                    sr.setOrigin(vertex.getLat(), vertex.getLon());
+
+                    // WALK is handled in the if clause above, this else block is exhaustively handling all other modes.
+                    if (streetMode == StreetMode.BICYCLE) {
+                        sr.setDistanceLimitMeters(linkingDistanceLimitMeters);
+                    } else if (streetMode == StreetMode.CAR) {
+                        // Car speeds vary by link and cannot be set in analysis requests, so it makes sense to use
+                        // seconds directly as the linkage cost. In contrast, the speeds for Walk and Bicycle can be
+                        // specified in an analysis request, so it makes sense above to store distances and apply the
+                        // requested speed.
+                        // TODO confirm this works as expected when modifications can affect street layer.
+                        sr.setTimeLimitSeconds(CAR_TIME_LINKING_LIMIT_SECONDS);
+                    } else {
+                        throw new UnsupportedOperationException("Tried to link a pointset with an unsupported street mode");
+                    }
+                    sr.setQuantityToMinimize(linkageCostUnit);
+                    sr.route();
+                    reachedVertices = sr.getReachedVertices();
+                } finally {
+                    sr.release();
                 }
-                sr.quantityToMinimize = linkageCostUnit;
-                sr.route();
-                return linkedPointSet.extendCostsToPoints(sr.getReachedVertices()::get,
-                        sr.quantityToMinimize,
+                searchEnvelopes[stopIndex] = envelopeOfVertices(streetLayer, reachedVertices);
+                return linkedPointSet.extendCostsToPoints(reachedVertices::get,
+                        linkageCostUnit,
                         envelopeAroundStop,
                         egressArea);
             }
         }).collect(Collectors.toList());
+        stopSearchEnvelopes = new ArrayList<>(Arrays.asList(searchEnvelopes));
         computeCounter.done();
         copyCounter.done();
     }
 
+    /**
+     * Decide which stops' cost tables can be copied unchanged from the base cost table when building tables for a
+     * scenario. A stop's table must be rebuilt if the stop is new or was linked differently by the scenario, if its
+     * search reached the end of any edge the scenario added, removed or re-weighted, or if it reaches any point that
+     * was linked differently in the scenario. Changed edges are put in a spatial index and checked against the
+     * envelope of vertices each stop's search reached in the baseline. If the base table does not have those
+     * envelopes, we fall back on rebuilding all stops within the linking distance limit of any changed edge.
+     *
+     * @return for each stop in the scenario network, true if its baseline cost table can be reused as-is.
+     */
+    private static boolean[] findReusableBaseTables (
+            LinkedPointSet linkedPointSet,
+            EgressCostTable baseEgressCostTable,
+            int linkingDistanceLimitMeters
+    ) {
+        LinkedPointSet baseLinkage = linkedPointSet.baseLinkage;
+        StreetLayer streetLayer = linkedPointSet.streetLayer;
+        TransitLayer transitLayer = streetLayer.parentNetwork.transitLayer;
+        TransitLayer baseTransitLayer = baseLinkage.streetLayer.parentNetwork.transitLayer;
+        int nStops = transitLayer.getStopCount();
+        int nBaseStops = baseEgressCostTable.stopToPointLinkageCostTables.size();
+        boolean[] reuse = new boolean[nStops];
+
+        if (baseEgressCostTable.stopSearchEnvelopes == null) {
+            Geometry rebuildZone = streetLayer.scenarioEdgesBoundingGeometry(linkingDistanceLimitMeters);
+            for (int s = 0; s < nStops && s < nBaseStops; s++) {
+                Point stopPoint = transitLayer.getJTSPointForStopFixed(s);
+                reuse[s] = stopPoint != null && !rebuildZone.contains(stopPoint);
+            }
+            return reuse;
+        }
+
+        // Index the changed edges in coarse bins, as the envelopes of stop searches can be tens of kilometers across.
+        List<Envelope> changedEdgeEnvelopes = streetLayer.scenarioChangedEdgeEnvelopes();
+        IntHashGrid changedEdgeIndex = new IntHashGrid(0.05);
+        for (int i = 0; i < changedEdgeEnvelopes.size(); i++) {
+            changedEdgeIndex.insert(changedEdgeEnvelopes.get(i), i);
+        }
+
+        // Find points whose linkage differs from the base linkage. Points linked to new edges have new costs.
+        BitSet relinkedPoints = new BitSet();
+        for (int p = 0; p < linkedPointSet.size(); p++) {
+            if (linkedPointSet.edges[p] != baseLinkage.edges[p]
+                    || linkedPointSet.distancesToEdge_mm[p] != baseLinkage.distancesToEdge_mm[p]
+                    || linkedPointSet.distances0_mm[p] != baseLinkage.distances0_mm[p]
+                    || linkedPointSet.distances1_mm[p] != baseLinkage.distances1_mm[p]) {
+                relinkedPoints.set(p);
+            }
+        }
+
+        int nReused = 0;
+        for (int s = 0; s < nStops && s < nBaseStops; s++) {
+            if (s >= baseTransitLayer.getStopCount()
+                    || transitLayer.streetVertexForStop.get(s) != baseTransitLayer.streetVertexForStop.get(s)) {
+                continue;
+            }
+            // Stops with no recorded search are rare (e.g. unlinked in the baseline), so just rebuild them.
+            Envelope searchEnvelope = baseEgressCostTable.stopSearchEnvelopes.get(s);
+            if (searchEnvelope == null || searchEnvelope.isNull()) continue;
+            boolean noChangedEdges = changedEdgeIndex.query(searchEnvelope).forEach(
+                    i -> !changedEdgeEnvelopes.get(i).intersects(searchEnvelope)
+            );
+            if (!noChangedEdges) continue;
+            int[] baseTable = baseEgressCostTable.stopToPointLinkageCostTables.get(s);
+            if (baseTable != null && !relinkedPoints.isEmpty()) {
+                boolean reachesRelinkedPoint = false;
+                for (int i = 0; i < baseTable.length; i += 2) {
+                    if (relinkedPoints.get(baseTable[i])) {
+                        reachesRelinkedPoint = true;
+                        break;
+                    }
+                }
+                if (reachesRelinkedPoint) continue;
+            }
+            reuse[s] = true;
+            nReused++;
+        }
+        LOG.info("Scenario changed {} street edges and re-linked {} points. Reusing baseline tables for {} of {} stops.",
+                changedEdgeEnvelopes.size(), relinkedPoints.cardinality(), nReused, nStops);
+        return reuse;
+    }
+
+    /** @return the envelope in FIXED POINT DEGREES of all vertices that are keys in the given map. */
+    private static Envelope envelopeOfVertices (StreetLayer streetLayer, TIntIntMap costToVertex) {
+        Envelope envelope = new Envelope();
+        VertexStore.Vertex vertex = streetLayer.vertexStore.getCursor();
+        costToVertex.forEachKey(v -> {
+            vertex.seek(v);
+            envelope.expandToInclude(vertex.getFixedLon(), vertex.getFixedLat());
+            return true;
+        });
+        return envelope;
+    }
+
     /**
      * Private constructor used by factory methods or other constructors to allow fields to be immutable.
      */
@@ -343,6 +438,23 @@ public class EgressCostTable implements Serializable {
         this.linkageCostUnit = superCostTable.linkageCostUnit;
         this.stopToPointLinkageCostTables = stopToPointLinkageCostTables;
         this.egressStopDelaysSeconds = superCostTable.egressStopDelaysSeconds;
+        // The searches from each stop are the same, only the points reached are cropped.
+        this.stopSearchEnvelopes = superCostTable.stopSearchEnvelopes;
+    }
+
+    /**
+     * Constructor used when reloading previously computed tables, as done by LinkedPointSetSerializer.
+     */
+    EgressCostTable (LinkedPointSet linkedPointSet,
+                     StreetRouter.State.RoutingVariable linkageCostUnit,
+                     List<int[]> stopToPointLinkageCostTables,
+                     int[] egressStopDelaysSeconds,
+                     List<Envelope> stopSearchEnvelopes) {
+        this.linkedPointSet = linkedPointSet;
+        this.linkageCostUnit = linkageCostUnit;
+        this.stopToPointLinkageCostTables = stopToPointLinkageCostTables;
+        this.egressStopDelaysSeconds = egressStopDelaysSeconds;
+        this.stopSearchEnvelopes = stopSearchEnvelopes;
     }
 
     /**
@@ -25,6 +25,7 @@ import java.util.stream.IntStream;
 
 import static com.conveyal.r5.streets.StreetRouter.State.RoutingVariable;
 import static com.conveyal.r5.streets.VertexStore.floatingDegreesToFixed;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A LinkedPointSet is a PointSet that has been connected to a StreetLayer in a non-destructive, reversible way.
@@ -250,6 +251,37 @@ public class LinkedPointSet implements Serializable {
         }
     }
 
+    /**
+     * Reconstitute a linkage whose arrays were previously computed and saved, as done by LinkedPointSetSerializer.
+     * The resulting linkage is standalone: it has no base linkage, and any egress cost table will be supplied by
+     * the caller through setEgressCostTable rather than derived from a base.
+     */
+    LinkedPointSet (
+            PointSet pointSet,
+            StreetLayer streetLayer,
+            StreetMode streetMode,
+            int[] edges,
+            int[] distancesToEdge_mm,
+            int[] distances0_mm,
+            int[] distances1_mm
+    ) {
+        this.pointSet = pointSet;
+        this.streetLayer = streetLayer;
+        this.streetMode = streetMode;
+        this.baseLinkage = null;
+        this.cropped = false;
+        this.edges = edges;
+        this.distancesToEdge_mm = distancesToEdge_mm;
+        this.distances0_mm = distances0_mm;
+        this.distances1_mm = distances1_mm;
+    }
+
+    /** Supply a previously saved EgressCostTable, so it does not need to be rebuilt lazily. */
+    synchronized void setEgressCostTable (EgressCostTable egressCostTable) {
+        checkState(egressCostTable.linkedPointSet == this, "Egress cost table was built for another linkage.");
+        this.egressCostTable = egressCostTable;
+    }
+
     /**
      * Get (and lazily build) the EgressCostTable derived from this linkage and its associated TransportNetwork.
      * The synchronization is rather crude, but should do the job as long as all outside multi-threaded access to the
@@ -0,0 +1,219 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.PointSet;
+import com.conveyal.r5.profile.StreetMode;
+import org.locationtech.jts.geom.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.conveyal.r5.streets.StreetRouter.State.RoutingVariable;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Saves and reloads a LinkedPointSet together with its EgressCostTable, in a compact gzipped binary format. Building
+ * the cost tables is the slowest step in preparing a network for analysis (many minutes for car egress over a large
+ * grid) so workers save them to file storage after building them, and reload them instead of rebuilding on startup.
+ *
+ * The PointSet and StreetLayer are not saved. The caller must supply the same ones the linkage was built for, which in
+ * practice means the file name must identify the network, scenario, grid extents and street mode. The point and stop
+ * counts are checked on reading as a guard against mismatches, but these checks are not exhaustive.
+ *
+ * Within each stop-to-point cost table, point indexes are delta coded (as in our Grid format) since they are usually
+ * increasing in small steps, which makes the output much more compressible.
+ */
+public abstract class LinkedPointSetSerializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LinkedPointSetSerializer.class);
+
+    private static final String HEADER = "R5LINKAGE";
+
+    /** Increment this whenever the layout written by this class changes, to ignore any incompatible saved files. */
+    public static final int FORMAT_VERSION = 2;
+
+    /** Marks a missing array, i.e. a stop that has no cost table or a linkage without stop delays. */
+    private static final int NULL_ARRAY = -1;
+
+    /**
+     * Write the given linkage and its egress cost table to the supplied stream, closing the stream when done.
+     * The cost table must be built. Transposing it for propagation releases the tables that would be written, so this
+     * throws an IllegalStateException if another thread has already transposed it.
+     */
+    public static void write (LinkedPointSet linkedPointSet, OutputStream outputStream) throws IOException {
+        EgressCostTable egressCostTable = linkedPointSet.getEgressCostTable();
+        // Hold the lock that prevents the table from being transposed (and its source tables released) while writing.
+        synchronized (egressCostTable) {
+            checkState(egressCostTable.stopToPointLinkageCostTables != null,
+                    "Cost tables have already been transposed for propagation and cannot be saved.");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new GZIPOutputStream(outputStream)))) {
+                out.writeUTF(HEADER);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(linkedPointSet.streetMode.name());
+                out.writeInt(linkedPointSet.size());
+                writeArray(out, linkedPointSet.edges);
+                writeArray(out, linkedPointSet.distancesToEdge_mm);
+                writeArray(out, linkedPointSet.distances0_mm);
+                writeArray(out, linkedPointSet.distances1_mm);
+                out.writeUTF(egressCostTable.linkageCostUnit.name());
+                writeArray(out, egressCostTable.egressStopDelaysSeconds);
+                List<int[]> costTables = egressCostTable.stopToPointLinkageCostTables;
+                out.writeInt(costTables.size());
+                for (int[] costTable : costTables) {
+                    if (costTable == null) {
+                        out.writeInt(NULL_ARRAY);
+                        continue;
+                    }
+                    out.writeInt(costTable.length);
+                    int prevPoint = 0;
+                    for (int i = 0; i < costTable.length; i += 2) {
+                        out.writeInt(costTable[i] - prevPoint);
+                        out.writeInt(costTable[i + 1]);
+                        prevPoint = costTable[i];
+                    }
+                }
+                writeEnvelopes(out, egressCostTable.stopSearchEnvelopes);
+            }
+        }
+    }
+
+    /**
+     * Read a linkage and its egress cost table from the supplied stream, closing the stream when done.
+     * @param pointSet the PointSet the saved linkage was built for
+     * @param streetLayer the StreetLayer the saved linkage was built for, whose parent network holds the transit stops
+     * @return a standalone linkage (with no base linkage) whose egress cost table is already present
+     */
+    public static LinkedPointSet read (
+            InputStream inputStream,
+            PointSet pointSet,
+            StreetLayer streetLayer,
+            StreetMode streetMode
+    ) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(inputStream)))) {
+            checkState(HEADER.equals(in.readUTF()), "File does not contain a saved linkage.");
+            int version = in.readInt();
+            checkState(version == FORMAT_VERSION, "Saved linkage format version %s, expected %s.",
+                    version, FORMAT_VERSION);
+            checkState(streetMode.name().equals(in.readUTF()), "Saved linkage is for another street mode.");
+            int nPoints = in.readInt();
+            checkState(nPoints == pointSet.featureCount(), "Saved linkage is for a different number of points.");
+            LinkedPointSet linkedPointSet = new LinkedPointSet(
+                    pointSet,
+                    streetLayer,
+                    streetMode,
+                    readArray(in),
+                    readArray(in),
+                    readArray(in),
+                    readArray(in)
+            );
+            RoutingVariable linkageCostUnit = RoutingVariable.valueOf(in.readUTF());
+            int[] egressStopDelaysSeconds = readArray(in);
+            int nStops = in.readInt();
+            checkState(nStops == streetLayer.parentNetwork.transitLayer.getStopCount(),
+                    "Saved egress cost tables are for a different number of stops.");
+            List<int[]> costTables = new ArrayList<>(nStops);
+            for (int stop = 0; stop < nStops; stop++) {
+                int length = in.readInt();
+                if (length == NULL_ARRAY) {
+                    costTables.add(null);
+                    continue;
+                }
+                int[] costTable = new int[length];
+                int point = 0;
+                for (int i = 0; i < length; i += 2) {
+                    point += in.readInt();
+                    costTable[i] = point;
+                    costTable[i + 1] = in.readInt();
+                }
+                costTables.add(costTable);
+            }
+            List<Envelope> stopSearchEnvelopes = readEnvelopes(in);
+            linkedPointSet.setEgressCostTable(new EgressCostTable(
+                    linkedPointSet,
+                    linkageCostUnit,
+                    costTables,
+                    egressStopDelaysSeconds,
+                    stopSearchEnvelopes
+            ));
+            LOG.info("Read saved {} linkage and egress cost tables for {} points and {} stops.",
+                    streetMode, nPoints, nStops);
+            return linkedPointSet;
+        }
+    }
+
+    private static void writeArray (DataOutputStream out, int[] array) throws IOException {
+        if (array == null) {
+            out.writeInt(NULL_ARRAY);
+            return;
+        }
+        out.writeInt(array.length);
+        for (int value : array) {
+            out.writeInt(value);
+        }
+    }
+
+    /** Envelopes are in fixed point degrees, so they are saved exactly as four ints, or a marker for null. */
+    private static void writeEnvelopes (DataOutputStream out, List<Envelope> envelopes) throws IOException {
+        if (envelopes == null) {
+            out.writeInt(NULL_ARRAY);
+            return;
+        }
+        out.writeInt(envelopes.size());
+        for (Envelope envelope : envelopes) {
+            if (envelope == null || envelope.isNull()) {
+                out.writeBoolean(false);
+                continue;
+            }
+            out.writeBoolean(true);
+            out.writeInt((int) envelope.getMinX());
+            out.writeInt((int) envelope.getMinY());
+            out.writeInt((int) envelope.getMaxX());
+            out.writeInt((int) envelope.getMaxY());
+        }
+    }
+
+    private static List<Envelope> readEnvelopes (DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if (size == NULL_ARRAY) {
+            return null;
+        }
+        List<Envelope> envelopes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (in.readBoolean()) {
+                int minX = in.readInt();
+                int minY = in.readInt();
+                int maxX = in.readInt();
+                int maxY = in.readInt();
+                envelopes.add(new Envelope(minX, maxX, minY, maxY));
+            } else {
+                envelopes.add(null);
+            }
+        }
+        return envelopes;
+    }
+
+    private static int[] readArray (DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_ARRAY) {
+            return null;
+        }
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = in.readInt();
+        }
+        return array;
+    }
+
+}
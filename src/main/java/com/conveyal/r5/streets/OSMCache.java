@@ -48,7 +48,8 @@ public class OSMCache implements Component {
         try {
             return osmCache.get(id, () -> {
                 File osmFile = fileStorage.getFile(getKey(id));
-                OSM ret = new OSM(null);
+                // Nodes are only read while building networks, so they can be kept in a compact temporary store.
+                OSM ret = new OSM(null, true);
                 ret.intersectionDetection = true;
                 ret.readFromFile(osmFile.getAbsolutePath());
                 return ret;
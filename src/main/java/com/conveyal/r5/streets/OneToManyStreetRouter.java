@@ -0,0 +1,66 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.profile.ProfileRequest;
+import com.conveyal.r5.profile.StreetMode;
+import gnu.trove.map.TIntIntMap;
+
+/**
+ * The one-to-many street searches performed in analysis: access searches from an origin point, and the searches used
+ * to build egress cost tables. These are implemented both by the State-based StreetRouter, and by the faster
+ * PrimitiveStreetRouter which supports nothing else. Use create() to get the fastest router for a given mode.
+ *
+ * Call release() when the results of a search are no longer needed, even if the search fails or is abandoned, so the
+ * search state can be reused by later searches.
+ */
+public interface OneToManyStreetRouter {
+
+    /**
+     * @return the fastest router that can perform searches in the given mode on the given street layer, configured to
+     * use that mode.
+     */
+    static OneToManyStreetRouter create (StreetLayer streetLayer, StreetMode streetMode) {
+        OneToManyStreetRouter router = PrimitiveStreetRouter.supports(streetLayer, streetMode)
+                ? new PrimitiveStreetRouter(streetLayer)
+                : new StreetRouter(streetLayer);
+        router.setStreetMode(streetMode);
+        return router;
+    }
+
+    void setProfileRequest (ProfileRequest profileRequest);
+
+    void setStreetMode (StreetMode streetMode);
+
+    void setQuantityToMinimize (StreetRouter.State.RoutingVariable quantityToMinimize);
+
+    /** The search will not continue past this limit if it is nonzero. */
+    void setTimeLimitSeconds (int timeLimitSeconds);
+
+    /** The search will not continue past this limit if it is nonzero. */
+    void setDistanceLimitMeters (int distanceLimitMeters);
+
+    /** @return false if the point could not be linked to the street network, in which case no search can be done. */
+    boolean setOrigin (double lat, double lon);
+
+    void route ();
+
+    /**
+     * Continue the search on foot from every state reached so far. This reaches transit stops in pedestrian-only areas
+     * such as train stations.
+     */
+    void keepRoutingOnFoot ();
+
+    /** @return the value of the routing variable at every transit stop reached, keyed on stop index. */
+    TIntIntMap getReachedStops ();
+
+    /** @return the value of the routing variable at every street vertex reached, keyed on vertex index. */
+    TIntIntMap getReachedVertices ();
+
+    /** @return the travel time in seconds to the given vertex, or Integer.MAX_VALUE if it was not reached. */
+    int getTravelTimeToVertex (int vertexIndex);
+
+    Split getOriginSplit ();
+
+    /** Signal that the results of this router are no longer needed. They must not be used after calling this. */
+    void release ();
+
+}
@@ -0,0 +1,444 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.profile.ProfileRequest;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransitLayer;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.TIntSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static com.conveyal.r5.streets.LinkedPointSet.OFF_STREET_SPEED_MILLIMETERS_PER_SECOND;
+import static com.google.common.base.Preconditions.checkState;
+import static gnu.trove.impl.Constants.DEFAULT_CAPACITY;
+import static gnu.trove.impl.Constants.DEFAULT_LOAD_FACTOR;
+
+/**
+ * A router for the one-to-many searches performed in analysis (access searches from an origin point and the searches
+ * used to build egress cost tables) that does not create a State object for every edge traversal.
+ *
+ * Turn restrictions are the only reason the State-based router can keep more than one state at the end of an edge.
+ * When no turn restrictions apply, a search is fully described by one duration, distance and back edge per edge.
+ * These are kept in arrays sized to the EdgeStore, and the search is ordered by a binary heap of edge indexes that
+ * supports decrease-key, so every edge is in the queue at most once. Each street layer keeps a pool of these arrays
+ * for reuse between searches, and they are cleared using the list of edges touched by the previous search, so
+ * repeated searches allocate almost nothing. Call release() when the results are no longer needed to return the
+ * arrays to the pool.
+ *
+ * The results of getReachedStops(), getReachedVertices() and getTravelTimeToVertex() are the same as those of the
+ * State-based StreetRouter. Check supports() before using this router for a particular mode.
+ */
+public class PrimitiveStreetRouter implements OneToManyStreetRouter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrimitiveStreetRouter.class);
+
+    /** Value in the duration array for edges that have not been reached. */
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** Back edge of the states created by setOrigin, which were not produced by traversing an edge. */
+    private static final int NO_BACK_STATE = -1;
+
+    private final StreetLayer streetLayer;
+
+    private final TraversalTimeCalculator timeCalculator;
+
+    private ProfileRequest profileRequest = new ProfileRequest();
+
+    private StreetMode streetMode = StreetMode.WALK;
+
+    private StreetRouter.State.RoutingVariable quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+
+    private int timeLimitSeconds = 0;
+
+    private int distanceLimitMeters = 0;
+
+    private EdgeStates states;
+
+    private Split originSplit;
+
+    public PrimitiveStreetRouter (StreetLayer streetLayer) {
+        this.streetLayer = streetLayer;
+        this.timeCalculator = StreetRouter.defaultTimeCalculator(streetLayer);
+        this.states = streetLayer.edgeStatesPool.take(streetLayer.edgeStore.nEdges());
+    }
+
+    /**
+     * @return true if searches in the given mode on the given street layer can be performed by this router. Turn
+     * restrictions only apply to cars, and if there are any, the State-based StreetRouter must be used.
+     */
+    public static boolean supports (StreetLayer streetLayer, StreetMode streetMode) {
+        return streetMode != StreetMode.CAR || streetLayer.turnRestrictions.isEmpty();
+    }
+
+    @Override
+    public void setProfileRequest (ProfileRequest profileRequest) {
+        this.profileRequest = profileRequest;
+    }
+
+    @Override
+    public void setStreetMode (StreetMode streetMode) {
+        this.streetMode = streetMode;
+    }
+
+    @Override
+    public void setQuantityToMinimize (StreetRouter.State.RoutingVariable quantityToMinimize) {
+        this.quantityToMinimize = quantityToMinimize;
+    }
+
+    @Override
+    public void setTimeLimitSeconds (int timeLimitSeconds) {
+        this.timeLimitSeconds = timeLimitSeconds;
+    }
+
+    @Override
+    public void setDistanceLimitMeters (int distanceLimitMeters) {
+        this.distanceLimitMeters = distanceLimitMeters;
+    }
+
+    /**
+     * Hand the search state arrays back to the street layer for reuse by the next router. The results of this router
+     * must not be used after calling this method.
+     */
+    @Override
+    public void release () {
+        if (states != null) {
+            streetLayer.edgeStatesPool.give(states);
+            states = null;
+        }
+    }
+
+    @Override
+    public boolean setOrigin (double lat, double lon) {
+        Split split = streetLayer.findSplit(lat, lon, StreetLayer.LINK_RADIUS_METERS, streetMode);
+        if (split == null) {
+            LOG.info("No street was found near the specified origin point of {}, {}.", lat, lon);
+            return false;
+        }
+        checkNotReleased();
+        originSplit = split;
+        states.clear();
+        // As in the State-based router, the origin states are located at the ends of the edges leading from the split
+        // point to vertex0 (the reverse edge) and to vertex1, and were not produced by traversing those edges.
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor(split.edge);
+        int offStreetTime = split.distanceToEdge_mm / OFF_STREET_SPEED_MILLIMETERS_PER_SECOND;
+        float speedMetersPerSecond = edge.calculateSpeed(profileRequest, streetMode);
+        states.update(split.edge, (int) ((split.distance1_mm / 1000) / speedMetersPerSecond) + offStreetTime,
+                split.distance1_mm + split.distanceToEdge_mm, NO_BACK_STATE);
+        edge.advance();
+        speedMetersPerSecond = edge.calculateSpeed(profileRequest, streetMode);
+        states.update(split.edge + 1, (int) ((split.distance0_mm / 1000) / speedMetersPerSecond) + offStreetTime,
+                split.distance0_mm + split.distanceToEdge_mm, NO_BACK_STATE);
+        return true;
+    }
+
+    /**
+     * Explore the street network from every edge reached so far (initially only the origin) until the heap is empty,
+     * respecting any nonzero time or distance limits.
+     */
+    @Override
+    public void route () {
+        checkNotReleased();
+        checkState(supports(streetLayer, streetMode), "Searches subject to turn restrictions are not supported.");
+        if (timeLimitSeconds > 0 && quantityToMinimize != StreetRouter.State.RoutingVariable.DURATION_SECONDS) {
+            LOG.warn("Setting a time limit when time is not the dominance function, this is a resource limiting issue and paths may be incorrect.");
+        }
+        if (distanceLimitMeters > 0 && quantityToMinimize != StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS) {
+            LOG.warn("Setting a distance limit when distance is not the dominance function, this is a resource limiting issue and paths may be incorrect.");
+        }
+        final int distanceLimitMm = distanceLimitMeters > 0 ? distanceLimitMeters * 1000 : Integer.MAX_VALUE;
+        final int timeLimit = timeLimitSeconds > 0 ? timeLimitSeconds : Integer.MAX_VALUE;
+        final boolean reverse = profileRequest.reverseSearch;
+
+        states.keys = (quantityToMinimize == StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS)
+                ? states.distanceMm : states.durationSeconds;
+        for (int i = 0; i < states.touchedEdges.size(); i++) {
+            states.push(states.touchedEdges.get(i));
+        }
+        EdgeStore.Edge edge = streetLayer.edgeStore.getCursor();
+        while (states.heapSize > 0) {
+            int eidx = states.pop();
+            edge.seek(eidx);
+            int vertex = reverse ? edge.getFromVertex() : edge.getToVertex();
+            // Two link edges in a row are a shortcut and are not allowed, except when leaving the origin states.
+            boolean link = states.backEdge[eidx] != NO_BACK_STATE && edge.getFlag(EdgeStore.EdgeFlag.LINK);
+            explore(vertex, eidx, link, states.durationSeconds[eidx], states.distanceMm[eidx], distanceLimitMm, timeLimit);
+        }
+    }
+
+    /**
+     * Traverse all edges leaving the given vertex from the state at the end of backEdge, following the same rules as
+     * EdgeStore.Edge#traverse, and record any improved states.
+     * @param backEdge the edge at the end of which the state being explored is located.
+     * @param backEdgeIsLink true if traversing another link edge from this state would be a shortcut.
+     */
+    private void explore (
+            int vertex, int backEdge, boolean backEdgeIsLink, int durationSeconds, int distanceMm,
+            int distanceLimitMm, int timeLimitSeconds
+    ) {
+        final boolean reverse = profileRequest.reverseSearch;
+        final TIntSet deletedEdges = streetLayer.edgeStore.temporarilyDeletedEdges;
+        TIntList edgeList = reverse ? streetLayer.incomingEdges.get(vertex) : streetLayer.outgoingEdges.get(vertex);
+        EdgeStore.Edge edge = states.cursor(streetLayer.edgeStore);
+        for (int i = 0; i < edgeList.size(); i++) {
+            int eidx = edgeList.get(i);
+            if (deletedEdges != null && deletedEdges.contains(eidx)) continue;
+            edge.seek(eidx);
+            if (backEdgeIsLink && edge.getFlag(EdgeStore.EdgeFlag.LINK)) continue;
+            StreetMode mode = edge.traversalMode(streetMode, profileRequest);
+            if (mode == null) continue;
+            int incrementSeconds = timeCalculator.traversalTimeSeconds(edge, mode, profileRequest);
+            incrementSeconds += reverse
+                    ? timeCalculator.turnTimeSeconds(eidx, backEdge, mode)
+                    : timeCalculator.turnTimeSeconds(backEdge, eidx, mode);
+            // Every traversal increments time and distance by at least one, as in EdgeStore.Edge#traverse.
+            int newDurationSeconds = durationSeconds + Math.max(incrementSeconds, 1);
+            int newDistanceMm = distanceMm + Math.max(edge.getLengthMm(), 1);
+            if (newDistanceMm > distanceLimitMm || newDurationSeconds >= timeLimitSeconds) continue;
+            // An existing state with the same value of the routing variable wins over the new one.
+            if (states.durationSeconds[eidx] != UNREACHED) {
+                int newKey = (states.keys == states.distanceMm) ? newDistanceMm : newDurationSeconds;
+                if (states.keys[eidx] <= newKey) continue;
+            }
+            states.update(eidx, newDurationSeconds, newDistanceMm, backEdge);
+            states.push(eidx);
+        }
+    }
+
+    /**
+     * Continue the search on foot from every state reached so far, as in the State-based router.
+     */
+    @Override
+    public void keepRoutingOnFoot () {
+        streetMode = StreetMode.WALK;
+        route();
+    }
+
+    @Override
+    public TIntIntMap getReachedStops () {
+        checkNotReleased();
+        TIntIntMap result = new TIntIntHashMap();
+        TransitLayer transitLayer = streetLayer.parentNetwork.transitLayer;
+        transitLayer.stopForStreetVertex.forEachEntry((streetVertex, stop) -> {
+            if (streetVertex == -1) return true;
+            int eidx = bestEdgeAtVertex(streetVertex);
+            if (eidx >= 0) result.put(stop, routingVariable(eidx));
+            return true; // continue iteration
+        });
+        return result;
+    }
+
+    @Override
+    public TIntIntMap getReachedVertices () {
+        checkNotReleased();
+        TIntIntMap result = new TIntIntHashMap(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR, -1, Integer.MAX_VALUE);
+        EdgeStore.Edge e = streetLayer.edgeStore.getCursor();
+        for (int i = 0; i < states.touchedEdges.size(); i++) {
+            int eidx = states.touchedEdges.get(i);
+            e.seek(eidx);
+            int vidx = e.getToVertex();
+            int value = routingVariable(eidx);
+            if (result.get(vidx) > value) result.put(vidx, value);
+        }
+        return result;
+    }
+
+    @Override
+    public int getTravelTimeToVertex (int vertexIndex) {
+        checkNotReleased();
+        int eidx = bestEdgeAtVertex(vertexIndex);
+        return eidx >= 0 ? states.durationSeconds[eidx] : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public Split getOriginSplit () {
+        return originSplit;
+    }
+
+    /**
+     * Equivalent to StreetRouter#getStateAtVertex: among the edges arriving at the vertex (leaving it in a reverse
+     * search), find the one with the lowest value of the routing variable.
+     * @return the index of that edge, or -1 if none of them were reached.
+     */
+    private int bestEdgeAtVertex (int vertexIndex) {
+        TIntList edgeList = profileRequest.reverseSearch
+                ? streetLayer.outgoingEdges.get(vertexIndex)
+                : streetLayer.incomingEdges.get(vertexIndex);
+        int best = -1;
+        for (int i = 0; i < edgeList.size(); i++) {
+            int eidx = edgeList.get(i);
+            if (states.durationSeconds[eidx] == UNREACHED) continue;
+            if (best < 0 || routingVariable(best) > routingVariable(eidx)) {
+                best = eidx;
+            }
+        }
+        return best;
+    }
+
+    private int routingVariable (int edgeIndex) {
+        return (quantityToMinimize == StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS)
+                ? states.distanceMm[edgeIndex]
+                : states.durationSeconds[edgeIndex];
+    }
+
+    private void checkNotReleased () {
+        checkState(states != null, "This router has been released and its results are no longer available.");
+    }
+
+    /**
+     * Search state arrays not currently in use by any router on a particular street layer. Each street layer holds its
+     * own pool, so the arrays are garbage collected along with the network rather than being retained by every thread
+     * that has ever routed. At most one set of arrays per processor is kept, enough for the threads routing at once.
+     */
+    static class EdgeStatesPool {
+
+        private final Queue<EdgeStates> idle = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+
+        /** @return idle search state arrays with room for at least the given number of edges, or new ones. */
+        EdgeStates take (int nEdges) {
+            EdgeStates states = idle.poll();
+            if (states == null || states.capacity() < nEdges) {
+                states = new EdgeStates(nEdges);
+            }
+            return states;
+        }
+
+        /** Make the given arrays available to later routers, unless the pool is already full. */
+        void give (EdgeStates states) {
+            states.clear();
+            idle.offer(states);
+        }
+
+        int size () {
+            return idle.size();
+        }
+    }
+
+    /**
+     * The best state at the end of every edge, and a binary min-heap of edge indexes ordered by the routing variable.
+     * All arrays are indexed by edge, except the heap itself. Only the edges in touchedEdges have entries that differ
+     * from the initial values, which allows clearing these arrays in time proportional to the size of the last search.
+     */
+    private static class EdgeStates {
+
+        final int[] durationSeconds;
+        final int[] distanceMm;
+        /** The edge at the end of which the previous state is located, or NO_BACK_STATE. */
+        final int[] backEdge;
+        /** The position of each edge in the heap, or -1 if it is not in the heap. */
+        final int[] heapPosition;
+        /** Either durationSeconds or distanceMm, depending on the variable being minimized. */
+        int[] keys;
+
+        int[] heap = new int[DEFAULT_CAPACITY];
+        int heapSize = 0;
+
+        final TIntList touchedEdges = new TIntArrayList();
+
+        /** An edge cursor for exploring the edges leaving a vertex, retained to avoid creating one per vertex. */
+        private EdgeStore.Edge cursor;
+
+        EdgeStates (int nEdges) {
+            durationSeconds = new int[nEdges];
+            distanceMm = new int[nEdges];
+            backEdge = new int[nEdges];
+            heapPosition = new int[nEdges];
+            Arrays.fill(durationSeconds, UNREACHED);
+            Arrays.fill(heapPosition, -1);
+        }
+
+        int capacity () {
+            return durationSeconds.length;
+        }
+
+        EdgeStore.Edge cursor (EdgeStore edgeStore) {
+            if (cursor == null || cursor.getEdgeStore() != edgeStore) {
+                cursor = edgeStore.getCursor();
+            }
+            return cursor;
+        }
+
+        void clear () {
+            for (int i = 0; i < touchedEdges.size(); i++) {
+                int eidx = touchedEdges.get(i);
+                durationSeconds[eidx] = UNREACHED;
+                heapPosition[eidx] = -1;
+            }
+            touchedEdges.clear();
+            heapSize = 0;
+            cursor = null;
+        }
+
+        void update (int eidx, int newDurationSeconds, int newDistanceMm, int newBackEdge) {
+            if (durationSeconds[eidx] == UNREACHED) {
+                touchedEdges.add(eidx);
+            }
+            durationSeconds[eidx] = newDurationSeconds;
+            distanceMm[eidx] = newDistanceMm;
+            backEdge[eidx] = newBackEdge;
+        }
+
+        /** Add an edge to the heap, or move it up if it is already there and its key has decreased. */
+        void push (int eidx) {
+            int pos = heapPosition[eidx];
+            if (pos < 0) {
+                if (heapSize == heap.length) {
+                    heap = Arrays.copyOf(heap, heap.length * 2);
+                }
+                pos = heapSize++;
+            }
+            siftUp(eidx, pos);
+        }
+
+        int pop () {
+            int top = heap[0];
+            heapPosition[top] = -1;
+            int last = heap[--heapSize];
+            if (heapSize > 0) {
+                siftDown(last, 0);
+            }
+            return top;
+        }
+
+        private void siftUp (int eidx, int pos) {
+            int key = keys[eidx];
+            while (pos > 0) {
+                int parentPos = (pos - 1) >>> 1;
+                int parent = heap[parentPos];
+                if (keys[parent] <= key) break;
+                heap[pos] = parent;
+                heapPosition[parent] = pos;
+                pos = parentPos;
+            }
+            heap[pos] = eidx;
+            heapPosition[eidx] = pos;
+        }
+
+        private void siftDown (int eidx, int pos) {
+            int key = keys[eidx];
+            int half = heapSize >>> 1;
+            while (pos < half) {
+                int childPos = 2 * pos + 1;
+                int child = heap[childPos];
+                int rightPos = childPos + 1;
+                if (rightPos < heapSize && keys[heap[rightPos]] < keys[child]) {
+                    childPos = rightPos;
+                    child = heap[childPos];
+                }
+                if (key <= keys[child]) break;
+                heap[pos] = child;
+                heapPosition[child] = pos;
+                pos = childPos;
+            }
+            heap[pos] = eidx;
+            heapPosition[eidx] = pos;
+        }
+    }
+
+}
@@ -127,6 +127,9 @@ public class StreetLayer implements Serializable, Cloneable {
      */
     private transient IntHashGrid temporaryEdgeIndex;
 
+    /** Search state arrays kept for reuse by the PrimitiveStreetRouters searching this layer, freed along with it. */
+    transient PrimitiveStreetRouter.EdgeStatesPool edgeStatesPool = new PrimitiveStreetRouter.EdgeStatesPool();
+
     // Key is street vertex index, value is BikeRentalStation (with name, number of bikes, spaces id etc.)
     public TIntObjectMap<BikeRentalStation> bikeRentalStationMap;
     public TIntObjectMap<ParkRideParking> parkRideLocationsMap;
@@ -1524,6 +1527,8 @@ public class StreetLayer implements Serializable, Cloneable {
             // The extend-only copy of the EdgeStore also contains a new extend-only copy of the VertexStore.
             copy.vertexStore = copy.edgeStore.vertexStore;
             copy.temporaryEdgeIndex = new IntHashGrid();
+            // Searches on the copy cover the scenario's added edges, so it needs search state arrays of its own.
+            copy.edgeStatesPool = new PrimitiveStreetRouter.EdgeStatesPool();
         }
         copy.parentNetwork = newScenarioNetwork;
         copy.baseStreetLayer = this;
@@ -1576,6 +1581,33 @@ public class StreetLayer implements Serializable, Cloneable {
         return baseStreetLayer != null;
     }
 
+    /**
+     * Find the envelopes in FIXED POINT DEGREES of all edges whose traversal may differ from the base StreetLayer:
+     * edges created or removed by the scenario that produced this StreetLayer, and base edges whose speeds were
+     * changed in place (as done by RoadCongestion), which the EdgeStore records as they are changed. A search over the
+     * base StreetLayer can only give a different result on this StreetLayer if it reached a vertex at the end of one of
+     * these edges.
+     */
+    public List<Envelope> scenarioChangedEdgeEnvelopes () {
+        List<Envelope> envelopes = new ArrayList<>();
+        if (!isScenarioCopy()) {
+            return envelopes;
+        }
+        Edge edge = edgeStore.getCursor();
+        edgeStore.forEachTemporarilyAddedOrDeletedEdge(e -> {
+            edge.seek(e);
+            envelopes.add(edge.getEnvelope());
+        });
+        if (edgeStore.baseEdgesWithChangedSpeeds != null) {
+            edgeStore.baseEdgesWithChangedSpeeds.forEach(e -> {
+                edge.seek(e);
+                envelopes.add(edge.getEnvelope());
+                return true;
+            });
+        }
+        return envelopes;
+    }
+
     /**
      * Create a geometry in FIXED POINT DEGREES containing all the points on all edges created or removed by the
      * scenario that produced this StreetLayer, buffered by radiusMeters. This is a MultiPolygon or GeometryCollection.
@@ -45,7 +45,7 @@ import static gnu.trove.impl.Constants.DEFAULT_LOAD_FACTOR;
  * It is a throw-away calculator object that retains routing state after the search is finished.
  * Additional functions are called to retrieve the routing results from that state.
  */
-public class StreetRouter {
+public class StreetRouter implements OneToManyStreetRouter {
 
     private static final Logger LOG = LoggerFactory.getLogger(StreetRouter.class);
 
@@ -295,16 +295,49 @@ public class StreetRouter {
 
     public StreetRouter (StreetLayer streetLayer) {
         this.streetLayer = streetLayer;
-        this.timeCalculator = streetLayer.edgeStore.edgeTraversalTimes;
+        this.timeCalculator = defaultTimeCalculator(streetLayer);
+    }
+
+    /** @return the traversal times and costs to use when routing on the given street layer. */
+    static TraversalTimeCalculator defaultTimeCalculator (StreetLayer streetLayer) {
+        TraversalTimeCalculator timeCalculator = streetLayer.edgeStore.edgeTraversalTimes;
         // If no per-edge timings were supplied in the network, fall back on simple default timings
-        if (this.timeCalculator == null) {
+        if (timeCalculator == null) {
             // TODO either: 1) don't hardwire drive-on-right, or 2) global https://en.wikipedia.org/wiki/Dagen_H
-            this.timeCalculator = new BasicTraversalTimeCalculator(streetLayer, true);
+            timeCalculator = new BasicTraversalTimeCalculator(streetLayer, true);
         }
         // If any additional costs such as hills or sun are defined, add them on to the base traversal times.
         if (notNullOrEmpty(streetLayer.edgeStore.costFields)) {
-            this.timeCalculator = new MultistageTraversalTimeCalculator(this.timeCalculator, streetLayer.edgeStore.costFields);
+            timeCalculator = new MultistageTraversalTimeCalculator(timeCalculator, streetLayer.edgeStore.costFields);
         }
+        return timeCalculator;
+    }
+
+    // Setters for configuring searches through the OneToManyStreetRouter interface.
+
+    @Override
+    public void setProfileRequest (ProfileRequest profileRequest) {
+        this.profileRequest = profileRequest;
+    }
+
+    @Override
+    public void setStreetMode (StreetMode streetMode) {
+        this.streetMode = streetMode;
+    }
+
+    @Override
+    public void setQuantityToMinimize (State.RoutingVariable quantityToMinimize) {
+        this.quantityToMinimize = quantityToMinimize;
+    }
+
+    @Override
+    public void setTimeLimitSeconds (int timeLimitSeconds) {
+        this.timeLimitSeconds = timeLimitSeconds;
+    }
+
+    @Override
+    public void setDistanceLimitMeters (int distanceLimitMeters) {
+        this.distanceLimitMeters = distanceLimitMeters;
     }
 
 
@@ -818,6 +851,10 @@ public class StreetRouter {
 
     public Split getOriginSplit() { return originSplit; }
 
+    /** This does nothing here, as States are simply garbage collected. */
+    @Override
+    public void release () { }
+
     /**
      * Given the geographic coordinates of a starting point...
      * Returns the State with the smaller weight to vertex0 or vertex1
@@ -30,15 +30,33 @@ public class FilteredPattern {
     /** If no active schedule-based trip of this filtered pattern overtakes another. */
     public boolean noScheduledOvertaking;
 
+    /**
+     * When no trip overtakes another, the departure times of the runningScheduledTrips transposed into one array per
+     * stop position in the pattern: departuresAtStop[stopInPattern][trip]. Each of these arrays is sorted, so the
+     * earliest boardable trip can be found by binary search instead of a linear scan. Null if any trip overtakes another.
+     */
+    public int[][] departuresAtStop;
+
     /**
      * Filter the trips in a source TripPattern, excluding trips not active in the supplied set of services, and
      * dividing them into separate scheduled and frequency trip lists. Check the runningScheduledTrips for overtaking.
+     *
+     * Scheduled trips that cannot be used by a search over the given time window are also excluded. Boarding always
+     * happens strictly after the departure minute, so a trip whose last departure is at or before fromTime can never be
+     * boarded. Arrival times at or after the latest departure minute plus the maximum trip duration are discarded, so a
+     * trip whose first departure is at or after untilTime can never yield a usable arrival.
+     *
+     * @param fromTime the earliest departure minute of the search, in seconds after midnight.
+     * @param untilTime the end of the search time window plus the maximum trip duration, in seconds after midnight.
      */
-    public FilteredPattern (TripPattern source, BitSet servicesActive) {
+    public FilteredPattern (TripPattern source, BitSet servicesActive, int fromTime, int untilTime) {
         for (TripSchedule schedule : source.tripSchedules) {
             if (servicesActive.get(schedule.serviceCode)) {
                 if (schedule.headwaySeconds == null) {
-                    runningScheduledTrips.add(schedule);
+                    int nStops = schedule.departures.length;
+                    if (schedule.departures[nStops - 1] > fromTime && schedule.departures[0] < untilTime) {
+                        runningScheduledTrips.add(schedule);
+                    }
                 } else {
                     runningFrequencyTrips.add(schedule);
                 }
@@ -53,6 +71,51 @@ public class FilteredPattern {
                 break;
             }
         }
+        if (noScheduledOvertaking) {
+            departuresAtStop = new int[source.stops.length][runningScheduledTrips.size()];
+            for (int t = 0; t < runningScheduledTrips.size(); t++) {
+                int[] departures = runningScheduledTrips.get(t).departures;
+                for (int s = 0; s < departures.length; s++) {
+                    departuresAtStop[s][t] = departures[s];
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the earliest running scheduled trip departing from the given stop position strictly after the given time.
+     * This may only be called when there is no overtaking. When an upper bound is supplied (typically a trip already
+     * boarded further up the pattern, or at a later departure minute) the search gallops backward from that trip, so it
+     * costs time logarithmic in the distance to the result rather than in the total number of trips.
+     *
+     * @param upperBoundTrip only trips with at most this index will be considered, or -1 to consider all trips.
+     * @return the index of the trip within runningScheduledTrips, or -1 if no trip departs after the given time.
+     */
+    public int findEarliestDeparture (int stopInPattern, int departAfter, int upperBoundTrip) {
+        final int[] departures = departuresAtStop[stopInPattern];
+        final int limit = (upperBoundTrip < 0) ? departures.length : upperBoundTrip + 1;
+        int low = 0;
+        int high = limit;
+        if (upperBoundTrip >= 0) {
+            // Narrow the range to [low, high) by doubling steps back from the upper bound.
+            int step = 1;
+            low = Math.max(0, high - step);
+            while (low > 0 && departures[low] > departAfter) {
+                high = low;
+                step *= 2;
+                low = Math.max(0, high - step);
+            }
+        }
+        // Binary search for the first trip in [low, high) departing after the given time.
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departures[mid] > departAfter) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return (low < limit) ? low : -1;
     }
 
     private static boolean overtakes (TripSchedule a, TripSchedule b) {
@@ -1,15 +1,17 @@
 package com.conveyal.r5.transit;
 
 import com.conveyal.r5.api.util.TransitModes;
-import com.conveyal.r5.util.Tuple2;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
-import java.util.BitSet;
+import java.time.LocalDate;
 import java.util.EnumSet;
+import java.util.Objects;
 
 /**
- * Stores the patterns and trips relevant for routing based on the transit modes and date in an analysis request.
+ * Stores the patterns and trips relevant for routing based on the transit modes, date and time window in an analysis
+ * request. All tasks in a regional analysis share these parameters, so a single immutable FilteredPatterns is built
+ * once per regional job on each worker and then shared by all threads handling its origins.
  * We can't just cache the single most recently used filtered patterns, because a worker might need to simultaneously
  * handle two requests for the same scenario on different dates or with different modes.
  *
@@ -23,7 +25,7 @@ public class FilteredPatternCache {
 
     /**
      * All FilteredPatterns stored in this cache will be derived from this single TransitLayer representing a single
-     * scenario, but for different unique combinations of (transitModes, services).
+     * scenario, but for different unique combinations of (transitModes, date, time window).
      */
     private final TransitLayer transitLayer;
 
@@ -31,20 +33,48 @@ public class FilteredPatternCache {
 
     public FilteredPatternCache (TransitLayer transitLayer) {
         this.transitLayer = transitLayer;
-        this.cache = Caffeine.newBuilder().maximumSize(2).build(key -> {
-            return new FilteredPatterns(transitLayer, key.a, key.b);
+        this.cache = Caffeine.newBuilder().maximumSize(4).build(key -> {
+            return new FilteredPatterns(transitLayer, key.transitModes,
+                    transitLayer.getActiveServicesForDate(key.date), key.fromTime, key.untilTime);
         });
     }
 
     // TODO replace all keys and tuples with Java 16/17 Records
-    private static class Key extends Tuple2<EnumSet<TransitModes>, BitSet> {
-        public Key (EnumSet<TransitModes> transitModes, BitSet servicesActive) {
-            super(transitModes, servicesActive);
+    private static class Key {
+        final EnumSet<TransitModes> transitModes;
+        final LocalDate date;
+        final int fromTime;
+        final int untilTime;
+
+        public Key (EnumSet<TransitModes> transitModes, LocalDate date, int fromTime, int untilTime) {
+            this.transitModes = transitModes;
+            this.date = date;
+            this.fromTime = fromTime;
+            this.untilTime = untilTime;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+            Key key = (Key) other;
+            return fromTime == key.fromTime && untilTime == key.untilTime &&
+                    transitModes.equals(key.transitModes) && Objects.equals(date, key.date);
+        }
+
+        @Override
+        public int hashCode () {
+            return Objects.hash(transitModes, date, fromTime, untilTime);
         }
     }
 
-    public FilteredPatterns get (EnumSet<TransitModes> transitModes, BitSet servicesActive) {
-        return cache.get(new Key(transitModes, servicesActive));
+    /**
+     * @param fromTime the earliest departure minute of the search, in seconds after midnight.
+     * @param untilTime the end of the departure time window plus the maximum trip duration, in seconds after midnight.
+     *                  No arrival at or after this time is retained by the router.
+     */
+    public FilteredPatterns get (EnumSet<TransitModes> transitModes, LocalDate date, int fromTime, int untilTime) {
+        return cache.get(new Key(transitModes, date, fromTime, untilTime));
     }
 
 }
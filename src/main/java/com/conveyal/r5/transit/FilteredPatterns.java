@@ -1,9 +1,9 @@
 package com.conveyal.r5.transit;
 
 import com.conveyal.r5.api.util.TransitModes;
-import com.conveyal.r5.util.Tuple2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.EnumSet;
 import java.util.List;
@@ -34,10 +34,23 @@ public class FilteredPatterns {
     public BitSet runningScheduledPatterns = new BitSet();
 
     /**
-     * Construct FilteredPatterns from the given TransitLayer, filtering for the specified modes and active services.
+     * For each stop, a lower bound on the in-vehicle time in seconds from boarding any running trip at that stop to
+     * arriving at any other stop, or Integer.MAX_VALUE if no running trip can be boarded there. Combined with the
+     * minimum boarding wait, this tells the router when a stop is reached too late for any ride from it to arrive
+     * within the maximum trip duration, so patterns need not be explored from that stop.
+     */
+    public final int[] minRideSecondsFromStop;
+
+    /**
+     * Construct FilteredPatterns from the given TransitLayer, filtering for the specified modes and active services,
+     * and for scheduled trips usable in the given time window (see FilteredPattern). Patterns are only flagged as
+     * running if at least one of their trips survives this filtering, so whole patterns that only run outside the
+     * time window are never explored by the router.
      * It's tempting to use List.of() or Collectors.toUnmodifiableList() but these cause an additional array copy.
      */
-    public FilteredPatterns (TransitLayer transitLayer, EnumSet<TransitModes> modes, BitSet services) {
+    public FilteredPatterns (
+            TransitLayer transitLayer, EnumSet<TransitModes> modes, BitSet services, int fromTime, int untilTime
+    ) {
         List<TripPattern> sourcePatterns = transitLayer.tripPatterns;
         patterns = new ArrayList<>(sourcePatterns.size());
         for (int patternIndex = 0; patternIndex < sourcePatterns.size(); patternIndex++) {
@@ -45,19 +58,51 @@ public class FilteredPatterns {
             RouteInfo routeInfo = transitLayer.routes.get(pattern.routeIndex);
             TransitModes mode = getTransitModes(routeInfo.route_type);
             if (pattern.servicesActive.intersects(services) && modes.contains(mode)) {
-                patterns.add(new FilteredPattern(pattern, services));
+                FilteredPattern filteredPattern = new FilteredPattern(pattern, services, fromTime, untilTime);
+                patterns.add(filteredPattern);
                 // At least one trip on this pattern is relevant, based on the profile request's date and modes.
-                if (pattern.hasFrequencies) {
+                if (!filteredPattern.runningFrequencyTrips.isEmpty()) {
                     runningFrequencyPatterns.set(patternIndex);
                 }
                 // Schedule case is not an "else" clause because we support patterns with both frequency and schedule.
-                if (pattern.hasSchedules) {
+                if (!filteredPattern.runningScheduledTrips.isEmpty()) {
                     runningScheduledPatterns.set(patternIndex);
                 }
             } else {
                 patterns.add(null);
             }
         }
+        minRideSecondsFromStop = computeMinRideSeconds(transitLayer);
+    }
+
+    /**
+     * Arrival times never decrease along a trip, so the shortest ride from any stop is found by riding to the very next
+     * stop in some pattern. Take the minimum of this over all running trips of all patterns, whether or not drop-off is
+     * allowed at the next stop, which still gives a valid lower bound.
+     */
+    private int[] computeMinRideSeconds (TransitLayer transitLayer) {
+        int[] minRideSeconds = new int[transitLayer.getStopCount()];
+        Arrays.fill(minRideSeconds, Integer.MAX_VALUE);
+        for (int patternIndex = 0; patternIndex < patterns.size(); patternIndex++) {
+            FilteredPattern filteredPattern = patterns.get(patternIndex);
+            if (filteredPattern == null) continue;
+            TripPattern pattern = transitLayer.tripPatterns.get(patternIndex);
+            for (List<TripSchedule> trips : List.of(
+                    filteredPattern.runningScheduledTrips, filteredPattern.runningFrequencyTrips)
+            ) {
+                for (TripSchedule schedule : trips) {
+                    for (int s = 0; s < pattern.stops.length - 1; s++) {
+                        if (pattern.pickups[s] == PickDropType.NONE) continue;
+                        int stop = pattern.stops[s];
+                        int rideSeconds = schedule.arrivals[s + 1] - schedule.departures[s];
+                        if (rideSeconds < minRideSeconds[stop]) {
+                            minRideSeconds[stop] = rideSeconds;
+                        }
+                    }
+                }
+            }
+        }
+        return minRideSeconds;
     }
 
 }
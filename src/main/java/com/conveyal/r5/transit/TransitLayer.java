@@ -1,6 +1,7 @@
 package com.conveyal.r5.transit;
 
 import com.conveyal.gtfs.GTFSFeed;
+import com.conveyal.gtfs.StopTimeTable;
 import com.conveyal.gtfs.model.Agency;
 import com.conveyal.gtfs.model.Fare;
 import com.conveyal.gtfs.model.Frequency;
@@ -8,7 +9,6 @@ import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Service;
 import com.conveyal.gtfs.model.Shape;
 import com.conveyal.gtfs.model.Stop;
-import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
 import com.conveyal.r5.api.util.TransitModes;
 import com.conveyal.r5.common.GeometryUtils;
@@ -52,7 +52,6 @@ import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
-import java.util.stream.StreamSupport;
 
 
 /**
@@ -238,59 +237,55 @@ public class TransitLayer implements Serializable, Cloneable {
         TObjectIntMap<String> routeIndexForRoute = new TObjectIntHashMap<>();
         int nTripsAdded = 0;
         int nZeroDurationHops = 0;
+        // Copy all stop times into primitive arrays in one pass rather than querying MapDB separately for each trip.
+        // This copy is only referenced during the build, so it can be garbage collected once the layer is built.
+        StopTimeTable stopTimeTable = StopTimeTable.fromFeed(gtfs);
         TRIPS: for (String tripId : gtfs.trips.keySet()) {
             Trip trip = gtfs.trips.get(tripId);
             Route route = gtfs.routes.get(trip.route_id);
             // Construct the stop pattern and schedule for this trip.
             String scopedRouteId = String.join(":", gtfs.feedId, trip.route_id);
-            TIntList arrivals = new TIntArrayList(TYPICAL_NUMBER_OF_STOPS_PER_TRIP);
-            TIntList departures = new TIntArrayList(TYPICAL_NUMBER_OF_STOPS_PER_TRIP);
-            TIntList stopSequences = new TIntArrayList(TYPICAL_NUMBER_OF_STOPS_PER_TRIP);
 
-            int previousDeparture = Integer.MIN_VALUE;
-
-            int nStops = 0;
+            int tripIndex = stopTimeTable.getTripIndex(tripId);
+            if (tripIndex == -1) {
+                LOG.warn("Trip {} on route {} {} has no stops, it will not be used", trip.trip_id, trip.route_id, route.route_short_name);
+                continue;
+            }
 
-            Iterable<StopTime> stopTimes;
+            String[] stopIds = stopTimeTable.getStopIds(tripIndex);
+            int[] arrivals = stopTimeTable.getArrivalTimes(tripIndex);
+            int[] departures = stopTimeTable.getDepartureTimes(tripIndex);
+            int[] stopSequences = stopTimeTable.getStopSequences(tripIndex);
+            int nStops = stopIds.length;
 
             try {
-                stopTimes = gtfs.getInterpolatedStopTimesForTrip(tripId);
+                gtfs.interpolateTimes(stopIds, arrivals, departures);
             } catch (GTFSFeed.FirstAndLastStopsDoNotHaveTimes e) {
                 LOG.warn("First and last stops do not both have times specified on trip {} on route {}, skipping this as interpolation is impossible", trip.trip_id, trip.route_id);
                 continue TRIPS;
             }
 
-            for (StopTime st : stopTimes) {
-                arrivals.add(st.arrival_time);
-                departures.add(st.departure_time);
-                stopSequences.add(st.stop_sequence);
-
-                if (previousDeparture > st.arrival_time || st.arrival_time > st.departure_time) {
-                    LOG.warn("Negative-time travel at stop {} on trip {} on route {}, skipping this trip as it will wreak havoc with routing", st.stop_id, trip.trip_id, trip.route_id);
+            int previousDeparture = Integer.MIN_VALUE;
+            for (int s = 0; s < nStops; s++) {
+                if (previousDeparture > arrivals[s] || arrivals[s] > departures[s]) {
+                    LOG.warn("Negative-time travel at stop {} on trip {} on route {}, skipping this trip as it will wreak havoc with routing", stopIds[s], trip.trip_id, trip.route_id);
                     continue TRIPS;
                 }
 
-                if (previousDeparture == st.arrival_time) { //Teleportation: arrive at downstream stop immediately after departing upstream
+                if (previousDeparture == arrivals[s]) { //Teleportation: arrive at downstream stop immediately after departing upstream
                     //often the result of a stop_times input with time values rounded to the nearest minute.
                     //TODO check if the distance of the hop is reasonably traveled in less than 60 seconds, which may vary by mode.
                     nZeroDurationHops++;
                 }
 
-                previousDeparture = st.departure_time;
-
-                nStops++;
-            }
-
-            if (nStops == 0) {
-                LOG.warn("Trip {} on route {} {} has no stops, it will not be used", trip.trip_id, trip.route_id, route.route_short_name);
-                continue;
+                previousDeparture = departures[s];
             }
 
             String patternId = gtfs.patternForTrip.get(tripId);
 
             TripPattern tripPattern = tripPatternForPatternId.get(patternId);
             if (tripPattern == null) {
-                tripPattern = new TripPattern(String.format("%s:%s", gtfs.feedId, route.route_id), stopTimes, indexForUnscopedStopId);
+                tripPattern = new TripPattern(String.format("%s:%s", gtfs.feedId, route.route_id), stopTimeTable, tripIndex, indexForUnscopedStopId);
 
                 // if we haven't seen the route yet _from this feed_ (as IDs are only feed-unique)
                 // create it.
@@ -312,8 +307,9 @@ public class TransitLayer implements Serializable, Cloneable {
                             tripPattern.shape = shape.geometry;
 
                             // project stops onto shape
-                            boolean stopsHaveShapeDistTraveled = StreamSupport.stream(stopTimes.spliterator(), false)
-                                    .noneMatch(st -> Double.isNaN(st.shape_dist_traveled));
+                            int firstRow = stopTimeTable.tripOffsets[tripIndex];
+                            boolean stopsHaveShapeDistTraveled = IntStream.range(firstRow, firstRow + nStops)
+                                    .noneMatch(row -> Double.isNaN(stopTimeTable.shapeDistTraveled[row]));
                             boolean shapePointsHaveDistTraveled = DoubleStream.of(shape.shape_dist_traveled)
                                     .noneMatch(Double::isNaN);
 
@@ -321,9 +317,9 @@ public class TransitLayer implements Serializable, Cloneable {
 
                             if (stopsHaveShapeDistTraveled && shapePointsHaveDistTraveled) {
                                 // create linear locations from dist traveled
-                                locations = StreamSupport.stream(stopTimes.spliterator(), false)
-                                        .map(st -> {
-                                            double dist = st.shape_dist_traveled;
+                                locations = IntStream.range(firstRow, firstRow + nStops)
+                                        .mapToObj(row -> {
+                                            double dist = stopTimeTable.shapeDistTraveled[row];
 
                                             int segment = 0;
 
@@ -342,9 +338,9 @@ public class TransitLayer implements Serializable, Cloneable {
                                 LocationIndexedLineInLocalCoordinateSystem line =
                                         new LocationIndexedLineInLocalCoordinateSystem(shape.geometry.getCoordinates());
 
-                                locations = StreamSupport.stream(stopTimes.spliterator(), false)
-                                        .map(st -> {
-                                            Stop stop = gtfs.stops.get(st.stop_id);
+                                locations = Arrays.stream(stopIds)
+                                        .map(stopId -> {
+                                            Stop stop = gtfs.stops.get(stopId);
                                             return line.project(new Coordinate(stop.stop_lon, stop.stop_lat));
                                         })
                                         .toArray(LinearLocation[]::new);
@@ -371,7 +367,7 @@ public class TransitLayer implements Serializable, Cloneable {
             // TODO there's no reason why we can't just filter trips like this, correct?
             // TODO this means that invalid trips still have empty patterns created
             Collection<Frequency> frequencies = gtfs.getFrequencies(trip.trip_id);
-            TripSchedule tripSchedule = TripSchedule.create(trip, arrivals.toArray(), departures.toArray(), frequencies, stopSequences.toArray(), serviceCode);
+            TripSchedule tripSchedule = TripSchedule.create(trip, arrivals, departures, frequencies, stopSequences, serviceCode);
             if (tripSchedule == null) continue;
 
             tripPattern.addTrip(tripSchedule);
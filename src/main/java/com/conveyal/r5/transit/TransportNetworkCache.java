@@ -14,6 +14,7 @@ import com.conveyal.r5.analyst.scenario.Scenario;
 import com.conveyal.r5.analyst.scenario.ShapefileLts;
 import com.conveyal.r5.common.JsonUtilities;
 import com.conveyal.r5.kryo.KryoNetworkSerializer;
+import com.conveyal.r5.kryo.MappedNetworkSerializer;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.streets.OSMCache;
 import com.conveyal.r5.streets.StreetLayer;
@@ -77,7 +78,8 @@ public class TransportNetworkCache implements Component {
     }
 
     /**
-     * Find a transport network by ID, building or loading as needed from pre-existing OSM, GTFS, MapDB, or Kryo files.
+     * Find a transport network by ID, building or loading as needed from pre-existing OSM, GTFS, MapDB, Kryo, or
+     * memory-mapped network files.
      * This should never return null. If a TransportNetwork can't be built or loaded, an exception will be thrown.
      */
     public synchronized @Nonnull
@@ -159,6 +161,14 @@ public class TransportNetworkCache implements Component {
         return new FileStorageKey(BUNDLES, getR5NetworkFilename(networkId));
     }
 
+    private static String getR5MappedNetworkFilename (String networkId) {
+        return String.format("%s_%s.mapped", networkId, KryoNetworkSerializer.NETWORK_FORMAT_VERSION);
+    }
+
+    private static FileStorageKey getR5MappedNetworkFileStorageKey (String networkId) {
+        return new FileStorageKey(BUNDLES, getR5MappedNetworkFilename(networkId));
+    }
+
     /** @return the network configuration (AKA manifest) for the given network ID, or null if no config file exists. */
     private TransportNetworkConfig loadNetworkConfig (String networkId) {
         FileStorageKey configFileKey = new FileStorageKey(BUNDLES, getNetworkConfigFilename(networkId));
@@ -209,8 +219,13 @@ public class TransportNetworkCache implements Component {
         // Cache the serialized network on the local filesystem and mirror it to any remote storage.
         try {
             File cacheLocation = FileUtils.createScratchFile();
-            KryoNetworkSerializer.write(network, cacheLocation);
-            fileStorage.moveIntoStorage(getR5NetworkFileStorageKey(networkId), cacheLocation);
+            if (networkConfig != null && Boolean.TRUE.equals(networkConfig.memoryMapped)) {
+                MappedNetworkSerializer.write(network, cacheLocation);
+                fileStorage.moveIntoStorage(getR5MappedNetworkFileStorageKey(networkId), cacheLocation);
+            } else {
+                KryoNetworkSerializer.write(network, cacheLocation);
+                fileStorage.moveIntoStorage(getR5NetworkFileStorageKey(networkId), cacheLocation);
+            }
         } catch (Exception e) {
             // Tolerate exceptions here as we do have a network to return, we just failed to cache it.
             LOG.error("Error saving cached network, returning the object anyway.", e);
@@ -375,8 +390,13 @@ public class TransportNetworkCache implements Component {
             networkId, KryoNetworkSerializer.NETWORK_FORMAT_VERSION
         );
         try {
+            FileStorageKey r5MappedKey = getR5MappedNetworkFileStorageKey(networkId);
             FileStorageKey r5Key = getR5NetworkFileStorageKey(networkId);
-            if (fileStorage.exists(r5Key)) {
+            if (fileStorage.exists(r5MappedKey)) {
+                File networkFile = fileStorage.getFile(r5MappedKey);
+                LOG.debug("Loading cached memory-mapped transport network at {}", networkFile);
+                return MappedNetworkSerializer.read(networkFile);
+            } else if (fileStorage.exists(r5Key)) {
                 File networkFile = fileStorage.getFile(r5Key);
                 LOG.debug("Loading cached transport network at {}", networkFile);
                 return KryoNetworkSerializer.read(networkFile);
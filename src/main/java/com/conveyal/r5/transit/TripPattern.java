@@ -1,6 +1,6 @@
 package com.conveyal.r5.transit;
 
-import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.StopTimeTable;
 import com.conveyal.r5.common.GeometryUtils;
 import com.conveyal.r5.streets.VertexStore;
 import gnu.trove.list.TIntList;
@@ -18,8 +18,6 @@ import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 /**
  * All the Trips on the same Route that have the same sequence of stops, with the same pickup/dropoff options.
@@ -91,18 +89,19 @@ public class TripPattern implements Serializable, Cloneable {
         routeId = "SCENARIO_MODIFICATION";
     }
 
-    public TripPattern(String routeId, Iterable<StopTime> stopTimes, TObjectIntMap<String> indexForUnscopedStopId) {
-        List<StopTime> stopTimeList = StreamSupport.stream(stopTimes.spliterator(), false).collect(Collectors.toList());
-        int nStops = stopTimeList.size();
+    /** Create a pattern with the stops and pickup/drop-off types of the trip with the given index in a StopTimeTable. */
+    public TripPattern(String routeId, StopTimeTable stopTimeTable, int tripIndex, TObjectIntMap<String> indexForUnscopedStopId) {
+        int firstRow = stopTimeTable.tripOffsets[tripIndex];
+        int nStops = stopTimeTable.getStopCount(tripIndex);
         stops = new int[nStops];
         pickups = new PickDropType[nStops];
         dropoffs = new PickDropType[nStops];
         wheelchairAccessible = new BitSet(nStops);
         for (int s = 0; s < nStops; s++) {
-            StopTime st = stopTimeList.get(s);
-            stops[s] = indexForUnscopedStopId.get(st.stop_id);
-            pickups[s] = PickDropType.forGtfsCode(st.pickup_type);
-            dropoffs[s] = PickDropType.forGtfsCode(st.drop_off_type);
+            int row = firstRow + s;
+            stops[s] = indexForUnscopedStopId.get(stopTimeTable.getStopId(row));
+            pickups[s] = PickDropType.forGtfsCode(stopTimeTable.pickupTypes[row]);
+            dropoffs[s] = PickDropType.forGtfsCode(stopTimeTable.dropOffTypes[row]);
         }
         this.routeId = routeId;
     }
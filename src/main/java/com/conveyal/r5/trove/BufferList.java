@@ -0,0 +1,181 @@
+package com.conveyal.r5.trove;
+
+import java.nio.Buffer;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Base class for read-only Trove primitive list views of buffers, which are usually regions of a memory-mapped file.
+ * These allow the large primitive lists in a street layer to be used directly from the operating system's page cache
+ * without copying them onto the heap. Scenarios wrap them in an augmented list or copy them into an array list when
+ * they need to extend or modify them.
+ *
+ * A single buffer can only address 2GB, so a list may be split across several buffers. Every buffer but the last must
+ * hold the same power of two number of elements, so finding an element only takes a shift and a mask.
+ *
+ * The Trove list interfaces are enormous. The write methods whose signatures can be expressed with the type parameters
+ * below are rejected here once for all element types, leaving each subclass to implement reads and the few write
+ * methods taking or returning a single primitive element. Like the augmented lists in this package, reads are only
+ * implemented where we actually need them.
+ *
+ * @param <E> the boxed element type, e.g. Integer
+ * @param <A> the primitive array type, e.g. int[]
+ * @param <C> the Trove collection type, e.g. TIntCollection
+ * @param <F> the Trove function type, e.g. TIntFunction
+ */
+public abstract class BufferList<E, A extends Cloneable, C, F> {
+
+    private static final String READ_ONLY = "This list is a read-only view of a memory-mapped file.";
+
+    private final int size;
+
+    /** Shifting an index right by this amount gives the buffer holding that element. */
+    protected final int shift;
+
+    /** Masking an index with this gives the position of that element within its buffer. */
+    protected final int mask;
+
+    protected BufferList (Buffer[] buffers) {
+        if (buffers.length > 1) {
+            int elementsPerBuffer = buffers[0].limit();
+            if (Integer.bitCount(elementsPerBuffer) != 1) {
+                throw new IllegalArgumentException("Buffers must hold a power of two elements: " + elementsPerBuffer);
+            }
+            shift = Integer.numberOfTrailingZeros(elementsPerBuffer);
+        } else {
+            // Every index is in the only buffer.
+            shift = Integer.SIZE - 1;
+        }
+        mask = (1 << shift) - 1;
+        long size = 0;
+        for (int b = 0; b < buffers.length; b++) {
+            if (b < buffers.length - 1 && buffers[b].limit() != 1 << shift) {
+                throw new IllegalArgumentException("Every buffer but the last must hold the same number of elements.");
+            }
+            size += buffers[b].limit();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Buffers hold more elements than a list can index: " + size);
+        }
+        this.size = (int) size;
+    }
+
+    protected static UnsupportedOperationException readOnly () {
+        return new UnsupportedOperationException(READ_ONLY);
+    }
+
+    public int size () {
+        return size;
+    }
+
+    public boolean isEmpty () {
+        return size == 0;
+    }
+
+    public void set (int offset, A values) {
+        throw readOnly();
+    }
+
+    public void set (int offset, A values, int valOffset, int length) {
+        throw readOnly();
+    }
+
+    public void add (A vals) {
+        throw readOnly();
+    }
+
+    public void add (A vals, int offset, int length) {
+        throw readOnly();
+    }
+
+    public void insert (int offset, A values) {
+        throw readOnly();
+    }
+
+    public void insert (int offset, A values, int valOffset, int len) {
+        throw readOnly();
+    }
+
+    public void clear () {
+        throw readOnly();
+    }
+
+    public void remove (int offset, int length) {
+        throw readOnly();
+    }
+
+    public boolean addAll (Collection<? extends E> collection) {
+        throw readOnly();
+    }
+
+    public boolean addAll (C collection) {
+        throw readOnly();
+    }
+
+    public boolean addAll (A array) {
+        throw readOnly();
+    }
+
+    public boolean retainAll (Collection<?> collection) {
+        throw readOnly();
+    }
+
+    public boolean retainAll (C collection) {
+        throw readOnly();
+    }
+
+    public boolean retainAll (A array) {
+        throw readOnly();
+    }
+
+    public boolean removeAll (Collection<?> collection) {
+        throw readOnly();
+    }
+
+    public boolean removeAll (C collection) {
+        throw readOnly();
+    }
+
+    public boolean removeAll (A array) {
+        throw readOnly();
+    }
+
+    public void transformValues (F function) {
+        throw readOnly();
+    }
+
+    public void reverse () {
+        throw readOnly();
+    }
+
+    public void reverse (int from, int to) {
+        throw readOnly();
+    }
+
+    public void shuffle (Random rand) {
+        throw readOnly();
+    }
+
+    public void sort () {
+        throw readOnly();
+    }
+
+    public void sort (int fromIndex, int toIndex) {
+        throw readOnly();
+    }
+
+    /* Nominally implement the reads we don't need. These remain unimplemented until we need them. */
+
+    public boolean containsAll (Collection<?> collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean containsAll (C collection) {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean containsAll (A array) {
+        throw new UnsupportedOperationException();
+    }
+
+}
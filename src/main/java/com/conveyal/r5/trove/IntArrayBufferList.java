@@ -0,0 +1,81 @@
+package com.conveyal.r5.trove;
+
+import gnu.trove.list.TIntList;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only List of int arrays backed by two int lists, which are usually views of a memory-mapped file.
+ * All the arrays are concatenated in the values list, and the offsets list holds the start of each array followed
+ * by the end of the last one. Each call to get() copies one array onto the heap, so frequently read lists such as edge
+ * geometries should be read one value at a time with get(index, i) and size(index), or with the static methods below
+ * which also handle lists that are not backed by buffers.
+ */
+public class IntArrayBufferList extends AbstractList<int[]> implements RandomAccess {
+
+    private final TIntList offsets;
+
+    private final TIntList values;
+
+    public IntArrayBufferList (TIntList offsets, TIntList values) {
+        this.offsets = offsets;
+        this.values = values;
+    }
+
+    @Override
+    public int[] get (int index) {
+        int start = offsets.get(index);
+        return values.toArray(start, offsets.get(index + 1) - start);
+    }
+
+    @Override
+    public int size () {
+        return offsets.size() - 1;
+    }
+
+    /** @return the length of the array at the given index, without copying it. */
+    public int size (int index) {
+        return offsets.get(index + 1) - offsets.get(index);
+    }
+
+    /** @return element i of the array at the given index, without copying the array. */
+    public int get (int index, int i) {
+        return values.get(offsets.get(index) + i);
+    }
+
+    /**
+     * @return the length of the array at the given index in any list of int arrays, or zero if it is null. The array
+     * is not copied if it is in an IntArrayBufferList, including one extended by an AugmentedList.
+     */
+    public static int size (List<int[]> arrays, int index) {
+        IntArrayBufferList bufferList = asBufferList(arrays, index);
+        if (bufferList != null) {
+            return bufferList.size(index);
+        }
+        int[] array = arrays.get(index);
+        return array == null ? 0 : array.length;
+    }
+
+    /**
+     * @return element i of the array at the given index in any list of int arrays. The array is not copied if it is in
+     * an IntArrayBufferList, including one extended by an AugmentedList.
+     */
+    public static int get (List<int[]> arrays, int index, int i) {
+        IntArrayBufferList bufferList = asBufferList(arrays, index);
+        if (bufferList != null) {
+            return bufferList.get(index, i);
+        }
+        return arrays.get(index)[i];
+    }
+
+    /** @return the IntArrayBufferList holding the given index of the supplied list, or null if there is none. */
+    private static IntArrayBufferList asBufferList (List<int[]> arrays, int index) {
+        if (arrays instanceof AugmentedList && index < ((AugmentedList<int[]>) arrays).base.size()) {
+            arrays = ((AugmentedList<int[]>) arrays).base;
+        }
+        return arrays instanceof IntArrayBufferList ? (IntArrayBufferList) arrays : null;
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.conveyal.r5.trove;
+
+import gnu.trove.TByteCollection;
+import gnu.trove.function.TByteFunction;
+import gnu.trove.iterator.TByteIterator;
+import gnu.trove.list.TByteList;
+import gnu.trove.procedure.TByteProcedure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A read-only TByteList view of ByteBuffers, usually regions of a memory-mapped file. See BufferList.
+ */
+public class TByteBufferList extends BufferList<Byte, byte[], TByteCollection, TByteFunction> implements TByteList {
+
+    private final ByteBuffer[] buffers;
+
+    public TByteBufferList (ByteBuffer... buffers) {
+        super(buffers);
+        this.buffers = buffers;
+    }
+
+    @Override
+    public byte get (int index) {
+        return buffers[index >>> shift].get(index & mask);
+    }
+
+    @Override
+    public byte getNoEntryValue () {
+        return 0;
+    }
+
+    @Override
+    public boolean contains (byte value) {
+        return indexOf(value) >= 0;
+    }
+
+    @Override
+    public int indexOf (byte value) {
+        for (int i = 0; i < size(); i++) {
+            if (get(i) == value) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public byte[] toArray () {
+        return toArray(new byte[size()], 0, 0, size());
+    }
+
+    @Override
+    public byte[] toArray (int offset, int len) {
+        return toArray(new byte[len], offset, 0, len);
+    }
+
+    @Override
+    public byte[] toArray (byte[] dest) {
+        return toArray(dest, 0, 0, Math.min(dest.length, size()));
+    }
+
+    @Override
+    public byte[] toArray (byte[] dest, int offset, int len) {
+        return toArray(dest, offset, 0, len);
+    }
+
+    @Override
+    public byte[] toArray (byte[] dest, int source_pos, int dest_pos, int len) {
+        while (len > 0) {
+            // Use a duplicate so that the position of the shared buffer is never changed.
+            ByteBuffer source = buffers[source_pos >>> shift].duplicate();
+            source.position(source_pos & mask);
+            int n = Math.min(len, source.remaining());
+            source.get(dest, dest_pos, n);
+            source_pos += n;
+            dest_pos += n;
+            len -= n;
+        }
+        return dest;
+    }
+
+    @Override
+    public boolean forEach (TByteProcedure procedure) {
+        for (int i = 0; i < size(); i++) {
+            if (!procedure.execute(get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean forEachDescending (TByteProcedure procedure) {
+        for (int i = size() - 1; i >= 0; i--) {
+            if (!procedure.execute(get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public TByteIterator iterator () {
+        return new TByteIterator() {
+            int pos = 0;
+
+            @Override
+            public byte next () {
+                return get(pos++);
+            }
+
+            @Override
+            public boolean hasNext () {
+                return pos < size();
+            }
+
+            @Override
+            public void remove () {
+                throw readOnly();
+            }
+        };
+    }
+
+    @Override
+    public byte set (int index, byte value) {
+        throw readOnly();
+    }
+
+    @Override
+    public byte replace (int offset, byte val) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean add (byte val) {
+        throw readOnly();
+    }
+
+    @Override
+    public void insert (int offset, byte value) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean remove (byte value) {
+        throw readOnly();
+    }
+
+    @Override
+    public byte removeAt (int offset) {
+        throw readOnly();
+    }
+
+    @Override
+    public void fill (byte val) {
+        throw readOnly();
+    }
+
+    @Override
+    public void fill (int fromIndex, int toIndex, byte val) {
+        throw readOnly();
+    }
+
+    /* Nominally implement the reads we don't need. These remain unimplemented until we need them. */
+
+    @Override
+    public TByteList subList (int begin, int end) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch (byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch (byte value, int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf (int offset, byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf (byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf (int offset, byte value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TByteList grep (TByteProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TByteList inverseGrep (TByteProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte max () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte min () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public byte sum () {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.conveyal.r5.trove;
+
+import gnu.trove.TIntCollection;
+import gnu.trove.function.TIntFunction;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TIntList;
+import gnu.trove.procedure.TIntProcedure;
+
+import java.nio.IntBuffer;
+
+/**
+ * A read-only TIntList view of IntBuffers, usually regions of a memory-mapped file. See BufferList.
+ */
+public class TIntBufferList extends BufferList<Integer, int[], TIntCollection, TIntFunction> implements TIntList {
+
+    private final IntBuffer[] buffers;
+
+    public TIntBufferList (IntBuffer... buffers) {
+        super(buffers);
+        this.buffers = buffers;
+    }
+
+    @Override
+    public int get (int index) {
+        return buffers[index >>> shift].get(index & mask);
+    }
+
+    @Override
+    public int getNoEntryValue () {
+        return 0;
+    }
+
+    @Override
+    public boolean contains (int value) {
+        return indexOf(value) >= 0;
+    }
+
+    @Override
+    public int indexOf (int value) {
+        for (int i = 0; i < size(); i++) {
+            if (get(i) == value) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int[] toArray () {
+        return toArray(new int[size()], 0, 0, size());
+    }
+
+    @Override
+    public int[] toArray (int offset, int len) {
+        return toArray(new int[len], offset, 0, len);
+    }
+
+    @Override
+    public int[] toArray (int[] dest) {
+        return toArray(dest, 0, 0, Math.min(dest.length, size()));
+    }
+
+    @Override
+    public int[] toArray (int[] dest, int offset, int len) {
+        return toArray(dest, offset, 0, len);
+    }
+
+    @Override
+    public int[] toArray (int[] dest, int source_pos, int dest_pos, int len) {
+        while (len > 0) {
+            // Use a duplicate so that the position of the shared buffer is never changed.
+            IntBuffer source = buffers[source_pos >>> shift].duplicate();
+            source.position(source_pos & mask);
+            int n = Math.min(len, source.remaining());
+            source.get(dest, dest_pos, n);
+            source_pos += n;
+            dest_pos += n;
+            len -= n;
+        }
+        return dest;
+    }
+
+    @Override
+    public boolean forEach (TIntProcedure procedure) {
+        for (int i = 0; i < size(); i++) {
+            if (!procedure.execute(get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean forEachDescending (TIntProcedure procedure) {
+        for (int i = size() - 1; i >= 0; i--) {
+            if (!procedure.execute(get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public TIntIterator iterator () {
+        return new TIntIterator() {
+            int pos = 0;
+
+            @Override
+            public int next () {
+                return get(pos++);
+            }
+
+            @Override
+            public boolean hasNext () {
+                return pos < size();
+            }
+
+            @Override
+            public void remove () {
+                throw readOnly();
+            }
+        };
+    }
+
+    @Override
+    public int set (int index, int value) {
+        throw readOnly();
+    }
+
+    @Override
+    public int replace (int offset, int val) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean add (int val) {
+        throw readOnly();
+    }
+
+    @Override
+    public void insert (int offset, int value) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean remove (int value) {
+        throw readOnly();
+    }
+
+    @Override
+    public int removeAt (int offset) {
+        throw readOnly();
+    }
+
+    @Override
+    public void fill (int val) {
+        throw readOnly();
+    }
+
+    @Override
+    public void fill (int fromIndex, int toIndex, int val) {
+        throw readOnly();
+    }
+
+    /* Nominally implement the reads we don't need. These remain unimplemented until we need them. */
+
+    @Override
+    public TIntList subList (int begin, int end) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch (int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch (int value, int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf (int offset, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf (int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf (int offset, int value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntList grep (TIntProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TIntList inverseGrep (TIntProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int max () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int min () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int sum () {
+        throw new UnsupportedOperationException();
+    }
+
+}
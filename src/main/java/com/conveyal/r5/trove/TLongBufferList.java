@@ -0,0 +1,216 @@
+package com.conveyal.r5.trove;
+
+import gnu.trove.TLongCollection;
+import gnu.trove.function.TLongFunction;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.list.TLongList;
+import gnu.trove.procedure.TLongProcedure;
+
+import java.nio.LongBuffer;
+
+/**
+ * A read-only TLongList view of LongBuffers, usually regions of a memory-mapped file. See BufferList.
+ */
+public class TLongBufferList extends BufferList<Long, long[], TLongCollection, TLongFunction> implements TLongList {
+
+    private final LongBuffer[] buffers;
+
+    public TLongBufferList (LongBuffer... buffers) {
+        super(buffers);
+        this.buffers = buffers;
+    }
+
+    @Override
+    public long get (int index) {
+        return buffers[index >>> shift].get(index & mask);
+    }
+
+    @Override
+    public long getNoEntryValue () {
+        return 0;
+    }
+
+    @Override
+    public boolean contains (long value) {
+        return indexOf(value) >= 0;
+    }
+
+    @Override
+    public int indexOf (long value) {
+        for (int i = 0; i < size(); i++) {
+            if (get(i) == value) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public long[] toArray () {
+        return toArray(new long[size()], 0, 0, size());
+    }
+
+    @Override
+    public long[] toArray (int offset, int len) {
+        return toArray(new long[len], offset, 0, len);
+    }
+
+    @Override
+    public long[] toArray (long[] dest) {
+        return toArray(dest, 0, 0, Math.min(dest.length, size()));
+    }
+
+    @Override
+    public long[] toArray (long[] dest, int offset, int len) {
+        return toArray(dest, offset, 0, len);
+    }
+
+    @Override
+    public long[] toArray (long[] dest, int source_pos, int dest_pos, int len) {
+        while (len > 0) {
+            // Use a duplicate so that the position of the shared buffer is never changed.
+            LongBuffer source = buffers[source_pos >>> shift].duplicate();
+            source.position(source_pos & mask);
+            int n = Math.min(len, source.remaining());
+            source.get(dest, dest_pos, n);
+            source_pos += n;
+            dest_pos += n;
+            len -= n;
+        }
+        return dest;
+    }
+
+    @Override
+    public boolean forEach (TLongProcedure procedure) {
+        for (int i = 0; i < size(); i++) {
+            if (!procedure.execute(get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean forEachDescending (TLongProcedure procedure) {
+        for (int i = size() - 1; i >= 0; i--) {
+            if (!procedure.execute(get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public TLongIterator iterator () {
+        return new TLongIterator() {
+            int pos = 0;
+
+            @Override
+            public long next () {
+                return get(pos++);
+            }
+
+            @Override
+            public boolean hasNext () {
+                return pos < size();
+            }
+
+            @Override
+            public void remove () {
+                throw readOnly();
+            }
+        };
+    }
+
+    @Override
+    public long set (int index, long value) {
+        throw readOnly();
+    }
+
+    @Override
+    public long replace (int offset, long val) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean add (long val) {
+        throw readOnly();
+    }
+
+    @Override
+    public void insert (int offset, long value) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean remove (long value) {
+        throw readOnly();
+    }
+
+    @Override
+    public long removeAt (int offset) {
+        throw readOnly();
+    }
+
+    @Override
+    public void fill (long val) {
+        throw readOnly();
+    }
+
+    @Override
+    public void fill (int fromIndex, int toIndex, long val) {
+        throw readOnly();
+    }
+
+    /* Nominally implement the reads we don't need. These remain unimplemented until we need them. */
+
+    @Override
+    public TLongList subList (int begin, int end) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch (long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch (long value, int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf (int offset, long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf (long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf (int offset, long value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TLongList grep (TLongProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TLongList inverseGrep (TLongProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long max () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long min () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long sum () {
+        throw new UnsupportedOperationException();
+    }
+
+}
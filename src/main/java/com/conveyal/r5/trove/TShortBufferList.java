@@ -0,0 +1,217 @@
+package com.conveyal.r5.trove;
+
+import gnu.trove.TShortCollection;
+import gnu.trove.function.TShortFunction;
+import gnu.trove.iterator.TShortIterator;
+import gnu.trove.list.TShortList;
+import gnu.trove.procedure.TShortProcedure;
+
+import java.nio.ShortBuffer;
+
+/**
+ * A read-only TShortList view of ShortBuffers, usually regions of a memory-mapped file. See BufferList.
+ */
+public class TShortBufferList extends BufferList<Short, short[], TShortCollection, TShortFunction>
+        implements TShortList {
+
+    private final ShortBuffer[] buffers;
+
+    public TShortBufferList (ShortBuffer... buffers) {
+        super(buffers);
+        this.buffers = buffers;
+    }
+
+    @Override
+    public short get (int index) {
+        return buffers[index >>> shift].get(index & mask);
+    }
+
+    @Override
+    public short getNoEntryValue () {
+        return 0;
+    }
+
+    @Override
+    public boolean contains (short value) {
+        return indexOf(value) >= 0;
+    }
+
+    @Override
+    public int indexOf (short value) {
+        for (int i = 0; i < size(); i++) {
+            if (get(i) == value) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public short[] toArray () {
+        return toArray(new short[size()], 0, 0, size());
+    }
+
+    @Override
+    public short[] toArray (int offset, int len) {
+        return toArray(new short[len], offset, 0, len);
+    }
+
+    @Override
+    public short[] toArray (short[] dest) {
+        return toArray(dest, 0, 0, Math.min(dest.length, size()));
+    }
+
+    @Override
+    public short[] toArray (short[] dest, int offset, int len) {
+        return toArray(dest, offset, 0, len);
+    }
+
+    @Override
+    public short[] toArray (short[] dest, int source_pos, int dest_pos, int len) {
+        while (len > 0) {
+            // Use a duplicate so that the position of the shared buffer is never changed.
+            ShortBuffer source = buffers[source_pos >>> shift].duplicate();
+            source.position(source_pos & mask);
+            int n = Math.min(len, source.remaining());
+            source.get(dest, dest_pos, n);
+            source_pos += n;
+            dest_pos += n;
+            len -= n;
+        }
+        return dest;
+    }
+
+    @Override
+    public boolean forEach (TShortProcedure procedure) {
+        for (int i = 0; i < size(); i++) {
+            if (!procedure.execute(get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean forEachDescending (TShortProcedure procedure) {
+        for (int i = size() - 1; i >= 0; i--) {
+            if (!procedure.execute(get(i))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public TShortIterator iterator () {
+        return new TShortIterator() {
+            int pos = 0;
+
+            @Override
+            public short next () {
+                return get(pos++);
+            }
+
+            @Override
+            public boolean hasNext () {
+                return pos < size();
+            }
+
+            @Override
+            public void remove () {
+                throw readOnly();
+            }
+        };
+    }
+
+    @Override
+    public short set (int index, short value) {
+        throw readOnly();
+    }
+
+    @Override
+    public short replace (int offset, short val) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean add (short val) {
+        throw readOnly();
+    }
+
+    @Override
+    public void insert (int offset, short value) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean remove (short value) {
+        throw readOnly();
+    }
+
+    @Override
+    public short removeAt (int offset) {
+        throw readOnly();
+    }
+
+    @Override
+    public void fill (short val) {
+        throw readOnly();
+    }
+
+    @Override
+    public void fill (int fromIndex, int toIndex, short val) {
+        throw readOnly();
+    }
+
+    /* Nominally implement the reads we don't need. These remain unimplemented until we need them. */
+
+    @Override
+    public TShortList subList (int begin, int end) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch (short value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int binarySearch (short value, int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int indexOf (int offset, short value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf (short value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int lastIndexOf (int offset, short value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TShortList grep (TShortProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TShortList inverseGrep (TShortProcedure condition) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public short max () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public short min () {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public short sum () {
+        throw new UnsupportedOperationException();
+    }
+
+}
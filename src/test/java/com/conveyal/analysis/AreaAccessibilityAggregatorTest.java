@@ -0,0 +1,177 @@
+package com.conveyal.analysis;
+
+import com.conveyal.analysis.AreaAccessibilityAggregator.AreaAccessibility;
+import com.conveyal.r5.analyst.Grid;
+import com.conveyal.r5.analyst.SparsePixelWeights;
+import com.conveyal.r5.analyst.WebMercatorExtents;
+import com.google.common.io.LittleEndianDataOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for AreaAccessibilityAggregator and the SelectingGridReducer it reads access grids with.
+ */
+public class AreaAccessibilityAggregatorTest {
+
+    private static final int ZOOM = 9;
+    private static final int WEST = 100;
+    private static final int NORTH = 200;
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 5;
+    private static final int N_SAMPLES = 3;
+
+    /** The test access grid value of the given sample at the given pixel, relative to the grid's extents. */
+    private static int accessValue (int x, int y, int sample) {
+        return 100 * sample + 10 * x + y;
+    }
+
+    @Test
+    public void testSummarizeEqualWeights () {
+        // Values are supplied unsorted.
+        int[] values = new int[] { 40, 10, 30, 20 };
+        double[] weights = new double[] { 1, 1, 1, 1 };
+        AreaAccessibility result = AreaAccessibilityAggregator.summarize(values, weights, new int[] { 0, 25, 50, 75, 100 });
+        assertEquals(4, result.totalWeight);
+        assertEquals(25, result.mean);
+        assertArrayEquals(new double[] { 10, 10, 20, 30, 40 }, result.percentiles);
+    }
+
+    @Test
+    public void testSummarizeUnequalWeights () {
+        int[] values = new int[] { 100, 5, 50 };
+        double[] weights = new double[] { 0.5, 0.5, 3 };
+        // Percentiles requested out of order should be returned in the order requested.
+        AreaAccessibility result = AreaAccessibilityAggregator.summarize(values, weights, new int[] { 95, 10, 100, 25, 0 });
+        assertEquals(4, result.totalWeight);
+        assertEquals(50.625, result.mean, 1e-9);
+        assertArrayEquals(new double[] { 100, 5, 100, 50, 5 }, result.percentiles);
+
+        // The same percentile requested twice, and a single value which every percentile should find.
+        result = AreaAccessibilityAggregator.summarize(new int[] { 7 }, new double[] { 0.2 }, new int[] { 50, 0, 50 });
+        assertEquals(7, result.mean, 1e-9);
+        assertArrayEquals(new double[] { 7, 7, 7 }, result.percentiles);
+    }
+
+    @Test
+    public void testSummarizeNoWeight () {
+        int[] percentiles = new int[] { 0, 50, 100 };
+        AreaAccessibility empty = AreaAccessibilityAggregator.summarize(new int[0], new double[0], percentiles);
+        assertEquals(0, empty.totalWeight);
+        assertTrue(Double.isNaN(empty.mean));
+        for (double percentile : empty.percentiles) {
+            assertTrue(Double.isNaN(percentile));
+        }
+        AreaAccessibility zeroWeight = AreaAccessibilityAggregator.summarize(
+                new int[] { 10, 20 }, new double[] { 0, 0 }, percentiles
+        );
+        assertEquals(0, zeroWeight.totalWeight);
+        assertTrue(Double.isNaN(zeroWeight.mean));
+        assertEquals(percentiles.length, zeroWeight.percentiles.length);
+        assertTrue(Double.isNaN(zeroWeight.percentiles[1]));
+    }
+
+    /** Each pixel of the reduced grid should hold the selected sample, as it did before rows were read by a visitor. */
+    @Test
+    public void testSelectingGridReducer () throws Exception {
+        byte[] accessGrid = testAccessGrid();
+        for (int sample = 0; sample < N_SAMPLES; sample++) {
+            Grid grid = new SelectingGridReducer(sample).compute(new ByteArrayInputStream(accessGrid));
+            assertEquals(new WebMercatorExtents(WEST, NORTH, WIDTH, HEIGHT, ZOOM), grid.extents);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals(accessValue(x, y, sample), grid.grid[x][y]);
+                }
+            }
+        }
+        ByteArrayOutputStream notAccessGrid = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(notAccessGrid)) {
+            out.write("PIXWGHTS".getBytes(StandardCharsets.US_ASCII));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new SelectingGridReducer(0)
+                .compute(new ByteArrayInputStream(notAccessGrid.toByteArray())));
+    }
+
+    @Test
+    public void testCompute () throws Exception {
+        WebMercatorExtents areaExtents = new WebMercatorExtents(WEST - 2, NORTH, 10, 10, ZOOM);
+        // Pixel coordinates here are relative to areaExtents, two pixels west of the access grid.
+        SparsePixelWeights inside = SparsePixelWeights.fromPixelWeights(List.of(
+                new Grid.PixelWeight(3, 1, 1),
+                new Grid.PixelWeight(4, 1, 1),
+                new Grid.PixelWeight(3, 2, 0.5)
+        ), areaExtents);
+        // One pixel in the grid, and others west, east and south of it which have no results.
+        SparsePixelWeights overlapping = SparsePixelWeights.fromPixelWeights(List.of(
+                new Grid.PixelWeight(1, 3, 1),
+                new Grid.PixelWeight(6, 3, 1),
+                new Grid.PixelWeight(8, 3, 1),
+                new Grid.PixelWeight(6, 7, 1)
+        ), areaExtents);
+        SparsePixelWeights outside = SparsePixelWeights.fromPixelWeights(List.of(
+                new Grid.PixelWeight(0, 9, 1)
+        ), areaExtents);
+        List<SparsePixelWeights> areas = List.of(inside, overlapping, outside);
+        int[] percentiles = new int[] { 100, 0, 50 };
+
+        AreaAccessibility[] results = new AreaAccessibilityAggregator(areas, null)
+                .compute(new ByteArrayInputStream(testAccessGrid()), 1, percentiles);
+        assertEquals(3, results.length);
+        assertEquals(2.5, results[0].totalWeight);
+        assertEquals((111 + 121 + 0.5 * 112) / 2.5, results[0].mean, 1e-9);
+        assertArrayEquals(new double[] { 121, 111, 112 }, results[0].percentiles);
+        assertEquals(1, results[1].totalWeight);
+        assertArrayEquals(new double[] { 143, 143, 143 }, results[1].percentiles);
+        assertEquals(0, results[2].totalWeight);
+        assertTrue(Double.isNaN(results[2].mean));
+
+        // A weight grid multiplies the area weights, and pixels it does not cover have no weight.
+        Grid weightGrid = new Grid(WEST, NORTH, 3, 3, ZOOM);
+        weightGrid.grid[1][1] = 4;
+        weightGrid.grid[2][1] = 1;
+        weightGrid.grid[1][2] = 2;
+        results = new AreaAccessibilityAggregator(areas, weightGrid)
+                .compute(new ByteArrayInputStream(testAccessGrid()), 1, percentiles);
+        assertEquals(6, results[0].totalWeight);
+        assertEquals((4 * 111 + 121 + 112) / 6.0, results[0].mean, 1e-9);
+        assertArrayEquals(new double[] { 121, 111, 111 }, results[0].percentiles);
+        assertEquals(0, results[1].totalWeight);
+    }
+
+    /** @return a gzipped access grid holding accessValue at each pixel, in the format stored for regional results. */
+    private static byte[] testAccessGrid () throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(new GZIPOutputStream(bytes))) {
+            out.write("ACCESSGR".getBytes(StandardCharsets.US_ASCII));
+            out.writeInt(0);
+            out.writeInt(ZOOM);
+            out.writeInt(WEST);
+            out.writeInt(NORTH);
+            out.writeInt(WIDTH);
+            out.writeInt(HEIGHT);
+            out.writeInt(N_SAMPLES);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    // Samples are delta-coded within each origin.
+                    int previous = 0;
+                    for (int sample = 0; sample < N_SAMPLES; sample++) {
+                        out.writeInt(accessValue(x, y, sample) - previous);
+                        previous = accessValue(x, y, sample);
+                    }
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+}
@@ -0,0 +1,220 @@
+package com.conveyal.analysis.components.broker;
+
+import com.conveyal.analysis.components.eventbus.Event;
+import com.conveyal.analysis.components.eventbus.EventBus;
+import com.conveyal.analysis.components.eventbus.EventHandler;
+import com.conveyal.analysis.components.eventbus.RegionalAnalysisEvent;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.WorkerStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.conveyal.analysis.components.eventbus.RegionalAnalysisEvent.State.CANCELED;
+import static com.conveyal.analysis.components.eventbus.RegionalAnalysisEvent.State.COMPLETED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Jobs are shared by many HTTP handler threads without holding the broker lock. Exercise task delivery and completion
+ * from several threads at once, checking that no task is lost or delivered twice and that each job finishes once.
+ */
+public class BrokerTest {
+
+    private static final int N_THREADS = 8;
+
+    /** Every task is delivered exactly once per pass, and a redelivery pass only delivers the unfinished tasks. */
+    @Test
+    public void testConcurrentDeliveryDeliversEachTaskOnce () throws Exception {
+        Job job = newJob("DELIVERY", 100, 100);
+        BitSet delivered = deliverAllConcurrently(job);
+        assertEquals(job.nTasksTotal, delivered.cardinality());
+        assertFalse(job.hasTasksToDeliver());
+
+        // Complete every third task, then let the redelivery wait expire so the next poll starts a new pass.
+        BitSet expectedRedelivery = new BitSet();
+        for (int t = 0; t < job.nTasksTotal; t++) {
+            if (t % 3 == 0) {
+                assertTrue(job.markTaskCompleted(t));
+            } else {
+                expectedRedelivery.set(t);
+            }
+        }
+        job.lastDeliveryTime = 0;
+        assertTrue(job.hasTasksToDeliver());
+        assertEquals(1, job.deliveryPass);
+        assertEquals(expectedRedelivery, deliverAllConcurrently(job));
+    }
+
+    /** When every task is reported complete, many of them more than once, the job is finished exactly once. */
+    @Test
+    public void testConcurrentCompletionFinishesJobOnce () throws Exception {
+        Queue<RegionalAnalysisEvent> received = new ConcurrentLinkedQueue<>();
+        Broker broker = newBroker(received);
+        Job job = newJob("COMPLETION", 20, 20);
+        broker.addJob(job);
+
+        // Each thread reports every task, so all but one report of each task are duplicates.
+        runConcurrently(() -> {
+            for (int t = 0; t < job.nTasksTotal; t++) {
+                broker.markTaskCompleted(job, t);
+            }
+        });
+
+        assertTrue(job.isComplete());
+        assertEquals(job.nTasksTotal, job.nTasksCompleted.get());
+        assertNull(broker.findJob(job.jobId));
+        assertEquals(1, received.size());
+        assertEquals(COMPLETED, received.peek().state);
+    }
+
+    /** A job removed from the broker is reported deleted even if it has no result assembler. */
+    @Test
+    public void testDeleteJobWithoutAssembler () {
+        Queue<RegionalAnalysisEvent> received = new ConcurrentLinkedQueue<>();
+        Broker broker = newBroker(received);
+        Job job = newJob("DELETION", 10, 10);
+        broker.addJob(job);
+
+        assertTrue(broker.deleteJob(job.jobId));
+        assertNull(broker.findJob(job.jobId));
+        assertFalse(broker.deleteJob(job.jobId));
+        assertEquals(1, received.size());
+        assertEquals(CANCELED, received.peek().state);
+    }
+
+    /** A worker's throughput on other jobs is not used to size deliveries of tasks from a job it has just started. */
+    @Test
+    public void testDeliverySizeWithoutRateForJob () {
+        Broker broker = newBroker(new ConcurrentLinkedQueue<>());
+        Job job = newJob("SLOW", 100, 100);
+        assertEquals(broker.MIN_TASKS_PER_DELIVERY, broker.tasksPerDelivery(workerStatus(Map.of()), job));
+        assertEquals(broker.MIN_TASKS_PER_DELIVERY,
+                broker.tasksPerDelivery(workerStatus(Map.of("FAST", 100_000, "OTHER", 50_000)), job));
+    }
+
+    /** Deliveries sized from the throughput on a job hold less work than a worker could finish before redelivery. */
+    @Test
+    public void testDeliverySizeFromRateForJob () {
+        Broker broker = newBroker(new ConcurrentLinkedQueue<>());
+        Job job = newJob("JOB", 100, 100);
+        for (int tasksPerMinute : new int[] { 1, 10, 32, 100, 1_000, 10_000, 1_000_000 }) {
+            int nTasks = broker.tasksPerDelivery(workerStatus(Map.of(job.jobId, tasksPerMinute)), job);
+            assertTrue(nTasks > 0);
+            assertTrue(nTasks <= broker.MAX_TASKS_PER_DELIVERY);
+            double expectedSeconds = nTasks * 60.0 / tasksPerMinute;
+            assertTrue(expectedSeconds <= broker.MAX_SECONDS_PER_DELIVERY || nTasks == 1,
+                    "Delivery of " + nTasks + " tasks at " + tasksPerMinute + " tasks per minute is too long.");
+            assertTrue(broker.MAX_SECONDS_PER_DELIVERY < Job.REDELIVERY_WAIT_SEC);
+        }
+        // At a moderate rate, the delivery holds about the target amount of work.
+        assertEquals(500, broker.tasksPerDelivery(workerStatus(Map.of(job.jobId, 1_000)), job));
+        // A very slow worker receives fewer than the usual minimum, rather than more than it can finish in time.
+        assertEquals(1, broker.tasksPerDelivery(workerStatus(Map.of(job.jobId, 1)), job));
+    }
+
+    private static WorkerStatus workerStatus (Map<String, Integer> tasksPerMinuteByJobId) {
+        WorkerStatus workerStatus = new WorkerStatus();
+        workerStatus.tasksPerMinuteByJobId = tasksPerMinuteByJobId;
+        return workerStatus;
+    }
+
+    /** Repeatedly claim small batches of tasks from several threads until none remain in the current pass. */
+    private static BitSet deliverAllConcurrently (Job job) throws Exception {
+        Queue<Integer> taskIds = new ConcurrentLinkedQueue<>();
+        AtomicInteger nDelivered = new AtomicInteger();
+        runConcurrently(() -> {
+            List<RegionalTask> tasks;
+            while (!(tasks = job.generateSomeTasksToDeliver(37)).isEmpty()) {
+                for (RegionalTask task : tasks) {
+                    taskIds.add(task.taskId);
+                }
+                nDelivered.addAndGet(tasks.size());
+            }
+        });
+        BitSet delivered = new BitSet();
+        for (int taskId : taskIds) {
+            assertFalse(delivered.get(taskId), "Task delivered more than once in the same pass: " + taskId);
+            delivered.set(taskId);
+        }
+        assertEquals(nDelivered.get(), delivered.cardinality());
+        return delivered;
+    }
+
+    /** Run the given action on several threads, released at the same moment to maximize contention. */
+    private static void runConcurrently (Runnable action) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < N_THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    action.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Job newJob (String jobId, int width, int height) {
+        RegionalTask templateTask = new RegionalTask();
+        templateTask.jobId = jobId;
+        templateTask.graphId = "GRAPH";
+        templateTask.workerVersion = "VERSION";
+        templateTask.zoom = 9;
+        templateTask.west = 100;
+        templateTask.north = 100;
+        templateTask.width = width;
+        templateTask.height = height;
+        return new Job(templateTask, new WorkerTags("GROUP", "USER", "REGION"));
+    }
+
+    /** A broker with no file storage or worker launcher, whose regional analysis events are added to the queue. */
+    private static Broker newBroker (Queue<RegionalAnalysisEvent> events) {
+        EventBus eventBus = new EventBus(null);
+        eventBus.addHandlers(new EventHandler() {
+            @Override
+            public void handleEvent (Event event) {
+                events.add((RegionalAnalysisEvent) event);
+            }
+
+            @Override
+            public boolean acceptEvent (Event event) {
+                return event instanceof RegionalAnalysisEvent;
+            }
+
+            @Override
+            public boolean synchronous () {
+                return true;
+            }
+        });
+        Broker.Config config = new Broker.Config() {
+            @Override public boolean offline () { return true; }
+            @Override public int maxWorkers () { return 1; }
+            @Override public boolean testTaskRedelivery () { return false; }
+            @Override public String localCacheDirectory () { return System.getProperty("java.io.tmpdir"); }
+        };
+        return new Broker(config, null, eventBus, null);
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.conveyal.analysis.controllers;
+
+import com.conveyal.analysis.util.VectorTileCache;
+import com.conveyal.r5.kryo.KryoNetworkSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check that network tiles saved on disk are kept separate for each network and tile format version.
+ */
+public class NetworkTileControllerTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testVersionedTileDirectory () throws Exception {
+        File versionedDirectory = NetworkTileController.versionedTileDirectory(tempDir);
+        assertEquals(tempDir, versionedDirectory.getParentFile());
+        assertTrue(versionedDirectory.getName().startsWith(KryoNetworkSerializer.NETWORK_FORMAT_VERSION + "-"));
+
+        // A tile saved by an older version should not be served.
+        File staleTile = new File(tempDir, "nv0-0/bundle/10/163/357.mvt");
+        staleTile.getParentFile().mkdirs();
+        Files.write(staleTile.toPath(), new byte[] { 1, 2, 3 });
+        byte[] freshTile = new byte[] { 4, 5 };
+        VectorTileCache cache = new VectorTileCache((bundleId, zoom, x, y) -> freshTile, versionedDirectory);
+        assertArrayEquals(freshTile, cache.get("bundle", 10, 163, 357));
+        assertTrue(new File(versionedDirectory, "bundle/10/163/357.mvt").isFile());
+    }
+
+}
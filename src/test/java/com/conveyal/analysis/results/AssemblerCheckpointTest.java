@@ -0,0 +1,171 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.analysis.components.broker.Job;
+import com.conveyal.analysis.models.RegionalAnalysis;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.conveyal.analysis.results.RegionalResultsTestUtils.freeformTravelTimeTask;
+import static com.conveyal.analysis.results.RegionalResultsTestUtils.travelTimeResult;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check that regional result assembly can be checkpointed and resumed after the backend restarts, without losing or
+ * duplicating results for any origin.
+ */
+public class AssemblerCheckpointTest {
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    public void testSaveAndLoad () throws Exception {
+        File jobDirectory = new File(tempDir, "job");
+        AssemblerCheckpoint checkpoint = AssemblerCheckpoint.loadOrCreate(jobDirectory, 200);
+        assertFalse(AssemblerCheckpoint.exists(jobDirectory));
+        assertTrue(checkpoint.getOriginsReceived().isEmpty());
+
+        File bufferFile = new File(jobDirectory, "buffer.bin");
+        Files.write(bufferFile.toPath(), new byte[123]);
+        checkpoint.recordBufferFile(bufferFile);
+        BitSet originsReceived = new BitSet();
+        originsReceived.set(0);
+        originsReceived.set(64);
+        originsReceived.set(199);
+        checkpoint.save(originsReceived);
+        assertTrue(AssemblerCheckpoint.exists(jobDirectory));
+
+        AssemblerCheckpoint loaded = AssemblerCheckpoint.loadOrCreate(jobDirectory, 200);
+        assertEquals(originsReceived, loaded.getOriginsReceived());
+        // A checkpoint saved for a different number of origins cannot belong to the same job.
+        assertThrows(IllegalStateException.class, () -> AssemblerCheckpoint.loadOrCreate(jobDirectory, 100));
+
+        loaded.delete();
+        assertFalse(jobDirectory.exists());
+    }
+
+    @Test
+    public void testBufferFileTruncation () throws Exception {
+        File jobDirectory = new File(tempDir, "job");
+        AssemblerCheckpoint checkpoint = AssemblerCheckpoint.loadOrCreate(jobDirectory, 10);
+        File bufferFile = new File(jobDirectory, "buffer.bin");
+        Files.write(bufferFile.toPath(), new byte[] { 1, 2, 3, 4 });
+        checkpoint.recordBufferFile(bufferFile);
+        File unrecordedFile = new File(jobDirectory, "unrecorded.bin");
+        Files.write(unrecordedFile.toPath(), new byte[] { 1 });
+        checkpoint.save(new BitSet());
+
+        // Results written after the checkpoint should be discarded when resuming.
+        try (FileOutputStream out = new FileOutputStream(bufferFile, true)) {
+            out.write(new byte[] { 5, 6, 7 });
+        }
+        AssemblerCheckpoint loaded = AssemblerCheckpoint.loadOrCreate(jobDirectory, 10);
+        assertTrue(loaded.resumeBufferFile(bufferFile));
+        assertEquals(4, bufferFile.length());
+        // Files not recorded in the checkpoint must be started over.
+        assertFalse(loaded.resumeBufferFile(unrecordedFile));
+        assertFalse(unrecordedFile.exists());
+    }
+
+    /** If a buffer file has lost results that the checkpoint says it holds, the whole checkpoint must be discarded. */
+    @Test
+    public void testShortBufferFileDiscardsCheckpoint () throws Exception {
+        File jobDirectory = new File(tempDir, "job");
+        AssemblerCheckpoint checkpoint = AssemblerCheckpoint.loadOrCreate(jobDirectory, 10);
+        File bufferFile = new File(jobDirectory, "buffer.bin");
+        Files.write(bufferFile.toPath(), new byte[] { 1, 2, 3, 4 });
+        checkpoint.recordBufferFile(bufferFile);
+        BitSet originsReceived = new BitSet();
+        originsReceived.set(3);
+        checkpoint.save(originsReceived);
+
+        Files.write(bufferFile.toPath(), new byte[] { 1, 2 });
+        AssemblerCheckpoint loaded = AssemblerCheckpoint.loadOrCreate(jobDirectory, 10);
+        assertTrue(loaded.getOriginsReceived().isEmpty());
+        assertFalse(loaded.resumeBufferFile(bufferFile));
+    }
+
+    /**
+     * A CSV writer reopened from a checkpoint should append rows after those already checkpointed, without writing
+     * another header row or keeping rows written after the checkpoint was saved.
+     */
+    @Test
+    public void testCsvWriterAppendsAfterResume () throws Exception {
+        RegionalTask task = freeformTravelTimeTask("csv-job", 3, 4, new int[] { 50 });
+        File jobDirectory = new File(tempDir, task.jobId);
+        AssemblerCheckpoint checkpoint = AssemblerCheckpoint.loadOrCreate(jobDirectory, 3);
+        TimeCsvResultWriter writer = new TimeCsvResultWriter(task, null, checkpoint);
+        writer.writeOneWorkResult(travelTimeResult(task, 0));
+        writer.checkpoint(checkpoint);
+        BitSet originsReceived = new BitSet();
+        originsReceived.set(0);
+        checkpoint.save(originsReceived);
+        // This origin reaches the disk but not the checkpoint, as if the backend crashed before the next checkpoint.
+        writer.writeOneWorkResult(travelTimeResult(task, 1));
+        writer.syncBuffer();
+
+        AssemblerCheckpoint resumed = AssemblerCheckpoint.loadOrCreate(jobDirectory, 3);
+        assertEquals(originsReceived, resumed.getOriginsReceived());
+        TimeCsvResultWriter resumedWriter = new TimeCsvResultWriter(task, null, resumed);
+        resumedWriter.writeOneWorkResult(travelTimeResult(task, 1));
+        resumedWriter.writeOneWorkResult(travelTimeResult(task, 2));
+        resumedWriter.syncBuffer();
+
+        // Compare against a writer that received all results without interruption.
+        RegionalTask uninterruptedTask = freeformTravelTimeTask("uninterrupted-job", 3, 4, new int[] { 50 });
+        AssemblerCheckpoint uninterruptedCheckpoint =
+                AssemblerCheckpoint.loadOrCreate(new File(tempDir, uninterruptedTask.jobId), 3);
+        TimeCsvResultWriter uninterruptedWriter =
+                new TimeCsvResultWriter(uninterruptedTask, null, uninterruptedCheckpoint);
+        for (int origin = 0; origin < 3; origin++) {
+            uninterruptedWriter.writeOneWorkResult(travelTimeResult(uninterruptedTask, origin));
+        }
+        uninterruptedWriter.syncBuffer();
+
+        List<String> lines = Files.readAllLines(resumedWriter.bufferFile.toPath());
+        assertEquals(Files.readAllLines(uninterruptedWriter.bufferFile.toPath()), lines);
+        assertEquals(1, lines.stream().filter(line -> line.startsWith("origin")).count());
+        assertEquals(1 + 3 * 4, lines.size());
+    }
+
+    /**
+     * When a job is resumed, the broker marks the origins recovered by the assembler as completed. Only the others
+     * should be delivered to workers.
+     */
+    @Test
+    public void testResumedJobRedeliversOnlyMissingOrigins () throws Exception {
+        RegionalTask task = freeformTravelTimeTask("resumed-job", 10, 4, new int[] { 50 });
+        File jobDirectory = new File(tempDir, task.jobId);
+        AssemblerCheckpoint checkpoint = AssemblerCheckpoint.loadOrCreate(jobDirectory, 10);
+        TimeCsvResultWriter writer = new TimeCsvResultWriter(task, null, checkpoint);
+        BitSet originsReceived = new BitSet();
+        for (int origin : new int[] { 0, 3, 4, 9 }) {
+            writer.writeOneWorkResult(travelTimeResult(task, origin));
+            originsReceived.set(origin);
+        }
+        writer.checkpoint(checkpoint);
+        checkpoint.save(originsReceived);
+
+        Job job = new Job(task, null);
+        MultiOriginAssembler assembler = new MultiOriginAssembler(new RegionalAnalysis(), job, null, jobDirectory);
+        assertEquals(originsReceived, assembler.getOriginsReceived());
+        job.markTasksCompleted(assembler.getOriginsReceived());
+        List<Integer> delivered = job.generateSomeTasksToDeliver(100).stream()
+                .map(t -> t.taskId)
+                .collect(Collectors.toList());
+        assertEquals(List.of(1, 2, 5, 6, 7, 8), delivered);
+        assembler.terminate();
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.file.FileStorage;
+import com.conveyal.file.LocalFileStorage;
+import com.conveyal.r5.OneOriginResult;
+import com.conveyal.r5.analyst.FreeFormPointSet;
+import com.conveyal.r5.analyst.PointSet;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
+import com.conveyal.r5.analyst.cluster.TravelTimeResult;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.io.File;
+
+/**
+ * Builds small regional tasks and results for testing result writers without running any routing.
+ */
+class RegionalResultsTestUtils {
+
+    /**
+     * @return a task recording travel times between freeform origins and destinations, like those written to CSV.
+     */
+    static RegionalTask freeformTravelTimeTask (String jobId, int nOrigins, int nDestinations, int[] percentiles) {
+        RegionalTask task = new RegionalTask();
+        task.jobId = jobId;
+        task.recordTimes = true;
+        task.percentiles = percentiles;
+        task.originPointSetKey = "origins.pointset";
+        task.originPointSet = freeformPointSet(nOrigins);
+        task.destinationPointSetKeys = new String[] { "destinations.pointset" };
+        task.destinationPointSets = new PointSet[] { freeformPointSet(nDestinations) };
+        return task;
+    }
+
+    private static FreeFormPointSet freeformPointSet (int nPoints) {
+        Coordinate[] coordinates = new Coordinate[nPoints];
+        for (int i = 0; i < nPoints; i++) {
+            coordinates[i] = new Coordinate(-122.0 + i * 0.001, 37.0);
+        }
+        return new FreeFormPointSet(coordinates);
+    }
+
+    /**
+     * @return a work result for the given origin of the task, with travel times that vary by origin, destination and
+     *         percentile. Every seventh destination is unreachable.
+     */
+    static RegionalWorkResult travelTimeResult (RegionalTask task, int origin) {
+        RegionalTask originTask = task.clone();
+        originTask.taskId = origin;
+        TravelTimeResult travelTimes = new TravelTimeResult(originTask);
+        for (int d = 0; d < originTask.nTargetsPerOrigin(); d++) {
+            int[] percentileTimes = new int[task.percentiles.length];
+            for (int p = 0; p < percentileTimes.length; p++) {
+                percentileTimes[p] = (d % 7 == 6) ? Integer.MAX_VALUE : 10 + (origin * 3 + d * 5) % 50 + p * 4;
+            }
+            travelTimes.setTarget(d, percentileTimes);
+        }
+        return new RegionalWorkResult(new OneOriginResult(travelTimes, null, null), originTask);
+    }
+
+    /** @return file storage in the given local directory, into which result writers can move their finished files. */
+    static FileStorage localFileStorage (File directory) {
+        return new LocalFileStorage(new LocalFileStorage.Config() {
+            @Override
+            public String localCacheDirectory () {
+                return directory.getAbsolutePath();
+            }
+
+            @Override
+            public int serverPort () {
+                return 7070;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.conveyal.analysis.results;
+
+import com.conveyal.file.FileStorage;
+import com.conveyal.file.FileStorageKey;
+import com.conveyal.r5.analyst.cluster.RegionalTask;
+import com.conveyal.r5.analyst.cluster.RegionalWorkResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static com.conveyal.analysis.results.RegionalResultsTestUtils.freeformTravelTimeTask;
+import static com.conveyal.analysis.results.RegionalResultsTestUtils.localFileStorage;
+import static com.conveyal.analysis.results.RegionalResultsTestUtils.travelTimeResult;
+import static com.conveyal.file.FileCategory.RESULTS;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check that travel times written in the compact block format by TimeBlockResultWriter are read back unchanged by
+ * TimeBlockResultReader, and converted to the same CSV as TimeCsvResultWriter would have produced.
+ */
+public class TimeBlockResultTest {
+
+    private static final int[] PERCENTILES = new int[] { 5, 50, 95 };
+
+    @TempDir
+    File tempDir;
+
+    private FileStorage fileStorage;
+
+    @BeforeEach
+    public void setUp () {
+        fileStorage = localFileStorage(new File(tempDir, "storage"));
+    }
+
+    @Test
+    public void testEncodeDecode () {
+        int[][] travelTimes = new int[][] {
+            { 0, 1, 63, 64, 200, Integer.MAX_VALUE, 5, 120, 119 },
+            { 3, 1, 70, 64, 8000, Integer.MAX_VALUE, Integer.MAX_VALUE, 121, 0 }
+        };
+        byte[] block = TimeBlockResultWriter.encode(travelTimes);
+        int[][] decoded = TimeBlockResultReader.decode(block, 2, 9);
+        for (int p = 0; p < travelTimes.length; p++) {
+            for (int d = 0; d < travelTimes[p].length; d++) {
+                int expected = travelTimes[p][d] == Integer.MAX_VALUE ? -1 : travelTimes[p][d];
+                assertEquals(expected, decoded[p][d]);
+            }
+        }
+        // Deltas between -64 and 63 should take only one byte each, and larger deltas more.
+        assertEquals(6, TimeBlockResultWriter.encode(new int[][] { { 10, 12, 73 }, { 10, 12, 73 } }).length);
+        assertEquals(3, TimeBlockResultWriter.encode(new int[][] { { 10, 200 } }).length);
+    }
+
+    /** Results arriving in any order should be found through the index at the end of the file. */
+    @Test
+    public void testWriteAndRead () throws Exception {
+        RegionalTask task = freeformTravelTimeTask("read-job", 5, 9, PERCENTILES);
+        TimeBlockResultWriter writer = newWriter(task);
+        for (int origin : new int[] { 3, 0, 4, 1 }) {
+            writer.writeOneWorkResult(travelTimeResult(task, origin));
+        }
+        writer.finish();
+
+        try (TimeBlockResultReader reader = openStoredFile(writer)) {
+            assertEquals(5, reader.nOrigins);
+            assertEquals(9, reader.nDestinations);
+            assertFalse(reader.oneToOne);
+            assertArrayEquals(PERCENTILES, reader.percentiles);
+            assertFalse(reader.hasOrigin(2));
+            assertNull(reader.getTravelTimes(2));
+            for (int origin : new int[] { 0, 1, 3, 4 }) {
+                assertTrue(reader.hasOrigin(origin));
+                assertTravelTimesMatch(travelTimeResult(task, origin), reader.getTravelTimes(origin));
+            }
+        }
+    }
+
+    @Test
+    public void testOneToOne () throws Exception {
+        RegionalTask task = freeformTravelTimeTask("one-to-one-job", 4, 4, PERCENTILES);
+        task.oneToOne = true;
+        TimeBlockResultWriter writer = newWriter(task);
+        for (int origin = 0; origin < 4; origin++) {
+            writer.writeOneWorkResult(travelTimeResult(task, origin));
+        }
+        writer.finish();
+
+        try (TimeBlockResultReader reader = openStoredFile(writer)) {
+            assertTrue(reader.oneToOne);
+            assertEquals(1, reader.nDestinations);
+            for (int origin = 0; origin < 4; origin++) {
+                int[][] travelTimes = reader.getTravelTimes(origin);
+                assertEquals(PERCENTILES.length, travelTimes.length);
+                assertEquals(1, travelTimes[0].length);
+                assertTravelTimesMatch(travelTimeResult(task, origin), travelTimes);
+            }
+            // Each origin should be paired only with the destination at the same index.
+            StringWriter csv = new StringWriter();
+            reader.writeCsv(csv, task.originPointSet, task.destinationPointSets[0]);
+            List<String> lines = csv.toString().lines().collect(Collectors.toList());
+            assertEquals(1 + 4 * PERCENTILES.length, lines.size());
+            for (String line : lines.subList(1, lines.size())) {
+                String[] fields = line.split(",");
+                assertEquals(fields[0], fields[1]);
+            }
+        }
+    }
+
+    /**
+     * Blocks written after the last checkpoint should be discarded when a writer is resumed, leaving the same file as
+     * a writer that was never interrupted.
+     */
+    @Test
+    public void testResumeFromCheckpoint () throws Exception {
+        RegionalTask task = freeformTravelTimeTask("resumed-job", 5, 9, PERCENTILES);
+        File jobDirectory = new File(tempDir, task.jobId);
+        AssemblerCheckpoint checkpoint = AssemblerCheckpoint.loadOrCreate(jobDirectory, 5);
+        TimeBlockResultWriter writer = new TimeBlockResultWriter(task, fileStorage, checkpoint);
+        writer.writeOneWorkResult(travelTimeResult(task, 2));
+        writer.writeOneWorkResult(travelTimeResult(task, 0));
+        writer.checkpoint(checkpoint);
+        BitSet originsReceived = new BitSet();
+        originsReceived.set(0);
+        originsReceived.set(2);
+        checkpoint.save(originsReceived);
+        // This block reaches the disk but not the checkpoint, as if the backend crashed before the next checkpoint.
+        writer.writeOneWorkResult(travelTimeResult(task, 4));
+        writer.syncBuffer();
+
+        AssemblerCheckpoint resumed = AssemblerCheckpoint.loadOrCreate(jobDirectory, 5);
+        assertEquals(originsReceived, resumed.getOriginsReceived());
+        TimeBlockResultWriter resumedWriter = new TimeBlockResultWriter(task, fileStorage, resumed);
+        for (int origin : new int[] { 1, 4, 3 }) {
+            resumedWriter.writeOneWorkResult(travelTimeResult(task, origin));
+        }
+        resumedWriter.finish();
+        byte[] resumedBytes = readStoredFile(resumedWriter);
+
+        RegionalTask uninterruptedTask = freeformTravelTimeTask("uninterrupted-job", 5, 9, PERCENTILES);
+        TimeBlockResultWriter uninterruptedWriter = newWriter(uninterruptedTask);
+        for (int origin : new int[] { 2, 0, 1, 4, 3 }) {
+            uninterruptedWriter.writeOneWorkResult(travelTimeResult(uninterruptedTask, origin));
+        }
+        uninterruptedWriter.finish();
+        assertArrayEquals(readStoredFile(uninterruptedWriter), resumedBytes);
+
+        try (TimeBlockResultReader reader = openStoredFile(resumedWriter)) {
+            for (int origin = 0; origin < 5; origin++) {
+                assertTravelTimesMatch(travelTimeResult(task, origin), reader.getTravelTimes(origin));
+            }
+        }
+    }
+
+    /** Converting a block file to CSV should give exactly the CSV that would have been written for a smaller job. */
+    @Test
+    public void testWriteCsvMatchesCsvWriter () throws Exception {
+        RegionalTask task = freeformTravelTimeTask("csv-job", 6, 9, PERCENTILES);
+        TimeBlockResultWriter blockWriter = newWriter(task);
+        TimeCsvResultWriter csvWriter = new TimeCsvResultWriter(
+                task, fileStorage, AssemblerCheckpoint.loadOrCreate(new File(tempDir, "csv"), 6)
+        );
+        // The reader writes origins in order, so they must also arrive in order for the files to match.
+        for (int origin = 0; origin < 6; origin++) {
+            RegionalWorkResult workResult = travelTimeResult(task, origin);
+            blockWriter.writeOneWorkResult(workResult);
+            csvWriter.writeOneWorkResult(workResult);
+        }
+        blockWriter.finish();
+        csvWriter.finish();
+
+        StringWriter convertedCsv = new StringWriter();
+        try (TimeBlockResultReader reader = openStoredFile(blockWriter)) {
+            reader.writeCsv(convertedCsv, task.originPointSet, task.destinationPointSets[0]);
+        }
+        String expectedCsv = new String(readStoredFile(csvWriter.fileName));
+        assertEquals(expectedCsv, convertedCsv.toString());
+    }
+
+    private TimeBlockResultWriter newWriter (RegionalTask task) throws IOException {
+        AssemblerCheckpoint checkpoint = AssemblerCheckpoint.loadOrCreate(
+                new File(tempDir, task.jobId), task.originPointSet.featureCount()
+        );
+        return new TimeBlockResultWriter(task, fileStorage, checkpoint);
+    }
+
+    private TimeBlockResultReader openStoredFile (TimeBlockResultWriter writer) throws IOException {
+        return new TimeBlockResultReader(fileStorage.getFile(new FileStorageKey(RESULTS, writer.fileName)));
+    }
+
+    private byte[] readStoredFile (TimeBlockResultWriter writer) throws IOException {
+        return readStoredFile(writer.fileName);
+    }
+
+    /** @return the decompressed contents of a finished results file. */
+    private byte[] readStoredFile (String fileName) throws IOException {
+        File storedFile = fileStorage.getFile(new FileStorageKey(RESULTS, fileName));
+        try (InputStream in = new GZIPInputStream(new FileInputStream(storedFile))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static void assertTravelTimesMatch (RegionalWorkResult expected, int[][] travelTimes) {
+        assertEquals(expected.travelTimeValues.length, travelTimes.length);
+        for (int p = 0; p < travelTimes.length; p++) {
+            for (int d = 0; d < travelTimes[p].length; d++) {
+                int expectedTime = expected.travelTimeValues[p][d];
+                assertEquals(expectedTime == Integer.MAX_VALUE ? -1 : expectedTime, travelTimes[p][d]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.conveyal.analysis.util;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import static com.conveyal.analysis.util.VectorMapTile.lat2tile;
+import static com.conveyal.analysis.util.VectorMapTile.lon2tile;
+import static com.conveyal.analysis.util.VectorMapTile.tile2lat;
+import static com.conveyal.analysis.util.VectorMapTile.tile2lon;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check the conversions between WGS84 coordinates and web Mercator tile numbers.
+ */
+public class VectorMapTileTest {
+
+    /** lon2tile and lat2tile should find the tile whose envelope contains any point within it. */
+    @Test
+    public void testInverseOfTileEnvelope () {
+        for (int zoom = 0; zoom <= 14; zoom += 2) {
+            int nTiles = 1 << zoom;
+            for (int x = 0; x < nTiles; x += Math.max(1, nTiles / 7)) {
+                for (int y = 0; y < nTiles; y += Math.max(1, nTiles / 7)) {
+                    Envelope envelope = VectorMapTile.wgsEnvelope(zoom, x, y);
+                    double lon = envelope.centre().x;
+                    double lat = envelope.centre().y;
+                    assertEquals(x, lon2tile(lon, zoom));
+                    assertEquals(y, lat2tile(lat, zoom));
+                    // Points just inside the northwest corner belong to the same tile.
+                    assertEquals(x, lon2tile(tile2lon(x, zoom) + 1e-9, zoom));
+                    assertEquals(y, lat2tile(tile2lat(y, zoom) - 1e-9, zoom));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testKnownTiles () {
+        // At zoom level 1 the world is divided into four tiles at the prime meridian and the equator.
+        assertEquals(0, lon2tile(-0.001, 1));
+        assertEquals(1, lon2tile(0.001, 1));
+        assertEquals(0, lat2tile(0.001, 1));
+        assertEquals(1, lat2tile(-0.001, 1));
+        // Tiles are numbered from the northwest, so a point in the southern and western hemispheres has a small x
+        // and a large y.
+        int zoom = 10;
+        int x = lon2tile(-58.38, zoom);
+        int y = lat2tile(-34.60, zoom);
+        assertTrue(x < (1 << zoom) / 2);
+        assertTrue(y > (1 << zoom) / 2);
+        assertTrue(VectorMapTile.wgsEnvelope(zoom, x, y).contains(-58.38, -34.60));
+    }
+
+    /** Coordinates beyond the edges of the web Mercator projection should be clamped to the outermost tiles. */
+    @Test
+    public void testClamping () {
+        for (int zoom : new int[] { 0, 8, 12 }) {
+            int maxTile = (1 << zoom) - 1;
+            assertEquals(0, lon2tile(-180, zoom));
+            assertEquals(0, lon2tile(-200, zoom));
+            assertEquals(maxTile, lon2tile(180, zoom));
+            assertEquals(maxTile, lon2tile(200, zoom));
+            assertEquals(0, lat2tile(85.2, zoom));
+            assertEquals(maxTile, lat2tile(-85.2, zoom));
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.conveyal.analysis.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Check that the vector tile cache renders each tile only once, and that tiles saved to disk are served again by a
+ * new cache (as after a restart) without rendering them.
+ */
+public class VectorTileCacheTest {
+
+    @TempDir
+    File tempDir;
+
+    /** Renders tiles whose contents identify the tile, counting how many times it has been called. */
+    private static class CountingRenderer implements VectorTileCache.TileRenderer {
+        final AtomicInteger nRendered = new AtomicInteger();
+
+        @Override
+        public byte[] render (String bundleId, int zoom, int x, int y) {
+            nRendered.incrementAndGet();
+            return tileContents(bundleId, zoom, x, y);
+        }
+    }
+
+    private static byte[] tileContents (String bundleId, int zoom, int x, int y) {
+        return String.format("%s %d %d %d", bundleId, zoom, x, y).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testMemoryCache () {
+        CountingRenderer renderer = new CountingRenderer();
+        VectorTileCache cache = new VectorTileCache(renderer, null);
+        byte[] tile = cache.get("bundle", 10, 163, 357);
+        assertArrayEquals(tileContents("bundle", 10, 163, 357), tile);
+        assertSame(tile, cache.get("bundle", 10, 163, 357));
+        assertEquals(1, renderer.nRendered.get());
+        // Every part of the key should distinguish tiles.
+        cache.get("other", 10, 163, 357);
+        cache.get("bundle", 11, 163, 357);
+        cache.get("bundle", 10, 164, 357);
+        cache.get("bundle", 10, 163, 358);
+        assertEquals(5, renderer.nRendered.get());
+        assertArrayEquals(tileContents("bundle", 10, 164, 357), cache.get("bundle", 10, 164, 357));
+        assertEquals(5, renderer.nRendered.get());
+    }
+
+    @Test
+    public void testDiskCache () throws Exception {
+        File diskDirectory = new File(tempDir, "tiles");
+        CountingRenderer renderer = new CountingRenderer();
+        VectorTileCache cache = new VectorTileCache(renderer, diskDirectory);
+        byte[] tile = cache.get("bundle", 10, 163, 357);
+        byte[] emptyTile = new byte[0];
+        VectorTileCache emptyCache = new VectorTileCache((bundleId, zoom, x, y) -> emptyTile, diskDirectory);
+        emptyCache.get("bundle", 8, 40, 89);
+
+        // Tiles are saved in a Z/X/Y tree under the bundle ID, with no temporary files left behind.
+        File tileFile = new File(diskDirectory, "bundle/10/163/357.mvt");
+        assertTrue(tileFile.isFile());
+        assertArrayEquals(tile, Files.readAllBytes(tileFile.toPath()));
+        assertEquals(1, tileFile.getParentFile().listFiles().length);
+        assertTrue(new File(diskDirectory, "bundle/8/40/89.mvt").isFile());
+
+        // A new cache using the same directory, as after a restart, should not need to render these tiles again.
+        VectorTileCache reloadedCache = new VectorTileCache((bundleId, zoom, x, y) -> {
+            fail("Tile saved on disk should not be rendered again.");
+            return null;
+        }, diskDirectory);
+        assertArrayEquals(tile, reloadedCache.get("bundle", 10, 163, 357));
+        assertEquals(0, reloadedCache.get("bundle", 8, 40, 89).length);
+        assertEquals(1, renderer.nRendered.get());
+    }
+
+}
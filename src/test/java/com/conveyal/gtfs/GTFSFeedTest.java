@@ -1,21 +1,33 @@
 package com.conveyal.gtfs;
 
+import com.conveyal.gtfs.model.Pattern;
+import com.conveyal.gtfs.model.StopTime;
 import com.csvreader.CsvReader;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import org.apache.commons.io.input.BOMInputStream;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static com.conveyal.gtfs.TestUtils.getResourceFileName;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Test suite for the GTFSFeed class.
@@ -150,4 +162,183 @@ public class GTFSFeedTest {
             );
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The columnar stop times table should hold the same stop times as the MapDB table, and interpolating times from
+     * it should give the same results as interpolating StopTime objects.
+     */
+    @Test
+    public void stopTimeTableMatchesStopTimes () throws Exception {
+        GTFSFeed feed = GTFSFeed.writableTempFileFromGtfs(getResourceFileName("fake-agency.zip"));
+        StopTimeTable stopTimeTable = StopTimeTable.fromFeed(feed);
+        assertEquals(feed.stop_times.size(), stopTimeTable.arrivalTimes.length);
+        for (String tripId : feed.trips.keySet()) {
+            int tripIndex = stopTimeTable.getTripIndex(tripId);
+            List<StopTime> stopTimes = Lists.newArrayList(feed.getOrderedStopTimesForTrip(tripId));
+            if (stopTimes.isEmpty()) {
+                assertEquals(-1, tripIndex);
+                continue;
+            }
+            assertEquals(tripId, stopTimeTable.tripIds[tripIndex]);
+            assertEquals(stopTimes.size(), stopTimeTable.getStopCount(tripIndex));
+            String[] stopIds = stopTimeTable.getStopIds(tripIndex);
+            int[] arrivals = stopTimeTable.getArrivalTimes(tripIndex);
+            int[] departures = stopTimeTable.getDepartureTimes(tripIndex);
+            int[] stopSequences = stopTimeTable.getStopSequences(tripIndex);
+            for (int s = 0; s < stopTimes.size(); s++) {
+                StopTime st = stopTimes.get(s);
+                assertEquals(st.stop_id, stopIds[s]);
+                assertEquals(st.arrival_time, arrivals[s]);
+                assertEquals(st.departure_time, departures[s]);
+                assertEquals(st.stop_sequence, stopSequences[s]);
+            }
+            feed.interpolateTimes(stopIds, arrivals, departures);
+            int s = 0;
+            for (StopTime st : feed.getInterpolatedStopTimesForTrip(tripId)) {
+                assertEquals(st.arrival_time, arrivals[s]);
+                assertEquals(st.departure_time, departures[s]);
+                s += 1;
+            }
+        }
+        assertEquals(-1, stopTimeTable.getTripIndex("no-such-trip"));
+        feed.close();
+    }
+
+    /**
+     * Stop times are sorted by (trip_id, stop_sequence) while loading, so they must come out in order regardless of
+     * their order in the file. When several rows have the same trip_id and stop_sequence, the last one in the file wins.
+     */
+    @Test
+    public void stopTimesAreSortedAndLastDuplicateWins () throws Exception {
+        String stopTimes = String.join("\n",
+                "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+                "t2,08:00:00,08:00:00,B,2",
+                "t1,07:10:00,07:10:00,B,2",
+                "t1,07:00:00,07:00:00,A,1",
+                "t2,07:50:00,07:50:00,A,1",
+                "t1,07:20:00,07:20:00,C,3",
+                "t1,07:15:00,07:15:00,B,2",
+                "t2,08:05:00,08:05:00,A,1"
+        );
+        GTFSFeed feed = GTFSFeed.newWritableInMemory();
+        feed.loadFromFile(new ZipFile(writeMinimalGtfs(stopTimes)), "test");
+        assertEquals(5, feed.stop_times.size());
+        List<StopTime> t1 = Lists.newArrayList(feed.getOrderedStopTimesForTrip("t1"));
+        assertEquals(3, t1.size());
+        assertEquals(1, t1.get(0).stop_sequence);
+        assertEquals(2, t1.get(1).stop_sequence);
+        assertEquals(3, t1.get(2).stop_sequence);
+        assertEquals(7 * 3600 + 15 * 60, t1.get(1).arrival_time);
+        List<StopTime> t2 = Lists.newArrayList(feed.getOrderedStopTimesForTrip("t2"));
+        assertEquals(2, t2.size());
+        assertEquals(8 * 3600 + 5 * 60, t2.get(0).departure_time);
+        assertEquals("B", t2.get(1).stop_id);
+        feed.close();
+    }
+
+    /**
+     * An exception on the thread parsing stop_times must reach the caller, rather than leaving the thread consuming
+     * parsed stop times waiting forever on the queue. The bad row comes after more rows than the queue can hold.
+     */
+    @Test
+    public void stopTimesParseErrorPropagates () throws Exception {
+        StringBuilder stopTimes = new StringBuilder("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+        for (int i = 0; i < 25_000; i++) {
+            stopTimes.append("t1,07:00:00,07:00:00,A,").append(i).append("\n");
+        }
+        // The CSV reader refuses to read any column longer than 100,000 characters.
+        stopTimes.append("t1,07:00:00,07:00:00,").append(Strings.repeat("A", 200_000)).append(",25000\n");
+        File gtfsFile = writeMinimalGtfs(stopTimes.toString());
+        GTFSFeed feed = GTFSFeed.newWritableInMemory();
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> {
+            assertThrows(Exception.class, () -> feed.loadFromFile(new ZipFile(gtfsFile), "test"));
+        });
+        feed.close();
+    }
+
+    /**
+     * Load more stop times than are sorted in memory at once, so the sorted runs are spilled to disk and merged. The
+     * rows are written in descending order so every run overlaps every other. Even and odd trips visit the same stops
+     * in opposite directions, so all trips should be grouped into exactly two patterns, each listing its trips in
+     * trip ID order.
+     */
+    @Test
+    public void largeFeedIsSortedAndGroupedIntoPatterns () throws Exception {
+        final int nTrips = 6_000;
+        final int nStopsPerTrip = 100;
+        StringBuilder trips = new StringBuilder("route_id,service_id,trip_id\n");
+        for (int t = 0; t < nTrips; t++) {
+            trips.append("r1,s1,").append(tripId(t)).append("\n");
+        }
+        StringBuilder stopTimes = new StringBuilder("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+        for (int t = nTrips - 1; t >= 0; t--) {
+            for (int s = nStopsPerTrip - 1; s >= 0; s--) {
+                String time = String.format("%02d:%02d:00", 6 + s / 60, s % 60);
+                stopTimes.append(tripId(t)).append(',').append(time).append(',').append(time).append(',')
+                        .append(stopIdForTrip(t, s)).append(',').append(s + 1).append('\n');
+            }
+        }
+        GTFSFeed feed = GTFSFeed.newWritableInMemory();
+        feed.loadFromFile(new ZipFile(writeMinimalGtfs(trips.toString(), stopTimes.toString())), "test");
+        assertEquals(nTrips * nStopsPerTrip, feed.stop_times.size());
+        for (int t : new int[] { 0, 1, nTrips / 2, nTrips - 1 }) {
+            List<StopTime> tripStopTimes = Lists.newArrayList(feed.getOrderedStopTimesForTrip(tripId(t)));
+            assertEquals(nStopsPerTrip, tripStopTimes.size());
+            for (int s = 0; s < nStopsPerTrip; s++) {
+                assertEquals(s + 1, tripStopTimes.get(s).stop_sequence);
+                assertEquals(stopIdForTrip(t, s), tripStopTimes.get(s).stop_id);
+            }
+        }
+        assertEquals(2, feed.patterns.size());
+        for (Pattern pattern : feed.patterns.values()) {
+            assertEquals(nTrips / 2, pattern.associatedTrips.size());
+            assertEquals(nStopsPerTrip, pattern.orderedStops.size());
+            int firstTrip = pattern.associatedTrips.get(0).equals(tripId(0)) ? 0 : 1;
+            for (int i = 0; i < pattern.associatedTrips.size(); i++) {
+                String tripId = tripId(firstTrip + 2 * i);
+                assertEquals(tripId, pattern.associatedTrips.get(i));
+                assertEquals(pattern.pattern_id, feed.patternForTrip.get(tripId));
+            }
+        }
+        feed.close();
+    }
+
+    private static String tripId (int t) {
+        return String.format("t%05d", t);
+    }
+
+    /** Even trips visit stops A, B, C, A, B... and odd trips visit them in the opposite order. */
+    private static String stopIdForTrip (int t, int s) {
+        return t % 2 == 0 ? "ABC".substring(s % 3, s % 3 + 1) : "CBA".substring(s % 3, s % 3 + 1);
+    }
+
+    /** Write a GTFS feed with two trips over three stops on one route, and the supplied stop_times.txt contents. */
+    private static File writeMinimalGtfs (String stopTimes) throws IOException {
+        return writeMinimalGtfs("route_id,service_id,trip_id\nr1,s1,t1\nr1,s1,t2\n", stopTimes);
+    }
+
+    /** Write a GTFS feed with three stops on one route, and the supplied trips.txt and stop_times.txt contents. */
+    private static File writeMinimalGtfs (String trips, String stopTimes) throws IOException {
+        File file = File.createTempFile("stop-times-test", ".zip");
+        file.deleteOnExit();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            writeZipEntry(zip, "agency.txt", "agency_id,agency_name,agency_url,agency_timezone\n" +
+                    "1,Test,http://example.com,America/New_York\n");
+            writeZipEntry(zip, "calendar.txt", "service_id,monday,tuesday,wednesday,thursday,friday,saturday," +
+                    "sunday,start_date,end_date\ns1,1,1,1,1,1,1,1,20210101,20211231\n");
+            writeZipEntry(zip, "routes.txt", "route_id,agency_id,route_short_name,route_type\nr1,1,R1,3\n");
+            writeZipEntry(zip, "stops.txt", "stop_id,stop_name,stop_lat,stop_lon\n" +
+                    "A,A,40.0,-75.0\nB,B,40.01,-75.0\nC,C,40.02,-75.0\n");
+            writeZipEntry(zip, "trips.txt", trips);
+            writeZipEntry(zip, "stop_times.txt", stopTimes + "\n");
+        }
+        return file;
+    }
+
+    private static void writeZipEntry (ZipOutputStream zip, String name, String contents) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(contents.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+}
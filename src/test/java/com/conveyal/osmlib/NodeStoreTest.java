@@ -0,0 +1,62 @@
+package com.conveyal.osmlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NodeStoreTest {
+
+    @Test
+    public void testCompactNodes () {
+        OSM mapDbOsm = new OSM(null);
+        mapDbOsm.readFromFile(RoundTripTest.TEST_FILE);
+        OSM compactOsm = new OSM(null, true);
+        compactOsm.readFromFile(RoundTripTest.TEST_FILE);
+        assertTrue(compactOsm.nodes instanceof NodeStore);
+
+        // Every node should be found with the same coordinates and tags, and iteration should return all of them.
+        assertEquals(mapDbOsm.nodes.size(), compactOsm.nodes.size());
+        for (Map.Entry<Long, Node> entry : mapDbOsm.nodes.entrySet()) {
+            assertEquals(entry.getValue(), compactOsm.nodes.get(entry.getKey()));
+        }
+        int nIterated = 0;
+        for (Map.Entry<Long, Node> entry : compactOsm.nodes.entrySet()) {
+            assertEquals(mapDbOsm.nodes.get(entry.getKey()), entry.getValue());
+            nIterated += 1;
+        }
+        assertEquals(mapDbOsm.nodes.size(), nIterated);
+        assertNull(compactOsm.nodes.get(-1L));
+        assertFalse(compactOsm.nodes.containsKey(Long.MAX_VALUE));
+        compactOsm.close();
+    }
+
+    @Test
+    public void testOutOfOrderNodes () {
+        NodeStore nodeStore = new NodeStore();
+        for (long id = 10; id < 1000; id += 3) {
+            nodeStore.put(id, new Node(id / 100.0, -id / 100.0));
+        }
+        Node tagged = new Node(1, 2);
+        tagged.addTag("highway", "traffic_signals");
+        nodeStore.put(5L, tagged);
+        nodeStore.put(13L, new Node(3, 4));
+        assertEquals(331, nodeStore.size());
+        assertEquals(tagged, nodeStore.get(5L));
+        assertEquals(new Node(3, 4), nodeStore.get(13L));
+        assertEquals(new Node(9.97, -9.97), nodeStore.get(997L));
+        assertNull(nodeStore.get(11L));
+        int nIterated = 0;
+        for (Map.Entry<Long, Node> entry : nodeStore.entrySet()) {
+            assertEquals(nodeStore.get(entry.getKey()), entry.getValue());
+            nIterated += 1;
+        }
+        assertEquals(331, nIterated);
+        nodeStore.close();
+    }
+
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.mapdb.Fun;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -37,6 +38,44 @@ public class OSMTest {
 		}
 	}
 	
+	/**
+	 * Intersection nodes should be saved alongside a disk-backed OSM, then loaded when it's reopened. If the saved
+	 * intersections are missing, rebuilding them in parallel should give the same result as detecting them on import.
+	 */
+	@Test
+	public void testSavedIntersectionNodes () throws IOException {
+		File dbFile = File.createTempFile("osm", ".mapdb");
+		dbFile.delete();
+		File intersectionsFile = new File(dbFile.getPath() + ".intersections");
+		OSM osm = new OSM(dbFile.getPath());
+		osm.intersectionDetection = true;
+		osm.readFromFile("./src/test/resources/porto_portugal.osm.pbf");
+		NodeTracker detectedOnImport = osm.intersectionNodes;
+		osm.close();
+		assertTrue(intersectionsFile.exists());
+		assertTrue(detectedOnImport.cardinality() > 0);
+
+		for (boolean deleteSavedIntersections : new boolean[] {false, true}) {
+			if (deleteSavedIntersections) {
+				intersectionsFile.delete();
+			}
+			OSM reopened = new OSM(dbFile.getPath());
+			reopened.intersectionDetection = true;
+			reopened.readFromFile("./src/test/resources/porto_portugal.osm.pbf");
+			assertEquals(detectedOnImport.cardinality(), reopened.intersectionNodes.cardinality());
+			for (Way way : reopened.ways.values()) {
+				for (long nodeId : way.nodes) {
+					assertEquals(detectedOnImport.contains(nodeId), reopened.intersectionNodes.contains(nodeId));
+				}
+			}
+			reopened.close();
+			assertTrue(intersectionsFile.exists());
+		}
+		intersectionsFile.delete();
+		dbFile.delete();
+		new File(dbFile.getPath() + ".p").delete();
+	}
+
 	@AfterEach
     public void tearDown() throws IOException{
 		Files.delete( Paths.get("./src/test/resources/tmp") );
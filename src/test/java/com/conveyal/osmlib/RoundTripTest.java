@@ -98,6 +98,26 @@ public class RoundTripTest {
 
     }
 
+    @Test
+    public void testParallelPbfInput() throws Exception {
+
+        // Read the PBF file on a single thread
+        OSM osmSequential = new OSM(null);
+        try (FileInputStream inputStream = new FileInputStream(TEST_FILE)) {
+            new PBFInput(inputStream).setThreads(1).copyTo(osmSequential);
+        }
+
+        // Read it again decoding blocks on several threads, both in file order and in any order
+        for (boolean ordered : new boolean[] {true, false}) {
+            OSM osmParallel = new OSM(null);
+            try (FileInputStream inputStream = new FileInputStream(TEST_FILE)) {
+                new PBFInput(inputStream).setThreads(4).setOrdered(ordered).copyTo(osmParallel);
+            }
+            compareOsm(osmSequential, osmParallel);
+        }
+
+    }
+
     private void compareOsm (OSM original, OSM copy) {
         System.out.println("Checking that OSM data is identical after round-trip...");
         compareMap(original.nodes, copy.nodes);
@@ -0,0 +1,364 @@
+package com.conveyal.r5.analyst;
+
+import com.conveyal.r5.common.GeometryUtils;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check that isochrones built for several cutoffs at once, or one cutoff at a time, are the same as those built by
+ * the original single-cutoff marching squares implementation, which is kept here as an independent reference.
+ */
+public class IsochroneFeatureTest {
+
+    private static final int WIDTH = 80;
+
+    private static final int HEIGHT = 70;
+
+    /** The pixel from which travel times are measured. */
+    private static final int CENTER_X = 40;
+    private static final int CENTER_Y = 35;
+
+    /** A square of unreachable pixels east of the center, which should form a hole in the larger isochrones. */
+    private static final int LAKE_MIN_X = 49;
+    private static final int LAKE_MAX_X = 55;
+    private static final int LAKE_MIN_Y = 32;
+    private static final int LAKE_MAX_Y = 38;
+
+    /** It takes this many seconds to cross one pixel. */
+    private static final int SECONDS_PER_PIXEL = 60;
+
+    @Test
+    public void testForCutoffsMatchesSingleCutoff () {
+        WebMercatorGridPointSet points = new WebMercatorGridPointSet(
+                WebMercatorGridPointSet.DEFAULT_ZOOM, 10000, 20000, WIDTH, HEIGHT, null
+        );
+        int[] times = syntheticTravelTimes();
+        // Unsorted, with a duplicate, and with one cutoff small enough that the lake only cuts a notch in its edge.
+        int[] cutoffsSec = new int[] { 1500, 600, 1800, 1500, 1200 };
+        List<IsochroneFeature> features = IsochroneFeature.forCutoffs(cutoffsSec, points, times);
+
+        assertEquals(cutoffsSec.length, features.size());
+        for (int c = 0; c < cutoffsSec.length; c++) {
+            MultiPolygon expected = referenceIsochrone(cutoffsSec[c], points, times);
+            IsochroneFeature single = new IsochroneFeature(cutoffsSec[c], points, times);
+            IsochroneFeature actual = features.get(c);
+            assertEquals(cutoffsSec[c], actual.cutoffSec);
+            assertFalse(actual.geometry.isEmpty());
+            assertTrue(expected.equalsExact(single.geometry), "Single cutoff differs for cutoff " + cutoffsSec[c]);
+            assertTrue(expected.equalsExact(actual.geometry), "Geometry differs for cutoff " + cutoffsSec[c]);
+        }
+
+        // The lake is entirely within the isochrones from 1200 seconds up, so their shells should contain a hole.
+        for (int c : new int[] { 0, 2, 3, 4 }) {
+            assertEquals(1, features.get(c).geometry.getNumGeometries());
+            Polygon polygon = (Polygon) features.get(c).geometry.getGeometryN(0);
+            assertEquals(1, polygon.getNumInteriorRing(), "Expected a hole for cutoff " + cutoffsSec[c]);
+        }
+        Polygon smallest = (Polygon) features.get(1).geometry.getGeometryN(0);
+        assertEquals(0, smallest.getNumInteriorRing());
+    }
+
+    /**
+     * @return travel times increasing with the straight line distance from the center, except across the lake which
+     *         cannot be reached at all.
+     */
+    private static int[] syntheticTravelTimes () {
+        int[] times = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                boolean inLake = x >= LAKE_MIN_X && x <= LAKE_MAX_X && y >= LAKE_MIN_Y && y <= LAKE_MAX_Y;
+                double distance = Math.hypot(x - CENTER_X, y - CENTER_Y);
+                times[y * WIDTH + x] = inLake ? Integer.MAX_VALUE : (int) (distance * SECONDS_PER_PIXEL);
+            }
+        }
+        return times;
+    }
+
+    /**
+     * The original implementation of the IsochroneFeature constructor, from before isochrones for several cutoffs
+     * were built in one pass, with only logging removed. It contours a separate grid of cell indexes for the given
+     * cutoff, and assigns holes to shells by testing them against every shell in turn.
+     */
+    private static MultiPolygon referenceIsochrone (int cutoffSec, WebMercatorGridPointSet points, int[] times) {
+        // slightly hacky, but simple: set all of the times around the edges of the pointset to MAX_VALUE so that
+        // the isochrone never runs off the edge of the display.
+        // first, protective copy
+        times = Arrays.copyOf(times, times.length);
+
+        for (int x = 0; x < points.width; x++) {
+            times[x] = Integer.MAX_VALUE;
+            times[(int) ((points.height - 1) * points.width) + x] = Integer.MAX_VALUE;
+        }
+
+        for (int y = 0; y < points.height; y++) {
+            times[(int) points.width * y] = Integer.MAX_VALUE;
+            times[(int) points.width * (y + 1) - 1] = Integer.MAX_VALUE;
+        }
+
+        // make contouring grid
+        byte[][] contour = new byte[(int) points.width - 1][(int) points.height - 1];
+        for (int y = 0; y < points.height - 1; y++) {
+            for (int x = 0; x < points.width - 1; x++) {
+                boolean topLeft = times[(int) (points.width * y + x)] < cutoffSec;
+                boolean topRight = times[(int) (points.width * y + x + 1)] < cutoffSec;
+                boolean botLeft = times[(int) (points.width * (y + 1) + x)] < cutoffSec;
+                boolean botRight = times[(int) (points.width * (y + 1) + x + 1)] < cutoffSec;
+
+                byte idx = 0;
+
+                // TODO saddle points. Do we care?
+
+                if (topLeft) idx |= 1 << 3;
+                if (topRight) idx |= 1 << 2;
+                if (botRight) idx |= 1 << 1;
+                if (botLeft) idx |= 1;
+
+                contour[x][y] = idx;
+            }
+        }
+
+        // create a geometry. For now not doing linear interpolation. Find a cell a line crosses through and
+        // follow that line.
+        List<LinearRing> outerRings = new ArrayList<>();
+        List<LinearRing> innerRings = new ArrayList<>();
+        boolean[][] found = new boolean[(int) points.width - 1][(int) points.height - 1];
+
+        for (int origy = 0; origy < points.height - 1; origy++) {
+            for (int origx = 0; origx < points.width - 1; origx++) {
+                int x = origx;
+                int y = origy;
+
+                if (found[x][y]) continue;
+
+                byte idx = contour[x][y];
+
+                // can't start at a saddle we don't know which way it goes
+                if (idx == 0 || idx == 5 || idx == 10 || idx == 15) continue;
+
+                byte prevIdx = -1;
+
+                List<Coordinate> ring = new ArrayList<>();
+
+                // keep track of clockwise/counterclockwise orientation, see http://stackoverflow.com/questions/1165647
+                int direction = 0;
+                // skip empty cells
+                int prevy = 0, prevx = 0;
+                Coordinate prevCoord = null;
+                CELLS:
+                while (true) {
+                    idx = contour[x][y];
+
+                    // check for intersecting rings, but know that saddles are supposed to self-intersect.
+                    if (found[x][y] && idx != 5 && idx != 10) {
+                        break CELLS;
+                    }
+
+                    found[x][y] = true;
+
+                    // follow line, keeping unfilled area to the left, which determines a direction
+                    // this also means that we'll be able to figure out if something is a hole by
+                    // the winding direction.
+                    if (ring.size() >= IsochroneFeature.MAX_RING_SIZE) {
+                        break CELLS;
+                    }
+
+                    // save x values here, the next iteration may need to know what they were before we messed with them
+                    // NB no bounds checking is performed below, but the next iteration of the loop will try to access contour[x][y] which
+                    // will serve as a bounds check.
+                    int startx = x;
+                    int starty = y;
+                    switch (idx) {
+                        case 0:
+                            break CELLS;
+                        case 1:
+                            x--;
+                            break;
+                        // NB: +y is down
+                        case 2:
+                            y++;
+                            break;
+                        case 3:
+                            x--;
+                            break;
+                        case 4:
+                            x++;
+                            break;
+                        case 5:
+                            if (prevy > y)
+                                // came from bottom
+                                x++;
+                            else if (prevy < y)
+                                // came from top
+                                x--;
+                            else
+                            break;
+                        case 6:
+                            y++;
+                            break;
+                        case 7:
+                            x--;
+                            break;
+                        case 8:
+                            y--;
+                            break;
+                        case 9:
+                            y--;
+                            break;
+                        case 10:
+                            if (prevx < x)
+                                // came from left
+                                y++;
+                            else if (prevx > x)
+                                // came from right
+                                y--;
+                            else {
+                                // Entered case 10 saddle point from wrong direction.
+                            }
+                            break;
+                        case 11:
+                            y--;
+                            break;
+                        case 12:
+                            x++;
+                            break;
+                        case 13:
+                            x++;
+                            break;
+                        case 14:
+                            y++;
+                            break;
+                        case 15:
+                            break CELLS;
+                    }
+
+                    // figure out from whence we came
+                    int topLeftTime = times[(int) points.width * y + x];
+                    int botLeftTime = times[(int) points.width * (y + 1) + x];
+                    int topRightTime = times[(int) points.width * y + x + 1];
+                    int botRightTime = times[(int) points.width * (y + 1) + x + 1];
+
+                    double lat, lon;
+
+                    if (startx < x) {
+                        // came from left
+                        // will always be positive, if numerator is negative denominator will be as well.
+                        double frac = (cutoffSec - topLeftTime) / (double) (botLeftTime - topLeftTime);
+                        lat = points.pixelToLat(points.north + y + frac);
+                        lon = points.pixelToLon(points.west + x);
+                    }
+                    else if (startx > x) {
+                        // came from right
+                        double frac = (cutoffSec - topRightTime) / (double) (botRightTime - topRightTime);
+                        lat = points.pixelToLat(points.north + y + frac);
+                        lon = points.pixelToLon(points.west + x + 1);
+                    }
+                    else if (starty < y) {
+                        // came from top
+                        double frac = (cutoffSec - topLeftTime) / (double) (topRightTime - topLeftTime);
+                        lat = points.pixelToLat(points.north + y);
+                        lon = points.pixelToLon(points.west + x + frac);
+                    }
+                    else {
+                        // came from bottom
+                        double frac = (cutoffSec - botLeftTime) / (botRightTime - botLeftTime);
+                        lat = points.pixelToLat(points.north + y + 1);
+                        lon = points.pixelToLon(points.west + x + frac);
+                    }
+
+                    // keep track of winding direction
+                    // http://stackoverflow.com/questions/1165647
+                    direction += (x - startx) * (y + starty);
+
+                    prevCoord = new Coordinate(lon, lat);
+                    ring.add(prevCoord);
+
+                    // this shouldn't happen
+                    if (x == startx && y == starty) {
+                        break CELLS;
+                    }
+
+                    // pass previous values to next iteration
+                    prevIdx = idx;
+                    prevx = startx;
+                    prevy = starty;
+
+                    if (x == origx && y == origy) {
+                        Coordinate end = ring.get(0);
+                        ring.add(end);
+
+                        if (ring.size() > IsochroneFeature.MIN_RING_SIZE) {
+                            LinearRing lr = GeometryUtils.geometryFactory.createLinearRing(ring.toArray(new Coordinate[ring.size()]));
+                            // direction less than 0 means clockwise (NB the y-axis is backwards), since value is to left it is an outer ring
+                            if (direction > 0) {
+                                // simplify so point in polygon test is tractable
+                                lr = (LinearRing) TopologyPreservingSimplifier.simplify(lr, 1e-3);
+                                outerRings.add(lr);
+                            } else {
+                                innerRings.add(lr);
+                            }
+                        }
+
+                        break CELLS;
+                    }
+                }
+            }
+        }
+
+        Multimap<LinearRing, LinearRing> holesForRing = HashMultimap.create();
+
+        // create polygons so we can test containment
+        Map<LinearRing, Polygon> polygonsForOuterRing = outerRings.stream().collect(Collectors.toMap(
+                r -> r,
+                r -> GeometryUtils.geometryFactory.createPolygon(r)
+        ));
+
+        Map<LinearRing, Polygon> polygonsForInnerRing = innerRings.stream().collect(Collectors.toMap(
+                r -> r,
+                r -> GeometryUtils.geometryFactory.createPolygon(r)
+        ));
+
+        // put the biggest ring first because most holes are in the biggest ring, reduces number of point in polygon tests below
+        outerRings.sort(Comparator.comparing(ring -> polygonsForOuterRing.get(ring).getArea()).reversed());
+
+        HOLES: for (Map.Entry<LinearRing, Polygon> hole : polygonsForInnerRing.entrySet()) {
+            // get rid of tiny holes
+            if (hole.getValue().getArea() < 1e-6) continue;
+
+            for (LinearRing ring : outerRings) {
+                // fine to test membership of first coordinate only since shells and holes are disjoint, and holes
+                // nest completely in shells
+                if (polygonsForOuterRing.get(ring).contains(hole.getKey().getPointN(0))) {
+                    holesForRing.put(ring, hole.getKey());
+                    continue HOLES;
+                }
+            }
+        }
+
+        Polygon[] polygons = outerRings.stream().map(shell -> {
+            Collection<LinearRing> holes = holesForRing.get(shell);
+            return GeometryUtils.geometryFactory.createPolygon(shell, holes.toArray(new LinearRing[holes.size()]));
+        }).toArray(s -> new Polygon[s]);
+
+        // first geometry has to be an outer ring, but there may be multiple outer rings
+        return GeometryUtils.geometryFactory.createMultiPolygon(polygons);
+    }
+
+}
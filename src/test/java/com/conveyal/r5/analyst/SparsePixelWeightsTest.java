@@ -0,0 +1,123 @@
+package com.conveyal.r5.analyst;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for SparsePixelWeights, which hold the proportion of each pixel covered by an aggregation area as runs of
+ * consecutive pixels in each row.
+ */
+public class SparsePixelWeightsTest {
+
+    private static final int ZOOM = 9;
+
+    @Test
+    public void testFromPixelWeights () {
+        WebMercatorExtents extents = new WebMercatorExtents(1000, 2000, 10, 10, ZOOM);
+        // Supplied out of order, with a zero weight that should split a run and a weight above one that is clamped.
+        List<Grid.PixelWeight> pixelWeights = List.of(
+                new Grid.PixelWeight(5, 3, 0.5),
+                new Grid.PixelWeight(2, 1, 0.25),
+                new Grid.PixelWeight(3, 1, 1),
+                new Grid.PixelWeight(4, 1, 0),
+                new Grid.PixelWeight(5, 1, 1.2),
+                new Grid.PixelWeight(4, 3, 0.75)
+        );
+        SparsePixelWeights weights = SparsePixelWeights.fromPixelWeights(pixelWeights, extents);
+        assertEquals(ZOOM, weights.zoom);
+        assertEquals(3, weights.nRuns());
+        assertEquals(5, weights.nPixels());
+        assertEquals(2001, weights.minY());
+        assertEquals(2003, weights.maxY());
+        assertRun(weights, 0, 1002, 2001, 0.25f, 1f);
+        assertRun(weights, 1, 1005, 2001, 1f);
+        assertRun(weights, 2, 1004, 2003, 0.75f, 0.5f);
+    }
+
+    @Test
+    public void testWriteRead () throws Exception {
+        Grid maskGrid = new Grid(ZOOM, testPolygon().getEnvelopeInternal());
+        SparsePixelWeights weights = SparsePixelWeights.fromPixelWeights(
+                maskGrid.getPixelWeights(testPolygon(), true), maskGrid.extents
+        );
+        assertTrue(weights.nRuns() > 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        weights.write(out);
+        SparsePixelWeights read = SparsePixelWeights.read(new ByteArrayInputStream(out.toByteArray()));
+        assertSameWeights(weights, read, 0);
+
+        // Areas with no pixels at all should also survive the round trip.
+        SparsePixelWeights empty = SparsePixelWeights.fromPixelWeights(List.of(), maskGrid.extents);
+        out = new ByteArrayOutputStream();
+        empty.write(out);
+        read = SparsePixelWeights.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(0, read.nRuns());
+        assertEquals(Integer.MAX_VALUE, read.minY());
+
+        byte[] notWeights = "ACCESSGR00000000".getBytes();
+        assertThrows(IllegalStateException.class, () -> SparsePixelWeights.read(new ByteArrayInputStream(notWeights)));
+    }
+
+    /**
+     * Weights recovered from the mask grid of an aggregation area created before sparse weights were stored should be
+     * the same as those stored directly, as AggregationAreaDerivation builds both from the same pixel weights.
+     */
+    @Test
+    public void testFromMaskGridMatchesPixelWeights () {
+        Polygon polygon = testPolygon();
+        Grid maskGrid = new Grid(ZOOM, polygon.getEnvelopeInternal());
+        List<Grid.PixelWeight> pixelWeights = maskGrid.getPixelWeights(polygon, true);
+        for (Grid.PixelWeight pixel : pixelWeights) {
+            maskGrid.grid[pixel.x][pixel.y] = pixel.weight * 100_000;
+        }
+        SparsePixelWeights expected = SparsePixelWeights.fromPixelWeights(pixelWeights, maskGrid.extents);
+        SparsePixelWeights fromMask = SparsePixelWeights.fromMaskGrid(maskGrid);
+        assertTrue(expected.nPixels() > 10);
+        assertSameWeights(expected, fromMask, 1e-6);
+    }
+
+    /** @return a diamond a few kilometers across, so most pixels along its edges are only partly covered. */
+    private static Polygon testPolygon () {
+        return new GeometryFactory().createPolygon(new Coordinate[] {
+                new Coordinate(-122.70, 45.48),
+                new Coordinate(-122.64, 45.52),
+                new Coordinate(-122.70, 45.56),
+                new Coordinate(-122.76, 45.52),
+                new Coordinate(-122.70, 45.48)
+        });
+    }
+
+    private static void assertRun (SparsePixelWeights weights, int run, int x, int y, float... expected) {
+        assertEquals(x, weights.runX(run));
+        assertEquals(y, weights.runY(run));
+        assertEquals(expected.length, weights.runLength(run));
+        for (int position = 0; position < expected.length; position++) {
+            assertEquals(expected[position], weights.weight(run, position));
+        }
+    }
+
+    private static void assertSameWeights (SparsePixelWeights expected, SparsePixelWeights actual, double delta) {
+        assertEquals(expected.zoom, actual.zoom);
+        assertEquals(expected.nRuns(), actual.nRuns());
+        assertEquals(expected.nPixels(), actual.nPixels());
+        for (int run = 0; run < expected.nRuns(); run++) {
+            assertEquals(expected.runX(run), actual.runX(run));
+            assertEquals(expected.runY(run), actual.runY(run));
+            assertEquals(expected.runLength(run), actual.runLength(run));
+            for (int position = 0; position < expected.runLength(run); position++) {
+                assertEquals(expected.weight(run, position), actual.weight(run, position), delta);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.conveyal.r5.analyst.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Check that regional results streamed from workers to the broker are decoded with the same contents.
+ */
+public class RegionalWorkResultCodecTest {
+
+    @Test
+    public void testRoundTrip () throws Exception {
+        RegionalWorkResult accessibility = new RegionalWorkResult();
+        accessibility.jobId = "job";
+        accessibility.taskId = 12;
+        accessibility.accessibilityValues = new int[][][] {{{1, 2, 3}, {4, 5, 6}}, {{7, 8, 9}, {10, 11, 12}}};
+
+        RegionalWorkResult travelTimes = new RegionalWorkResult();
+        travelTimes.jobId = "job";
+        travelTimes.taskId = 13;
+        travelTimes.travelTimeValues = new int[][] {{15, Integer.MAX_VALUE}, {20, 30}};
+
+        RegionalWorkResult error = new RegionalWorkResult();
+        error.jobId = "jöb";
+        error.taskId = 14;
+        error.error = "Something went wrong ✗";
+
+        List<RegionalWorkResult> results = List.of(accessibility, travelTimes, error);
+        WorkerStatus workerStatus = new WorkerStatus();
+        workerStatus.workerId = "worker";
+        workerStatus.networks.add("network");
+        workerStatus.tasksPerMinuteByJobId = Map.of("job", 120);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        RegionalWorkResultCodec.write(workerStatus, results, outputStream);
+        WorkerStatus decodedStatus = RegionalWorkResultCodec.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        List<RegionalWorkResult> decoded = decodedStatus.results;
+
+        assertEquals("worker", decodedStatus.workerId);
+        assertEquals(Set.of("network"), decodedStatus.networks);
+        assertEquals(Map.of("job", 120), decodedStatus.tasksPerMinuteByJobId);
+        assertEquals(3, decoded.size());
+        for (int i = 0; i < results.size(); i++) {
+            RegionalWorkResult expected = results.get(i);
+            RegionalWorkResult actual = decoded.get(i);
+            assertEquals(expected.jobId, actual.jobId);
+            assertEquals(expected.taskId, actual.taskId);
+            assertEquals(expected.error, actual.error);
+            assertArrayEquals(expected.travelTimeValues, actual.travelTimeValues);
+            assertArrayEquals(expected.accessibilityValues, actual.accessibilityValues);
+            assertNull(actual.pathResult);
+        }
+
+        // A stream cut off part way through yields an exception rather than the results decoded so far.
+        byte[] truncated = Arrays.copyOf(outputStream.toByteArray(), outputStream.size() - 10);
+        assertThrows(EOFException.class, () -> RegionalWorkResultCodec.read(new ByteArrayInputStream(truncated)));
+
+        RegionalWorkResult paths = new RegionalWorkResult();
+        paths.pathResult = pathsToDestinations(1);
+        assertFalse(RegionalWorkResultCodec.canEncode(paths));
+    }
+
+    /** An empty list of path summaries for each destination, like those produced by PathResult. */
+    private static ArrayList<String[]>[] pathsToDestinations (int nDestinations) {
+        @SuppressWarnings("unchecked")
+        ArrayList<String[]>[] paths = new ArrayList[nDestinations];
+        for (int d = 0; d < nDestinations; d++) {
+            paths[d] = new ArrayList<>();
+        }
+        return paths;
+    }
+
+}
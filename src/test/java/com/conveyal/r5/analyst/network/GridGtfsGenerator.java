@@ -166,6 +166,9 @@ public class GridGtfsGenerator {
             stopTime.arrival_time = arrivalTime;
             stopTime.departure_time = departureTime;
             stopTime.trip_id = tripId;
+            if (route.noPickupStops.contains(stopInRoute)) {
+                stopTime.pickup_type = 1;
+            }
             feed.stop_times.put(new Fun.Tuple2<>(tripId, stopTime.stop_sequence), stopTime);
             if (stopSequence < route.nStops - 1) {
                 int hopTime = (int) route.hopTime(new GridRoute.TripHop(tripIndex, stopSequence));
@@ -138,9 +138,14 @@ public class GridLayout {
         gtfs.close();
     }
 
-    /** Add an east-west route at the given row of the grid, running at the default speed and the given headway. */
-    public void addHorizontalRoute (int row, int headwayMinutes) {
-        this.routes.add(GridRoute.newHorizontalRoute(this, row, headwayMinutes));
+    /**
+     * Add an east-west route at the given row of the grid, running at the default speed and the given headway.
+     * @return the new route, so its stops can be adjusted before the network is generated.
+     */
+    public GridRoute addHorizontalRoute (int row, int headwayMinutes) {
+        GridRoute route = GridRoute.newHorizontalRoute(this, row, headwayMinutes);
+        this.routes.add(route);
+        return route;
     }
 
     /** Add an east-west route at the given row of the grid, running at the default speed. Explicit schedules must be
@@ -1,9 +1,11 @@
 package com.conveyal.r5.analyst.network;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Stream;
 
 /**
@@ -46,6 +48,9 @@ public class GridRoute {
 
     public List<Timetable> timetables = new ArrayList<>();
 
+    /** Indexes of stops along this route (in the forward direction) where passengers may not board. */
+    public Set<Integer> noPickupStops = new HashSet<>();
+
     private Stream<String> stopIds() {
         return null;
     }
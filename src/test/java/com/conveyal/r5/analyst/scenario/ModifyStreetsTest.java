@@ -10,6 +10,8 @@ import com.conveyal.r5.api.util.TransitModes;
 import com.conveyal.r5.profile.StreetMode;
 import com.conveyal.r5.streets.EdgeStore.Edge;
 import com.conveyal.r5.streets.EdgeStore.EdgeFlag;
+import com.conveyal.r5.streets.EgressCostTable;
+import com.conveyal.r5.streets.LinkedPointSet;
 import com.conveyal.r5.streets.StreetLayer;
 import com.conveyal.r5.streets.StreetRouter;
 import com.conveyal.r5.transit.TransportNetwork;
@@ -20,9 +22,13 @@ import org.locationtech.jts.geom.Envelope;
 
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 
 import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
 import static com.conveyal.r5.streets.EdgeStore.intToLts;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -100,6 +106,68 @@ public class ModifyStreetsTest {
         return streetRouter.getReachedVertices();
     }
 
+    /**
+     * Egress cost tables for a scenario are built by reusing the baseline tables for stops whose searches could not be
+     * affected by the modified streets. Check that the result is identical to building all the tables from scratch.
+     */
+    @Test
+    public void testIncrementalEgressCostTables () {
+        TransportNetwork network = buildNetwork(TransitNetwork.MULTIPLE_LINES);
+        WebMercatorGridPointSet pointSet = new WebMercatorGridPointSet(network);
+        EgressCostTable baseTable = network.linkageCache
+                .getLinkage(pointSet, network.streetLayer, StreetMode.BICYCLE)
+                .getEgressCostTable();
+
+        ModifyStreets mod = new ModifyStreets();
+        mod.allowedModes = EnumSet.of(StreetMode.WALK);
+        mod.polygons = makeModificationPolygon(FROM_LON, FROM_LAT, SIZE_DEGREES / 5);
+        TransportNetwork modifiedNetwork = applySingleModification(network, mod);
+
+        LinkedPointSet incrementalLinkage = modifiedNetwork.linkageCache
+                .getLinkage(pointSet, modifiedNetwork.streetLayer, StreetMode.BICYCLE);
+        assertSame(network.linkageCache.getLinkage(pointSet, network.streetLayer, StreetMode.BICYCLE),
+                incrementalLinkage.baseLinkage);
+        EgressCostTable incrementalTable = incrementalLinkage.getEgressCostTable();
+        EgressCostTable fullTable = new LinkedPointSet(pointSet, modifiedNetwork.streetLayer, StreetMode.BICYCLE, null)
+                .getEgressCostTable();
+
+        int nStops = modifiedNetwork.transitLayer.getStopCount();
+        int nChanged = 0;
+        for (int s = 0; s < nStops; s++) {
+            int[] expected = fullTable.stopToPointLinkageCostTables.get(s);
+            assertArrayEquals(expected, incrementalTable.stopToPointLinkageCostTables.get(s));
+            if (!Arrays.equals(expected, baseTable.stopToPointLinkageCostTables.get(s))) {
+                nChanged += 1;
+            }
+        }
+        assertTrue(nChanged > 0);
+    }
+
+    /**
+     * Speeds of baseline edges can be changed in place by a scenario (as RoadCongestion does). Only the edges whose
+     * speeds actually changed should be reported as changed, without affecting the baseline network.
+     */
+    @Test
+    public void testChangedBaseEdgeSpeeds () {
+        TransportNetwork network = buildNetwork(TransitNetwork.SINGLE_LINE);
+        ModifyStreets mod = new ModifyStreets();
+        mod.allowedModes = EnumSet.of(StreetMode.WALK);
+        mod.polygons = makeModificationPolygon(FROM_LON, FROM_LAT, SIZE_DEGREES / 5);
+        StreetLayer streetLayer = applySingleModification(network, mod).streetLayer;
+        int nChangedByModification = streetLayer.scenarioChangedEdgeEnvelopes().size();
+
+        Edge edge = streetLayer.edgeStore.getCursor(0);
+        short baseSpeed = edge.getSpeed();
+        edge.setSpeed(baseSpeed);
+        assertEquals(nChangedByModification, streetLayer.scenarioChangedEdgeEnvelopes().size());
+        edge.setSpeed((short) (baseSpeed / 2));
+        List<Envelope> changed = streetLayer.scenarioChangedEdgeEnvelopes();
+        assertEquals(nChangedByModification + 1, changed.size());
+        assertTrue(changed.contains(edge.getEnvelope()));
+        assertEquals(baseSpeed, network.streetLayer.edgeStore.getCursor(0).getSpeed());
+        assertTrue(network.streetLayer.scenarioChangedEdgeEnvelopes().isEmpty());
+    }
+
     /**
      * Test that our LTS labeling process, as well as street modifications, do not set more than one LTS value on a
      * single edge. The LTS is stored as bit flags, so even though LTS values are mutually exclusive it is technically
@@ -0,0 +1,81 @@
+package com.conveyal.r5.kryo;
+
+import com.conveyal.r5.analyst.scenario.FakeGraph;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.streets.EdgeStore;
+import com.conveyal.r5.streets.StreetRouter;
+import com.conveyal.r5.streets.VertexStore;
+import com.conveyal.r5.transit.TransportNetwork;
+import com.conveyal.r5.trove.IntArrayBufferList;
+import gnu.trove.map.TIntIntMap;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static com.conveyal.r5.analyst.scenario.FakeGraph.buildNetwork;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests that a TransportNetwork saved in the memory-mapped format is loaded with the same contents, and can be routed on.
+ */
+public class MappedNetworkSerializerTest {
+
+    @Test
+    public void testRoundTrip () throws Exception {
+        TransportNetwork originalNetwork = buildNetwork(FakeGraph.TransitNetwork.MULTIPLE_LINES);
+        originalNetwork.rebuildLinkedGridPointSet(StreetMode.WALK);
+
+        File tempFile = File.createTempFile("r5-mapped-serialization-test-", ".mapped");
+        tempFile.deleteOnExit();
+        MappedNetworkSerializer.write(originalNetwork, tempFile);
+        TransportNetwork mappedNetwork = MappedNetworkSerializer.read(tempFile);
+
+        EdgeStore originalEdges = originalNetwork.streetLayer.edgeStore;
+        EdgeStore mappedEdges = mappedNetwork.streetLayer.edgeStore;
+        assertEquals(originalEdges.nEdges(), mappedEdges.nEdges());
+        assertArrayEquals(originalEdges.flags.toArray(), mappedEdges.flags.toArray());
+        assertArrayEquals(originalEdges.speeds.toArray(), mappedEdges.speeds.toArray());
+        assertArrayEquals(originalEdges.fromVertices.toArray(), mappedEdges.fromVertices.toArray());
+        assertArrayEquals(originalEdges.toVertices.toArray(), mappedEdges.toVertices.toArray());
+        assertArrayEquals(originalEdges.lengths_mm.toArray(), mappedEdges.lengths_mm.toArray());
+        assertArrayEquals(originalEdges.osmids.toArray(), mappedEdges.osmids.toArray());
+        assertArrayEquals(originalEdges.streetClasses.toArray(), mappedEdges.streetClasses.toArray());
+        assertArrayEquals(originalEdges.inAngles.toArray(), mappedEdges.inAngles.toArray());
+        assertArrayEquals(originalEdges.outAngles.toArray(), mappedEdges.outAngles.toArray());
+        assertEquals(originalEdges.geometries.size(), mappedEdges.geometries.size());
+        for (int i = 0; i < originalEdges.geometries.size(); i++) {
+            int[] geometry = originalEdges.geometries.get(i);
+            assertArrayEquals(geometry, mappedEdges.geometries.get(i));
+            // Geometries can also be read in place without copying them.
+            assertEquals(geometry.length, IntArrayBufferList.size(mappedEdges.geometries, i));
+            for (int j = 0; j < geometry.length; j++) {
+                assertEquals(geometry[j], IntArrayBufferList.get(mappedEdges.geometries, i, j));
+            }
+        }
+
+        VertexStore originalVertices = originalNetwork.streetLayer.vertexStore;
+        VertexStore mappedVertices = mappedNetwork.streetLayer.vertexStore;
+        assertArrayEquals(originalVertices.fixedLats.toArray(), mappedVertices.fixedLats.toArray());
+        assertArrayEquals(originalVertices.fixedLons.toArray(), mappedVertices.fixedLons.toArray());
+        assertArrayEquals(originalVertices.vertexFlags.toArray(), mappedVertices.vertexFlags.toArray());
+
+        assertEquals(originalNetwork.transitLayer.getStopCount(), mappedNetwork.transitLayer.getStopCount());
+        assertEquals(walkToStops(originalNetwork), walkToStops(mappedNetwork));
+
+        // The mapped lists are read-only views of the file.
+        assertThrows(UnsupportedOperationException.class, () -> mappedEdges.flags.set(0, 0));
+    }
+
+    private static TIntIntMap walkToStops (TransportNetwork network) {
+        StreetRouter streetRouter = new StreetRouter(network.streetLayer);
+        streetRouter.distanceLimitMeters = 2000;
+        streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS;
+        VertexStore.Vertex vertex = network.streetLayer.vertexStore.getCursor(0);
+        streetRouter.setOrigin(vertex.getLat(), vertex.getLon());
+        streetRouter.route();
+        return streetRouter.getReachedStops();
+    }
+
+}
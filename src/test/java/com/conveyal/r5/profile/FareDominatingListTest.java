@@ -0,0 +1,146 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.analyst.fare.FareBounds;
+import com.conveyal.r5.analyst.fare.TransferAllowance;
+import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter.McRaptorState;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check which states the FareDominatingList retains, and in which order. The states are created with their fares
+ * already set, so no fare calculator is needed.
+ */
+public class FareDominatingListTest {
+
+    private static final int MAX_FARE = 1000;
+    private static final int MAX_CLOCK_TIME = 10_000;
+
+    @Test
+    public void testEqualStatesKeepFirst () {
+        FareDominatingList list = newList();
+        McRaptorState first = state(100, 200);
+        McRaptorState second = state(100, 200);
+        assertTrue(list.add(first));
+        assertFalse(list.add(second));
+        assertStates(list, first);
+    }
+
+    @Test
+    public void testLimits () {
+        FareDominatingList list = newList();
+        assertFalse(list.add(state(MAX_CLOCK_TIME + 1, 0)));
+        assertFalse(list.add(state(100, MAX_FARE + 1)));
+        // The fare paid may exceed the maximum as long as the transfer allowance brings the consumed value under it.
+        McRaptorState withAllowance = state(100, MAX_FARE + 1, new TransferAllowance(10, 1, MAX_CLOCK_TIME));
+        assertTrue(list.add(withAllowance));
+        assertStates(list, withAllowance);
+    }
+
+    /** A new state that dominates several retained states removes them, and the others stay in their order. */
+    @Test
+    public void testDominatingStateRemovesSeveral () {
+        FareDominatingList list = newList();
+        McRaptorState s1 = state(100, 400);
+        McRaptorState s2 = state(110, 300);
+        // Not dominated below because its transfer allowance could make later rides cheaper.
+        McRaptorState s3 = state(120, 200, new TransferAllowance(150, 1, MAX_CLOCK_TIME));
+        McRaptorState s4 = state(130, 160);
+        for (McRaptorState s : new McRaptorState[] { s1, s2, s3, s4 }) {
+            assertTrue(list.add(s));
+        }
+        assertStates(list, s1, s2, s3, s4);
+
+        McRaptorState dominating = state(105, 150);
+        assertTrue(list.add(dominating));
+        assertStates(list, s1, s3, dominating);
+    }
+
+    /**
+     * Theorem 3.2 of Conway and Stewart (2019): at the same time and fare paid, a state whose transfer allowance is at
+     * least as good for all future redemptions dominates, even though its fare paid exceeds the other state's fare paid
+     * minus its transfer allowance.
+     */
+    @Test
+    public void testTransferAllowanceDominance () {
+        FareDominatingList list = newList();
+        McRaptorState existing = state(100, 200, new TransferAllowance(100, 1, 5000));
+        assertTrue(list.add(existing));
+
+        // A smaller transfer allowance, otherwise equal: dominated by the existing state.
+        assertFalse(list.add(state(100, 200, new TransferAllowance(50, 1, 5000))));
+        // A transfer allowance of the same value that expires earlier or allows fewer transfers: also dominated.
+        assertFalse(list.add(state(100, 200, new TransferAllowance(100, 1, 4000))));
+        assertFalse(list.add(state(100, 200, new TransferAllowance(100, 0, 5000))));
+        assertStates(list, existing);
+
+        // A larger transfer allowance, otherwise equal: replaces the existing state.
+        McRaptorState better = state(100, 200, new TransferAllowance(150, 1, 5000));
+        assertTrue(list.add(better));
+        assertStates(list, better);
+
+        // Allowances that are each better in some way are not comparable, so both states are retained.
+        McRaptorState laterExpiration = state(100, 200, new TransferAllowance(120, 1, 6000));
+        assertTrue(list.add(laterExpiration));
+        assertStates(list, better, laterExpiration);
+    }
+
+    /** The primitive arrays start with room for four states and must grow to hold more. */
+    @Test
+    public void testManyStates () {
+        FareDominatingList list = newList();
+        List<McRaptorState> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            // Each state is later but cheaper than the previous one, so none dominates another.
+            McRaptorState s = state(100 + i * 10, 500 - i * 10);
+            assertTrue(list.add(s));
+            expected.add(s);
+        }
+        assertStates(list, expected.toArray(new McRaptorState[0]));
+
+        // Dominated by the last state, and compared after all the others.
+        assertFalse(list.add(state(195, 410)));
+        assertStates(list, expected.toArray(new McRaptorState[0]));
+
+        // Dominates every other state but the first two.
+        McRaptorState dominating = state(120, 400);
+        assertTrue(list.add(dominating));
+        assertStates(list, expected.get(0), expected.get(1), dominating);
+
+        // The arrays must still be consistent with the states after compaction.
+        McRaptorState later = state(200, 300);
+        assertTrue(list.add(later));
+        assertFalse(list.add(state(205, 300)));
+        assertStates(list, expected.get(0), expected.get(1), dominating, later);
+    }
+
+    private static FareDominatingList newList () {
+        return new FareDominatingList(null, MAX_FARE, MAX_CLOCK_TIME);
+    }
+
+    private static McRaptorState state (int time, int farePaid) {
+        return state(time, farePaid, new TransferAllowance());
+    }
+
+    private static McRaptorState state (int time, int farePaid, TransferAllowance transferAllowance) {
+        McRaptorState state = new McRaptorState();
+        state.time = time;
+        state.fare = new FareBounds(farePaid, transferAllowance);
+        return state;
+    }
+
+    private static void assertStates (FareDominatingList list, McRaptorState... expected) {
+        List<McRaptorState> actual = new ArrayList<>(list.getNonDominatedStates());
+        assertEquals(expected.length, actual.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], actual.get(i), "Unexpected state at position " + i);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.streets.StreetRouter;
+import com.conveyal.r5.transit.TransportNetwork;
+import gnu.trove.map.TIntIntMap;
+import org.junit.jupiter.api.Test;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs FastRaptorWorker directly on small synthetic grid networks, to check that optimizations that should not affect
+ * output leave the travel times to stops unchanged.
+ */
+public class FastRaptorWorkerTest {
+
+    /**
+     * Splitting the departure time window into sub-windows searched in parallel should not change travel times on a
+     * purely scheduled network without overtaking, as range-RAPTOR reuse is only an optimization in that case. The
+     * number of sub-windows is set explicitly so they are used whatever the number of processors on the machine.
+     */
+    @Test
+    public void testGridScheduledParallelSubWindows () {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 100);
+        gridLayout.addHorizontalRoute(20, 20);
+        gridLayout.addHorizontalRoute(40, 20);
+        gridLayout.addVerticalRoute(40, 20);
+        TransportNetwork network = gridLayout.generateNetwork();
+
+        AnalysisWorkerTask task = gridLayout.newTaskBuilder()
+                .weekdayMorningPeak()
+                .setOrigin(20, 20)
+                .build();
+        TIntIntMap accessStops = walkTimesToStops(network, task);
+
+        FastRaptorWorker sequential = new FastRaptorWorker(network.transitLayer, task, accessStops);
+        sequential.nSubWindows = 1;
+        int[][] sequentialTravelTimes = sequential.route();
+
+        FastRaptorWorker parallel = new FastRaptorWorker(network.transitLayer, task, accessStops);
+        parallel.nSubWindows = 4;
+        int[][] parallelTravelTimes = parallel.route();
+
+        assertEquals(task.getTimeWindowLengthMinutes(), sequentialTravelTimes.length);
+        assertArrayEquals(sequentialTravelTimes, parallelTravelTimes);
+    }
+
+    /**
+     * Skipping stops reached too late to ride anywhere within the travel time cutoff must not lose any stop that can be
+     * reached within the cutoff. Pruning skips far more stops with a short cutoff than with a long one, so travel times
+     * with a short cutoff should be exactly those with a long cutoff that fall within the short one. One route forbids
+     * boarding at the transfer point so some stops can only be left by the other route, which has a longer ride.
+     */
+    @Test
+    public void testMinRidePruningKeepsStopsWithinCutoff () {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 100);
+        gridLayout.addHorizontalRoute(20, 20);
+        gridLayout.addHorizontalRoute(40, 20).noPickupStops.add(40);
+        gridLayout.addVerticalRoute(40, 20);
+        TransportNetwork network = gridLayout.generateNetwork();
+
+        AnalysisWorkerTask task = gridLayout.newTaskBuilder()
+                .weekdayMorningPeak()
+                .setOrigin(20, 20)
+                .build();
+        TIntIntMap accessStops = walkTimesToStops(network, task);
+
+        task.maxTripDurationMinutes = 120;
+        int[][] longCutoffTravelTimes = new FastRaptorWorker(network.transitLayer, task, accessStops).route();
+        task.maxTripDurationMinutes = 45;
+        int[][] shortCutoffTravelTimes = new FastRaptorWorker(network.transitLayer, task, accessStops).route();
+
+        int shortCutoffSeconds = task.maxTripDurationMinutes * 60;
+        int nBeyondShortCutoff = 0;
+        for (int[] travelTimes : longCutoffTravelTimes) {
+            for (int s = 0; s < travelTimes.length; s++) {
+                if (travelTimes[s] >= shortCutoffSeconds && travelTimes[s] != UNREACHED) {
+                    travelTimes[s] = UNREACHED;
+                    nBeyondShortCutoff += 1;
+                }
+            }
+        }
+        assertTrue(nBeyondShortCutoff > 0, "Some stops should only be reached beyond the short cutoff.");
+        assertArrayEquals(longCutoffTravelTimes, shortCutoffTravelTimes);
+    }
+
+    /** Walk from the task origin to nearby transit stops, returning the number of seconds to reach each one. */
+    static TIntIntMap walkTimesToStops (TransportNetwork network, AnalysisWorkerTask task) {
+        StreetRouter streetRouter = new StreetRouter(network.streetLayer);
+        streetRouter.profileRequest = task;
+        streetRouter.timeLimitSeconds = 20 * 60;
+        streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+        assertTrue(streetRouter.setOrigin(task.fromLat, task.fromLon));
+        streetRouter.route();
+        return streetRouter.getReachedStops();
+    }
+
+}
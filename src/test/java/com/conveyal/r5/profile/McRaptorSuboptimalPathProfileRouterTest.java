@@ -0,0 +1,227 @@
+package com.conveyal.r5.profile;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.fare.FareBounds;
+import com.conveyal.r5.analyst.fare.InRoutingFareCalculator;
+import com.conveyal.r5.analyst.fare.SimpleInRoutingFareCalculator;
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.api.util.LegMode;
+import com.conveyal.r5.profile.McRaptorSuboptimalPathProfileRouter.McRaptorState;
+import com.conveyal.r5.streets.StreetRouter;
+import com.conveyal.r5.transit.TransportNetwork;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fare-aware McRAPTOR searches on a small synthetic grid network, checking that different ways of organizing the
+ * search (sequential or in parallel sub-windows of departure times, with optimized or reference fare dominance) all
+ * give the same results.
+ */
+public class McRaptorSuboptimalPathProfileRouterTest {
+
+    private static GridLayout gridLayout;
+    private static TransportNetwork network;
+
+    @BeforeAll
+    public static void buildNetwork () {
+        gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 100);
+        gridLayout.addHorizontalRoute(20, 20);
+        gridLayout.addHorizontalRoute(40, 20);
+        gridLayout.addVerticalRoute(40, 20);
+        network = gridLayout.generateNetwork();
+    }
+
+    /**
+     * Searching groups of departure times on several threads should give exactly the same travel times at stops and
+     * the same states at the destination as searching them all in order on one thread. This also calls the same fare
+     * calculator from several threads at once.
+     */
+    @Test
+    public void testSubWindowsMatchSequentialSearch () {
+        McRaptorSuboptimalPathProfileRouter sequential = makeRouter(newTask());
+        sequential.route();
+
+        McRaptorSuboptimalPathProfileRouter parallel = makeRouter(newTask());
+        parallel.nSubWindows = 4;
+        parallel.route();
+
+        int[][] sequentialTimes = sequential.getBestTimes();
+        assertEquals(20, sequentialTimes.length);
+        assertTrue(hasReachedStop(sequentialTimes), "Search should reach some stops by transit.");
+        assertArrayEquals(sequentialTimes, parallel.getBestTimes());
+        assertFalse(sequential.finalStatesByDepartureTime.isEmpty());
+        assertEquals(describe(sequential.finalStatesByDepartureTime), describe(parallel.finalStatesByDepartureTime));
+    }
+
+    /**
+     * The fare-aware dominating list and collator avoid recomputing fares and compact their retained states in place.
+     * They should give the same travel times as straightforward implementations that recompute the fare every time and
+     * remove dominated states from a linked list, as FareDominatingList and the collator did originally.
+     */
+    @Test
+    public void testFareDominanceMatchesReferenceImplementation () {
+        AnalysisWorkerTask task = newTask();
+        McRaptorSuboptimalPathProfileRouter router = makeRouter(task);
+        router.route();
+
+        AnalysisWorkerTask referenceTask = newTask();
+        McRaptorSuboptimalPathProfileRouter reference = makeRouter(referenceTask,
+                (departureTime) -> new ReferenceFareDominatingList(referenceTask.inRoutingFareCalculator,
+                        referenceTask.maxFare,
+                        departureTime + referenceTask.maxTripDurationMinutes * FastRaptorWorker.SECONDS_PER_MINUTE),
+                referenceCollator(referenceTask));
+        reference.route();
+
+        int[][] bestTimes = router.getBestTimes();
+        assertTrue(hasReachedStop(bestTimes), "Search should reach some stops by transit.");
+        assertArrayEquals(reference.getBestTimes(), bestTimes);
+        assertEquals(describe(reference.finalStatesByDepartureTime), describe(router.finalStatesByDepartureTime));
+    }
+
+    /** A task from one stop on the grid to another, with a small number of draws to keep McRAPTOR fast. */
+    private static AnalysisWorkerTask newTask () {
+        AnalysisWorkerTask task = gridLayout.newTaskBuilder()
+                .weekdayMorningPeak()
+                .departureTimeWindow(7, 0, 60)
+                .setOrigin(20, 20)
+                .setDestination(40, 40)
+                .monteCarloDraws(20)
+                .build();
+        SimpleInRoutingFareCalculator fareCalculator = new SimpleInRoutingFareCalculator();
+        fareCalculator.fare = 100;
+        fareCalculator.transitLayer = network.transitLayer;
+        task.inRoutingFareCalculator = fareCalculator;
+        task.maxFare = 200;
+        return task;
+    }
+
+    /** A router that both collates travel times at stops and saves the final states at the destination. */
+    private static McRaptorSuboptimalPathProfileRouter makeRouter (AnalysisWorkerTask task) {
+        IntFunction<DominatingList> listSupplier = (departureTime) -> new FareDominatingList(
+                task.inRoutingFareCalculator,
+                task.maxFare,
+                departureTime + task.maxTripDurationMinutes * FastRaptorWorker.SECONDS_PER_MINUTE);
+        return makeRouter(task, listSupplier, InRoutingFareCalculator.getCollator(task));
+    }
+
+    private static McRaptorSuboptimalPathProfileRouter makeRouter (AnalysisWorkerTask task,
+            IntFunction<DominatingList> listSupplier, InRoutingFareCalculator.Collater collater) {
+        return new McRaptorSuboptimalPathProfileRouter(network, task,
+                walkTimesToStops(task, task.fromLat, task.fromLon),
+                walkTimesToStops(task, task.toLat, task.toLon),
+                listSupplier, collater, true);
+    }
+
+    private static Map<LegMode, TIntIntMap> walkTimesToStops (ProfileRequest request, double lat, double lon) {
+        StreetRouter streetRouter = new StreetRouter(network.streetLayer);
+        streetRouter.profileRequest = request;
+        streetRouter.timeLimitSeconds = 20 * 60;
+        streetRouter.quantityToMinimize = StreetRouter.State.RoutingVariable.DURATION_SECONDS;
+        assertTrue(streetRouter.setOrigin(lat, lon));
+        streetRouter.route();
+        Map<LegMode, TIntIntMap> times = new HashMap<>();
+        times.put(LegMode.WALK, streetRouter.getReachedStops());
+        return times;
+    }
+
+    private static boolean hasReachedStop (int[][] timesAtStops) {
+        for (int[] timesThisIteration : timesAtStops) {
+            for (int time : timesThisIteration) {
+                if (time != FastRaptorWorker.UNREACHED) return true;
+            }
+        }
+        return false;
+    }
+
+    /** McRaptorStates do not implement equals, so compare the sequence of rides and times leading to each of them. */
+    private static Map<Integer, List<String>> describe (TIntObjectMap<Collection<McRaptorState>> statesByDepartureTime) {
+        Map<Integer, List<String>> descriptions = new HashMap<>();
+        statesByDepartureTime.forEachEntry((departureTime, states) -> {
+            List<String> stateDescriptions = new ArrayList<>();
+            for (McRaptorState state : states) {
+                StringBuilder sb = new StringBuilder();
+                for (McRaptorState s = state; s != null; s = s.back) {
+                    sb.append(String.format("p%d t%d s%d %d-%d; ", s.pattern, s.trip, s.stop, s.boardTime, s.time));
+                }
+                stateDescriptions.add(sb.toString());
+            }
+            descriptions.put(departureTime, stateDescriptions);
+            return true;
+        });
+        return descriptions;
+    }
+
+    /** Collates the best time at a stop within the fare limit, always recomputing the fare of each state. */
+    private static InRoutingFareCalculator.Collater referenceCollator (ProfileRequest request) {
+        return (states, maxClockTime) -> {
+            int best = FastRaptorWorker.UNREACHED;
+            for (McRaptorState state : states) {
+                FareBounds fare = request.inRoutingFareCalculator.calculateFare(state, maxClockTime);
+                if (fare.cumulativeFarePaid <= request.maxFare && state.time < best) best = state.time;
+            }
+            return best;
+        };
+    }
+
+    /** Retains pareto-optimal states on time and fare by comparing them one at a time in a linked list. */
+    private static class ReferenceFareDominatingList implements DominatingList {
+        private final InRoutingFareCalculator fareCalculator;
+        private final int maxFare;
+        private final int maxClockTime;
+        private final LinkedList<McRaptorState> states = new LinkedList<>();
+
+        ReferenceFareDominatingList (InRoutingFareCalculator fareCalculator, int maxFare, int maxClockTime) {
+            this.fareCalculator = fareCalculator;
+            this.maxFare = maxFare;
+            this.maxClockTime = maxClockTime;
+        }
+
+        private static boolean betterOrEqual (McRaptorState dominator, McRaptorState dominatee) {
+            int dominateeConsumedValue = dominatee.fare.cumulativeFarePaid - dominatee.fare.transferAllowance.value;
+            if (dominator.time <= dominatee.time) {
+                if (dominator.fare.cumulativeFarePaid <= dominateeConsumedValue) return true;
+                return dominator.fare.cumulativeFarePaid <= dominatee.fare.cumulativeFarePaid &&
+                        dominator.fare.transferAllowance.atLeastAsGoodForAllFutureRedemptions(
+                                dominatee.fare.transferAllowance);
+            }
+            return false;
+        }
+
+        @Override
+        public boolean add (McRaptorState newState) {
+            if (newState.time > maxClockTime) return false;
+            if (newState.fare == null) newState.fare = fareCalculator.calculateFare(newState, maxClockTime);
+            if (newState.fare.cumulativeFarePaid - newState.fare.transferAllowance.value > maxFare) return false;
+            for (Iterator<McRaptorState> it = states.iterator(); it.hasNext();) {
+                McRaptorState existing = it.next();
+                if (betterOrEqual(existing, newState)) return false;
+                if (betterOrEqual(newState, existing)) it.remove();
+            }
+            states.add(newState);
+            return true;
+        }
+
+        @Override
+        public Collection<McRaptorState> getNonDominatedStates () {
+            return states;
+        }
+    }
+
+}
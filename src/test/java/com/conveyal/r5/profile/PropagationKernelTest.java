@@ -0,0 +1,63 @@
+package com.conveyal.r5.profile;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.conveyal.r5.profile.FastRaptorWorker.UNREACHED;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Check that the tiled propagation kernel gives exactly the same results as the original stop-by-stop kernel,
+ * including at the edges of iteration blocks and with unreachable stops and targets.
+ */
+public class PropagationKernelTest {
+
+    @Test
+    public void tiledKernelMatchesStopByStop () {
+        final int nStops = 50;
+        final int nNearbyStops = 20;
+        final int maxTravelTimeSeconds = 60 * 60;
+        // Not a multiple of the block size or the unrolling factor.
+        final int nIterations = PropagationKernel.ITERATION_BLOCK_SIZE * 2 + 7;
+        Random random = new Random(42);
+
+        int[][] timesToStops = new int[nStops][nIterations];
+        for (int[] timesToStop : timesToStops) {
+            for (int i = 0; i < nIterations; i++) {
+                timesToStop[i] = random.nextInt(10) == 0 ? UNREACHED : random.nextInt(maxTravelTimeSeconds * 2);
+            }
+        }
+        int[] stops = new int[nNearbyStops];
+        int[] egressSeconds = new int[nNearbyStops];
+        for (int s = 0; s < nNearbyStops; s++) {
+            stops[s] = random.nextInt(nStops);
+            egressSeconds[s] = random.nextInt(20 * 60);
+        }
+        int[] initialTimes = new int[nIterations];
+        for (int i = 0; i < nIterations; i++) {
+            initialTimes[i] = random.nextInt(3) == 0 ? UNREACHED : random.nextInt(maxTravelTimeSeconds * 2);
+        }
+
+        int[] expected = Arrays.copyOf(initialTimes, nIterations);
+        for (int s = 0; s < nNearbyStops; s++) {
+            PropagationKernel.propagateStopByStop(
+                    timesToStops[stops[s]], egressSeconds[s], maxTravelTimeSeconds, expected
+            );
+        }
+
+        // The tiled kernel requires travel times to be clamped to the maximum, as PerTargetPropagater does.
+        int[][] clampedTimesToStops = new int[nStops][];
+        for (int stop = 0; stop < nStops; stop++) {
+            clampedTimesToStops[stop] = Arrays.stream(timesToStops[stop])
+                    .map(t -> Math.min(t, maxTravelTimeSeconds)).toArray();
+        }
+        int[] actual = Arrays.copyOf(initialTimes, nIterations);
+        PropagationKernel.propagateTiled(
+                clampedTimesToStops, stops, egressSeconds, nNearbyStops, maxTravelTimeSeconds, actual
+        );
+        assertArrayEquals(expected, actual);
+    }
+
+}
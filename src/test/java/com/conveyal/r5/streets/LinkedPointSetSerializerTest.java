@@ -0,0 +1,71 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Check that a linkage and its egress cost tables are read back from the saved binary format with the same contents.
+ */
+public class LinkedPointSetSerializerTest {
+
+    @Test
+    public void testRoundTrip () throws Exception {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 20);
+        gridLayout.addHorizontalRoute(10, 10);
+        gridLayout.addVerticalRoute(10, 10);
+        TransportNetwork network = gridLayout.generateNetwork();
+
+        LinkedPointSet original = network.linkageCache.getLinkage(
+                network.fullExtentGridPointSet, network.streetLayer, StreetMode.BICYCLE
+        );
+        EgressCostTable originalCosts = original.getEgressCostTable();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        LinkedPointSetSerializer.write(original, outputStream);
+        LinkedPointSet copy = LinkedPointSetSerializer.read(
+                new ByteArrayInputStream(outputStream.toByteArray()),
+                network.fullExtentGridPointSet,
+                network.streetLayer,
+                StreetMode.BICYCLE
+        );
+
+        assertNull(copy.baseLinkage);
+        assertArrayEquals(original.edges, copy.edges);
+        assertArrayEquals(original.distancesToEdge_mm, copy.distancesToEdge_mm);
+        assertArrayEquals(original.distances0_mm, copy.distances0_mm);
+        assertArrayEquals(original.distances1_mm, copy.distances1_mm);
+
+        EgressCostTable copiedCosts = copy.getEgressCostTable();
+        assertSame(copy, copiedCosts.linkedPointSet);
+        assertEquals(originalCosts.linkageCostUnit, copiedCosts.linkageCostUnit);
+        assertArrayEquals(originalCosts.egressStopDelaysSeconds, copiedCosts.egressStopDelaysSeconds);
+        assertEquals(originalCosts.stopToPointLinkageCostTables.size(), copiedCosts.stopToPointLinkageCostTables.size());
+        for (int s = 0; s < originalCosts.stopToPointLinkageCostTables.size(); s++) {
+            assertArrayEquals(
+                    originalCosts.stopToPointLinkageCostTables.get(s),
+                    copiedCosts.stopToPointLinkageCostTables.get(s)
+            );
+        }
+
+        // A saved linkage must not be reused for a different street mode.
+        assertThrows(IllegalStateException.class, () -> LinkedPointSetSerializer.read(
+                new ByteArrayInputStream(outputStream.toByteArray()),
+                network.fullExtentGridPointSet,
+                network.streetLayer,
+                StreetMode.CAR
+        ));
+    }
+
+}
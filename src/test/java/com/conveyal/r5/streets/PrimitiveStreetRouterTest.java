@@ -0,0 +1,134 @@
+package com.conveyal.r5.streets;
+
+import com.conveyal.r5.analyst.cluster.AnalysisWorkerTask;
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.profile.StreetMode;
+import com.conveyal.r5.transit.TransportNetwork;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check that the allocation-free PrimitiveStreetRouter produces exactly the same results as the State-based
+ * StreetRouter, for the kinds of searches performed in analysis.
+ */
+public class PrimitiveStreetRouterTest {
+
+    private static GridLayout gridLayout;
+
+    private static TransportNetwork network;
+
+    private static AnalysisWorkerTask task;
+
+    @BeforeAll
+    public static void buildNetwork () {
+        gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 40);
+        gridLayout.addHorizontalRoute(20, 10);
+        gridLayout.addVerticalRoute(20, 10);
+        network = gridLayout.generateNetwork();
+        task = gridLayout.newTaskBuilder().weekdayMorningPeak().setOrigin(13, 17).build();
+    }
+
+    @Test
+    public void accessSearchesMatch () {
+        for (StreetMode streetMode : new StreetMode[] { StreetMode.WALK, StreetMode.BICYCLE, StreetMode.CAR }) {
+            OneToManyStreetRouter expected = accessSearch(new StreetRouter(network.streetLayer), streetMode);
+            OneToManyStreetRouter actual = accessSearch(new PrimitiveStreetRouter(network.streetLayer), streetMode);
+            assertFalse(expected.getReachedStops().isEmpty());
+            assertEquals(expected.getReachedStops(), actual.getReachedStops());
+            assertEquals(expected.getReachedVertices(), actual.getReachedVertices());
+            for (int v = 0; v < network.streetLayer.getVertexCount(); v++) {
+                assertEquals(expected.getTravelTimeToVertex(v), actual.getTravelTimeToVertex(v));
+            }
+            actual.release();
+        }
+    }
+
+    @Test
+    public void distanceSearchesMatch () {
+        OneToManyStreetRouter expected = distanceSearch(new StreetRouter(network.streetLayer));
+        OneToManyStreetRouter actual = distanceSearch(new PrimitiveStreetRouter(network.streetLayer));
+        assertEquals(expected.getReachedVertices(), actual.getReachedVertices());
+        actual.release();
+    }
+
+    /** Search state left behind by one router must not leak into the results of the next one on the same thread. */
+    @Test
+    public void reusedStateIsCleared () {
+        OneToManyStreetRouter expected = accessSearch(new StreetRouter(network.streetLayer), StreetMode.WALK);
+        accessSearch(new PrimitiveStreetRouter(network.streetLayer), StreetMode.CAR).release();
+        OneToManyStreetRouter actual = accessSearch(new PrimitiveStreetRouter(network.streetLayer), StreetMode.WALK);
+        assertEquals(expected.getReachedVertices(), actual.getReachedVertices());
+        actual.release();
+    }
+
+    /**
+     * Search state is held by the street layer for reuse, and taken back out of its pool by the next router. The pool
+     * keeps at most one set of arrays per processor.
+     */
+    @Test
+    public void searchStateIsPooledOnStreetLayer () {
+        StreetLayer streetLayer = gridLayout.generateNetwork().streetLayer;
+        int nPooled = Math.min(2, Runtime.getRuntime().availableProcessors());
+        assertEquals(0, streetLayer.edgeStatesPool.size());
+        PrimitiveStreetRouter first = new PrimitiveStreetRouter(streetLayer);
+        PrimitiveStreetRouter second = new PrimitiveStreetRouter(streetLayer);
+        first.release();
+        second.release();
+        assertEquals(nPooled, streetLayer.edgeStatesPool.size());
+        // Releasing twice must not add the same arrays to the pool again.
+        second.release();
+        assertEquals(nPooled, streetLayer.edgeStatesPool.size());
+        PrimitiveStreetRouter third = new PrimitiveStreetRouter(streetLayer);
+        assertEquals(nPooled - 1, streetLayer.edgeStatesPool.size());
+        third.release();
+        assertEquals(nPooled, streetLayer.edgeStatesPool.size());
+    }
+
+    @Test
+    public void createChoosesRouterForMode () {
+        assertTrue(OneToManyStreetRouter.create(network.streetLayer, StreetMode.CAR) instanceof PrimitiveStreetRouter);
+        StreetLayer restricted = gridLayout.generateNetwork().streetLayer;
+        restricted.turnRestrictions.add(new TurnRestriction());
+        assertTrue(OneToManyStreetRouter.create(restricted, StreetMode.WALK) instanceof PrimitiveStreetRouter);
+        assertTrue(OneToManyStreetRouter.create(restricted, StreetMode.CAR) instanceof StreetRouter);
+    }
+
+    @Test
+    public void turnRestrictionsRequireStateBasedRouter () {
+        assertTrue(PrimitiveStreetRouter.supports(network.streetLayer, StreetMode.CAR));
+        StreetLayer restricted = new StreetLayer();
+        restricted.turnRestrictions.add(new TurnRestriction());
+        assertTrue(PrimitiveStreetRouter.supports(restricted, StreetMode.WALK));
+        assertFalse(PrimitiveStreetRouter.supports(restricted, StreetMode.CAR));
+    }
+
+    /** Perform a search like the access searches in TravelTimeComputer, continuing on foot for non-walk modes. */
+    private static OneToManyStreetRouter accessSearch (OneToManyStreetRouter router, StreetMode streetMode) {
+        router.setProfileRequest(task);
+        router.setStreetMode(streetMode);
+        router.setTimeLimitSeconds(task.getMaxTimeSeconds(streetMode));
+        router.setQuantityToMinimize(StreetRouter.State.RoutingVariable.DURATION_SECONDS);
+        assertTrue(router.setOrigin(task.fromLat, task.fromLon));
+        router.route();
+        if (streetMode != StreetMode.WALK) {
+            router.keepRoutingOnFoot();
+        }
+        return router;
+    }
+
+    /** Perform a search like those used to build bicycle egress cost tables. */
+    private static OneToManyStreetRouter distanceSearch (OneToManyStreetRouter router) {
+        router.setStreetMode(StreetMode.BICYCLE);
+        router.setDistanceLimitMeters(2000);
+        router.setQuantityToMinimize(StreetRouter.State.RoutingVariable.DISTANCE_MILLIMETERS);
+        assertTrue(router.setOrigin(task.fromLat, task.fromLon));
+        router.route();
+        return router;
+    }
+
+}
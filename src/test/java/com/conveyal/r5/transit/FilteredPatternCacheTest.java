@@ -0,0 +1,73 @@
+package com.conveyal.r5.transit;
+
+import com.conveyal.gtfs.model.Trip;
+import com.conveyal.r5.analyst.network.GridLayout;
+import com.conveyal.r5.api.util.TransitModes;
+import gnu.trove.list.array.TIntArrayList;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.EnumSet;
+
+import static com.conveyal.r5.analyst.network.GridGtfsGenerator.WEEKDAY_DATE;
+import static com.conveyal.r5.analyst.network.GridGtfsGenerator.WEEKEND_DATE;
+import static com.conveyal.r5.analyst.network.SimpsonDesertTests.SIMPSON_DESERT_CORNER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Check that filtered patterns are cached on the date and time window of the search, and that trips that cannot be
+ * used within that window are removed.
+ */
+public class FilteredPatternCacheTest {
+
+    /** Trips that depart entirely before or after the search window should be removed. */
+    @Test
+    public void testTimeWindowFiltering () {
+        TripPattern pattern = new TripPattern(new TIntArrayList(new int[] { 0, 1 }));
+        int[] starts = new int[] { 6 * 60 * 60, 7 * 60 * 60, 8 * 60 * 60, 9 * 60 * 60 };
+        for (int start : starts) {
+            int[] times = new int[] { start, start + 600 };
+            Trip trip = new Trip();
+            trip.feed_id = "FEED";
+            trip.trip_id = "TRIP" + start;
+            pattern.addTrip(TripSchedule.create(trip, times, times, null, new int[] { 1, 2 }, 0));
+        }
+        BitSet services = new BitSet();
+        services.set(0);
+        FilteredPattern filteredPattern = new FilteredPattern(pattern, services, 7 * 60 * 60 + 600, 9 * 60 * 60);
+        assertEquals(1, filteredPattern.runningScheduledTrips.size());
+        assertEquals(8 * 60 * 60, filteredPattern.runningScheduledTrips.get(0).departures[0]);
+    }
+
+    /**
+     * Requests with the same modes, date and time window should share one FilteredPatterns, while a different date or
+     * window gets its own. The grid routes only run on weekday mornings, so patterns are only flagged as running when
+     * the window overlaps those trips.
+     */
+    @Test
+    public void testCacheKeyedOnDateAndTimeWindow () {
+        GridLayout gridLayout = new GridLayout(SIMPSON_DESERT_CORNER, 100);
+        gridLayout.addHorizontalRoute(20, 20);
+        gridLayout.addVerticalRoute(40, 20);
+        TransitLayer transitLayer = gridLayout.generateNetwork().transitLayer;
+        FilteredPatternCache cache = transitLayer.filteredPatternCache;
+        EnumSet<TransitModes> modes = EnumSet.allOf(TransitModes.class);
+
+        FilteredPatterns morning = cache.get(modes, WEEKDAY_DATE, 7 * 60 * 60, 9 * 60 * 60);
+        assertSame(morning, cache.get(EnumSet.allOf(TransitModes.class), WEEKDAY_DATE, 7 * 60 * 60, 9 * 60 * 60));
+        assertFalse(morning.runningScheduledPatterns.isEmpty());
+
+        FilteredPatterns afternoon = cache.get(modes, WEEKDAY_DATE, 13 * 60 * 60, 15 * 60 * 60);
+        assertNotSame(morning, afternoon);
+        assertTrue(afternoon.runningScheduledPatterns.isEmpty());
+
+        FilteredPatterns weekend = cache.get(modes, WEEKEND_DATE, 7 * 60 * 60, 9 * 60 * 60);
+        assertNotSame(morning, weekend);
+        assertTrue(weekend.runningScheduledPatterns.isEmpty());
+    }
+
+}
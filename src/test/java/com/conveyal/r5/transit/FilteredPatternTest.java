@@ -0,0 +1,52 @@
+package com.conveyal.r5.transit;
+
+import com.conveyal.gtfs.model.Trip;
+import gnu.trove.list.array.TIntArrayList;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FilteredPatternTest {
+
+    /**
+     * Check the binary and galloping departure searches against a brute force linear scan, on a pattern with several
+     * trips departing at exactly the same time.
+     */
+    @Test
+    public void testFindEarliestDeparture () {
+        TripPattern pattern = new TripPattern(new TIntArrayList(new int[] { 0, 1, 2 }));
+        for (int t = 0; t < 40; t++) {
+            int start = 6 * 60 * 60 + (t / 2) * 5 * 60;
+            int[] times = new int[] { start, start + 120, start + 300 };
+            Trip trip = new Trip();
+            trip.feed_id = "FEED";
+            trip.trip_id = "TRIP" + t;
+            pattern.addTrip(TripSchedule.create(trip, times, times, null, new int[] { 1, 2, 3 }, 0));
+        }
+        BitSet services = new BitSet();
+        services.set(0);
+        FilteredPattern filteredPattern = new FilteredPattern(pattern, services, 0, 24 * 60 * 60);
+        assertTrue(filteredPattern.noScheduledOvertaking);
+        List<TripSchedule> trips = filteredPattern.runningScheduledTrips;
+        for (int stop = 0; stop < 3; stop++) {
+            for (int time = 6 * 60 * 60 - 60; time < 8 * 60 * 60; time += 30) {
+                for (int upperBound = -1; upperBound < trips.size(); upperBound++) {
+                    int limit = upperBound < 0 ? trips.size() : upperBound + 1;
+                    int expected = -1;
+                    for (int t = 0; t < limit; t++) {
+                        if (trips.get(t).departures[stop] > time) {
+                            expected = t;
+                            break;
+                        }
+                    }
+                    assertEquals(expected, filteredPattern.findEarliestDeparture(stop, time, upperBound));
+                }
+            }
+        }
+    }
+
+}
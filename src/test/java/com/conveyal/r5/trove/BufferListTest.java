@@ -0,0 +1,96 @@
+package com.conveyal.r5.trove;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.TIntList;
+import org.junit.jupiter.api.Test;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Lists too long for a single buffer are split across several. Check that they read the same as one long array, even
+ * when a read crosses from one buffer to the next. The buffers here are tiny, but are split the same way.
+ */
+public class BufferListTest {
+
+    @Test
+    public void testListSplitAcrossBuffers () {
+        int[] values = IntStream.range(0, 10).map(i -> i * 3).toArray();
+        TIntBufferList list = splitInts(values, 4);
+        assertEquals(values.length, list.size());
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], list.get(i));
+        }
+        assertArrayEquals(values, list.toArray());
+        assertArrayEquals(new int[] { 9, 12, 15, 18, 21 }, list.toArray(3, 5));
+        assertEquals(7, list.indexOf(21));
+        TIntIterator iterator = list.iterator();
+        for (int value : values) {
+            assertEquals(value, iterator.next());
+        }
+        assertFalse(iterator.hasNext());
+
+        LongBuffer first = LongBuffer.wrap(new long[] { 1, 2 });
+        LongBuffer last = LongBuffer.wrap(new long[] { 3 });
+        assertArrayEquals(new long[] { 1, 2, 3 }, new TLongBufferList(first, last).toArray());
+
+        // Every buffer but the last must hold the same power of two number of elements.
+        assertThrows(IllegalArgumentException.class,
+                () -> new TIntBufferList(IntBuffer.allocate(3), IntBuffer.allocate(3)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new TIntBufferList(IntBuffer.allocate(4), IntBuffer.allocate(2), IntBuffer.allocate(2)));
+    }
+
+    @Test
+    public void testReadOnly () {
+        TIntList list = new TIntBufferList(IntBuffer.wrap(new int[] { 1, 2, 3 }));
+        assertThrows(UnsupportedOperationException.class, () -> list.set(0, 5));
+        assertThrows(UnsupportedOperationException.class, () -> list.add(new int[] { 5 }));
+        assertThrows(UnsupportedOperationException.class, () -> list.addAll(new int[] { 5 }));
+        assertThrows(UnsupportedOperationException.class, () -> list.clear());
+        assertArrayEquals(new int[] { 1, 2, 3 }, list.toArray());
+    }
+
+    /** Arrays are read in place or copied the same way when their values span several buffers. */
+    @Test
+    public void testIntArraysSplitAcrossBuffers () {
+        int[][] arrays = new int[][] { { 1, 2 }, { }, { 3, 4, 5, 6, 7 }, { 8 } };
+        int[] offsets = new int[arrays.length + 1];
+        for (int a = 0; a < arrays.length; a++) {
+            offsets[a + 1] = offsets[a] + arrays[a].length;
+        }
+        int[] values = IntStream.rangeClosed(1, 8).toArray();
+        IntArrayBufferList list = new IntArrayBufferList(splitInts(offsets, 2), splitInts(values, 2));
+        AugmentedList<int[]> augmented = new AugmentedList<>(list);
+        augmented.add(new int[] { 9, 10 });
+        assertEquals(arrays.length, list.size());
+        for (int a = 0; a < arrays.length; a++) {
+            assertArrayEquals(arrays[a], list.get(a));
+            assertEquals(arrays[a].length, list.size(a));
+            assertEquals(arrays[a].length, IntArrayBufferList.size(augmented, a));
+            for (int i = 0; i < arrays[a].length; i++) {
+                assertEquals(arrays[a][i], list.get(a, i));
+                assertEquals(arrays[a][i], IntArrayBufferList.get(augmented, a, i));
+            }
+        }
+        assertEquals(2, IntArrayBufferList.size(augmented, arrays.length));
+        assertEquals(10, IntArrayBufferList.get(augmented, arrays.length, 1));
+    }
+
+    /** @return a list of the given values, split into buffers holding the given number of values. */
+    private static TIntBufferList splitInts (int[] values, int valuesPerBuffer) {
+        IntBuffer[] buffers = new IntBuffer[values.length / valuesPerBuffer + 1];
+        for (int b = 0; b < buffers.length; b++) {
+            int start = b * valuesPerBuffer;
+            buffers[b] = IntBuffer.wrap(values, start, Math.min(valuesPerBuffer, values.length - start)).slice();
+        }
+        return new TIntBufferList(buffers);
+    }
+
+}